@@ -0,0 +1,99 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package benchmark.java.uk.ac.babraham.BamQC;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.babraham.BamQC.Analysis.AnalysisListener;
+import uk.ac.babraham.BamQC.Analysis.AnalysisRunner;
+import uk.ac.babraham.BamQC.Modules.ModuleFactory;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * End to end throughput of an analysis with the standard modules, in records per second.
+ * The report is not written. The annotation is given with the bamqc.gff_file property,
+ * e.g. -Dbamqc.gff_file=genes.gtf in the jvmArgs, as for the command line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalysisRunnerBenchmark {
+
+	private static final int READS = 500000;
+
+	@Param({"true", "false"})
+	public boolean sorted;
+
+	private File bam;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		bam = BenchmarkData.writeBam(READS, 42, sorted);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public QCModule [] analysis() throws Exception {
+		SequenceFile file = SequenceFactory.getSequenceFile(bam);
+		AnalysisRunner runner = new AnalysisRunner(file);
+		final Exception [] exception = new Exception[1];
+		runner.addAnalysisListener(new AnalysisListener() {
+			@Override
+			public void analysisStarted(SequenceFile file) { }
+			@Override
+			public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) { }
+			@Override
+			public void analysisComplete(SequenceFile file, QCModule[] results) { }
+			@Override
+			public void analysisExceptionReceived(SequenceFile file, Exception e) {
+				exception[0] = e;
+			}
+		});
+		QCModule [] modules = ModuleFactory.getStandardModuleList();
+		runner.runAnalysis(modules);
+		if (exception[0] != null) throw exception[0];
+		return modules;
+	}
+
+}
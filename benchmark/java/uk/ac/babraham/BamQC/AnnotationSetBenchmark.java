@@ -0,0 +1,113 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package benchmark.java.uk.ac.babraham.BamQC;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.babraham.BamQC.AnnotationParsers.GTFAnnotationParser;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.FeatureClass;
+import uk.ac.babraham.BamQC.DataTypes.Genome.FeatureSubclass;
+import uk.ac.babraham.BamQC.DataTypes.Genome.ShortRead;
+
+/**
+ * Throughput of the annotation of the reads, in reads per second. The annotation has
+ * one gene every geneSpacing bases, so that the density of the features can be varied.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationSetBenchmark {
+
+	private static final int READS = 100000;
+
+	@Param({"10000", "100000"})
+	public int geneSpacing;
+
+	@Param({"true", "false"})
+	public boolean sorted;
+
+	private SAMRecord [] reads;
+	private ShortRead [] shortReads;
+	private AnnotationSet annotationSet;
+	private FeatureSubclass geneSubclass;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		SAMFileHeader header = BenchmarkData.header(sorted);
+		List<SAMRecord> list = BenchmarkData.reads(header, READS, 42, sorted);
+		reads = list.toArray(new SAMRecord[0]);
+		shortReads = new ShortRead[reads.length];
+		for (int i=0; i<reads.length; i++) {
+			shortReads[i] = new ShortRead(reads[i].getReferenceName(), reads[i].getAlignmentStart(), reads[i].getAlignmentEnd());
+		}
+
+		File gtf = BenchmarkData.writeGtf(geneSpacing);
+		annotationSet = new AnnotationSet();
+		new GTFAnnotationParser().parseAnnotation(annotationSet, gtf);
+		FeatureClass genes = annotationSet.getFeatureClassForType("gene");
+		geneSubclass = genes.getSubclassForName(genes.getSubclassNames()[0]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public void annotationSetProcessSequence() {
+		for (int i=0; i<reads.length; i++) {
+			annotationSet.processSequence(reads[i]);
+		}
+		annotationSet.flushCache();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int featureSubclassProcessSequence() {
+		for (int i=0; i<shortReads.length; i++) {
+			geneSubclass.processSequence(shortReads[i]);
+		}
+		return geneSubclass.count();
+	}
+
+}
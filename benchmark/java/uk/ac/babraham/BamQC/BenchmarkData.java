@@ -0,0 +1,95 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package benchmark.java.uk.ac.babraham.BamQC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+
+/**
+ * Builds the synthetic reads, BAM and GTF files used by the benchmarks with the
+ * SyntheticDataGenerator of the test tree. The data only depend on the seed, so that
+ * runs of the benchmarks are comparable. Reads are 100bp long with MD tags, with
+ * mismatches, indels, soft clipped and spliced reads and a few unmapped reads.
+ */
+public class BenchmarkData {
+
+	public static SyntheticDataGenerator generator(int count, long seed, boolean sorted) {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(seed, count);
+		generator.sorted = sorted;
+		generator.spliceRate = 0.05;
+		return generator;
+	}
+
+	public static SAMFileHeader header(boolean sorted) {
+		return generator(0, 0, sorted).header();
+	}
+
+	/**
+	 * Builds the reads in memory.
+	 * @param header the header returned by header()
+	 * @param count the number of reads
+	 * @param seed the random seed
+	 * @param sorted whether the reads are coordinate sorted
+	 */
+	public static List<SAMRecord> reads(SAMFileHeader header, int count, long seed, boolean sorted) {
+		List<SAMRecord> reads = new ArrayList<SAMRecord>(count);
+		Iterator<SAMRecord> it = generator(count, seed, sorted).records(header);
+		while (it.hasNext()) {
+			reads.add(it.next());
+		}
+		return reads;
+	}
+
+	/**
+	 * Writes the reads to a temporary BAM file, which is deleted on exit.
+	 */
+	public static File writeBam(int count, long seed, boolean sorted) throws IOException {
+		File bam = File.createTempFile("bamqc_benchmark", ".bam");
+		bam.deleteOnExit();
+		generator(count, seed, sorted).writeBam(bam);
+		return bam;
+	}
+
+	/**
+	 * Writes a temporary GTF file with a gene every geneSpacing bases on average. 
+	 * It is deleted on exit.
+	 */
+	public static File writeGtf(int geneSpacing) throws IOException {
+		File gtf = File.createTempFile("bamqc_benchmark", ".gtf");
+		gtf.deleteOnExit();
+		SyntheticDataGenerator generator = generator(0, 0, true);
+		generator.genesPerMb = 1000000d / geneSpacing;
+		generator.writeGtf(gtf);
+		return gtf;
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package benchmark.java.uk.ac.babraham.BamQC;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMDGenerator;
+
+/**
+ * Throughput of the CigarMD computation and of the variant call detection, in reads per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CigarMDBenchmark {
+
+	private static final int READS = 100000;
+
+	private SAMRecord [] reads;
+	private CigarMDGenerator cigarMDGenerator;
+	private VariantCallDetection variantCallDetection;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SAMFileHeader header = BenchmarkData.header(false);
+		List<SAMRecord> list = BenchmarkData.reads(header, READS, 42, false);
+		reads = list.toArray(new SAMRecord[0]);
+		cigarMDGenerator = new CigarMDGenerator();
+		variantCallDetection = new VariantCallDetection();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public void generateCigarMD(Blackhole blackhole) {
+		for (int i=0; i<reads.length; i++) {
+			cigarMDGenerator.generateCigarMD(reads[i]);
+			blackhole.consume(cigarMDGenerator.getCigarMD());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public long variantCallDetection() {
+		for (int i=0; i<reads.length; i++) {
+			variantCallDetection.processSequence(reads[i]);
+		}
+		return variantCallDetection.getTotalReads();
+	}
+
+}
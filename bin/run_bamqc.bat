@@ -0,0 +1 @@
+java -Xmx250m -classpath .;./sam-1.103.jar;./jbzip2-0.9.jar;./hamcrest-core-1.3.jar;./junit-4.11.jar;./log4j-1.2.16.jar;./commons-lang3-3.4.jar;./commons-math3-3.5.jar uk.ac.babraham.BamQC.BamQCApplication
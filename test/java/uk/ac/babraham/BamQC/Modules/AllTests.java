@@ -33,16 +33,34 @@ import org.junit.internal.TextListener;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+	AnalysisRunnerTest.class,
+	AnnotationCacheTest.class,
 	BasicStatisticsTest.class,
+	CRAMFileTest.class,
+	CheckpointTest.class,
 	ChromosomeDensityTest.class,
+	DepthDistributionTest.class,
 	FeatureCoverageTest.class,
 	GenomeCoverageTest.class,
 	InsertLengthDistributionTest.class,
+	LogLimiterTest.class,
+	MetricsSinkTest.class,
 	MappingQualityDistributionTest.class,
+	MergeableModuleTest.class,
+	ModuleProfilerTest.class,
+	MultiSequenceFileTest.class,
 	NormalDistributionModelerTest.class,
+	ReferenceFastaTest.class,
+	ResultCacheTest.class,
 	RpkmReferenceTest.class,
+	SAMTextParserTest.class,
+	SavedResultsTest.class,
+	SamplingTest.class,
 	SequenceQualityDistributionTest.class,	
 	SoftClipDistributionTest.class,
+	StreamInputTest.class,
+	SyntheticDataGeneratorTest.class,
+	TargetCoverageTest.class,
 	VariantCallDetectionTest.class
 	})
 
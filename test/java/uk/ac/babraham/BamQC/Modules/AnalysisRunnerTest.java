@@ -0,0 +1,119 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.Analysis.AnalysisListener;
+import uk.ac.babraham.BamQC.Analysis.AnalysisQueue;
+import uk.ac.babraham.BamQC.Analysis.AnalysisRunner;
+import uk.ac.babraham.BamQC.Modules.ModuleFactory;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests that an analysis which fails releases its slot of the AnalysisQueue.
+ */
+public class AnalysisRunnerTest {
+
+	private static Logger log = Logger.getLogger(AnalysisRunnerTest.class);
+	
+	/**
+	 * Records how an analysis ended.
+	 */
+	private static class EndListener implements AnalysisListener {
+		private CountDownLatch end = new CountDownLatch(1);
+		private volatile boolean complete = false;
+		private volatile Exception exception = null;
+		
+		@Override
+		public void analysisStarted(SequenceFile file) {}
+		
+		@Override
+		public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {}
+		
+		@Override
+		public void analysisComplete(SequenceFile file, QCModule[] results) {
+			complete = true;
+			end.countDown();
+		}
+		
+		@Override
+		public void analysisExceptionReceived(SequenceFile file, Exception e) {
+			exception = e;
+			end.countDown();
+		}
+	}
+	
+	private static EndListener startAnalysis(File file) throws Exception {
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file, null, 0);
+		AnalysisRunner runner = new AnalysisRunner(sequenceFile);
+		EndListener listener = new EndListener();
+		runner.addAnalysisListener(listener);
+		runner.startAnalysis(ModuleFactory.getStandardModuleList());
+		return listener;
+	}
+
+	@Test
+	public void testTruncatedBam() throws Exception {
+		System.out.println("Running test AnalysisRunnerTest.testTruncatedBam");
+		log.info("Running test AnalysisRunnerTest.testTruncatedBam");
+		
+		File bam = File.createTempFile("bamqc_test", ".bam");
+		bam.deleteOnExit();
+		new SyntheticDataGenerator(1, 20000).writeBam(bam);
+		RandomAccessFile raf = new RandomAccessFile(bam, "rw");
+		raf.setLength(raf.length() / 2);
+		raf.close();
+		
+		// The reader fails with an unchecked exception in the middle of the file
+		EndListener truncated = startAnalysis(bam);
+		assertTrue("The failed analysis never ended", truncated.end.await(60, TimeUnit.SECONDS));
+		assertFalse(truncated.complete);
+		assertNotNull(truncated.exception);
+		
+		// The next analysis gets the slot of the failed one
+		EndListener valid = startAnalysis(new File(new File("").getAbsolutePath() + "/test/resources/example_annot.sam"));
+		assertTrue("The next analysis never ended", valid.end.await(60, TimeUnit.SECONDS));
+		assertTrue(valid.complete);
+		
+		long end = System.currentTimeMillis() + 10000;
+		while (AnalysisQueue.getInstance().getActiveRunners() > 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, AnalysisQueue.getInstance().getActiveRunners());
+		bam.delete();
+	}
+
+}
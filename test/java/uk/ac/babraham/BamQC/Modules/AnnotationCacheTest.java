@@ -0,0 +1,148 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Analysis.AnalysisListener;
+import uk.ac.babraham.BamQC.Analysis.AnalysisRunner;
+import uk.ac.babraham.BamQC.Analysis.AnnotationCache;
+import uk.ac.babraham.BamQC.Modules.BasicStatistics;
+import uk.ac.babraham.BamQC.Modules.ChromosomeReadDensity;
+import uk.ac.babraham.BamQC.Modules.DepthDistribution;
+import uk.ac.babraham.BamQC.Modules.FeatureCoverage;
+import uk.ac.babraham.BamQC.Modules.GenomeCoverage;
+import uk.ac.babraham.BamQC.Modules.ModuleFactory;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests that an annotation set taken from the AnnotationCache, which was reset 
+ * after the analysis of a file, gives the same results as a freshly parsed one.
+ */
+public class AnnotationCacheTest {
+
+	private static Logger log = Logger.getLogger(AnnotationCacheTest.class);
+	
+	private static File resource(String name) {
+		return new File(new File("").getAbsolutePath() + "/test/resources/" + name);
+	}
+	
+	/**
+	 * The values of the modules which see the annotation set, as they are 
+	 * when the report is written.
+	 */
+	private static List<String> results(QCModule [] modules) {
+		List<String> results = new ArrayList<String>();
+		for (QCModule module : modules) {
+			if (module instanceof FeatureCoverage) {
+				FeatureCoverage featureCoverage = (FeatureCoverage)module;
+				results.add("features "+Arrays.toString(featureCoverage.getFeatureNames())+" "+Arrays.toString(featureCoverage.getReadCounts()));
+			}
+			else if (module instanceof ChromosomeReadDensity) {
+				ChromosomeReadDensity density = (ChromosomeReadDensity)module;
+				results.add("density "+Arrays.toString(density.getChromosomeNames())+" "+Arrays.toString(density.getLogReadNumber())+" "+Arrays.toString(density.getLogChromosomeLength()));
+			}
+			else if (module instanceof GenomeCoverage) {
+				GenomeCoverage coverage = (GenomeCoverage)module;
+				results.add("coverage "+Arrays.toString(coverage.getChromosomeNames())+" "+Arrays.toString(coverage.getCoverage()));
+			}
+			else if (module instanceof DepthDistribution) {
+				DepthDistribution depth = (DepthDistribution)module;
+				results.add("depth "+depth.getTotalPositions()+" "+Arrays.toString(depth.getDepthCounts()));
+			}
+			else if (module instanceof BasicStatistics) {
+				BasicStatistics statistics = (BasicStatistics)module;
+				results.add("statistics "+statistics.getFeatureTypeCount()+" "+statistics.getChromosomeCount()+" "+statistics.getActualCount()+" "+statistics.getTotalSplicedReads());
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Analyses a file with the given annotation and returns the results of the modules.
+	 */
+	private static List<String> analyse(File file, File annotation, AnnotationCache annotationCache) throws Exception {
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file, null, 0);
+		AnalysisRunner runner = new AnalysisRunner(sequenceFile);
+		runner.setAnnotation(annotation, null, annotationCache);
+		final List<String> results = new ArrayList<String>();
+		final Exception [] exception = new Exception[1];
+		runner.addAnalysisListener(new AnalysisListener() {
+			@Override
+			public void analysisStarted(SequenceFile file) {}
+			
+			@Override
+			public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {}
+			
+			@Override
+			public void analysisComplete(SequenceFile file, QCModule[] modules) {
+				// The annotation set goes back to the cache once the listeners are told
+				results.addAll(results(modules));
+			}
+			
+			@Override
+			public void analysisExceptionReceived(SequenceFile file, Exception e) {
+				exception[0] = e;
+			}
+		});
+		runner.runAnalysis(ModuleFactory.getStandardModuleList());
+		if (exception[0] != null) throw exception[0];
+		assertEquals(5, results.size());
+		return results;
+	}
+
+	@Test
+	public void testCachedAnnotation() throws Exception {
+		System.out.println("Running test AnnotationCacheTest.testCachedAnnotation");
+		log.info("Running test AnnotationCacheTest.testCachedAnnotation");
+		
+		File sam = resource("example_annot.sam");
+		File gtf = resource("example_annot.gtf");
+		List<String> fresh = analyse(sam, gtf, null);
+		
+		AnnotationCache annotationCache = new AnnotationCache(1);
+		List<String> parsed = analyse(sam, gtf, annotationCache);
+		assertEquals(0, annotationCache.getHits());
+		assertEquals(1, annotationCache.size());
+		List<String> cached = analyse(sam, gtf, annotationCache);
+		List<String> cachedAgain = analyse(sam, gtf, annotationCache);
+		assertEquals(2, annotationCache.getHits());
+		assertEquals(1, annotationCache.getMisses());
+		
+		assertEquals(fresh, parsed);
+		assertEquals(fresh, cached);
+		assertEquals(fresh, cachedAgain);
+	}
+
+}
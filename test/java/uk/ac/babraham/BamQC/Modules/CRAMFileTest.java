@@ -0,0 +1,244 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.Analysis.AnalysisListener;
+import uk.ac.babraham.BamQC.Analysis.AnalysisRunner;
+import uk.ac.babraham.BamQC.Modules.ModuleFactory;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.CRAMFile;
+import uk.ac.babraham.BamQC.Sequence.ReferenceFasta;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests the decoding of Cram files, with a shell script standing in for samtools 
+ * which writes a Bam file whatever its arguments.
+ */
+public class CRAMFileTest {
+
+	private static Logger log = Logger.getLogger(CRAMFileTest.class);
+	
+	private static final long RECORDS = 5000;
+	
+	private File directory = null;
+	private File bam = null;
+	private File cram = null;
+	private File fasta = null;
+	private String samtools = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		// The stand-in for samtools is a shell script
+		Assume.assumeTrue(new File("/bin/sh").canExecute());
+		
+		directory = File.createTempFile("bamqc_test", "");
+		directory.delete();
+		directory.mkdir();
+		bam = new File(directory, "decoded.bam");
+		new SyntheticDataGenerator(3, RECORDS).writeBam(bam);
+		cram = new File(directory, "test.cram");
+		write(cram, "CRAM");
+		fasta = new File(directory, "reference.fa");
+		write(fasta, ">1\nACGT\n");
+		write(new File(fasta.getPath()+".fai"), "1\t4\t3\t4\t5\n");
+		samtools = BamQCConfig.getInstance().samtools;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		BamQCConfig.getInstance().samtools = samtools;
+		if (directory != null) {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	private static void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		}
+		finally {
+			writer.close();
+		}
+	}
+	
+	private static String read(File file) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			return br.readLine();
+		}
+		finally {
+			br.close();
+		}
+	}
+	
+	/**
+	 * Writes the script standing in for samtools, which saves its arguments and 
+	 * its process id and then runs the given commands, and makes it the samtools used.
+	 */
+	private void samtools(String commands) throws IOException {
+		File script = new File(directory, "samtools");
+		write(script, "#!/bin/sh\necho \"$@\" > '"+directory+"/arguments'\necho $$ > '"+directory+"/pid'\n"+commands+"\n");
+		script.setExecutable(true);
+		BamQCConfig.getInstance().samtools = script.getPath();
+	}
+	
+	@Test
+	public void testDecode() throws Exception {
+		System.out.println("Running test CRAMFileTest.testDecode");
+		log.info("Running test CRAMFileTest.testDecode");
+		
+		samtools("cat '"+bam+"'");
+		SequenceFile file = CRAMFile.open(cram, new ReferenceFasta(fasta), null, 0);
+		// The progress of a stream is not known until its end
+		assertEquals(-1, file.getPercentComplete());
+		long records = 0;
+		while (file.hasNext()) {
+			file.next();
+			records++;
+		}
+		assertEquals(RECORDS, records);
+		
+		String arguments = read(new File(directory, "arguments"));
+		assertTrue(arguments, arguments.contains("-T "+fasta.getAbsolutePath()));
+		assertTrue(arguments, arguments.endsWith(cram.getAbsolutePath()));
+	}
+	
+	@Test
+	public void testDecodingError() throws Exception {
+		System.out.println("Running test CRAMFileTest.testDecodingError");
+		log.info("Running test CRAMFileTest.testDecodingError");
+		
+		// All the records are written before samtools fails, so only its status tells the failure
+		samtools("cat '"+bam+"'\necho '[E::cram_decode_slice] MD5 checksum reference mismatch' >&2\nexit 1");
+		SequenceFile file = CRAMFile.open(cram, new ReferenceFasta(fasta), null, 0);
+		AnalysisRunner runner = new AnalysisRunner(file);
+		final Exception [] exception = new Exception[1];
+		final boolean [] complete = new boolean[1];
+		runner.addAnalysisListener(new AnalysisListener() {
+			@Override
+			public void analysisStarted(SequenceFile file) {}
+			
+			@Override
+			public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {}
+			
+			@Override
+			public void analysisComplete(SequenceFile file, QCModule[] results) {
+				complete[0] = true;
+			}
+			
+			@Override
+			public void analysisExceptionReceived(SequenceFile file, Exception e) {
+				exception[0] = e;
+			}
+		});
+		runner.runAnalysis(ModuleFactory.getStandardModuleList());
+		
+		assertFalse("A Cram file which could not be decoded was reported as complete", complete[0]);
+		assertNotNull(exception[0]);
+		assertTrue(exception[0].getMessage(), exception[0].getMessage().contains("failed with status 1"));
+		assertTrue(exception[0].getMessage(), exception[0].getMessage().contains("MD5 checksum reference mismatch"));
+	}
+	
+	@Test
+	public void testStopReading() throws Exception {
+		System.out.println("Running test CRAMFileTest.testStopReading");
+		log.info("Running test CRAMFileTest.testStopReading");
+		// The process is looked up in /proc
+		Assume.assumeTrue(new File("/proc/self").exists());
+		
+		// samtools goes on after the records until it is stopped
+		samtools("cat '"+bam+"'\nexec sleep 60");
+		SequenceFile file = CRAMFile.open(cram, new ReferenceFasta(fasta), null, 0);
+		for (int i=0; i<10; i++) {
+			file.next();
+		}
+		File process = new File("/proc/"+read(new File(directory, "pid")));
+		assertTrue(process.exists());
+		
+		file.stopReading("Closed");
+		long end = System.currentTimeMillis() + 10000;
+		while (process.exists() && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertFalse("samtools was not stopped with the reading", process.exists());
+	}
+	
+	@Test
+	public void testReferenceCheckedFirst() throws Exception {
+		System.out.println("Running test CRAMFileTest.testReferenceCheckedFirst");
+		log.info("Running test CRAMFileTest.testReferenceCheckedFirst");
+		
+		samtools("cat '"+bam+"'");
+		BamQCConfig config = BamQCConfig.getInstance();
+		File reference = config.reference;
+		try {
+			config.reference = new File(directory, "missing.fa");
+			try {
+				SequenceFactory.getSequenceFile(cram, null, 0);
+				fail("A missing reference was not reported");
+			}
+			catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("does not exist"));
+			}
+			
+			new File(fasta.getPath()+".fai").delete();
+			config.reference = fasta;
+			try {
+				SequenceFactory.getSequenceFile(cram, null, 0);
+				fail("A reference without index was not reported");
+			}
+			catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("samtools faidx"));
+			}
+		}
+		finally {
+			config.reference = reference;
+		}
+		
+		// samtools was never started
+		assertFalse(new File(directory, "arguments").exists());
+	}
+
+}
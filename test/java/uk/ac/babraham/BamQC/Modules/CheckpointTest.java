@@ -0,0 +1,226 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.Analysis.Checkpoint;
+import uk.ac.babraham.BamQC.AnnotationParsers.GTFAnnotationParser;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.FeatureCoverage;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFilePosition;
+
+/**
+ * Tests that an analysis which goes on from a checkpoint gives the same results 
+ * as an analysis reading all the records in one go.
+ */
+public class CheckpointTest {
+
+	private static Logger log = Logger.getLogger(CheckpointTest.class);
+	
+	private List<SAMRecord> samRecords = null;
+	private File annotationFile = null;
+	private File checkpointFile = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		String filename = new String(new File("").getAbsolutePath() + "/test/resources/example_annot.sam");
+		samRecords = SAMRecordLoader.loadSAMFile(filename);
+		annotationFile = new File(new File("").getAbsolutePath() + "/test/resources/example_annot.gtf");
+		checkpointFile = File.createTempFile("bamqc_test", ".checkpoint");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		samRecords = null;
+		checkpointFile.delete();
+	}
+	
+	private AnnotationSet parseAnnotation() throws Exception {
+		AnnotationSet annotationSet = new AnnotationSet();
+		new GTFAnnotationParser().parseAnnotation(annotationSet, annotationFile);
+		return annotationSet;
+	}
+	
+	private HashMap<String, Double> featureCounts(AnnotationSet annotationSet) {
+		FeatureCoverage featureCoverage = new FeatureCoverage();
+		featureCoverage.processAnnotationSet(annotationSet);
+		HashMap<String, Double> counts = new HashMap<String, Double>();
+		for (int i=0; i<featureCoverage.getFeatureNames().length; i++) {
+			counts.put(featureCoverage.getFeatureNames()[i], featureCoverage.getReadCounts()[i]);
+		}
+		return counts;
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		System.out.println("Running test CheckpointTest.testResume");
+		log.info("Running test CheckpointTest.testResume");
+		
+		AnnotationSet annotationSet = parseAnnotation();
+		VariantCallDetection variantCallDetection = new VariantCallDetection();
+		for (SAMRecord read : samRecords) {
+			annotationSet.processSequenceNoCache(read);
+			variantCallDetection.processSequence(read);
+		}
+		
+		int half = samRecords.size() / 2;
+		AnnotationSet firstAnnotationSet = parseAnnotation();
+		VariantCallDetection firstVariantCallDetection = new VariantCallDetection();
+		for (SAMRecord read : samRecords.subList(0, half)) {
+			firstAnnotationSet.processSequenceNoCache(read);
+			firstVariantCallDetection.processSequence(read);
+		}
+		Checkpoint.write(checkpointFile, "key", new SequenceFilePosition(half, half, null), half, 1, firstAnnotationSet, 
+				new QCModule[] {firstVariantCallDetection});
+		
+		Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+		assertEquals("key", checkpoint.getKey());
+		assertEquals(half, checkpoint.getPosition().getReturnedRecords());
+		assertNull(checkpoint.getPosition().getNextRecord());
+		assertEquals(half, checkpoint.getRecords());
+		assertEquals(1, checkpoint.getStableChecks());
+		
+		AnnotationSet resumedAnnotationSet = checkpoint.getAnnotationSet();
+		VariantCallDetection resumedVariantCallDetection = (VariantCallDetection)checkpoint.getModules()[0];
+		for (SAMRecord read : samRecords.subList(half, samRecords.size())) {
+			resumedAnnotationSet.processSequenceNoCache(read);
+			resumedVariantCallDetection.processSequence(read);
+		}
+		
+		assertEquals(featureCounts(annotationSet), featureCounts(resumedAnnotationSet));
+		assertEquals(annotationSet.chromosomeFactory().getAllChromosomes().length, resumedAnnotationSet.chromosomeFactory().getAllChromosomes().length);
+		assertEquals(variantCallDetection.getTotal(), resumedVariantCallDetection.getTotal());
+		assertEquals(variantCallDetection.getTotalMutations(), resumedVariantCallDetection.getTotalMutations());
+	}
+	
+	@Test
+	public void testResumeBam() throws Exception {
+		System.out.println("Running test CheckpointTest.testResumeBam");
+		log.info("Running test CheckpointTest.testResumeBam");
+		
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(5, 6000);
+		generator.chromosomeLength = 200000;
+		generator.genesPerMb = 200d;
+		File bam = File.createTempFile("bamqc_test", ".bam");
+		File gtf = File.createTempFile("bamqc_test", ".gtf");
+		generator.writeBam(bam);
+		generator.writeGtf(gtf);
+		annotationFile = gtf;
+		
+		// The positions of the records are only kept when checkpoints are written
+		BamQCConfig config = BamQCConfig.getInstance();
+		double checkpointInterval = config.checkpoint_interval;
+		config.checkpoint_interval = 1;
+		try {
+			AnnotationSet annotationSet = parseAnnotation();
+			VariantCallDetection variantCallDetection = new VariantCallDetection();
+			SequenceFile file = SequenceFactory.getSequenceFile(bam, null, 0);
+			long records = 0;
+			while (file.hasNext()) {
+				SAMRecord read = file.next();
+				annotationSet.processSequenceNoCache(read);
+				variantCallDetection.processSequence(read);
+				records++;
+			}
+			assertEquals(generator.getGeneratedRecords(), records);
+			
+			AnnotationSet firstAnnotationSet = parseAnnotation();
+			VariantCallDetection firstVariantCallDetection = new VariantCallDetection();
+			file = SequenceFactory.getSequenceFile(bam, null, 0);
+			long half = records / 2;
+			for (long i=0; i<half; i++) {
+				SAMRecord read = file.next();
+				firstAnnotationSet.processSequenceNoCache(read);
+				firstVariantCallDetection.processSequence(read);
+			}
+			SequenceFilePosition position = file.getPosition();
+			assertNotNull(position);
+			// The next record is found through the virtual offset in the BGZF file
+			assertNotNull(position.getNextRecord());
+			assertEquals(half, position.getReturnedRecords());
+			Checkpoint.write(checkpointFile, "key", position, half, 0, firstAnnotationSet, new QCModule[] {firstVariantCallDetection});
+			file.stopReading("Checkpoint written");
+			
+			Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+			assertEquals(half, checkpoint.getRecords());
+			AnnotationSet resumedAnnotationSet = checkpoint.getAnnotationSet();
+			VariantCallDetection resumedVariantCallDetection = (VariantCallDetection)checkpoint.getModules()[0];
+			file = SequenceFactory.getSequenceFile(bam, null, 0);
+			file.resume(checkpoint.getPosition());
+			long resumedRecords = checkpoint.getRecords();
+			while (file.hasNext()) {
+				SAMRecord read = file.next();
+				resumedAnnotationSet.processSequenceNoCache(read);
+				resumedVariantCallDetection.processSequence(read);
+				resumedRecords++;
+			}
+			
+			assertEquals(records, resumedRecords);
+			assertFalse(featureCounts(annotationSet).isEmpty());
+			assertEquals(featureCounts(annotationSet), featureCounts(resumedAnnotationSet));
+			assertEquals(variantCallDetection.getTotal(), resumedVariantCallDetection.getTotal());
+			assertEquals(variantCallDetection.getTotalMutations(), resumedVariantCallDetection.getTotalMutations());
+		}
+		finally {
+			config.checkpoint_interval = checkpointInterval;
+			bam.delete();
+			gtf.delete();
+		}
+	}
+	
+	@Test
+	public void testLargeRecordCount() throws Exception {
+		System.out.println("Running test CheckpointTest.testLargeRecordCount");
+		log.info("Running test CheckpointTest.testLargeRecordCount");
+		
+		// More records than an int can count
+		long records = 3L * Integer.MAX_VALUE;
+		Checkpoint.write(checkpointFile, "key", new SequenceFilePosition(records, records, null), records, 2, parseAnnotation(), 
+				new QCModule[] {new VariantCallDetection()});
+		
+		Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+		assertEquals(records, checkpoint.getRecords());
+		assertEquals(records, checkpoint.getPosition().getReturnedRecords());
+		assertEquals(2, checkpoint.getStableChecks());
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.DepthDistribution;
+
+/**
+ * Tests for the streaming depth distribution.
+ */
+public class DepthDistributionTest {
+
+	private static Logger log = Logger.getLogger(DepthDistributionTest.class);
+
+	private DepthDistribution depthDistribution = null;
+	private SAMFileHeader header = null;
+
+	@Before
+	public void setUp() throws Exception {
+		depthDistribution = new DepthDistribution();
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 100));
+		header.addSequence(new SAMSequenceRecord("chr2", 200000));
+		header.addSequence(new SAMSequenceRecord("chr3", 50));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		depthDistribution = null;
+		header = null;
+	}
+
+	private SAMRecord buildRead(String name, String chromosome, int start, String cigar) {
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName(name);
+		read.setReferenceName(chromosome);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setMappingQuality(60);
+		return read;
+	}
+
+	@Test
+	public void testDepthDistribution() {
+		System.out.println("Running test DepthDistributionTest.testDepthDistribution");
+		log.info("Running test DepthDistributionTest.testDepthDistribution");
+
+		// chr1: 1-10 (M)
+		depthDistribution.processSequence(buildRead("r1", "chr1", 1, "10M"));
+		// chr1: 5-9 and 20-24, skipping 10-19
+		depthDistribution.processSequence(buildRead("r2", "chr1", 5, "5M10N5M"));
+		// chr1: 20-22 and 25-27, deleting 23-24
+		depthDistribution.processSequence(buildRead("r3", "chr1", 20, "2S3M2D3M1I"));
+		// unmapped reads are not counted
+		SAMRecord unmapped = buildRead("r4", "chr1", 30, "10M");
+		unmapped.setReadUnmappedFlag(true);
+		depthDistribution.processSequence(unmapped);
+
+		depthDistribution.processAnnotationSet(new AnnotationSet());
+
+		long[] depthCounts = depthDistribution.getDepthCounts();
+
+		// chr2 and chr3 have no reads
+		assertEquals(100 + 200000 + 50, depthDistribution.getTotalPositions());
+		assertEquals(82 + 200000 + 50, depthCounts[0]);
+		assertEquals(10, depthCounts[1]);
+		assertEquals(8, depthCounts[2]);
+		assertEquals(0, depthCounts[3]);
+
+		assertEquals(26d / (100 + 200000 + 50), depthDistribution.getMeanDepth(), 1e-12);
+		assertEquals(0, depthDistribution.getMedianDepth());
+		assertEquals(100d * 18 / (100 + 200000 + 50), depthDistribution.getPercentAtLeast(1), 1e-9);
+		assertEquals(0d, depthDistribution.getPercentAtLeast(10), 1e-9);
+	}
+
+	@Test
+	public void testLongSplicedRead() {
+		System.out.println("Running test DepthDistributionTest.testLongSplicedRead");
+		log.info("Running test DepthDistributionTest.testLongSplicedRead");
+
+		// This spans more than the default window, which has to be enlarged.
+		depthDistribution.processSequence(buildRead("r1", "chr2", 10, "10M150000N10M"));
+		depthDistribution.processSequence(buildRead("r2", "chr2", 15, "10M"));
+		depthDistribution.processSequence(buildRead("r3", "chr2", 150015, "10M"));
+		depthDistribution.processSequence(buildRead("r4", "chr3", 1, "50M"));
+
+		depthDistribution.processAnnotationSet(new AnnotationSet());
+
+		long[] depthCounts = depthDistribution.getDepthCounts();
+		// r1: 10-19, 150020-150029. r2: 15-24. r3: 150015-150024
+		assertEquals(5 + 5 + 5 + 5 + 50, depthCounts[1]);
+		assertEquals(5 + 5, depthCounts[2]);
+		assertEquals(100 + 200000 - 30, depthCounts[0]);
+		assertEquals(100 + 200000 + 50, depthDistribution.getTotalPositions());
+	}
+
+	@Test
+	public void testUnsorted() {
+		System.out.println("Running test DepthDistributionTest.testUnsorted");
+		log.info("Running test DepthDistributionTest.testUnsorted");
+
+		depthDistribution.processSequence(buildRead("r1", "chr1", 50, "10M"));
+		depthDistribution.processSequence(buildRead("r2", "chr1", 10, "10M"));
+		depthDistribution.processAnnotationSet(new AnnotationSet());
+
+		assertTrue(depthDistribution.isUnsorted());
+		assertTrue(depthDistribution.ignoreInReport());
+
+		depthDistribution.reset();
+		depthDistribution.processSequence(buildRead("r1", "chr2", 50, "10M"));
+		depthDistribution.processSequence(buildRead("r2", "chr1", 10, "10M"));
+		depthDistribution.processSequence(buildRead("r3", "chr2", 100, "10M"));
+		assertTrue(depthDistribution.isUnsorted());
+	}
+
+	@Test
+	public void testBooleans() {
+		System.out.println("Running test DepthDistributionTest.testBooleans");
+		log.info("Running test DepthDistributionTest.testBooleans");
+
+		assertTrue(depthDistribution.ignoreInReport());
+		assertTrue(depthDistribution.needsToSeeAnnotation());
+		assertFalse(depthDistribution.raisesError());
+		assertFalse(depthDistribution.raisesWarning());
+		assertTrue(depthDistribution.needsToSeeSequences());
+	}
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+import uk.ac.babraham.BamQC.Sequence.SavedSequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+
+/**
+ * Tests for the limitation of the messages logged for each read.
+ */
+public class LogLimiterTest {
+
+	private static Logger log = Logger.getLogger(LogLimiterTest.class);
+	
+	private static SAMRecord readWithoutMD(SAMFileHeader header, int i) {
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName("r"+i);
+		read.setReferenceIndex(0);
+		read.setAlignmentStart(i+1);
+		read.setCigarString("10M");
+		read.setReadString("ACGTACGTAC");
+		return read;
+	}
+
+	@Test
+	public void testShouldLog() {
+		System.out.println("Running test LogLimiterTest.testShouldLog");
+		log.info("Running test LogLimiterTest.testShouldLog");
+
+		LogLimiter logLimiter = new LogLimiter();
+		for (int i=0; i<LogLimiter.LOGGED_OCCURRENCES; i++) {
+			assertTrue(logLimiter.shouldLog("event A"));
+		}
+		assertFalse(logLimiter.shouldLog("event A"));
+		assertTrue(logLimiter.shouldLog("event B"));
+		assertEquals(LogLimiter.LOGGED_OCCURRENCES + 1, logLimiter.count("event A"));
+		assertEquals(1, logLimiter.count("event B"));
+
+		// the summary restarts the counts
+		logLimiter.logSummary(log, "test");
+		assertEquals(0, logLimiter.count("event A"));
+		assertTrue(logLimiter.shouldLog("event A"));
+	}
+
+	@Test
+	public void testReadsWithoutMD() {
+		System.out.println("Running test LogLimiterTest.testReadsWithoutMD");
+		log.info("Running test LogLimiterTest.testReadsWithoutMD");
+
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 10000));
+		SequenceFile file = new SavedSequenceFile(new File("test.bam"), "test.bam", null);
+		VariantCallDetection variantCallDetection = new VariantCallDetection();
+		variantCallDetection.processFile(file);
+		for (int i=0; i<100; i++) {
+			variantCallDetection.processSequence(readWithoutMD(header, i));
+		}
+		// every read is counted, even if only the first ones are logged
+		assertEquals(100, file.logLimiter().count("Reads without MD string"));
+		assertEquals(100, variantCallDetection.getReadWithoutMDString());
+		file.logLimiter().logSummary(log, file.name());
+	}
+	
+	@Test
+	public void testInterleavedAnalyses() {
+		System.out.println("Running test LogLimiterTest.testInterleavedAnalyses");
+		log.info("Running test LogLimiterTest.testInterleavedAnalyses");
+
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 10000));
+		SequenceFile fileA = new SavedSequenceFile(new File("a.bam"), "a.bam", null);
+		SequenceFile fileB = new SavedSequenceFile(new File("b.bam"), "b.bam", null);
+		VariantCallDetection detectionA = new VariantCallDetection();
+		VariantCallDetection detectionB = new VariantCallDetection();
+		detectionA.processFile(fileA);
+		detectionB.processFile(fileB);
+		
+		// The first file uses up its messages before the second one has read any
+		for (int i=0; i<LogLimiter.LOGGED_OCCURRENCES * 2; i++) {
+			detectionA.processSequence(readWithoutMD(header, i));
+		}
+		assertEquals(LogLimiter.LOGGED_OCCURRENCES * 2, fileA.logLimiter().count("Reads without MD string"));
+		assertEquals(0, fileB.logLimiter().count("Reads without MD string"));
+		assertTrue(fileB.logLimiter().shouldLog("Reads without MD string"));
+		
+		for (int i=0; i<3; i++) {
+			detectionB.processSequence(readWithoutMD(header, i));
+			detectionA.processSequence(readWithoutMD(header, i));
+		}
+		assertEquals(4, fileB.logLimiter().count("Reads without MD string"));
+		
+		// The end of the first analysis does not restart the counts of the second one
+		fileA.logLimiter().logSummary(log, fileA.name());
+		assertEquals(0, fileA.logLimiter().count("Reads without MD string"));
+		assertEquals(4, fileB.logLimiter().count("Reads without MD string"));
+		fileB.logLimiter().logSummary(log, fileB.name());
+	}
+
+}
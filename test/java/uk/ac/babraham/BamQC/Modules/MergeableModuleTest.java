@@ -0,0 +1,138 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.AnnotationParsers.GTFAnnotationParser;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.BamQC.Modules.FeatureCoverage;
+import uk.ac.babraham.BamQC.Modules.MappingQualityDistribution;
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+
+/**
+ * Tests that the results of two shards of the reference sequences, once merged, 
+ * are the same as the results of all the records.
+ */
+public class MergeableModuleTest {
+
+	private static Logger log = Logger.getLogger(MergeableModuleTest.class);
+	
+	private List<SAMRecord> samRecords = null;
+	private File annotationFile = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		String filename = new String(new File("").getAbsolutePath() + "/test/resources/example_annot.sam");
+		samRecords = SAMRecordLoader.loadSAMFile(filename);
+		annotationFile = new File(new File("").getAbsolutePath() + "/test/resources/example_annot.gtf");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		samRecords = null;
+	}
+	
+	private AnnotationSet parseAnnotation() throws Exception {
+		AnnotationSet annotationSet = new AnnotationSet();
+		new GTFAnnotationParser().parseAnnotation(annotationSet, annotationFile);
+		return annotationSet;
+	}
+	
+	private HashMap<String, Double> featureCounts(AnnotationSet annotationSet) {
+		FeatureCoverage featureCoverage = new FeatureCoverage();
+		featureCoverage.processAnnotationSet(annotationSet);
+		HashMap<String, Double> counts = new HashMap<String, Double>();
+		for (int i=0; i<featureCoverage.getFeatureNames().length; i++) {
+			counts.put(featureCoverage.getFeatureNames()[i], featureCoverage.getReadCounts()[i]);
+		}
+		return counts;
+	}
+	
+	private HashMap<String, Integer> chromosomeCounts(AnnotationSet annotationSet) {
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (Chromosome chromosome : annotationSet.chromosomeFactory().getAllChromosomes()) {
+			counts.put(chromosome.name(), chromosome.seqCount());
+		}
+		return counts;
+	}
+
+	@Test
+	public void testMergeShards() throws Exception {
+		System.out.println("Running test MergeableModuleTest.testMergeShards");
+		log.info("Running test MergeableModuleTest.testMergeShards");
+		
+		AnnotationSet annotationSet = parseAnnotation();
+		VariantCallDetection variantCallDetection = new VariantCallDetection();
+		MappingQualityDistribution mappingQuality = new MappingQualityDistribution();
+		for (SAMRecord read : samRecords) {
+			annotationSet.processSequence(read);
+			variantCallDetection.processSequence(read);
+			mappingQuality.processSequence(read);
+		}
+		annotationSet.flushCache();
+		
+		// The first shard is the reference sequence 1, the second one all the others
+		AnnotationSet [] shardAnnotationSets = new AnnotationSet[] {parseAnnotation(), parseAnnotation()};
+		VariantCallDetection [] shardVariantCallDetections = new VariantCallDetection[] {new VariantCallDetection(), new VariantCallDetection()};
+		MappingQualityDistribution [] shardMappingQualities = new MappingQualityDistribution[] {new MappingQualityDistribution(), new MappingQualityDistribution()};
+		for (SAMRecord read : samRecords) {
+			int shard = read.getReferenceName().equals("1") ? 0 : 1;
+			shardAnnotationSets[shard].processSequence(read);
+			shardVariantCallDetections[shard].processSequence(read);
+			shardMappingQualities[shard].processSequence(read);
+		}
+		
+		shardAnnotationSets[0].merge(shardAnnotationSets[1]);
+		shardVariantCallDetections[0].merge(shardVariantCallDetections[1]);
+		shardMappingQualities[0].merge(shardMappingQualities[1]);
+		
+		assertEquals(featureCounts(annotationSet), featureCounts(shardAnnotationSets[0]));
+		assertEquals(chromosomeCounts(annotationSet), chromosomeCounts(shardAnnotationSets[0]));
+		
+		variantCallDetection.computeTotals();
+		shardVariantCallDetections[0].computeTotals();
+		assertEquals(variantCallDetection.getTotal(), shardVariantCallDetections[0].getTotal());
+		assertEquals(variantCallDetection.getTotalMutations(), shardVariantCallDetections[0].getTotalMutations());
+		assertEquals(variantCallDetection.getTotalInsertions(), shardVariantCallDetections[0].getTotalInsertions());
+		assertEquals(variantCallDetection.getTotalDeletions(), shardVariantCallDetections[0].getTotalDeletions());
+		assertEquals(variantCallDetection.getTotalReads(), shardVariantCallDetections[0].getTotalReads());
+		
+		assertTrue(Arrays.equals(mappingQuality.getDistributionDouble(), shardMappingQualities[0].getDistributionDouble()));
+	}
+
+}
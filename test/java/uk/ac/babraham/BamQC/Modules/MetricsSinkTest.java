@@ -0,0 +1,161 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Analysis.MetricsSink;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests for the metrics of the batch runs.
+ */
+public class MetricsSinkTest {
+
+	private static Logger log = Logger.getLogger(MetricsSinkTest.class);
+
+	private static SequenceFile sequenceFile(final String name) {
+		return sequenceFile(name, null);
+	}
+
+	private static SequenceFile sequenceFile(final String name, final File file) {
+		return (SequenceFile)Proxy.newProxyInstance(SequenceFile.class.getClassLoader(), new Class<?>[] {SequenceFile.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("name")) return name;
+				if (method.getName().equals("getFile")) return file;
+				if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+				if (method.getName().equals("equals")) return proxy == args[0];
+				return null;
+			}
+		});
+	}
+
+	private static void setRetention(MetricsSink sink, int seconds) throws Exception {
+		Method setRetention = MetricsSink.class.getDeclaredMethod("setRetention", int.class);
+		setRetention.setAccessible(true);
+		setRetention.invoke(sink, seconds);
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		System.out.println("Running test MetricsSinkTest.testMetrics");
+		log.info("Running test MetricsSinkTest.testMetrics");
+
+		MetricsSink sink = new MetricsSink(null, null, 0, MetricsSink.JSON, 10);
+		SequenceFile first = sequenceFile("first.bam");
+		SequenceFile second = sequenceFile("with \"quotes\".bam");
+		sink.analysisStarted(first);
+		sink.analysisUpdated(first, 1000, 50, 200.0, 2.0, 5);
+		sink.analysisStarted(second);
+		sink.analysisExceptionReceived(second, new Exception());
+
+		String json = sink.jsonLine();
+		assertTrue(json.startsWith("{\"time\":"));
+		assertTrue(json.contains("{\"file\":\"first.bam\",\"state\":\"running\",\"records\":1000,\"percent_complete\":50,\"records_per_second\":200.0,\"bytes_per_second\":2097152.0,\"seconds_remaining\":5"));
+		assertTrue(json.contains("{\"file\":\"with \\\"quotes\\\".bam\",\"state\":\"failed\""));
+		assertFalse(json.contains("queue_length"));
+
+		String prometheus = sink.prometheusText();
+		assertTrue(prometheus.contains("# TYPE bamqc_records_processed counter\n"));
+		assertTrue(prometheus.contains("bamqc_records_processed{file=\"first.bam\"} 1000\n"));
+		assertTrue(prometheus.contains("bamqc_bytes_per_second{file=\"first.bam\"} 2097152.0\n"));
+		assertTrue(prometheus.contains("bamqc_running{file=\"with \\\"quotes\\\".bam\"} -1\n"));
+		assertTrue(prometheus.contains("bamqc_heap_used_bytes "));
+
+		sink.analysisComplete(first, null);
+		assertTrue(sink.prometheusText().contains("bamqc_running{file=\"first.bam\"} 0\n"));
+	}
+
+	@Test
+	public void testFilesWithTheSameName() throws Exception {
+		System.out.println("Running test MetricsSinkTest.testFilesWithTheSameName");
+		log.info("Running test MetricsSinkTest.testFilesWithTheSameName");
+
+		MetricsSink sink = new MetricsSink(null, null, 0, MetricsSink.JSON, 10);
+		setRetention(sink, 0);
+		SequenceFile first = sequenceFile("reads.bam", new File("sample1/reads.bam"));
+		SequenceFile second = sequenceFile("reads.bam", new File("sample2/reads.bam"));
+		sink.analysisStarted(first);
+		sink.analysisUpdated(first, 1000, 50, 200.0, 2.0, 5);
+		sink.analysisStarted(second);
+		sink.analysisUpdated(second, 10, 1, 200.0, 2.0, 500);
+
+		// Each file has its own metrics, labelled with its name
+		String json = sink.jsonLine();
+		assertTrue(json.contains("{\"file\":\"reads.bam\",\"state\":\"running\",\"records\":1000,"));
+		assertTrue(json.contains("{\"file\":\"reads.bam\",\"state\":\"running\",\"records\":10,"));
+
+		// The end of one of them does not drop the other one
+		sink.analysisComplete(first, null);
+		Thread.sleep(20);
+		json = sink.jsonLine();
+		assertFalse(json.contains("\"records\":1000,"));
+		assertTrue(json.contains("{\"file\":\"reads.bam\",\"state\":\"running\",\"records\":10,"));
+	}
+
+	@Test
+	public void testFinishedFilesDropped() throws Exception {
+		System.out.println("Running test MetricsSinkTest.testFinishedFilesDropped");
+		log.info("Running test MetricsSinkTest.testFinishedFilesDropped");
+
+		MetricsSink sink = new MetricsSink(null, null, 0, MetricsSink.JSON, 10);
+		for (int i=0; i<1000; i++) {
+			SequenceFile file = sequenceFile("file"+i+".bam");
+			sink.analysisStarted(file);
+			sink.analysisUpdated(file, 1000, 100, 200.0, 2.0, 0);
+			if (i % 2 == 0) {
+				sink.analysisComplete(file, null);
+			}
+			else {
+				sink.analysisExceptionReceived(file, new Exception());
+			}
+		}
+		SequenceFile running = sequenceFile("running.bam");
+		sink.analysisStarted(running);
+
+		// The finished files are still published during the retention
+		String json = sink.jsonLine();
+		assertTrue(json.contains("\"file\":\"file0.bam\",\"state\":\"complete\""));
+		assertTrue(json.contains("\"file\":\"file999.bam\",\"state\":\"failed\""));
+
+		// and are then dropped, whereas the running files are kept
+		setRetention(sink, 0);
+		Thread.sleep(20);
+		json = sink.jsonLine();
+		assertFalse(json.contains("file0.bam"));
+		assertFalse(json.contains("file999.bam"));
+		assertTrue(json.contains("\"file\":\"running.bam\",\"state\":\"running\""));
+		assertFalse(sink.prometheusText().contains("file0.bam"));
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Analysis.ModuleProfiler;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.MappingQualityDistribution;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+
+/**
+ * Tests for the sampled timing of the modules.
+ */
+public class ModuleProfilerTest {
+
+	private static Logger log = Logger.getLogger(ModuleProfilerTest.class);
+
+	@Test
+	public void testSampling() {
+		System.out.println("Running test ModuleProfilerTest.testSampling");
+		log.info("Running test ModuleProfilerTest.testSampling");
+
+		MappingQualityDistribution mappingQuality = new MappingQualityDistribution();
+		ModuleProfiler profiler = new ModuleProfiler(new QCModule[] {mappingQuality});
+		SAMRecord read = new SAMRecord(null);
+		read.setMappingQuality(60);
+
+		int records = 10 * ModuleProfiler.SAMPLE_INTERVAL;
+		for (int i=1; i<=records; i++) {
+			if (ModuleProfiler.isSampled(i)) {
+				profiler.processSequence(read);
+			}
+			else {
+				mappingQuality.processSequence(read);
+			}
+		}
+		profiler.setRecords(records);
+		profiler.processAnnotationSet(new AnnotationSet());
+
+		// every record still reaches the module
+		assertEquals(records, mappingQuality.getDistribution()[60]);
+		assertEquals(records, profiler.getRecords());
+		assertEquals(10, profiler.getSampledRecords());
+		assertTrue(profiler.getSequenceNanos(0) >= 0);
+		assertTrue(profiler.getAnnotationNanos(0) > 0);
+	}
+
+}
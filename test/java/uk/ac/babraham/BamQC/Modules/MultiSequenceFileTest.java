@@ -0,0 +1,174 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFormatException;
+
+/**
+ * Tests that several files are read as one sample.
+ */
+public class MultiSequenceFileTest {
+
+	private static Logger log = Logger.getLogger(MultiSequenceFileTest.class);
+	
+	private static final String REFERENCES = "@SQ\tSN:chr1\tLN:100\n@SQ\tSN:chr2\tLN:100\n";
+	
+	private static File samFile(String header, String... records) throws IOException {
+		File file = File.createTempFile("bamqc_test", ".sam");
+		file.deleteOnExit();
+		StringBuilder sam = new StringBuilder(header);
+		for (String record : records) {
+			String [] fields = record.split(":");
+			if (fields[1].equals("*")) {
+				sam.append(fields[0]+"\t4\t*\t0\t0\t*\t*\t0\t0\tAC\tII\n");
+			}
+			else {
+				sam.append(fields[0]+"\t0\t"+fields[1]+"\t"+fields[2]+"\t60\t2M\t*\t0\t0\tAC\tII\n");
+			}
+		}
+		OutputStream out = new FileOutputStream(file);
+		out.write(sam.toString().getBytes("ISO-8859-1"));
+		out.close();
+		return file;
+	}
+	
+	private static List<String> readNames(SequenceFile sequenceFile) throws SequenceFormatException {
+		List<String> names = new ArrayList<String>();
+		while (sequenceFile.hasNext()) {
+			names.add(sequenceFile.next().getReadName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testCoordinateMerge() throws Exception {
+		System.out.println("Running test MultiSequenceFileTest.testCoordinateMerge");
+		log.info("Running test MultiSequenceFileTest.testCoordinateMerge");
+		
+		String header = "@HD\tVN:1.4\tSO:coordinate\n" + REFERENCES;
+		File lane1 = samFile(header, "a:chr1:5", "c:chr1:20", "e1:chr2:3", "u:*");
+		File lane2 = samFile(header, "b:chr1:10", "d:chr2:1", "e2:chr2:3");
+		
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(new File[] {lane1, lane2}, "sample");
+		assertEquals("sample", sequenceFile.name());
+		assertEquals(new File(lane1.getAbsoluteFile().getParentFile(), "sample"), sequenceFile.getFile());
+		assertEquals(2, sequenceFile.listChromosomes().length);
+		// The records at the same position come in the order of the files, and the unmapped ones last
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e1", "e2", "u"), readNames(sequenceFile));
+		assertEquals(100, sequenceFile.getPercentComplete());
+		lane1.delete();
+		lane2.delete();
+	}
+	
+	@Test
+	public void testUnsortedFiles() throws Exception {
+		System.out.println("Running test MultiSequenceFileTest.testUnsortedFiles");
+		log.info("Running test MultiSequenceFileTest.testUnsortedFiles");
+		
+		File lane1 = samFile("@HD\tVN:1.4\tSO:coordinate\n" + REFERENCES, "a:chr1:5", "b:chr2:1");
+		File lane2 = samFile("@HD\tVN:1.4\tSO:unsorted\n" + REFERENCES, "d:chr2:3", "c:chr1:1", "e:*");
+		
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(new File[] {lane1, lane2}, "sample");
+		// Every record is read once, in no particular order
+		List<String> names = readNames(sequenceFile);
+		Collections.sort(names);
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), names);
+		lane1.delete();
+		lane2.delete();
+	}
+	
+	@Test
+	public void testDifferentReferences() throws Exception {
+		System.out.println("Running test MultiSequenceFileTest.testDifferentReferences");
+		log.info("Running test MultiSequenceFileTest.testDifferentReferences");
+		
+		File lane1 = samFile(REFERENCES, "a:chr1:5");
+		File lane2 = samFile("@SQ\tSN:chr1\tLN:100\n", "b:chr1:10");
+		try {
+			SequenceFactory.getSequenceFile(new File[] {lane1, lane2}, "sample");
+			fail("Files with different reference sequences were merged");
+		}
+		catch (SequenceFormatException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("reference sequences"));
+		}
+		lane1.delete();
+		lane2.delete();
+	}
+	
+	@Test
+	public void testProgress() throws Exception {
+		System.out.println("Running test MultiSequenceFileTest.testProgress");
+		log.info("Running test MultiSequenceFileTest.testProgress");
+		
+		SyntheticDataGenerator generator1 = new SyntheticDataGenerator(1, 20000);
+		SyntheticDataGenerator generator2 = new SyntheticDataGenerator(2, 30000);
+		File lane1 = File.createTempFile("bamqc_test", ".bam");
+		File lane2 = File.createTempFile("bamqc_test", ".bam");
+		generator1.writeBam(lane1);
+		generator2.writeBam(lane2);
+		
+		// The progress is published by the threads reading the files
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(new File[] {lane1, lane2}, "sample");
+		int lastPercent = 0;
+		long lastBytes = 0;
+		long records = 0;
+		while (sequenceFile.hasNext()) {
+			sequenceFile.next();
+			records++;
+			if (records % 1000 == 0 && sequenceFile.hasNext()) {
+				int percent = sequenceFile.getPercentComplete();
+				long bytes = sequenceFile.getBytesRead();
+				assertTrue(percent >= lastPercent && percent <= 99);
+				assertTrue(bytes >= lastBytes);
+				lastPercent = percent;
+				lastBytes = bytes;
+			}
+		}
+		assertTrue(lastBytes > 0);
+		assertEquals(generator1.getGeneratedRecords() + generator2.getGeneratedRecords(), records);
+		assertEquals(100, sequenceFile.getPercentComplete());
+		assertEquals(lane1.length() + lane2.length(), sequenceFile.getBytesRead());
+		assertEquals(generator1.getMappedRecords() + generator2.getMappedRecords(), sequenceFile.getMappedRecordCount());
+		lane1.delete();
+		lane2.delete();
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Sequence.ReferenceFasta;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+
+/**
+ * Tests the MD tags computed from a reference Fasta file for the reads which have none.
+ */
+public class ReferenceFastaTest {
+
+	private static Logger log = Logger.getLogger(ReferenceFastaTest.class);
+	
+	private File fastaFile = null;
+	private File indexFile = null;
+	private ReferenceFasta reference = null;
+	private LogLimiter logLimiter = new LogLimiter();
+	private SAMFileHeader header = null;
+
+	@Before
+	public void setUp() throws Exception {
+		fastaFile = File.createTempFile("bamqc_test", ".fa");
+		indexFile = new File(fastaFile.getPath()+".fai");
+		// Lines of 10 bases, with a soft-masked line and a run of N on chr1
+		write(fastaFile, ">chr1 test\nACGTACGTAC\ngtaNNNNacg\nTTGCAAGGCC\n>chr2\nAAAAA\n");
+		write(indexFile, "chr1\t30\t11\t10\t11\nchr2\t5\t50\t10\t11\n");
+		reference = new ReferenceFasta(fastaFile);
+		
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 30));
+		header.addSequence(new SAMSequenceRecord("chr2", 5));
+		header.addSequence(new SAMSequenceRecord("chr3", 10));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fastaFile.delete();
+		indexFile.delete();
+		reference = null;
+		header = null;
+	}
+	
+	private static void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private SAMRecord buildRead(String chromosome, int start, String cigar, String bases) {
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName("read");
+		read.setReferenceName(chromosome);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setReadString(bases);
+		read.setMappingQuality(60);
+		return read;
+	}
+	
+	private String computedMD(String chromosome, int start, String cigar, String bases) throws Exception {
+		SAMRecord read = buildRead(chromosome, start, cigar, bases);
+		reference.addMDTag(read, logLimiter);
+		return read.getStringAttribute("MD");
+	}
+
+	@Test
+	public void testReferenceSequence() throws Exception {
+		System.out.println("Running test ReferenceFastaTest.testReferenceSequence");
+		log.info("Running test ReferenceFastaTest.testReferenceSequence");
+		
+		ReferenceFasta.PackedSequence chr1 = reference.getSequence("chr1");
+		assertEquals(30, chr1.length());
+		StringBuilder bases = new StringBuilder();
+		for (int i=0; i<chr1.length(); i++) {
+			bases.append(chr1.baseAt(i));
+		}
+		assertEquals("ACGTACGTACGTANNNNACGTTGCAAGGCC", bases.toString());
+		assertEquals('A', reference.getSequence("chr2").baseAt(4));
+		assertTrue(reference.hasSequence("chr2"));
+		assertFalse(reference.hasSequence("chr3"));
+	}
+
+	@Test
+	public void testComputedMD() throws Exception {
+		System.out.println("Running test ReferenceFastaTest.testComputedMD");
+		log.info("Running test ReferenceFastaTest.testComputedMD");
+		
+		assertEquals("8", computedMD("chr1", 1, "8M", "ACGTACGT"));
+		// A mismatch followed by a deletion
+		assertEquals("2G1^AC4", computedMD("chr1", 1, "4M2D4M", "ACTTGTAC"));
+		// Clipped and inserted bases are not compared, the reference is read in upper case
+		assertEquals("5", computedMD("chr1", 9, "2S3M1I2M", "NNACGTTA"));
+		// N never matches
+		assertEquals("1N0N0N0N0", computedMD("chr1", 13, "5M", "ANNNN"));
+		// The skipped region of a spliced read is not in the MD tag
+		assertEquals("4N0N0", computedMD("chr1", 5, "3M5N3M", "ACGACC"));
+		// The read bases are compared in upper case
+		assertEquals("1A0A0", computedMD("chr2", 1, "3M", "acg"));
+	}
+
+	@Test
+	public void testReadsLeftUnchanged() throws Exception {
+		System.out.println("Running test ReferenceFastaTest.testReadsLeftUnchanged");
+		log.info("Running test ReferenceFastaTest.testReadsLeftUnchanged");
+		
+		// An existing MD tag is kept
+		SAMRecord read = buildRead("chr1", 1, "8M", "ACGTACGT");
+		read.setAttribute("MD", "0C7");
+		reference.addMDTag(read, logLimiter);
+		assertEquals("0C7", read.getStringAttribute("MD"));
+		
+		// Unmapped reads, reference sequences missing from the Fasta file and alignments beyond its end
+		read = buildRead("chr1", 1, "8M", "ACGTACGT");
+		read.setReadUnmappedFlag(true);
+		reference.addMDTag(read, logLimiter);
+		assertNull(read.getStringAttribute("MD"));
+		assertNull(computedMD("chr3", 1, "4M", "ACGT"));
+		assertNull(computedMD("chr2", 3, "5M", "AAAAA"));
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.Analysis.ResultCache;
+
+/**
+ * Tests that the results of an analysis are only reused with the same configuration.
+ */
+public class ResultCacheTest {
+
+	private static Logger log = Logger.getLogger(ResultCacheTest.class);
+	
+	private static File resource(String name) {
+		return new File(new File("").getAbsolutePath() + "/test/resources/" + name);
+	}
+
+	@Test
+	public void testReferenceChangesKey() throws Exception {
+		System.out.println("Running test ResultCacheTest.testReferenceChangesKey");
+		log.info("Running test ResultCacheTest.testReferenceChangesKey");
+		
+		File file = resource("example_annot.sam");
+		BamQCConfig config = BamQCConfig.getInstance();
+		File reference = config.reference;
+		try {
+			config.reference = null;
+			String key = ResultCache.key(file);
+			assertEquals(key, ResultCache.key(file));
+			
+			// The MD tags computed from a reference change the results
+			config.reference = resource("example_annot.gtf");
+			String referenceKey = ResultCache.key(file);
+			assertFalse(key.equals(referenceKey));
+			
+			config.reference = resource("example_annot.sam");
+			assertFalse(referenceKey.equals(ResultCache.key(file)));
+		}
+		finally {
+			config.reference = reference;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFormatException;
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Sequence.SAMTextParser;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests that the parallel Sam parser reads the same records as the sam library.
+ */
+public class SAMTextParserTest {
+
+	private static Logger log = Logger.getLogger(SAMTextParserTest.class);
+	
+	private static final String [] SAM_FILES = {"example_annot.sam", "example_vc_errors.sam", "rhod_plasmidA.sam", "test_header.sam"};
+	
+	private static File resource(String name) {
+		return new File(new File("").getAbsolutePath() + "/test/resources/" + name);
+	}
+	
+	private static List<String> libraryRecords(File file) throws IOException {
+		SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+		SAMFileReader reader = new SAMFileReader(new FileInputStream(file));
+		List<String> records = new ArrayList<String>();
+		for (SAMRecord record : reader) {
+			records.add(record.getSAMString());
+		}
+		reader.close();
+		return records;
+	}
+
+	@Test
+	public void testSameRecords() throws Exception {
+		System.out.println("Running test SAMTextParserTest.testSameRecords");
+		log.info("Running test SAMTextParserTest.testSameRecords");
+		
+		for (String name : SAM_FILES) {
+			File file = resource(name);
+			List<String> expected = libraryRecords(file);
+			
+			InputStream in = new FileInputStream(file);
+			SAMTextParser parser = new SAMTextParser(in, name, 1);
+			List<String> records = new ArrayList<String>();
+			while (parser.hasNext()) {
+				SAMRecord record = parser.next();
+				records.add(record.getSAMString());
+			}
+			parser.close();
+			in.close();
+			assertEquals(name, expected, records);
+		}
+	}
+	
+	@Test
+	public void testCompressedFile() throws Exception {
+		System.out.println("Running test SAMTextParserTest.testCompressedFile");
+		log.info("Running test SAMTextParserTest.testCompressedFile");
+		
+		File file = resource("rhod_plasmidA.sam");
+		File compressed = File.createTempFile("bamqc_test", ".sam.gz");
+		compressed.deleteOnExit();
+		InputStream in = new FileInputStream(file);
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+		byte [] buffer = new byte[65536];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		out.close();
+		
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(compressed, null, 0);
+		List<String> records = new ArrayList<String>();
+		while (sequenceFile.hasNext()) {
+			records.add(sequenceFile.next().getSAMString());
+		}
+		assertEquals(libraryRecords(file), records);
+		assertEquals(100, sequenceFile.getPercentComplete());
+		compressed.delete();
+	}
+	
+	private static int parserThreads(String name) {
+		int threads = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && (thread.getName().equals("Sam reader for "+name) || thread.getName().equals("Sam parser for "+name))) {
+				threads++;
+			}
+		}
+		return threads;
+	}
+	
+	@Test
+	public void testStopReading() throws Exception {
+		System.out.println("Running test SAMTextParserTest.testStopReading");
+		log.info("Running test SAMTextParserTest.testStopReading");
+		
+		// The file is closed before its end, which must stop the threads of the parser
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(resource("rhod_plasmidA.sam"), null, 0);
+		for (int i=0; i<10; i++) {
+			sequenceFile.next();
+		}
+		assertTrue(parserThreads("rhod_plasmidA.sam") > 0);
+		sequenceFile.stopReading("Stopped");
+		long end = System.currentTimeMillis() + 10000;
+		while (parserThreads("rhod_plasmidA.sam") > 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, parserThreads("rhod_plasmidA.sam"));
+	}
+	
+	@Test
+	public void testInvalidLine() throws Exception {
+		System.out.println("Running test SAMTextParserTest.testInvalidLine");
+		log.info("Running test SAMTextParserTest.testInvalidLine");
+		
+		String sam = "@SQ\tSN:chr1\tLN:100\n" + 
+				"r1\t0\tchr1\t1\t60\t2M\t*\t0\t0\tAC\tII\tNM:i:0\n" + 
+				"r2\t0\tchr1\tx\t60\t2M\t*\t0\t0\tAC\tII\n";
+		SAMTextParser parser = new SAMTextParser(new ByteArrayInputStream(sam.getBytes("ISO-8859-1")), "invalid.sam", 1);
+		// The records before the invalid line are returned first
+		assertTrue(parser.hasNext());
+		assertEquals("r1", parser.next().getReadName());
+		assertTrue(parser.hasNext());
+		try {
+			parser.next();
+			fail("The invalid line was not reported");
+		}
+		catch (SAMFormatException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("line 3"));
+		}
+		parser.close();
+	}
+
+}
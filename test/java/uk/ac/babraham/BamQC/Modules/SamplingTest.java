@@ -0,0 +1,184 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Modules.MappingQualityDistribution;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Utilities.DistributionChange;
+
+/**
+ * Tests for the read sampling and the convergence of the distributions.
+ */
+public class SamplingTest {
+
+	private static Logger log = Logger.getLogger(SamplingTest.class);
+
+	// one read every 100bp on two chromosomes of 1Mbp
+	private static final int READS_PER_CHROMOSOME = 10000;
+
+	private File bam = null;
+	private File index = null;
+
+	@Before
+	public void setUp() throws Exception {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+		header.addSequence(new SAMSequenceRecord("chr2", 1000000));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+		bam = File.createTempFile("sampling", ".bam");
+		index = new File(bam.getAbsolutePath().replaceAll("\\.bam$", ".bai"));
+		SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bam);
+		for (int c=0; c<2; c++) {
+			for (int i=0; i<READS_PER_CHROMOSOME; i++) {
+				SAMRecord read = new SAMRecord(header);
+				read.setReadName("r"+c+"_"+i);
+				read.setReferenceIndex(c);
+				read.setAlignmentStart(i*100+1);
+				read.setCigarString("150M");
+				read.setMappingQuality(60);
+				writer.addAlignment(read);
+			}
+		}
+		writer.close();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		bam.delete();
+		index.delete();
+	}
+
+	@Test
+	public void testFirstRecords() throws Exception {
+		System.out.println("Running test SamplingTest.testFirstRecords");
+		log.info("Running test SamplingTest.testFirstRecords");
+
+		index.delete();
+		SequenceFile file = SequenceFactory.getSequenceFile(bam, null, 500);
+		int count = 0;
+		while (file.hasNext()) {
+			SAMRecord read = file.next();
+			assertEquals("r0_"+count, read.getReadName());
+			count++;
+		}
+		assertEquals(500, count);
+		assertNotNull(file.samplingDescription());
+	}
+
+	@Test
+	public void testSpreadSampling() throws Exception {
+		System.out.println("Running test SamplingTest.testSpreadSampling");
+		log.info("Running test SamplingTest.testSpreadSampling");
+
+		SequenceFile file = SequenceFactory.getSequenceFile(bam, null, 2000);
+		assertEquals(2 * READS_PER_CHROMOSOME, file.getMappedRecordCount());
+
+		HashSet<String> names = new HashSet<String>();
+		HashSet<String> chromosomes = new HashSet<String>();
+		int lastStart = 0;
+		String lastChromosome = null;
+		while (file.hasNext()) {
+			SAMRecord read = file.next();
+			// every record is returned once, in coordinate order
+			assertTrue(names.add(read.getReadName()));
+			if (read.getReferenceName().equals(lastChromosome)) {
+				assertTrue(read.getAlignmentStart() >= lastStart);
+			}
+			lastChromosome = read.getReferenceName();
+			lastStart = read.getAlignmentStart();
+			chromosomes.add(lastChromosome);
+		}
+		// The sample is spread across the file, and its size is only approximate.
+		assertEquals(2, chromosomes.size());
+		assertTrue(names.size() > 1000 && names.size() < 3500);
+		assertNotNull(file.samplingDescription());
+
+		// A sample larger than the file reads the whole file
+		file = SequenceFactory.getSequenceFile(bam, null, 3 * READS_PER_CHROMOSOME);
+		int count = 0;
+		while (file.hasNext()) {
+			file.next();
+			count++;
+		}
+		assertEquals(2 * READS_PER_CHROMOSOME, count);
+		assertNull(file.samplingDescription());
+	}
+
+	@Test
+	public void testStopReading() throws Exception {
+		System.out.println("Running test SamplingTest.testStopReading");
+		log.info("Running test SamplingTest.testStopReading");
+
+		SequenceFile file = SequenceFactory.getSequenceFile(bam, null, 0);
+		file.next();
+		file.next();
+		file.stopReading("Stopped");
+		assertFalse(file.hasNext());
+		assertEquals("Stopped", file.samplingDescription());
+	}
+
+	@Test
+	public void testDistributionChange() {
+		System.out.println("Running test SamplingTest.testDistributionChange");
+		log.info("Running test SamplingTest.testDistributionChange");
+
+		assertEquals(1d, DistributionChange.totalVariation(null, new double[]{1, 2}), 1e-12);
+		assertEquals(0d, DistributionChange.totalVariation(new double[]{1, 2}, new double[]{2, 4, 0}), 1e-12);
+		assertEquals(0.5d, DistributionChange.totalVariation(new double[]{1, 1}, new double[]{0, 1}), 1e-12);
+		assertEquals(0d, DistributionChange.totalVariation(new double[]{0}, new double[]{0, 0}), 1e-12);
+		assertEquals(0.5d, DistributionChange.relativeChange(0.01, 0.02), 1e-12);
+		assertEquals(0d, DistributionChange.relativeChange(0, 0), 1e-12);
+
+		MappingQualityDistribution mappingQuality = new MappingQualityDistribution();
+		SAMRecord read = new SAMRecord(null);
+		read.setMappingQuality(60);
+		mappingQuality.processSequence(read);
+		assertEquals(1d, mappingQuality.distributionChange(), 1e-12);
+		mappingQuality.processSequence(read);
+		assertEquals(0d, mappingQuality.distributionChange(), 1e-12);
+		read.setMappingQuality(0);
+		mappingQuality.processSequence(read);
+		mappingQuality.processSequence(read);
+		assertEquals(0.5d, mappingQuality.distributionChange(), 1e-12);
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.Analysis.SavedResults;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.GenomeCoverage;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Modules.SoftClipDistribution;
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+import uk.ac.babraham.BamQC.Sequence.SavedSequenceFile;
+
+/**
+ * Tests that the modules saved with SavedResults are read back with their values.
+ */
+public class SavedResultsTest {
+
+	private static Logger log = Logger.getLogger(SavedResultsTest.class);
+	
+	private List<SAMRecord> samRecords = null;
+	private File savedFile = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		String filename = new String(new File("").getAbsolutePath() + "/test/resources/test_header.sam");
+		samRecords = SAMRecordLoader.loadSAMFile(filename);
+		savedFile = File.createTempFile("bamqc_test", ".bamqc");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		samRecords = null;
+		savedFile.delete();
+	}
+
+	@Test
+	public void testSaveAndRead() throws Exception {
+		System.out.println("Running test SavedResultsTest.testSaveAndRead");
+		log.info("Running test SavedResultsTest.testSaveAndRead");
+		
+		VariantCallDetection variantCallDetection = new VariantCallDetection();
+		SoftClipDistribution softClipDistribution = new SoftClipDistribution();
+		for (SAMRecord read : samRecords) {
+			variantCallDetection.processSequence(read);
+			softClipDistribution.processSequence(read);
+		}
+		
+		SavedResults.write(savedFile, new SavedSequenceFile(new File("test_header.sam"), "test_header.sam", "First 10 records"), 
+				new QCModule[] {variantCallDetection, softClipDistribution});
+		SavedResults saved = SavedResults.read(savedFile);
+		
+		assertEquals("test_header.sam", saved.getName());
+		assertEquals("First 10 records", saved.getSamplingDescription());
+		assertEquals(2, saved.getModules().length);
+		
+		VariantCallDetection savedVariantCallDetection = (VariantCallDetection)saved.getModules()[0];
+		assertEquals(variantCallDetection.getTotal(), savedVariantCallDetection.getTotal());
+		assertEquals(variantCallDetection.getTotalMutations(), savedVariantCallDetection.getTotalMutations());
+		assertEquals(variantCallDetection.getTotalSoftClips(), savedVariantCallDetection.getTotalSoftClips());
+		assertArrayEquals(softClipDistribution.getLeftClipCounts(), ((SoftClipDistribution)saved.getModules()[1]).getLeftClipCounts());
+		
+		// the saved module can go on reading records
+		for (SAMRecord read : samRecords) {
+			savedVariantCallDetection.processSequence(read);
+		}
+		assertEquals(2 * variantCallDetection.getTotal(), savedVariantCallDetection.getTotal());
+	}
+	
+	@Test
+	public void testPlottedValuesAreCalculatedAgain() throws Exception {
+		System.out.println("Running test SavedResultsTest.testPlottedValuesAreCalculatedAgain");
+		log.info("Running test SavedResultsTest.testPlottedValuesAreCalculatedAgain");
+		
+		AnnotationSet annotationSet = new AnnotationSet();
+		String filename = new String(new File("").getAbsolutePath() + "/test/resources/genome_coverage.sam");
+		for (SAMRecord read : SAMRecordLoader.loadSAMFile(filename)) {
+			annotationSet.processSequenceNoCache(read);
+		}
+		GenomeCoverage genomeCoverage = new GenomeCoverage();
+		genomeCoverage.processAnnotationSet(annotationSet);
+		
+		SavedResults.write(savedFile, new SavedSequenceFile(new File("genome_coverage.sam"), "genome_coverage.sam", null), 
+				new QCModule[] {genomeCoverage});
+		GenomeCoverage savedGenomeCoverage = (GenomeCoverage)SavedResults.read(savedFile).getModules()[0];
+		
+		assertNull(SavedResults.read(savedFile).getSamplingDescription());
+		assertFalse(savedGenomeCoverage.ignoreInReport());
+		assertArrayEquals(genomeCoverage.getChromosomeNames(), savedGenomeCoverage.getChromosomeNames());
+		assertArrayEquals(genomeCoverage.getCoverage(), savedGenomeCoverage.getCoverage());
+	}
+
+}
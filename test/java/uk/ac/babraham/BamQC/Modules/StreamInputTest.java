@@ -0,0 +1,194 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFormatException;
+
+/**
+ * Tests the reading of the data piped to the program, whose format is found 
+ * from its first bytes and whose size is not known.
+ */
+public class StreamInputTest {
+
+	private static Logger log = Logger.getLogger(StreamInputTest.class);
+	
+	private static File resource(String name) {
+		return new File(new File("").getAbsolutePath() + "/test/resources/" + name);
+	}
+	
+	private static byte [] bytes(File file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte [] buffer = new byte[65536];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+	
+	private static byte [] gzip(byte [] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Opens the data as the standard input of the program.
+	 */
+	private static SequenceFile open(byte [] data) throws Exception {
+		InputStream stdin = System.in;
+		System.setIn(new ByteArrayInputStream(data));
+		try {
+			return SequenceFactory.getSequenceFile(new File("-"), null, 0);
+		}
+		finally {
+			System.setIn(stdin);
+		}
+	}
+	
+	/**
+	 * Reads all the records of a stream, checking that its progress is reported in bytes only.
+	 */
+	private static List<String> records(SequenceFile sequenceFile, long size) throws SequenceFormatException {
+		List<String> records = new ArrayList<String>();
+		while (sequenceFile.hasNext()) {
+			assertEquals(-1, sequenceFile.getPercentComplete());
+			long bytesRead = sequenceFile.getBytesRead();
+			assertTrue(bytesRead >= 0 && bytesRead <= size);
+			records.add(sequenceFile.next().getSAMString());
+		}
+		assertEquals(100, sequenceFile.getPercentComplete());
+		assertEquals(size, sequenceFile.getBytesRead());
+		return records;
+	}
+	
+	private static List<String> fileRecords(File file) throws Exception {
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file, null, 0);
+		List<String> records = new ArrayList<String>();
+		while (sequenceFile.hasNext()) {
+			records.add(sequenceFile.next().getSAMString());
+		}
+		return records;
+	}
+	
+	private static void assertRejected(byte [] data, String message) throws Exception {
+		try {
+			open(data);
+			fail("The input was read: "+message);
+		}
+		catch (SequenceFormatException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	@Test
+	public void testBam() throws Exception {
+		System.out.println("Running test StreamInputTest.testBam");
+		log.info("Running test StreamInputTest.testBam");
+		
+		File bam = File.createTempFile("bamqc_test", ".bam");
+		new SyntheticDataGenerator(4, 3000).writeBam(bam);
+		byte [] data = bytes(bam);
+		
+		SequenceFile sequenceFile = open(data);
+		assertEquals("stdin", sequenceFile.name());
+		List<String> records = records(sequenceFile, data.length);
+		assertEquals(3000, records.size());
+		assertEquals(fileRecords(bam), records);
+		bam.delete();
+	}
+	
+	@Test
+	public void testSam() throws Exception {
+		System.out.println("Running test StreamInputTest.testSam");
+		log.info("Running test StreamInputTest.testSam");
+		
+		File sam = resource("example_annot.sam");
+		byte [] data = bytes(sam);
+		List<String> records = records(open(data), data.length);
+		assertFalse(records.isEmpty());
+		assertEquals(fileRecords(sam), records);
+	}
+	
+	@Test
+	public void testGzippedSam() throws Exception {
+		System.out.println("Running test StreamInputTest.testGzippedSam");
+		log.info("Running test StreamInputTest.testGzippedSam");
+		
+		// A Sam file without header, which starts with a record
+		File sam = resource("rhod_plasmidA.sam");
+		byte [] data = gzip(bytes(sam));
+		List<String> records = records(open(data), data.length);
+		assertFalse(records.isEmpty());
+		assertEquals(fileRecords(sam), records);
+	}
+	
+	@Test
+	public void testEmpty() throws Exception {
+		System.out.println("Running test StreamInputTest.testEmpty");
+		log.info("Running test StreamInputTest.testEmpty");
+		
+		assertRejected(new byte[0], "The input is empty");
+		assertRejected(gzip(new byte[0]), "The input is empty");
+	}
+	
+	@Test
+	public void testUnsupported() throws Exception {
+		System.out.println("Running test StreamInputTest.testUnsupported");
+		log.info("Running test StreamInputTest.testUnsupported");
+		
+		// A Cram file needs its reference, so it is only decoded from a file
+		assertRejected(new byte[] {'C', 'R', 'A', 'M', 3, 0, 0, 0}, "Cram input can only be read from a file");
+		assertRejected(gzip(new byte[] {'C', 'R', 'A', 'M', 3, 0, 0, 0}), "Cram input can only be read from a file");
+		assertRejected(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0}, "neither a Sam nor a Bam file");
+		assertRejected("Not a Sam file\n".getBytes("ISO-8859-1"), "neither a Sam nor a Bam file");
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Iterator;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import test.java.uk.ac.babraham.BamQC.Utilities.SyntheticDataGenerator;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.VariantCallDetection;
+
+/**
+ * Tests for the synthetic data generator used by the benchmarks.
+ */
+public class SyntheticDataGeneratorTest {
+
+	private static Logger log = Logger.getLogger(SyntheticDataGeneratorTest.class);
+
+	private SyntheticDataGenerator generator(boolean paired, boolean sorted) {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(7, 4000);
+		generator.paired = paired;
+		generator.sorted = sorted;
+		generator.chromosomeLength = 100000;
+		generator.errorRate = 0.01;
+		generator.indelRate = 0.005;
+		generator.softClipRate = 0.2;
+		generator.spliceRate = 0.1;
+		return generator;
+	}
+
+	@Test
+	public void testExpectedValues() {
+		System.out.println("Running test SyntheticDataGeneratorTest.testExpectedValues");
+		log.info("Running test SyntheticDataGeneratorTest.testExpectedValues");
+
+		SyntheticDataGenerator generator = generator(false, false);
+		SAMFileHeader header = generator.header();
+		VariantCallDetection variantCallDetection = new VariantCallDetection();
+		Iterator<SAMRecord> it = generator.records(header);
+		while (it.hasNext()) {
+			variantCallDetection.processSequence(it.next());
+		}
+		variantCallDetection.processAnnotationSet(new AnnotationSet());
+		variantCallDetection.computeTotals();
+
+		assertEquals(4000, generator.getGeneratedRecords());
+		assertEquals(4000, generator.getMappedRecords() + generator.getUnmappedRecords());
+		assertTrue(generator.getMismatchedBases() > 0 && generator.getInsertions() > 0 && generator.getDeletions() > 0);
+		assertTrue(generator.getSplicedReads() > 0 && generator.getSoftClippedReads() > 0);
+
+		// The Cigar, MD and read strings are always consistent with each other
+		assertEquals(0, variantCallDetection.getInconsistentCigarMDStrings());
+		assertEquals(0, variantCallDetection.getReadWithoutMDString());
+		assertEquals(generator.getUnmappedRecords(), variantCallDetection.getSkippedReads());
+		assertEquals(generator.getMismatchedBases(), variantCallDetection.getTotalMutations());
+		assertEquals(generator.getInsertedBases(), variantCallDetection.getTotalInsertions());
+		assertEquals(generator.getDeletedBases(), variantCallDetection.getTotalDeletions());
+		assertEquals(generator.getSplicedReads(), variantCallDetection.getTotalSplicedReads());
+	}
+
+	@Test
+	public void testSortedPairs() throws Exception {
+		System.out.println("Running test SyntheticDataGeneratorTest.testSortedPairs");
+		log.info("Running test SyntheticDataGeneratorTest.testSortedPairs");
+
+		File bam = File.createTempFile("synthetic", ".bam");
+		bam.deleteOnExit();
+		SyntheticDataGenerator generator = generator(true, true);
+		// the writer checks that the records are sorted
+		generator.writeBam(bam);
+		assertEquals(4000, generator.getPairedRecords());
+
+		SAMFileReader reader = new SAMFileReader(bam);
+		int count = 0;
+		int firstOfPair = 0;
+		for (SAMRecord read : reader) {
+			count++;
+			assertTrue(read.getReadPairedFlag());
+			if (read.getFirstOfPairFlag()) firstOfPair++;
+			if (!read.getReadUnmappedFlag()) {
+				assertTrue(read.getInferredInsertSize() != 0);
+			}
+		}
+		reader.close();
+		assertEquals(4000, count);
+		assertEquals(2000, firstOfPair);
+	}
+
+	@Test
+	public void testReproducible() {
+		System.out.println("Running test SyntheticDataGeneratorTest.testReproducible");
+		log.info("Running test SyntheticDataGeneratorTest.testReproducible");
+
+		SyntheticDataGenerator generator = generator(true, false);
+		SAMFileHeader header = generator.header();
+		Iterator<SAMRecord> first = generator.records(header);
+		Iterator<SAMRecord> second = generator(true, false).records(header);
+		while (first.hasNext()) {
+			assertTrue(second.hasNext());
+			assertEquals(first.next().getSAMString(), second.next().getSAMString());
+		}
+		assertFalse(second.hasNext());
+	}
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Modules;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Modules.TargetCoverage;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Tests for the target regions and the target coverage.
+ */
+public class TargetCoverageTest {
+
+	private static Logger log = Logger.getLogger(TargetCoverageTest.class);
+
+	private TargetCoverage targetCoverage = null;
+	private TargetRegions targets = null;
+	private SAMFileHeader header = null;
+
+	@Before
+	public void setUp() throws Exception {
+		targetCoverage = new TargetCoverage();
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 10000));
+		header.addSequence(new SAMSequenceRecord("chr2", 10000));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		// chr1 targets are given out of order, overlapping and adjacent.
+		// They merge into chr1:101-200, chr1:301-400. chr2:1001-1100 stays alone.
+		targets = new TargetRegions(Arrays.asList("chr1", "chr2", "chr1", "chr1", "chr3"),
+									Arrays.asList(301, 1001, 101, 151, 1),
+									Arrays.asList(400, 1100, 160, 200, 100));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		targetCoverage = null;
+		targets = null;
+		header = null;
+	}
+
+	private SAMRecord buildRead(String name, String chromosome, int start, String cigar) {
+		SAMRecord read = new SAMRecord(header);
+		read.setReadName(name);
+		read.setReferenceName(chromosome);
+		read.setAlignmentStart(start);
+		read.setCigarString(cigar);
+		read.setMappingQuality(60);
+		return read;
+	}
+
+	private List<SAMRecord> buildReads() {
+		List<SAMRecord> reads = new ArrayList<SAMRecord>();
+		// 10 bases in the first target
+		reads.add(buildRead("r1", "chr1", 91, "20M"));
+		// both chr1 targets, with the intron skipping the gap between them
+		reads.add(buildRead("r2", "chr1", 191, "10M100N10M"));
+		// off target
+		reads.add(buildRead("r3", "chr1", 250, "20M"));
+		// off target
+		reads.add(buildRead("r4", "chr2", 10, "20M"));
+		// 20 bases in the chr2 target, counted as on target but not for the coverage
+		SAMRecord duplicate = buildRead("r5", "chr2", 1001, "20M");
+		duplicate.setDuplicateReadFlag(true);
+		reads.add(duplicate);
+		reads.add(buildRead("r6", "chr2", 1001, "20M"));
+		return reads;
+	}
+
+	@Test
+	public void testTargetRegions() {
+		System.out.println("Running test TargetCoverageTest.testTargetRegions");
+		log.info("Running test TargetCoverageTest.testTargetRegions");
+
+		assertEquals(4, targets.size());
+		assertEquals(100 + 100 + 100 + 100, targets.totalLength());
+		int [] range = targets.targetRange("chr1");
+		assertEquals(101, targets.start(range[0]));
+		assertEquals(200, targets.end(range[0]));
+		assertEquals(301, targets.start(range[0]+1));
+		assertEquals(400, targets.end(range[0]+1));
+
+		assertTrue(targets.overlaps("chr1", 200, 250));
+		assertFalse(targets.overlaps("chr1", 201, 300));
+		assertTrue(targets.overlaps("chr1", 150, 350));
+		assertFalse(targets.overlaps("chr1", 401, 500));
+		assertFalse(targets.overlaps("chrX", 1, 500));
+		assertEquals(-1, targets.findFirstTarget("chr1", 401));
+	}
+
+	@Test
+	public void testTargetCoverage() {
+		System.out.println("Running test TargetCoverageTest.testTargetCoverage");
+		log.info("Running test TargetCoverageTest.testTargetCoverage");
+
+		targetCoverage.setTargetRegions(targets);
+		List<SAMRecord> reads = buildReads();
+		for (int i=0; i<reads.size(); i++) {
+			targetCoverage.processSequence(reads.get(i));
+		}
+		targetCoverage.processAnnotationSet(new AnnotationSet());
+		targetCoverage.setMappedRecords(reads.size());
+
+		int first = targets.targetRange("chr1")[0];
+		int chr2 = targets.targetRange("chr2")[0];
+		assertEquals(4, targetCoverage.getOnTargetRecords());
+		assertEquals(100d * 4 / 6, targetCoverage.getOnTargetRate(), 1e-9);
+		assertEquals(10 + 10, targetCoverage.getTargetBases()[first]);
+		assertEquals(2, targetCoverage.getTargetReads()[first]);
+		assertEquals(10, targetCoverage.getTargetBases()[first+1]);
+		assertEquals(1, targetCoverage.getTargetReads()[first+1]);
+		assertEquals(20, targetCoverage.getTargetBases()[chr2]);
+		assertEquals(0.2d, targetCoverage.getMeanCoverage(chr2), 1e-9);
+		assertEquals(50d / 400, targetCoverage.getMeanTargetCoverage(), 1e-9);
+		assertFalse(targetCoverage.ignoreInReport());
+	}
+
+	@Test
+	public void testIndexedQueries() throws Exception {
+		System.out.println("Running test TargetCoverageTest.testIndexedQueries");
+		log.info("Running test TargetCoverageTest.testIndexedQueries");
+
+		File bam = File.createTempFile("target_coverage", ".bam");
+		File index = new File(bam.getAbsolutePath().replaceAll("\\.bam$", ".bai"));
+		bam.deleteOnExit();
+		index.deleteOnExit();
+
+		List<SAMRecord> reads = buildReads();
+		SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bam);
+		for (int i=0; i<reads.size(); i++) {
+			writer.addAlignment(reads.get(i));
+		}
+		writer.close();
+		assertTrue(index.exists());
+
+		// with the index, r2 is returned by the queries of both chr1 targets, but only seen once.
+		SequenceFile file = SequenceFactory.getSequenceFile(bam, targets);
+		ArrayList<String> names = new ArrayList<String>();
+		while (file.hasNext()) {
+			names.add(file.next().getReadName());
+		}
+		assertEquals(Arrays.asList("r1", "r2", "r5", "r6"), names);
+		assertEquals(6, file.getMappedRecordCount());
+
+		// without the index, the whole file is read and the same reads are returned.
+		index.delete();
+		file = SequenceFactory.getSequenceFile(bam, targets);
+		targetCoverage.processFile(file);
+		names.clear();
+		while (file.hasNext()) {
+			SAMRecord read = file.next();
+			names.add(read.getReadName());
+			targetCoverage.processSequence(read);
+		}
+		targetCoverage.processAnnotationSet(new AnnotationSet());
+		assertEquals(Arrays.asList("r1", "r2", "r5", "r6"), names);
+		assertEquals(6, file.getMappedRecordCount());
+		assertEquals(100d * 4 / 6, targetCoverage.getOnTargetRate(), 1e-9);
+	}
+
+	@Test
+	public void testBooleans() {
+		System.out.println("Running test TargetCoverageTest.testBooleans");
+		log.info("Running test TargetCoverageTest.testBooleans");
+
+		// Without target regions the module is not shown
+		assertTrue(targetCoverage.ignoreInReport());
+		assertFalse(targetCoverage.raisesError());
+		assertFalse(targetCoverage.raisesWarning());
+		assertTrue(targetCoverage.needsToSeeAnnotation());
+		assertTrue(targetCoverage.needsToSeeSequences());
+	}
+
+}
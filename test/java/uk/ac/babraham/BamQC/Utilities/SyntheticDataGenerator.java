@@ -0,0 +1,608 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package test.java.uk.ac.babraham.BamQC.Utilities;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordCoordinateComparator;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Generates synthetic, reproducible BAM, GTF and FASTA files for the benchmarks and
+ * the scaling tests. Everything only depends on the settings and on the seed.
+ * 
+ * The reference base at each position is a hash of the seed and of the position, so
+ * no reference has to be kept in memory and the MD tags are always consistent with
+ * the reads. The records are generated one at a time and are never held in memory,
+ * apart from the mates waiting for their position in a sorted file, so files of any
+ * size can be written.
+ * 
+ * While the records are generated, the expected values (number of mismatched, inserted
+ * and deleted bases, soft clipped and spliced reads...) are counted. They can be written
+ * next to the BAM file to check the results of an analysis.
+ * 
+ * Usage: SyntheticDataGenerator [--option value]... output_prefix
+ * writes output_prefix.bam, output_prefix.gtf and output_prefix.expected.txt,
+ * plus output_prefix.fa with --fasta true. See usage() for the options.
+ */
+public class SyntheticDataGenerator {
+
+	private static final char [] BASES = {'A', 'C', 'G', 'T'};
+
+	// Reads are never placed closer than this to the end of a chromosome, 
+	// so that their mate and their splice junction fit in it.
+	private static final int CHROMOSOME_MARGIN = 10000;
+
+	// Settings
+	public long seed = 0;
+	/** The number of records. For paired reads this is twice the number of fragments. */
+	public long records = 1000000;
+	public int readLength = 100;
+	public boolean paired = false;
+	public boolean sorted = true;
+	public boolean mdTags = true;
+	/** The probability of a mismatch at each aligned base */
+	public double errorRate = 0.005;
+	/** The probability of an insertion or a deletion of 1 to 3 bases at each aligned base */
+	public double indelRate = 0.0005;
+	/** The probability that a read has 1 to 10 soft clipped bases */
+	public double softClipRate = 0.05;
+	/** The probability that a read is spliced, with an intron of 500 to 5000 bases */
+	public double spliceRate = 0d;
+	/** The probability that a read, or a fragment, is unmapped */
+	public double unmappedRate = 0.02;
+	public int insertMean = 300;
+	public int insertSd = 30;
+	public int chromosomes = 4;
+	public int chromosomeLength = 10000000;
+	/** The number of genes per Mbp in the GTF file */
+	public double genesPerMb = 10d;
+	public int exonsPerGene = 4;
+
+	// The expected values, counted while the records are generated
+	private long generatedRecords = 0;
+	private long mappedRecords = 0;
+	private long unmappedRecords = 0;
+	private long pairedRecords = 0;
+	private long alignedBases = 0;
+	private long mismatchedBases = 0;
+	private long insertions = 0;
+	private long insertedBases = 0;
+	private long deletions = 0;
+	private long deletedBases = 0;
+	private long softClippedReads = 0;
+	private long splicedReads = 0;
+
+	private Random random;
+
+	public SyntheticDataGenerator() { }
+
+	public SyntheticDataGenerator(long seed, long records) {
+		this.seed = seed;
+		this.records = records;
+	}
+
+	public SAMFileHeader header() {
+		SAMFileHeader header = new SAMFileHeader();
+		for (int c=0; c<chromosomes; c++) {
+			header.addSequence(new SAMSequenceRecord(chromosomeName(c), chromosomeLength));
+		}
+		header.setSortOrder(sorted ? SAMFileHeader.SortOrder.coordinate : SAMFileHeader.SortOrder.unsorted);
+		return header;
+	}
+
+	public static String chromosomeName(int chromosome) {
+		return "chr" + (chromosome + 1);
+	}
+
+	/**
+	 * Returns the reference base at a 1-based position.
+	 */
+	public char referenceBase(int chromosome, int position) {
+		long h = (seed * 0x9E3779B97F4A7C15L) ^ ((long)chromosome << 40) ^ position;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return BASES[(int)(h & 3)];
+	}
+
+	/**
+	 * Returns the records. Each call starts the same sequence of records again
+	 * and restarts the expected values.
+	 * @param header the header returned by header()
+	 */
+	public Iterator<SAMRecord> records(SAMFileHeader header) {
+		if (chromosomeLength <= 2 * CHROMOSOME_MARGIN) {
+			throw new IllegalArgumentException("Chromosomes must be longer than " + 2 * CHROMOSOME_MARGIN + "bp");
+		}
+		resetExpectedValues();
+		random = new Random(seed);
+		return new RecordIterator(header);
+	}
+
+	/**
+	 * Writes the records to a BAM file.
+	 */
+	public void writeBam(File bam) {
+		SAMFileHeader header = header();
+		// The records are generated in order, so the writer does not have to sort them.
+		SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, bam);
+		Iterator<SAMRecord> it = records(header);
+		while (it.hasNext()) {
+			writer.addAlignment(it.next());
+		}
+		writer.close();
+	}
+
+	/**
+	 * Writes a GTF file with genesPerMb genes per Mbp, each one with a transcript of exonsPerGene 
+	 * exons of 200bp separated by introns of 800bp. Genes are randomly placed and stranded.
+	 */
+	public void writeGtf(File gtf) throws IOException {
+		Random gtfRandom = new Random(seed + 1);
+		int geneLength = exonsPerGene * 1000 - 800;
+		int genesPerChromosome = (int)(genesPerMb * chromosomeLength / 1000000d);
+		PrintWriter pw = new PrintWriter(new FileWriter(gtf));
+		try {
+			int gene = 0;
+			for (int c=0; c<chromosomes; c++) {
+				// evenly spread gene slots, each gene being randomly placed in its slot
+				double slot = (chromosomeLength - geneLength) / (double)Math.max(1, genesPerChromosome);
+				for (int g=0; g<genesPerChromosome; g++) {
+					gene++;
+					int start = 1 + (int)(g * slot) + gtfRandom.nextInt(Math.max(1, (int)slot - geneLength));
+					int end = start + geneLength - 1;
+					String strand = gtfRandom.nextBoolean() ? "+" : "-";
+					String attributes = "gene_id \"G" + gene + "\"; transcript_id \"T" + gene + "\";";
+					String prefix = chromosomeName(c) + "\tprotein_coding\t";
+					String suffix = "\t.\t" + strand + "\t.\t" + attributes;
+					pw.println(prefix + "gene\t" + start + "\t" + end + suffix);
+					pw.println(prefix + "transcript\t" + start + "\t" + end + suffix);
+					for (int e=0; e<exonsPerGene; e++) {
+						pw.println(prefix + "exon\t" + (start + e * 1000) + "\t" + (start + e * 1000 + 199) + suffix);
+					}
+				}
+			}
+		}
+		finally {
+			pw.close();
+		}
+	}
+
+	/**
+	 * Writes the reference sequence as a FASTA file.
+	 */
+	public void writeFasta(File fasta) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(fasta));
+		try {
+			char [] line = new char[60];
+			for (int c=0; c<chromosomes; c++) {
+				pw.println(">" + chromosomeName(c));
+				for (int position=1; position<=chromosomeLength; position+=line.length) {
+					int length = Math.min(line.length, chromosomeLength - position + 1);
+					for (int i=0; i<length; i++) {
+						line[i] = referenceBase(c, position + i);
+					}
+					pw.write(line, 0, length);
+					pw.println();
+				}
+			}
+		}
+		finally {
+			pw.close();
+		}
+	}
+
+	/**
+	 * Writes the values counted for the last records generated, as tab separated name and value.
+	 */
+	public void writeExpectedValues(File file) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(file));
+		try {
+			pw.println("#Measure\tValue");
+			pw.println("Seed\t" + seed);
+			pw.println("Records\t" + generatedRecords);
+			pw.println("Mapped records\t" + mappedRecords);
+			pw.println("Unmapped records\t" + unmappedRecords);
+			pw.println("Paired records\t" + pairedRecords);
+			pw.println("Aligned bases\t" + alignedBases);
+			pw.println("Mismatched bases\t" + mismatchedBases);
+			pw.println("Insertions\t" + insertions);
+			pw.println("Inserted bases\t" + insertedBases);
+			pw.println("Deletions\t" + deletions);
+			pw.println("Deleted bases\t" + deletedBases);
+			pw.println("Soft clipped reads\t" + softClippedReads);
+			pw.println("Spliced reads\t" + splicedReads);
+		}
+		finally {
+			pw.close();
+		}
+	}
+
+	private void resetExpectedValues() {
+		generatedRecords = 0;
+		mappedRecords = 0;
+		unmappedRecords = 0;
+		pairedRecords = 0;
+		alignedBases = 0;
+		mismatchedBases = 0;
+		insertions = 0;
+		insertedBases = 0;
+		deletions = 0;
+		deletedBases = 0;
+		softClippedReads = 0;
+		splicedReads = 0;
+	}
+
+	public long getGeneratedRecords() { return generatedRecords; }
+	public long getMappedRecords() { return mappedRecords; }
+	public long getUnmappedRecords() { return unmappedRecords; }
+	public long getPairedRecords() { return pairedRecords; }
+	public long getAlignedBases() { return alignedBases; }
+	public long getMismatchedBases() { return mismatchedBases; }
+	public long getInsertions() { return insertions; }
+	public long getInsertedBases() { return insertedBases; }
+	public long getDeletions() { return deletions; }
+	public long getDeletedBases() { return deletedBases; }
+	public long getSoftClippedReads() { return softClippedReads; }
+	public long getSplicedReads() { return splicedReads; }
+
+
+	/**
+	 * Generates the fragments in order. In a sorted file the second mates wait in a queue
+	 * until the first reads of the following fragments have passed their position.
+	 */
+	private class RecordIterator implements Iterator<SAMRecord> {
+
+		private SAMFileHeader header;
+		private long fragments;
+		private long fragment = 0;
+		private long usableLength;
+		private int lastChromosome = -1;
+		private ArrayDeque<SAMRecord> ready = new ArrayDeque<SAMRecord>();
+		private PriorityQueue<SAMRecord> mates = new PriorityQueue<SAMRecord>(64, new SAMRecordCoordinateComparator());
+
+		public RecordIterator(SAMFileHeader header) {
+			this.header = header;
+			this.fragments = paired ? records / 2 : records;
+			this.usableLength = (long)chromosomes * (chromosomeLength - CHROMOSOME_MARGIN);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (ready.isEmpty() && fragment < fragments) {
+				nextFragment();
+			}
+			if (ready.isEmpty() && !mates.isEmpty()) {
+				ready.add(mates.poll());
+			}
+			return !ready.isEmpty();
+		}
+
+		@Override
+		public SAMRecord next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			generatedRecords++;
+			return ready.poll();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void nextFragment() {
+			// the position along all the chromosomes
+			long coordinate;
+			if (sorted) {
+				long first = (long)(fragment * (double)usableLength / fragments);
+				long next = (long)((fragment + 1) * (double)usableLength / fragments);
+				coordinate = first + (next > first ? (long)(random.nextDouble() * (next - first)) : 0);
+			}
+			else {
+				coordinate = (long)(random.nextDouble() * usableLength);
+			}
+			fragment++;
+			int chromosome = (int)(coordinate / (chromosomeLength - CHROMOSOME_MARGIN));
+			int start = 1 + (int)(coordinate % (chromosomeLength - CHROMOSOME_MARGIN));
+
+			if (chromosome != lastChromosome) {
+				while (!mates.isEmpty()) ready.add(mates.poll());
+				lastChromosome = chromosome;
+			}
+
+			boolean unmapped = random.nextDouble() < unmappedRate;
+			boolean negative = random.nextBoolean();
+			String name = "read" + fragment;
+
+			SAMRecord first = unmapped ? unmappedRead(name, chromosome, start) : buildRead(name, chromosome, start, negative);
+			if (!paired) {
+				ready.add(first);
+				return;
+			}
+
+			int insert = Math.max(readLength, (int)Math.round(insertMean + insertSd * random.nextGaussian()));
+			insert = Math.min(insert, CHROMOSOME_MARGIN / 2);
+			int mateStart = unmapped ? start : start + insert - readLength;
+			SAMRecord second = unmapped ? unmappedRead(name, chromosome, mateStart) : buildRead(name, chromosome, mateStart, !negative);
+			setMates(first, second, unmapped);
+			first.setFirstOfPairFlag(true);
+			second.setSecondOfPairFlag(true);
+			pairedRecords += 2;
+
+			while (!mates.isEmpty() && mates.peek().getAlignmentStart() <= start) {
+				ready.add(mates.poll());
+			}
+			ready.add(first);
+			if (sorted) {
+				mates.add(second);
+			}
+			else {
+				ready.add(second);
+			}
+		}
+
+		private void setMates(SAMRecord first, SAMRecord second, boolean unmapped) {
+			SAMRecord [] pair = {first, second};
+			for (int i=0; i<2; i++) {
+				SAMRecord read = pair[i];
+				SAMRecord mate = pair[1-i];
+				read.setReadPairedFlag(true);
+				read.setMateReferenceIndex(mate.getReferenceIndex());
+				read.setMateAlignmentStart(mate.getAlignmentStart());
+				read.setMateUnmappedFlag(unmapped);
+				if (!unmapped) {
+					read.setProperPairFlag(true);
+					read.setMateNegativeStrandFlag(mate.getReadNegativeStrandFlag());
+					int insertSize = second.getAlignmentEnd() - first.getAlignmentStart() + 1;
+					read.setInferredInsertSize(i == 0 ? insertSize : -insertSize);
+				}
+			}
+		}
+
+		private SAMRecord unmappedRead(String name, int chromosome, int start) {
+			SAMRecord read = new SAMRecord(header);
+			read.setReadName(name);
+			read.setReadString(randomBases(readLength));
+			read.setBaseQualityString(qualities());
+			read.setReadUnmappedFlag(true);
+			// placed at the position of the fragment, as the unmapped mates of mapped reads are
+			read.setReferenceIndex(chromosome);
+			read.setAlignmentStart(start);
+			unmappedRecords++;
+			return read;
+		}
+
+		private SAMRecord buildRead(String name, int chromosome, int start, boolean negative) {
+			StringBuilder bases = new StringBuilder(readLength);
+			StringBuilder cigar = new StringBuilder();
+			StringBuilder md = new StringBuilder();
+			char lastOperator = 0;
+			int operatorLength = 0;
+			int mdMatches = 0;
+			int position = start;
+
+			int clip = random.nextDouble() < softClipRate ? 1 + random.nextInt(10) : 0;
+			boolean clipAtStart = random.nextBoolean();
+			boolean spliced = random.nextDouble() < spliceRate;
+			int alignedLength = readLength - clip;
+
+			if (clip > 0) softClippedReads++;
+			if (spliced) splicedReads++;
+
+			if (clip > 0 && clipAtStart) {
+				bases.append(randomBases(clip));
+				cigar.append(clip).append('S');
+			}
+
+			int aligned = 0;
+			while (aligned < alignedLength) {
+				char operator;
+				int length = 1;
+				// indels and the splice junction are kept away from the ends of the alignment, 
+				// and always follow a match, so that no two of them are adjacent.
+				boolean inner = lastOperator == 'M' && aligned >= 5 && aligned < alignedLength - 5;
+
+				if (inner && spliced && aligned >= alignedLength / 2) {
+					operator = 'N';
+					length = 500 + random.nextInt(4501);
+					position += length;
+					spliced = false;
+				}
+				else if (inner && random.nextDouble() < indelRate) {
+					length = 1 + random.nextInt(3);
+					if (random.nextBoolean()) {
+						operator = 'I';
+						length = Math.min(length, alignedLength - aligned - 5);
+						bases.append(randomBases(length));
+						aligned += length;
+						insertions++;
+						insertedBases += length;
+					}
+					else {
+						operator = 'D';
+						md.append(mdMatches).append('^');
+						for (int i=0; i<length; i++) {
+							md.append(referenceBase(chromosome, position + i));
+						}
+						mdMatches = 0;
+						position += length;
+						deletions++;
+						deletedBases += length;
+					}
+				}
+				else {
+					operator = 'M';
+					char reference = referenceBase(chromosome, position);
+					if (random.nextDouble() < errorRate) {
+						bases.append(otherBase(reference));
+						md.append(mdMatches).append(reference);
+						mdMatches = 0;
+						mismatchedBases++;
+					}
+					else {
+						bases.append(reference);
+						mdMatches++;
+					}
+					position++;
+					aligned++;
+					alignedBases++;
+				}
+
+				if (operator == lastOperator) {
+					operatorLength += length;
+				}
+				else {
+					if (operatorLength > 0) cigar.append(operatorLength).append(lastOperator);
+					lastOperator = operator;
+					operatorLength = length;
+				}
+			}
+			cigar.append(operatorLength).append(lastOperator);
+			md.append(mdMatches);
+
+			if (clip > 0 && !clipAtStart) {
+				bases.append(randomBases(clip));
+				cigar.append(clip).append('S');
+			}
+
+			SAMRecord read = new SAMRecord(header);
+			read.setReadName(name);
+			read.setReferenceIndex(chromosome);
+			read.setAlignmentStart(start);
+			read.setReadNegativeStrandFlag(negative);
+			read.setCigarString(cigar.toString());
+			read.setReadString(bases.toString());
+			read.setBaseQualityString(qualities());
+			read.setMappingQuality(random.nextInt(10) == 0 ? random.nextInt(60) : 60);
+			if (mdTags) {
+				read.setAttribute("MD", md.toString());
+			}
+			mappedRecords++;
+			return read;
+		}
+
+		private String randomBases(int length) {
+			char [] bases = new char[length];
+			for (int i=0; i<length; i++) {
+				bases[i] = BASES[random.nextInt(4)];
+			}
+			return new String(bases);
+		}
+
+		private char otherBase(char base) {
+			char other = base;
+			while (other == base) {
+				other = BASES[random.nextInt(4)];
+			}
+			return other;
+		}
+
+		private String qualities() {
+			char [] qualities = new char[readLength];
+			for (int i=0; i<readLength; i++) {
+				qualities[i] = (char)('!' + 20 + random.nextInt(21));
+			}
+			return new String(qualities);
+		}
+	}
+
+
+	private static void usage() {
+		System.err.println("Usage: SyntheticDataGenerator [--option value]... output_prefix");
+		System.err.println("Writes output_prefix.bam, output_prefix.gtf and output_prefix.expected.txt");
+		System.err.println("Options (defaults in brackets):");
+		System.err.println("  --seed [0]  --records [1000000]  --read-length [100]  --paired [false]  --sorted [true]");
+		System.err.println("  --md [true]  --error-rate [0.005]  --indel-rate [0.0005]  --softclip-rate [0.05]");
+		System.err.println("  --splice-rate [0]  --unmapped-rate [0.02]  --insert-mean [300]  --insert-sd [30]");
+		System.err.println("  --chromosomes [4]  --chromosome-length [10000000]  --genes-per-mb [10]  --exons [4]");
+		System.err.println("  --fasta [false]  also writes the reference as output_prefix.fa");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator();
+		boolean fasta = false;
+		String prefix = null;
+		try {
+			for (int i=0; i<args.length; i++) {
+				if (!args[i].startsWith("--")) {
+					prefix = args[i];
+					continue;
+				}
+				if (i + 1 >= args.length) usage();
+				String option = args[i];
+				String value = args[++i];
+				if (option.equals("--seed")) generator.seed = Long.parseLong(value);
+				else if (option.equals("--records")) generator.records = Long.parseLong(value);
+				else if (option.equals("--read-length")) generator.readLength = Integer.parseInt(value);
+				else if (option.equals("--paired")) generator.paired = Boolean.parseBoolean(value);
+				else if (option.equals("--sorted")) generator.sorted = Boolean.parseBoolean(value);
+				else if (option.equals("--md")) generator.mdTags = Boolean.parseBoolean(value);
+				else if (option.equals("--error-rate")) generator.errorRate = Double.parseDouble(value);
+				else if (option.equals("--indel-rate")) generator.indelRate = Double.parseDouble(value);
+				else if (option.equals("--softclip-rate")) generator.softClipRate = Double.parseDouble(value);
+				else if (option.equals("--splice-rate")) generator.spliceRate = Double.parseDouble(value);
+				else if (option.equals("--unmapped-rate")) generator.unmappedRate = Double.parseDouble(value);
+				else if (option.equals("--insert-mean")) generator.insertMean = Integer.parseInt(value);
+				else if (option.equals("--insert-sd")) generator.insertSd = Integer.parseInt(value);
+				else if (option.equals("--chromosomes")) generator.chromosomes = Integer.parseInt(value);
+				else if (option.equals("--chromosome-length")) generator.chromosomeLength = Integer.parseInt(value);
+				else if (option.equals("--genes-per-mb")) generator.genesPerMb = Double.parseDouble(value);
+				else if (option.equals("--exons")) generator.exonsPerGene = Integer.parseInt(value);
+				else if (option.equals("--fasta")) fasta = Boolean.parseBoolean(value);
+				else usage();
+			}
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Invalid number: " + e.getMessage());
+			usage();
+		}
+		if (prefix == null) usage();
+
+		long start = System.currentTimeMillis();
+		generator.writeBam(new File(prefix + ".bam"));
+		generator.writeExpectedValues(new File(prefix + ".expected.txt"));
+		generator.writeGtf(new File(prefix + ".gtf"));
+		if (fasta) {
+			generator.writeFasta(new File(prefix + ".fa"));
+		}
+		System.err.println("Wrote " + generator.getGeneratedRecords() + " records in " + (System.currentTimeMillis() - start) / 1000 + "s");
+	}
+
+}
@@ -34,7 +34,16 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 public interface AnalysisListener {
 
 	public void analysisStarted(SequenceFile file);
-	public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete);
+	/**
+	 * Reports the progress of the analysis.
+	 * @param file the file being analysed
+	 * @param sequencesProcessed the number of records processed so far
+	 * @param percentComplete the percentage of the file processed so far, or -1 if the size of the file is not known
+	 * @param recordsPerSecond the average number of records processed per second
+	 * @param megabytesPerSecond the average number of MB of the file read per second, or -1 if not known
+	 * @param secondsRemaining the estimated time to the end of the file, or -1 if not known
+	 */
+	public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining);
 	public void analysisComplete(SequenceFile file, QCModule [] results);
 	public void analysisExceptionReceived(SequenceFile file, Exception e);
 }
@@ -27,15 +27,13 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import uk.ac.babraham.BamQC.BamQCConfig;
-import uk.ac.babraham.BamQC.Modules.QCModule;
-import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 /**
  * 
  * @author Simon Andrews
  *
  */
-public class AnalysisQueue implements Runnable, AnalysisListener {
+public class AnalysisQueue implements Runnable {
 
 	private static AnalysisQueue instance = new AnalysisQueue();
 	
@@ -44,6 +42,10 @@ public class AnalysisQueue implements Runnable, AnalysisListener {
 	private AtomicInteger availableSlots = new AtomicInteger(1);
 	private AtomicInteger usedSlots = new AtomicInteger(0);
 	
+	// Wakes the queue when an analysis is added or finished, so that short 
+	// analyses do not wait for the next poll
+	private final Object lock = new Object();
+	
 	public static AnalysisQueue getInstance () {
 		return instance;
 	}
@@ -60,6 +62,27 @@ public class AnalysisQueue implements Runnable, AnalysisListener {
 	
 	public void addToQueue (AnalysisRunner runner) {
 		queue.add(runner);
+		wake();
+	}
+	
+	private void wake () {
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+	
+	/**
+	 * @return the number of analyses waiting for a free slot
+	 */
+	public int getQueueLength () {
+		return queue.size();
+	}
+	
+	/**
+	 * @return the number of analyses currently running
+	 */
+	public int getActiveRunners () {
+		return usedSlots.intValue();
 	}
 
 	@Override
@@ -67,35 +90,32 @@ public class AnalysisQueue implements Runnable, AnalysisListener {
 
 		while (true) {
 //			log.debug("Status available="+availableSlots+" used="+usedSlots+" queue="+queue.size());
-			if (availableSlots.intValue() > usedSlots.intValue() && queue.size() > 0) {
-				usedSlots.incrementAndGet();
-				AnalysisRunner currentRun = queue.removeFirst();
-				currentRun.addAnalysisListener(this);
-				Thread t = new Thread(currentRun);
-				t.start();
+			synchronized (lock) {
+				if (availableSlots.intValue() > usedSlots.intValue() && queue.size() > 0) {
+					usedSlots.incrementAndGet();
+					final AnalysisRunner currentRun = queue.removeFirst();
+					// The slot is released however the analysis ends
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								currentRun.run();
+							}
+							finally {
+								usedSlots.decrementAndGet();
+								wake();
+							}
+						}
+					});
+					t.start();
+					continue;
+				}
+				
+				try {
+					lock.wait(500);
+				} catch (InterruptedException e) {}
 			}
-			
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {}
 		}
 	}
-
-	@Override
-	public void analysisComplete(SequenceFile file, QCModule[] results) {
-		usedSlots.decrementAndGet();
-	}
-
-	@Override
-	public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {}
-
-	@Override
-	public void analysisExceptionReceived(SequenceFile file, Exception e) {
-		usedSlots.decrementAndGet();
-	}
-
-	@Override
-	public void analysisStarted(SequenceFile file) {}
-	
 	
 }
@@ -25,6 +25,8 @@
 package uk.ac.babraham.BamQC.Analysis;
 
 import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -40,9 +42,12 @@ import uk.ac.babraham.BamQC.AnnotationParsers.GenomeParser;
 import uk.ac.babraham.BamQC.DataTypes.ProgressListener;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Dialogs.ProgressTextDialog;
+import uk.ac.babraham.BamQC.Modules.ConvergentModule;
 import uk.ac.babraham.BamQC.Modules.QCModule;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFilePosition;
 import uk.ac.babraham.BamQC.Sequence.SequenceFormatException;
+import uk.ac.babraham.BamQC.Utilities.FlightRecorderEvent;
 
 /**
  * @author Simon Andrews
@@ -61,12 +66,85 @@ public class AnalysisRunner implements Runnable {
 	// for the annotation
 	private List<ProgressListener> progressListeners = new ArrayList<ProgressListener>();
 	
-	private int percentComplete = 0;
+	// The listeners are updated at most every UPDATE_INTERVAL milliseconds. The clock 
+	// is only looked at every UPDATE_CHECK_RECORDS records to keep the main loop cheap.
+	private static final long UPDATE_INTERVAL = 1000;
+	private static final int UPDATE_CHECK_RECORDS = 1024;
+	
+	// When a convergence tolerance is set, the distributions of the convergent modules 
+	// are compared every CONVERGENCE_CHECK_INTERVAL records. The analysis stops once they 
+	// have changed less than the tolerance for CONVERGENCE_STABLE_CHECKS checks in a row.
+	private static final int CONVERGENCE_CHECK_INTERVAL = 100000;
+	private static final int CONVERGENCE_STABLE_CHECKS = 2;
+	private int stableChecks = 0;
+	
+	// The records are read and processed in batches of BATCH_SIZE records, 
+	// so that the reading and the processing can be timed separately.
+	private static final int BATCH_SIZE = 1024;
+	
+	// The annotation, which can be set for each analysis when the program keeps running
+	private File annotationFile = BamQCConfig.getInstance().gff_file;
+	private File genome = BamQCConfig.getInstance().genome;
+	private AnnotationCache annotationCache = null;
+	private String annotationKey = null;
+	
+	// The state of the analysis is saved in the checkpoint file every checkpointInterval 
+	// milliseconds, and the analysis goes on from it when it is resumed.
+	private File checkpointFile = null;
+	private long checkpointInterval = 0;
+	private boolean resume = false;
+	private String checkpointKey = null;
+	// The records and the bytes read before the analysis was resumed, which are 
+	// left out of the throughput
+	private long resumedRecords = 0;
+	private long resumedBytes = 0;
+	
+	// When a shard of the file is read, the values of the modules are saved in the 
+	// partial file instead of being completed with the annotation.
+	private File partialFile = null;
+	
+	// Set once the listeners have been told the analysis completed or failed, so they are only told once
+	private boolean finished = false;
 	
 	public AnalysisRunner (SequenceFile file) {
 		this.file = file;
 	}
 	
+	/**
+	 * Sets the annotation of this analysis instead of the one of the BamQCConfig.
+	 * @param annotationFile a GTF or GFF3 file, or null
+	 * @param genome a genome directory, which is used instead of the annotation file, or null
+	 * @param annotationCache the parsed annotations to use and to add to, or null
+	 */
+	public void setAnnotation (File annotationFile, File genome, AnnotationCache annotationCache) {
+		this.annotationFile = annotationFile;
+		this.genome = genome;
+		this.annotationCache = annotationCache;
+	}
+	
+	/**
+	 * Saves the state of the analysis in a file at regular intervals, so that it can 
+	 * go on from there if it is interrupted. The file is deleted once the analysis is
+	 * complete. The interval and whether an earlier checkpoint is resumed are read 
+	 * from the BamQCConfig.
+	 * @param checkpointFile the checkpoint of the analysed file
+	 */
+	public void setCheckpointFile (File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+		checkpointInterval = (long)(BamQCConfig.getInstance().checkpoint_interval * 60000);
+		resume = BamQCConfig.getInstance().resume;
+	}
+	
+	/**
+	 * Saves the values collected from a shard of the file in a file of partial results, 
+	 * which is merged with those of the other shards later. The modules then do not see 
+	 * the annotation set, and the listeners receive them as they were saved.
+	 * @param partialFile the partial results of the shard
+	 */
+	public void setPartialFile (File partialFile) {
+		this.partialFile = partialFile;
+	}
+	
 	public void addAnalysisListener (AnalysisListener l) {
 		if (l != null && !analysisListeners.contains(l)) {
 			analysisListeners.add(l);
@@ -99,83 +177,55 @@ public class AnalysisRunner implements Runnable {
 		}
 		AnalysisQueue.getInstance().addToQueue(this);
 	}
+	
+	/**
+	 * Runs the analysis in the calling thread instead of going through the AnalysisQueue.
+	 * This is used by the benchmarks, which need to time a whole analysis.
+	 * @param modules the modules to run
+	 */
+	public void runAnalysis (QCModule [] modules) {
+		this.modules = modules;
+		for (int i=0;i<modules.length;i++) {
+			modules[i].reset();
+		}
+		run();
+	}
 
 	@Override
 	public void run() {
-
-		
-		AnnotationSet annotationSet = null;
-
-		if(BamQCConfig.getInstance().genome != null) {
-			
-        	GenomeParser parser = new GenomeParser();
-        	
-        	
-			// SET UP THE ANNOTATION PROGRESS LISTENER
-			// This is used for reporting the annotation progress on a shell
-	        if(GraphicsEnvironment.isHeadless()) {
-	        	ProgressTextDialog ptd = new ProgressTextDialog("");
-	        	parser.addProgressListener(ptd);
-	        }
-			// This is the progress listener for the annotation
-			Iterator<ProgressListener> progressListenerIter = progressListeners.iterator();
-			while (progressListenerIter.hasNext()) {
-				parser.addProgressListener(progressListenerIter.next());
-			}
-
-			
-			try {
-				parser.parseGenome(BamQCConfig.getInstance().genome);
-			} catch (Exception e) {
-				log.error("The annotation genome " + BamQCConfig.getInstance().genome + " seems corrupted!", e);
-				Iterator<AnalysisListener> i2 = analysisListeners.iterator();
-				while (i2.hasNext()) {
-					i2.next().analysisExceptionReceived(file, e);
-				}
-				return;
+		try {
+			analyse();
+		}
+		catch (RuntimeException e) {
+			// An unchecked exception of the reader, such as a truncated Bam file, 
+			// must still end the analysis, so the listeners can go on.
+			log.error("Failed to analyse " + file.name(), e);
+			file.stopReading("The analysis failed");
+			if (!finished) {
+				notifyException(e);
 			}
-			annotationSet = parser.genome().annotationSet();
+		}
+	}
+	
+	/**
+	 * Tells the listeners that the analysis failed.
+	 */
+	private void notifyException(Exception e) {
+		finished = true;
+		Iterator<AnalysisListener> analysisListenerIter = analysisListeners.iterator();
+		while (analysisListenerIter.hasNext()) {
+			analysisListenerIter.next().analysisExceptionReceived(file, e);
+		}
+	}
+	
+	private void analyse() {
 
-		} else if (BamQCConfig.getInstance().gff_file != null) {	
-				annotationSet = new AnnotationSet();
-				
-				AnnotationParser parser;
-				if (BamQCConfig.getInstance().gff_file.getName().toLowerCase().endsWith("gtf")) {
-					parser = new GTFAnnotationParser();
-				}
-				else {
-					parser = new GFF3AnnotationParser();
-				}
-				
-				
-				// SET UP THE ANNOTATION PROGRESS LISTENER
-				// This is used for reporting the annotation progress on a shell
-		        if(GraphicsEnvironment.isHeadless()) {
-		        	ProgressTextDialog ptd = new ProgressTextDialog("");
-		        	parser.addProgressListener(ptd);
-		        }
-				// This is the progress listener for the annotation
-				Iterator<ProgressListener> progressListenerIter = progressListeners.iterator();
-				while (progressListenerIter.hasNext()) {
-					parser.addProgressListener(progressListenerIter.next());
-				}
-				
-				
-				try {
-					parser.parseAnnotation(annotationSet, BamQCConfig.getInstance().gff_file);
-				}
-				catch (Exception e) {
-					log.error("The annotation file " + BamQCConfig.getInstance().gff_file.getName() + " seems corrupted!", e);
-					Iterator<AnalysisListener> i2 = analysisListeners.iterator();
-					while (i2.hasNext()) {
-						i2.next().analysisExceptionReceived(file, e);
-					}
-					return;
-				}
-		} else { 
-			// use an empty AnnotationSet.
-			annotationSet = new AnnotationSet();
-		}	
+		Checkpoint checkpoint = loadCheckpoint();
+		
+		AnnotationSet annotationSet = checkpoint == null ? loadAnnotationSet() : checkpoint.getAnnotationSet();
+		if (annotationSet == null) {
+			return;
+		}
 		
 		
 //		// this is used to test the imported annotation set
@@ -204,58 +254,133 @@ public class AnalysisRunner implements Runnable {
 			modules[m].processFile(file);
 		}
 		
-		int seqCount = 0;
-		while (file.hasNext()) {
-			seqCount++;
-			SAMRecord seq;
+		long seqCount = 0;
+		if (checkpoint != null) {
 			try {
-				seq = file.next();
+				file.resume(checkpoint.getPosition());
 			}
 			catch (SequenceFormatException e) {
-				analysisListenerIter = analysisListeners.iterator();
-				while (analysisListenerIter.hasNext()) {
-					analysisListenerIter.next().analysisExceptionReceived(file,e);
+				notifyException(e);
+				return;
+			}
+			seqCount = checkpoint.getRecords();
+			stableChecks = checkpoint.getStableChecks();
+			resumedRecords = seqCount;
+			resumedBytes = Math.max(file.getBytesRead(), 0);
+		}
+		
+		ModuleProfiler profiler = null;
+		if (BamQCConfig.getInstance().profile) {
+			profiler = new ModuleProfiler(modules);
+			ModuleProfiler.register(file, profiler);
+		}
+		
+		String fileName = file.name();
+		SAMRecord [] batch = new SAMRecord[BATCH_SIZE];
+		long startTime = System.currentTimeMillis();
+		long lastUpdate = startTime;
+		long lastCheckpoint = startTime;
+		while (file.hasNext()) {
+			Object event = FlightRecorderEvent.READ_BATCH.begin();
+			long bytesBefore = event == null ? 0 : file.getBytesRead();
+			int batchSize = 0;
+			try {
+				while (batchSize < BATCH_SIZE && file.hasNext()) {
+					batch[batchSize++] = file.next();
 				}
+			}
+			catch (SequenceFormatException e) {
+				notifyException(e);
 				return;
 			}
+			if (event != null) {
+				FlightRecorderEvent.commit(event, fileName, null, batchSize, Math.max(file.getBytesRead() - bytesBefore, 0));
+			}
 			
-			annotationSet.processSequence(seq);
+			event = FlightRecorderEvent.MODULE_BATCH.begin();
+			int processed = 0;
+			while (processed < batchSize) {
+				SAMRecord seq = batch[processed];
+				batch[processed++] = null;
+				seqCount++;
 			
+				annotationSet.processSequence(seq);
 			
-			for (int m=0;m<modules.length;m++) {
-				// This test is redundant and adds complexity. 
-				// If the module does not process the sequences, then just call the method processSequence anyway, and leave this method unimplemented. 
-				// In the worse case we are doing the same thing by calling the method needsToSeeSequences(). 
-				// If the k modules have to parse seq, then we avoid n*k calls of needsToSeeSequences().
-				// The parameter passing is by reference and needsToSeeSequences() returns a value anyway. So not a big deal in that direction either.
-				//if (modules[m].needsToSeeSequences()) {
-					modules[m].processSequence(seq);
-				//}
-			}
 			
-			if (seqCount % 1000 == 0) {
-				int percent = file.getPercentComplete();
-				if (percent >= percentComplete+5) {
-					percentComplete = percent;
-					analysisListenerIter = analysisListeners.iterator();
-					while (analysisListenerIter.hasNext()) {
-						analysisListenerIter.next().analysisUpdated(file, seqCount, percentComplete);
+				if (profiler != null && ModuleProfiler.isSampled(seqCount)) {
+					profiler.processSequence(seq);
+				}
+				else for (int m=0;m<modules.length;m++) {
+					// This test is redundant and adds complexity. 
+					// If the module does not process the sequences, then just call the method processSequence anyway, and leave this method unimplemented. 
+					// In the worse case we are doing the same thing by calling the method needsToSeeSequences(). 
+					// If the k modules have to parse seq, then we avoid n*k calls of needsToSeeSequences().
+					// The parameter passing is by reference and needsToSeeSequences() returns a value anyway. So not a big deal in that direction either.
+					//if (modules[m].needsToSeeSequences()) {
+						modules[m].processSequence(seq);
+					//}
+				}
+			
+				if (BamQCConfig.getInstance().convergence_tolerance > 0 && seqCount % CONVERGENCE_CHECK_INTERVAL == 0) {
+					if (checkConvergence(seqCount)) {
+						// the rest of the batch is dropped, as if it had not been read
+						while (processed < batchSize) batch[processed++] = null;
+						break;
 					}
-					try {
-						Thread.sleep(10);
-					} 
-					catch (InterruptedException e) {}
+				}
+			
+				if (seqCount % UPDATE_CHECK_RECORDS == 0) {
+					long now = System.currentTimeMillis();
+					if (now - lastUpdate >= UPDATE_INTERVAL) {
+						lastUpdate = now;
+						notifyProgress(seqCount, now - startTime);
+					}
+				}
+			}
+			FlightRecorderEvent.commit(event, fileName, null, batchSize, 0);
+			
+			// keeps the estimated module times current for the metrics
+			if (profiler != null) profiler.setRecords(seqCount);
+			
+			// The whole batch has been processed, so the state matches the position of the next record
+			if (checkpointInterval > 0 && file.hasNext()) {
+				long now = System.currentTimeMillis();
+				if (now - lastCheckpoint >= checkpointInterval) {
+					writeCheckpoint(annotationSet, seqCount);
+					lastCheckpoint = System.currentTimeMillis();
 				}
 			}
 		}
 		
+		// The final counts, as the last update can be up to UPDATE_INTERVAL old
+		if (seqCount > 0) {
+			notifyProgress(seqCount, Math.max(System.currentTimeMillis() - startTime, 1));
+		}
+		
 		// Let's flush the residual cache accumulated during the annotation set parsing. 
 		annotationSet.flushCache();
 		
+		// Report how often the per read problems happened, as only their first occurrences were logged.
+		file.logLimiter().logSummary(log, fileName);
 		
+		
+		// The modules of a shard see the annotation once they have been merged
+		if (partialFile != null) {
+			try {
+				PartialResults.write(partialFile, ResultCache.key(file.getFile()), file, annotationSet, modules);
+			}
+			catch (IOException e) {
+				notifyException(e);
+				return;
+			}
+		}
 		// Now send the compiled annotation around the modules which 
 		// need to see it
-		for (int m=0;m<modules.length;m++) {
+		else if (profiler != null) {
+			profiler.setRecords(seqCount);
+			profiler.processAnnotationSet(annotationSet);
+		}
+		else for (int m=0;m<modules.length;m++) {
 			// This test is also redundant and adds complexity (although less time consuming than the previous test needsToSeeSequences().
 			// If the module does not process the annotationSet, then just call the method anyway, and leave this method unimplemented.
 			// In the worse case we are doing the same thing by calling the method needsToSeeAnnotation().
@@ -267,11 +392,263 @@ public class AnalysisRunner implements Runnable {
 		}
 		
 		
+		finished = true;
 		analysisListenerIter = analysisListeners.iterator();
 		while (analysisListenerIter.hasNext()) {
 			analysisListenerIter.next().analysisComplete(file,modules);
 		}
+		
+		// The report has been written, so the annotation set can be used for another file
+		if (annotationKey != null) {
+			annotationCache.checkin(annotationKey, annotationSet);
+		}
+		
+		if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+			log.warn("Cannot delete the checkpoint " + checkpointFile.getPath());
+		}
 
 	}
 	
+	/**
+	 * Reads the checkpoint to resume, and replaces the modules with those of the checkpoint.
+	 * @return the checkpoint, or null if the analysis starts from the beginning of the file
+	 */
+	private Checkpoint loadCheckpoint() {
+		if (checkpointFile == null) {
+			return null;
+		}
+		if (checkpointInterval > 0 || resume) {
+			try {
+				checkpointKey = ResultCache.key(file.getFile());
+			}
+			catch (IOException e) {
+				log.warn("No checkpoint is used for " + file.name() + ": " + e.getLocalizedMessage());
+				checkpointFile = null;
+				checkpointInterval = 0;
+				return null;
+			}
+		}
+		if (!resume || !checkpointFile.exists()) {
+			return null;
+		}
+		
+		Checkpoint checkpoint;
+		try {
+			checkpoint = Checkpoint.read(checkpointFile);
+		}
+		catch (IOException e) {
+			log.warn("Ignoring the checkpoint " + checkpointFile.getName() + ": " + e.getLocalizedMessage());
+			return null;
+		}
+		if (!checkpoint.getKey().equals(checkpointKey)) {
+			log.warn("Ignoring the checkpoint " + checkpointFile.getName() + " as the file or the options have changed since it was written");
+			return null;
+		}
+		QCModule [] savedModules = checkpoint.getModules();
+		if (savedModules.length != modules.length) {
+			log.warn("Ignoring the checkpoint " + checkpointFile.getName() + " as it was written with other modules");
+			return null;
+		}
+		for (int m=0;m<modules.length;m++) {
+			if (savedModules[m].getClass() != modules[m].getClass()) {
+				log.warn("Ignoring the checkpoint " + checkpointFile.getName() + " as it was written with other modules");
+				return null;
+			}
+		}
+		log.info("Resuming the analysis of " + file.name() + " after " + checkpoint.getRecords() + " records");
+		modules = savedModules;
+		return checkpoint;
+	}
+	
+	/**
+	 * Saves the state of the analysis in the checkpoint file. Nothing is saved if the 
+	 * reading of the file cannot be resumed, as for a stream.
+	 * @param annotationSet the annotation set of the analysis
+	 * @param seqCount the number of records processed so far
+	 */
+	private void writeCheckpoint(AnnotationSet annotationSet, long seqCount) {
+		SequenceFilePosition position = file.getPosition();
+		if (position == null) {
+			log.info("No checkpoint is written for " + file.name() + " as its reading cannot be resumed");
+			checkpointInterval = 0;
+			return;
+		}
+		Object event = FlightRecorderEvent.CHECKPOINT.begin();
+		try {
+			Checkpoint.write(checkpointFile, checkpointKey, position, seqCount, stableChecks, annotationSet, modules);
+			log.debug("Checkpoint of " + file.name() + " written at " + position);
+		}
+		catch (IOException e) {
+			log.warn("Cannot write the checkpoint " + checkpointFile.getPath() + ": " + e.getLocalizedMessage());
+		}
+		FlightRecorderEvent.commit(event, file.name(), null, seqCount, Math.max(file.getBytesRead(), 0));
+	}
+	
+	/**
+	 * Takes the annotation set from the annotation cache, or parses it.
+	 * @return the annotation set, which is empty without annotation, or null if it could not be parsed
+	 */
+	private AnnotationSet loadAnnotationSet() {
+		File source = genome != null ? genome : annotationFile;
+		if (source == null) {
+			// use an empty AnnotationSet.
+			return new AnnotationSet();
+		}
+		if (annotationCache != null) {
+			annotationKey = AnnotationCache.key(source);
+			AnnotationSet annotationSet = annotationCache.checkout(annotationKey);
+			if (annotationSet != null) {
+				log.debug("Using the cached annotation of " + source.getName());
+				return annotationSet;
+			}
+		}
+		
+		AnnotationSet annotationSet = genome != null ? parseGenome() : parseAnnotationFile();
+		if (annotationSet != null && annotationCache != null) {
+			annotationSet.saveParsedState();
+		}
+		return annotationSet;
+	}
+	
+	/**
+	 * @return the annotation set of the genome, or null if it could not be parsed
+	 */
+	private AnnotationSet parseGenome() {
+		GenomeParser parser = new GenomeParser();
+		
+		// SET UP THE ANNOTATION PROGRESS LISTENER
+		// This is used for reporting the annotation progress on a shell
+		if(GraphicsEnvironment.isHeadless()) {
+			ProgressTextDialog ptd = new ProgressTextDialog("");
+			parser.addProgressListener(ptd);
+		}
+		// This is the progress listener for the annotation
+		Iterator<ProgressListener> progressListenerIter = progressListeners.iterator();
+		while (progressListenerIter.hasNext()) {
+			parser.addProgressListener(progressListenerIter.next());
+		}
+		
+		Object event = FlightRecorderEvent.ANNOTATION_PARSE.begin();
+		try {
+			parser.parseGenome(genome);
+		} catch (Exception e) {
+			log.error("The annotation genome " + genome + " seems corrupted!", e);
+			notifyException(e);
+			return null;
+		}
+		AnnotationSet annotationSet = parser.genome().annotationSet();
+		FlightRecorderEvent.commit(event, genome.getName(), null, annotationSet.featureCount(), 0);
+		return annotationSet;
+	}
+	
+	/**
+	 * @return the annotation set of the GTF or GFF3 file, or null if it could not be parsed
+	 */
+	private AnnotationSet parseAnnotationFile() {
+		AnnotationSet annotationSet = new AnnotationSet();
+		
+		AnnotationParser parser;
+		if (annotationFile.getName().toLowerCase().endsWith("gtf")) {
+			parser = new GTFAnnotationParser();
+		}
+		else {
+			parser = new GFF3AnnotationParser();
+		}
+		
+		// SET UP THE ANNOTATION PROGRESS LISTENER
+		// This is used for reporting the annotation progress on a shell
+		if(GraphicsEnvironment.isHeadless()) {
+			ProgressTextDialog ptd = new ProgressTextDialog("");
+			parser.addProgressListener(ptd);
+		}
+		// This is the progress listener for the annotation
+		Iterator<ProgressListener> progressListenerIter = progressListeners.iterator();
+		while (progressListenerIter.hasNext()) {
+			parser.addProgressListener(progressListenerIter.next());
+		}
+		
+		Object event = FlightRecorderEvent.ANNOTATION_PARSE.begin();
+		try {
+			parser.parseAnnotation(annotationSet, annotationFile);
+		}
+		catch (Exception e) {
+			log.error("The annotation file " + annotationFile.getName() + " seems corrupted!", e);
+			notifyException(e);
+			return null;
+		}
+		FlightRecorderEvent.commit(event, annotationFile.getName(), null, annotationSet.featureCount(), annotationFile.length());
+		return annotationSet;
+	}
+	
+	/**
+	 * Sends the progress, the throughput and the estimated time left to the listeners.
+	 * @param seqCount the number of records processed so far
+	 * @param elapsed the time since the start of the analysis in milliseconds
+	 */
+	private void notifyProgress(long seqCount, long elapsed) {
+		int percent = file.getPercentComplete();
+		double seconds = elapsed / 1000d;
+		// The records and bytes read before the analysis was resumed took no time in this run
+		double recordsPerSecond = (seqCount - resumedRecords) / seconds;
+		
+		// The fraction read so far is more precise when the bytes read are known
+		long bytesRead = file.getBytesRead();
+		// The size of a stream is not known
+		long fileSize = percent < 0 ? -1 : file.getFile().length();
+		double megabytesPerSecond = -1;
+		double fraction = percent / 100d;
+		if (bytesRead >= 0) {
+			megabytesPerSecond = (bytesRead - resumedBytes) / 1048576d / seconds;
+			if (fileSize > 0) {
+				fraction = Math.min(bytesRead / (double)fileSize, 1d);
+			}
+		}
+		// The fraction read in this run
+		double resumedFraction = fileSize > 0 ? Math.min(resumedBytes / (double)fileSize, 1d) : 0;
+		long secondsRemaining = -1;
+		if (fraction > resumedFraction) {
+			secondsRemaining = (long)(seconds * (1 - fraction) / (fraction - resumedFraction));
+		}
+		
+		Iterator<AnalysisListener> analysisListenerIter = analysisListeners.iterator();
+		while (analysisListenerIter.hasNext()) {
+			analysisListenerIter.next().analysisUpdated(file, seqCount, percent, recordsPerSecond, megabytesPerSecond, secondsRemaining);
+		}
+	}
+	
+	/**
+	 * Stops reading the file if the distributions of all the convergent modules 
+	 * have been stable for the last checks.
+	 * @param seqCount the number of records processed so far
+	 * @return true if the reading was stopped
+	 */
+	private boolean checkConvergence(long seqCount) {
+		double tolerance = BamQCConfig.getInstance().convergence_tolerance;
+		boolean stable = false;
+		double maxChange = 0d;
+		for (int m=0;m<modules.length;m++) {
+			if (modules[m] instanceof ConvergentModule) {
+				// every module is asked, so that all the snapshots are updated
+				maxChange = Math.max(maxChange, ((ConvergentModule)modules[m]).distributionChange());
+				stable = true;
+			}
+		}
+		if (!stable) return false;
+		
+		if (maxChange <= tolerance) {
+			stableChecks++;
+		}
+		else {
+			stableChecks = 0;
+		}
+		log.debug("Largest distribution change after "+seqCount+" records: "+maxChange);
+		
+		// Once the whole file has been read there is nothing left to stop
+		if (stableChecks >= CONVERGENCE_STABLE_CHECKS && file.hasNext()) {
+			file.stopReading("Stopped after "+seqCount+" records as the distributions were stable within "+tolerance);
+			return true;
+		}
+		return false;
+	}
+	
 }
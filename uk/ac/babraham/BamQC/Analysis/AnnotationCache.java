@@ -0,0 +1,130 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+
+/**
+ * Keeps the most recently used parsed annotations, so that a long running process 
+ * does not parse the same annotation again for every file. An annotation set is 
+ * taken out of the cache while a file is analysed, as it collects the values of 
+ * that file, and is put back once the report has been written. Two analyses running 
+ * at the same time with the same annotation therefore each parse their own copy.
+ */
+public class AnnotationCache {
+
+	private int capacity;
+	
+	// in access order, so that the eldest entry is the least recently used one
+	private LinkedHashMap<String, AnnotationSet> annotationSets = new LinkedHashMap<String, AnnotationSet>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2771372815346186727L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, AnnotationSet> eldest) {
+			return size() > capacity;
+		}
+	};
+	
+	private long hits = 0;
+	private long misses = 0;
+	
+	/**
+	 * @param capacity the number of annotation sets which are kept
+	 */
+	public AnnotationCache(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * The key of an annotation file or genome directory, which changes when the file 
+	 * is modified.
+	 * @param file the annotation file or the genome directory
+	 * @return the key of the file
+	 */
+	public static String key(File file) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		}
+		catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		return path + ":" + file.length() + ":" + file.lastModified();
+	}
+	
+	/**
+	 * Takes an annotation set out of the cache.
+	 * @param key the key of the annotation
+	 * @return the annotation set, or null if it must be parsed
+	 */
+	public synchronized AnnotationSet checkout(String key) {
+		AnnotationSet annotationSet = annotationSets.remove(key);
+		if (annotationSet == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return annotationSet;
+	}
+	
+	/**
+	 * Puts an annotation set back into the cache once a file has been analysed. The 
+	 * values collected for that file are cleared.
+	 * @param key the key of the annotation
+	 * @param annotationSet an annotation set whose parsed state was saved
+	 */
+	public synchronized void checkin(String key, AnnotationSet annotationSet) {
+		if (capacity == 0) return;
+		annotationSet.reset();
+		annotationSets.put(key, annotationSet);
+	}
+	
+	/**
+	 * @return the number of annotation sets in the cache
+	 */
+	public synchronized int size() {
+		return annotationSets.size();
+	}
+	
+	/**
+	 * @return the number of analyses which used a cached annotation set
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of analyses which had to parse their annotation
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+}
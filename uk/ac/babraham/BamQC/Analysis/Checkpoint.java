@@ -0,0 +1,186 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.babraham.BamQC.BamQCApplication;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFilePosition;
+
+/**
+ * The state of an analysis part way through a file: the position of the next record, 
+ * the annotation set and the modules with the values of the records read so far. 
+ * An analysis which was interrupted goes on from its last checkpoint and gives the 
+ * same results as if it had read the whole file in one go.
+ */
+public class Checkpoint {
+
+	private static final String MAGIC = "BamQC checkpoint";
+	
+	private String key;
+	private SequenceFilePosition position;
+	private long records;
+	private int stableChecks;
+	private AnnotationSet annotationSet;
+	private QCModule [] modules;
+	
+	private Checkpoint(String key, SequenceFilePosition position, long records, int stableChecks, AnnotationSet annotationSet, QCModule [] modules) {
+		this.key = key;
+		this.position = position;
+		this.records = records;
+		this.stableChecks = stableChecks;
+		this.annotationSet = annotationSet;
+		this.modules = modules;
+	}
+	
+	/**
+	 * @return the fingerprint of the file and of the options of the analysis
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * @return the position of the next record of the file
+	 */
+	public SequenceFilePosition getPosition() {
+		return position;
+	}
+	
+	/**
+	 * @return the number of records processed by the modules
+	 */
+	public long getRecords() {
+		return records;
+	}
+	
+	/**
+	 * @return the number of convergence checks in a row which found stable distributions
+	 */
+	public int getStableChecks() {
+		return stableChecks;
+	}
+	
+	public AnnotationSet getAnnotationSet() {
+		return annotationSet;
+	}
+	
+	public QCModule [] getModules() {
+		return modules;
+	}
+	
+	/**
+	 * The checkpoint of an analysis is written next to its report.
+	 * @param reportFile the html report
+	 * @return the checkpoint of the analysis
+	 */
+	public static File checkpointFile(File reportFile) {
+		return new File(reportFile.getPath().replaceAll("\\.html$", "")+".checkpoint");
+	}
+	
+	/**
+	 * Saves the state of an analysis. The file is replaced at once, so that the 
+	 * previous checkpoint is kept if the program stops while this one is written.
+	 * @param out the file to write
+	 * @param key the fingerprint of the file and of the options of the analysis
+	 * @param position the position of the next record
+	 * @param records the number of records processed by the modules
+	 * @param stableChecks the number of stable convergence checks in a row
+	 * @param annotationSet the annotation set, with the records processed so far
+	 * @param modules the modules, with the records processed so far
+	 * @throws IOException
+	 */
+	public static void write(File out, String key, SequenceFilePosition position, long records, int stableChecks, AnnotationSet annotationSet, QCModule [] modules) throws IOException {
+		// A single name, so that a file left by an interruption is overwritten
+		File temp = new File(out.getPath() + ".tmp");
+		ObjectOutputStream oos = null;
+		try {
+			oos = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))));
+			oos.writeUTF(MAGIC);
+			oos.writeUTF(BamQCApplication.VERSION);
+			oos.writeUTF(key);
+			oos.writeObject(position);
+			oos.writeLong(records);
+			oos.writeInt(stableChecks);
+			// The annotation set and the modules are written together, as they can share objects
+			oos.writeObject(annotationSet);
+			oos.writeObject(modules);
+			oos.close();
+			oos = null;
+			
+			SavedResults.replace(out, temp);
+		}
+		finally {
+			if (oos != null) oos.close();
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Reads a checkpoint written with write().
+	 * @param in the checkpoint
+	 * @return the state of the analysis
+	 * @throws IOException if the file cannot be read or was written by another version of BamQC
+	 */
+	public static Checkpoint read(File in) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(in))));
+		try {
+			if (!MAGIC.equals(ois.readUTF())) {
+				throw new IOException(in.getName() + " is not a BamQC checkpoint");
+			}
+			String version = ois.readUTF();
+			if (!version.equals(BamQCApplication.VERSION)) {
+				throw new IOException(in.getName() + " was written by BamQC v" + version + " and cannot be read by v" + BamQCApplication.VERSION);
+			}
+			String key = ois.readUTF();
+			SequenceFilePosition position = (SequenceFilePosition)ois.readObject();
+			long records = ois.readLong();
+			int stableChecks = ois.readInt();
+			AnnotationSet annotationSet = (AnnotationSet)ois.readObject();
+			QCModule [] modules = (QCModule[])ois.readObject();
+			return new Checkpoint(key, position, records, stableChecks, annotationSet, modules);
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read the checkpoint " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		catch (ClassCastException e) {
+			throw new IOException("Cannot read the checkpoint " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		finally {
+			ois.close();
+		}
+	}
+	
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Publishes machine readable metrics of a batch run, so that a scheduler can follow 
+ * the progress and the resources of the analyses. The metrics are the progress and 
+ * throughput of every file, the state of the AnalysisQueue, the heap use, the garbage 
+ * collection time and, when the modules are profiled, the time spent in each module.
+ * 
+ * The metrics are written every interval to a file, as one JSON object per line or 
+ * as a Prometheus text file which is replaced each time, and/or served on a local 
+ * HTTP port. The metrics of a finished file are published for a while after its
+ * end, so that every write and scrape still sees it, and are then dropped, so 
+ * that the metrics of a long batch only list the recent files.
+ */
+public class MetricsSink implements AnalysisListener, Runnable {
+
+	private static Logger log = Logger.getLogger(MetricsSink.class);
+
+	public static final String JSON = "json";
+	public static final String PROMETHEUS = "prometheus";
+
+	private AnalysisQueue queue;
+	private File file;
+	private String format;
+	private long interval;
+	private HttpServer server = null;
+	private Thread thread = null;
+	private volatile boolean running = false;
+	
+	// The minimum time the metrics of a finished file are kept, which is longer than the usual scrape intervals
+	private static final long RETENTION = 60000;
+	private long retention;
+
+	// The metrics of each file by absolute path, in the order the analyses started. 
+	// Files of the same name in different directories have their own metrics.
+	private LinkedHashMap<String, FileMetrics> files = new LinkedHashMap<String, FileMetrics>();
+
+	private static class FileMetrics {
+		String name;
+		ModuleProfiler profiler = null;
+		long finished = 0;
+		String state = "running";
+		long records = 0;
+		int percentComplete = 0;
+		double recordsPerSecond = 0;
+		double bytesPerSecond = -1;
+		long secondsRemaining = -1;
+		long lastUpdate = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param queue the queue running the analyses, or null
+	 * @param file the file the metrics are written to, or null
+	 * @param port the local port the metrics are served on, or 0
+	 * @param format JSON or PROMETHEUS
+	 * @param interval the number of seconds between two writes of the file
+	 */
+	public MetricsSink(AnalysisQueue queue, File file, int port, String format, int interval) throws IOException {
+		this.queue = queue;
+		this.file = file;
+		this.format = format;
+		this.interval = interval * 1000L;
+		// The file is written at least once before a finished file is dropped
+		this.retention = Math.max(RETENTION, 2 * this.interval);
+		if (port > 0) {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+			server.createContext("/", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					byte [] body = (PROMETHEUS.equals(MetricsSink.this.format) ? prometheusText() : jsonLine()+"\n").getBytes("UTF-8");
+					exchange.getResponseHeaders().set("Content-Type", PROMETHEUS.equals(MetricsSink.this.format) ? "text/plain; version=0.0.4; charset=utf-8" : "application/json");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream os = exchange.getResponseBody();
+					os.write(body);
+					os.close();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sets how long the metrics of a finished file are still published.
+	 * @param seconds the number of seconds after the end of the analysis
+	 */
+	void setRetention(int seconds) {
+		retention = seconds * 1000L;
+	}
+
+	/**
+	 * Starts serving the metrics and writing them to the file.
+	 */
+	public void start() {
+		running = true;
+		if (server != null) {
+			server.start();
+		}
+		if (file != null) {
+			thread = new Thread(this, "BamQC metrics");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Writes the final metrics and stops the server.
+	 */
+	public void close() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+		if (file != null) {
+			writeFile();
+		}
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			writeFile();
+			try {
+				Thread.sleep(interval);
+			} 
+			catch (InterruptedException e) {}
+		}
+	}
+
+	private void writeFile() {
+		try {
+			if (PROMETHEUS.equals(format)) {
+				// The file is replaced in one step, so that it is never read half written
+				File tmp = new File(file.getAbsolutePath()+".tmp");
+				PrintWriter pr = new PrintWriter(new FileWriter(tmp));
+				pr.print(prometheusText());
+				pr.close();
+				if (!tmp.renameTo(file)) {
+					file.delete();
+					tmp.renameTo(file);
+				}
+			}
+			else {
+				PrintWriter pr = new PrintWriter(new FileWriter(file, true));
+				pr.println(jsonLine());
+				pr.close();
+			}
+		}
+		catch (IOException e) {
+			log.error("Cannot write the metrics to "+file, e);
+		}
+	}
+
+	/**
+	 * @return the current metrics as one line of JSON
+	 */
+	public String jsonLine() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long [] gc = gcTotals();
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"time\":").append(System.currentTimeMillis());
+		if (queue != null) {
+			sb.append(",\"queue_length\":").append(queue.getQueueLength());
+			sb.append(",\"active_runners\":").append(queue.getActiveRunners());
+		}
+		sb.append(",\"heap_used_bytes\":").append(heap.getUsed());
+		sb.append(",\"heap_max_bytes\":").append(heap.getMax());
+		sb.append(",\"gc_time_ms\":").append(gc[0]);
+		sb.append(",\"gc_count\":").append(gc[1]);
+		sb.append(",\"files\":[");
+		List<FileMetrics> snapshots = snapshots();
+		for (int f=0; f<snapshots.size(); f++) {
+			FileMetrics metrics = snapshots.get(f);
+			if (f > 0) sb.append(",");
+			sb.append("{\"file\":").append(jsonString(metrics.name));
+			sb.append(",\"state\":").append(jsonString(metrics.state));
+			sb.append(",\"records\":").append(metrics.records);
+			sb.append(",\"percent_complete\":").append(metrics.percentComplete);
+			sb.append(",\"records_per_second\":").append(number(metrics.recordsPerSecond));
+			sb.append(",\"bytes_per_second\":").append(number(metrics.bytesPerSecond));
+			sb.append(",\"seconds_remaining\":").append(metrics.secondsRemaining);
+			sb.append(",\"seconds_since_update\":").append((System.currentTimeMillis() - metrics.lastUpdate) / 1000);
+			ModuleProfiler profiler = metrics.profiler;
+			if (profiler != null) {
+				sb.append(",\"modules\":[");
+				for (int m=0; m<profiler.getModuleCount(); m++) {
+					if (m > 0) sb.append(",");
+					sb.append("{\"module\":").append(jsonString(profiler.getModuleName(m)));
+					sb.append(",\"sequence_ms\":").append(profiler.getSequenceNanos(m) / 1000000);
+					sb.append(",\"annotation_ms\":").append(profiler.getAnnotationNanos(m) / 1000000);
+					sb.append(",\"report_ms\":").append(profiler.getReportNanos(m) / 1000000);
+					sb.append(",\"allocated_bytes\":").append(profiler.getTotalBytes(m));
+					sb.append("}");
+				}
+				sb.append("]");
+			}
+			sb.append("}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * @return the current metrics in the Prometheus text format
+	 */
+	public String prometheusText() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long [] gc = gcTotals();
+		StringBuilder sb = new StringBuilder();
+		if (queue != null) {
+			metric(sb, "bamqc_queue_length", "gauge", "Analyses waiting for a free slot", queue.getQueueLength());
+			metric(sb, "bamqc_active_runners", "gauge", "Analyses currently running", queue.getActiveRunners());
+		}
+		metric(sb, "bamqc_heap_used_bytes", "gauge", "Heap in use", heap.getUsed());
+		metric(sb, "bamqc_heap_max_bytes", "gauge", "Maximum heap size", heap.getMax());
+		metric(sb, "bamqc_gc_seconds_total", "counter", "Time spent in garbage collection", number(gc[0] / 1000d));
+		metric(sb, "bamqc_gc_collections_total", "counter", "Number of garbage collections", gc[1]);
+
+		List<FileMetrics> snapshots = snapshots();
+		String [] names = {"bamqc_records_processed", "bamqc_percent_complete", "bamqc_records_per_second", "bamqc_bytes_per_second", "bamqc_seconds_remaining", "bamqc_seconds_since_update", "bamqc_running"};
+		String [] types = {"counter", "gauge", "gauge", "gauge", "gauge", "gauge", "gauge"};
+		String [] helps = {"Records processed", "Estimated percentage of the file processed, -1 if not known", "Records processed per second", "Bytes read per second, -1 if not known", "Estimated time left, -1 if not known", "Time since the last progress update", "1 while the analysis runs, 0 once complete, -1 if it failed"};
+		for (int n=0; n<names.length; n++) {
+			header(sb, names[n], types[n], helps[n]);
+			for (int f=0; f<snapshots.size(); f++) {
+				FileMetrics metrics = snapshots.get(f);
+				String value;
+				switch (n) {
+				case 0: value = String.valueOf(metrics.records); break;
+				case 1: value = String.valueOf(metrics.percentComplete); break;
+				case 2: value = number(metrics.recordsPerSecond); break;
+				case 3: value = number(metrics.bytesPerSecond); break;
+				case 4: value = String.valueOf(metrics.secondsRemaining); break;
+				case 5: value = String.valueOf((System.currentTimeMillis() - metrics.lastUpdate) / 1000); break;
+				default: value = metrics.state.equals("running") ? "1" : metrics.state.equals("complete") ? "0" : "-1";
+				}
+				sb.append(names[n]).append("{file=").append(labelValue(metrics.name)).append("} ").append(value).append("\n");
+			}
+		}
+
+		boolean first = true;
+		for (int f=0; f<snapshots.size(); f++) {
+			ModuleProfiler profiler = snapshots.get(f).profiler;
+			if (profiler == null) continue;
+			if (first) {
+				header(sb, "bamqc_module_seconds", "gauge", "Time spent in each module, estimated from a sample of the records");
+				first = false;
+			}
+			for (int m=0; m<profiler.getModuleCount(); m++) {
+				long nanos = profiler.getSequenceNanos(m) + profiler.getAnnotationNanos(m) + profiler.getReportNanos(m);
+				sb.append("bamqc_module_seconds{file=").append(labelValue(snapshots.get(f).name)).append(",module=").append(labelValue(profiler.getModuleName(m))).append("} ").append(number(nanos / 1e9)).append("\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Drops the files which finished longer than the retention ago.
+	 * @return a copy of the metrics of the other files
+	 */
+	private List<FileMetrics> snapshots() {
+		long now = System.currentTimeMillis();
+		List<FileMetrics> snapshots = new ArrayList<FileMetrics>();
+		synchronized (files) {
+			Iterator<FileMetrics> it = files.values().iterator();
+			while (it.hasNext()) {
+				FileMetrics metrics = it.next();
+				if (metrics.finished > 0 && now - metrics.finished > retention) {
+					it.remove();
+					continue;
+				}
+				FileMetrics copy = new FileMetrics();
+				copy.name = metrics.name;
+				copy.profiler = metrics.profiler;
+				copy.state = metrics.state;
+				copy.records = metrics.records;
+				copy.percentComplete = metrics.percentComplete;
+				copy.recordsPerSecond = metrics.recordsPerSecond;
+				copy.bytesPerSecond = metrics.bytesPerSecond;
+				copy.secondsRemaining = metrics.secondsRemaining;
+				copy.lastUpdate = metrics.lastUpdate;
+				snapshots.add(copy);
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * The key of the metrics of a file, as several files can have the same name.
+	 */
+	private static String key(SequenceFile file) {
+		File path = file.getFile();
+		return path == null ? file.name() : path.getAbsolutePath();
+	}
+
+	/**
+	 * The metrics of a file, which only keep its name and its profiler, and 
+	 * not the file itself.
+	 */
+	private FileMetrics metrics(SequenceFile file) {
+		FileMetrics metrics = files.get(key(file));
+		if (metrics == null) {
+			metrics = new FileMetrics();
+			metrics.name = file.name();
+			files.put(key(file), metrics);
+		}
+		if (metrics.profiler == null) {
+			metrics.profiler = ModuleProfiler.getProfiler(file);
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the total time in milliseconds and the number of the garbage collections
+	 */
+	private static long [] gcTotals() {
+		long [] totals = new long[2];
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(bean.getCollectionTime(), 0);
+			totals[1] += Math.max(bean.getCollectionCount(), 0);
+		}
+		return totals;
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+		sb.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+	}
+
+	private static void metric(StringBuilder sb, String name, String type, String help, Object value) {
+		header(sb, name, type, help);
+		sb.append(name).append(" ").append(value).append("\n");
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.US, "%.1f", value);
+	}
+
+	private static String labelValue(String value) {
+		return "\""+value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")+"\"";
+	}
+
+	private static String jsonString(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int)c));
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.append("\"").toString();
+	}
+
+	@Override
+	public void analysisStarted(SequenceFile file) {
+		synchronized (files) {
+			// A file analysed again starts from new metrics
+			files.remove(key(file));
+			metrics(file).lastUpdate = System.currentTimeMillis();
+		}
+	}
+
+	@Override
+	public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {
+		synchronized (files) {
+			FileMetrics metrics = metrics(file);
+			metrics.records = sequencesProcessed;
+			metrics.percentComplete = percentComplete;
+			metrics.recordsPerSecond = recordsPerSecond;
+			metrics.bytesPerSecond = megabytesPerSecond < 0 ? -1 : megabytesPerSecond * 1048576;
+			metrics.secondsRemaining = secondsRemaining;
+			metrics.lastUpdate = System.currentTimeMillis();
+		}
+	}
+
+	@Override
+	public void analysisComplete(SequenceFile file, QCModule[] results) {
+		synchronized (files) {
+			FileMetrics metrics = metrics(file);
+			metrics.state = "complete";
+			metrics.percentComplete = 100;
+			metrics.secondsRemaining = 0;
+			metrics.lastUpdate = System.currentTimeMillis();
+			metrics.finished = metrics.lastUpdate;
+		}
+	}
+
+	@Override
+	public void analysisExceptionReceived(SequenceFile file, Exception e) {
+		synchronized (files) {
+			FileMetrics metrics = metrics(file);
+			metrics.state = "failed";
+			metrics.lastUpdate = System.currentTimeMillis();
+			metrics.finished = metrics.lastUpdate;
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.sf.samtools.SAMRecord;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Measures the time spent and the memory allocated by each module. This is enabled 
+ * with the bamqc.profile property.
+ * Only one record every SAMPLE_INTERVAL is timed, as timing every call to processSequence() 
+ * would cost more than most modules. The totals for processSequence() are extrapolated 
+ * from the sampled calls. The calls to processAnnotationSet() and makeReport() are all timed.
+ * The allocated bytes are measured for the current thread with the ThreadMXBean when 
+ * the JVM supports it.
+ */
+public class ModuleProfiler {
+
+	public static final int SAMPLE_INTERVAL = 64;
+
+	// The profiler of each file, which is read when the report is written
+	private static Map<SequenceFile, ModuleProfiler> profilers = Collections.synchronizedMap(new WeakHashMap<SequenceFile, ModuleProfiler>());
+
+	private static com.sun.management.ThreadMXBean threadBean = null;
+
+	static {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				threadBean = sunBean;
+			}
+		}
+	}
+
+	private QCModule [] modules;
+
+	private long records = 0;
+	private long sampledRecords = 0;
+	private long [] sequenceNanos;
+	private long [] sequenceBytes;
+	private long [] annotationNanos;
+	private long [] annotationBytes;
+	private long [] reportNanos;
+	private long [] reportBytes;
+
+	// the state of the current measure
+	private long startNanos = 0;
+	private long startBytes = 0;
+	
+	// the cost of a measure on its own, which is removed from the sampled times
+	private long overheadNanos = 0;
+
+	public ModuleProfiler(QCModule [] modules) {
+		this.modules = modules;
+		sequenceNanos = new long[modules.length];
+		sequenceBytes = new long[modules.length];
+		annotationNanos = new long[modules.length];
+		annotationBytes = new long[modules.length];
+		reportNanos = new long[modules.length];
+		reportBytes = new long[modules.length];
+		calibrate();
+	}
+	
+	private void calibrate() {
+		long [] nanos = new long[1];
+		long [] bytes = new long[1];
+		int iterations = 10000;
+		for (int i=0; i<iterations; i++) {
+			start();
+			stop(0, nanos, bytes);
+		}
+		overheadNanos = nanos[0] / iterations;
+	}
+
+	/**
+	 * Keeps the profiler of a file until its report is written.
+	 */
+	public static void register(SequenceFile file, ModuleProfiler profiler) {
+		profilers.put(file, profiler);
+	}
+
+	/**
+	 * Returns the profiler of a file, or null if the file was not profiled.
+	 */
+	public static ModuleProfiler getProfiler(SequenceFile file) {
+		return profilers.get(file);
+	}
+
+	/**
+	 * Returns true if the given record should be passed to the modules through processSequence().
+	 * @param recordNumber the 1-based number of the record
+	 */
+	public static boolean isSampled(long recordNumber) {
+		return recordNumber % SAMPLE_INTERVAL == 0;
+	}
+
+	private static long allocatedBytes() {
+		if (threadBean == null) return 0;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void start() {
+		startBytes = allocatedBytes();
+		startNanos = System.nanoTime();
+	}
+
+	private void stop(int module, long [] nanos, long [] bytes) {
+		nanos[module] += System.nanoTime() - startNanos;
+		bytes[module] += allocatedBytes() - startBytes;
+	}
+
+	/**
+	 * Passes a sampled record to all the modules, timing each of them.
+	 */
+	public void processSequence(SAMRecord read) {
+		sampledRecords++;
+		for (int m=0; m<modules.length; m++) {
+			start();
+			modules[m].processSequence(read);
+			stop(m, sequenceNanos, sequenceBytes);
+			sequenceNanos[m] -= overheadNanos;
+		}
+	}
+
+	/**
+	 * Passes the annotation set to all the modules, timing each of them.
+	 */
+	public void processAnnotationSet(AnnotationSet annotationSet) {
+		for (int m=0; m<modules.length; m++) {
+			start();
+			modules[m].processAnnotationSet(annotationSet);
+			stop(m, annotationNanos, annotationBytes);
+		}
+	}
+
+	/**
+	 * Writes the report of a module, timing it.
+	 */
+	public void makeReport(int module, HTMLReportArchive report) throws XMLStreamException, IOException {
+		start();
+		try {
+			modules[module].makeReport(report);
+		}
+		finally {
+			stop(module, reportNanos, reportBytes);
+		}
+	}
+
+	public int getModuleCount() {
+		return modules.length;
+	}
+
+	public String getModuleName(int module) {
+		return modules[module].name();
+	}
+
+	/**
+	 * Sets the number of records seen by the modules so far. This can be called during the 
+	 * analysis, as the times of the unsampled records are estimated from it.
+	 */
+	public void setRecords(long records) {
+		this.records = records;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getSampledRecords() {
+		return sampledRecords;
+	}
+
+	/**
+	 * Returns the estimated time spent by a module in processSequence() for all the records, in nanoseconds.
+	 */
+	public long getSequenceNanos(int module) {
+		return extrapolate(Math.max(0, sequenceNanos[module]));
+	}
+
+	/**
+	 * Returns the estimated number of bytes allocated by a module in processSequence() for all the records.
+	 */
+	public long getSequenceBytes(int module) {
+		return extrapolate(sequenceBytes[module]);
+	}
+
+	public long getAnnotationNanos(int module) {
+		return annotationNanos[module];
+	}
+
+	public long getReportNanos(int module) {
+		return reportNanos[module];
+	}
+
+	public long getTotalBytes(int module) {
+		return getSequenceBytes(module) + annotationBytes[module] + reportBytes[module];
+	}
+
+	private long extrapolate(long sampledValue) {
+		if (sampledRecords == 0) return 0;
+		return (long)(sampledValue * ((double)records / sampledRecords));
+	}
+
+	private String [] columnNames() {
+		return new String[] {"Module", "Sequences (ms, estimated)", "ns/record", "Annotation (ms)", "Report (ms)", "Allocated (MB)", "Bytes/record"};
+	}
+
+	private String [] row(int m) {
+		return new String[] {
+			modules[m].name(),
+			String.format("%.1f", getSequenceNanos(m) / 1e6),
+			sampledRecords == 0 ? "0" : String.format("%.1f", Math.max(0, sequenceNanos[m]) / (double)sampledRecords),
+			String.format("%.1f", annotationNanos[m] / 1e6),
+			String.format("%.1f", reportNanos[m] / 1e6),
+			String.format("%.1f", getTotalBytes(m) / 1048576d),
+			sampledRecords == 0 ? "0" : String.format("%.1f", sequenceBytes[m] / (double)sampledRecords)
+		};
+	}
+
+	/**
+	 * Adds the timing table to the HTML report and to the text data. This is called once 
+	 * all the modules have written their report.
+	 */
+	public void writeReport(HTMLReportArchive report) throws XMLStreamException {
+		String [] columns = columnNames();
+
+		XMLStreamWriter w = report.xhtmlStream();
+		w.writeStartElement("div");
+		w.writeAttribute("class", "module");
+		w.writeStartElement("h2");
+		w.writeAttribute("id", "Mtiming");
+		w.writeCharacters("Module Timing");
+		w.writeEndElement();//h2
+		w.writeStartElement("p");
+		w.writeCharacters(records + " records, of which " + sampledRecords + " were timed. " +
+				(threadBean == null ? "Allocated memory is not measured by this JVM." : ""));
+		w.writeEndElement();//p
+		w.writeStartElement("table");
+		w.writeStartElement("thead");
+		w.writeStartElement("tr");
+		for (int c=0; c<columns.length; c++) {
+			w.writeStartElement("th");
+			w.writeCharacters(columns[c]);
+			w.writeEndElement();
+		}
+		w.writeEndElement();//tr
+		w.writeEndElement();//thead
+		w.writeStartElement("tbody");
+		for (int m=0; m<modules.length; m++) {
+			String [] row = row(m);
+			w.writeStartElement("tr");
+			for (int c=0; c<row.length; c++) {
+				w.writeStartElement("td");
+				w.writeCharacters(row[c]);
+				w.writeEndElement();//td
+			}
+			w.writeEndElement();//tr
+		}
+		w.writeEndElement();//tbody
+		w.writeEndElement();//table
+		w.writeEndElement();//div
+
+		StringBuffer d = report.dataDocument();
+		d.append(">>Module Timing\tpass\n");
+		d.append("#Records\t").append(records).append("\n");
+		d.append("#Sampled records\t").append(sampledRecords).append("\n");
+		d.append("#");
+		for (int c=0; c<columns.length; c++) {
+			if (c != 0) d.append("\t");
+			d.append(columns[c]);
+		}
+		d.append("\n");
+		for (int m=0; m<modules.length; m++) {
+			String [] row = row(m);
+			for (int c=0; c<row.length; c++) {
+				if (c != 0) d.append("\t");
+				d.append(row[c]);
+			}
+			d.append("\n");
+		}
+		d.append(">>END_MODULE\n");
+	}
+
+}
@@ -26,6 +26,8 @@ package uk.ac.babraham.BamQC.Analysis;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -38,6 +40,7 @@ import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
 import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Sequence.SequenceFormatException;
+import uk.ac.babraham.BamQC.Utilities.FormatNumber;
 
 /**
  * 
@@ -51,6 +54,16 @@ public class OfflineRunner implements AnalysisListener {
 	
 	private AtomicInteger filesRemaining;
 	private boolean showUpdates = true;
+	// The number of records between two progress messages when the size of the input is not known
+	private static final int STREAM_UPDATE_RECORDS = 1000000;
+	// The last progress step printed for each file, as updates are received every second
+	private HashMap<SequenceFile, Integer> lastReportedPercent = new HashMap<SequenceFile, Integer>();
+	// Publishes the metrics of the run, or null
+	private MetricsSink metrics = null;
+	// Saves the results of the analyses and reuses them, or null
+	private ResultCache resultCache = null;
+	// The keys of the results of the files being analysed
+	private HashMap<SequenceFile, String> resultKeys = new HashMap<SequenceFile, String>();
 	
 	public OfflineRunner (String[] filenames) {	
 		
@@ -77,7 +90,9 @@ public class OfflineRunner implements AnalysisListener {
 	}
 	
 	public boolean isMappedFile(String bamFile) {
-		if(bamFile.toLowerCase().endsWith(".sam") || bamFile.toLowerCase().endsWith(".bam")) {
+		String name = bamFile.toLowerCase();
+		// Sam files may be compressed with gzip or bzip2
+		if(name.endsWith(".bam") || name.endsWith(".cram") || name.replaceAll("\\.(gz|bz2)$", "").endsWith(".sam")) {
 			return true;
 		} 
 		return false;
@@ -87,14 +102,16 @@ public class OfflineRunner implements AnalysisListener {
 	public void runMappedFiles(String[] bamfiles) {		
 		
 		Vector<File> files = new Vector<File>();
+		// The partial results of the shards of a file, which are merged into its report
+		Vector<File> partialFiles = new Vector<File>();
 		
 		// We make a special case if they supply a single filename
-		// which is stdin.  In this case we'll take data piped to us
+		// which is stdin (or -).  In this case we'll take data piped to us
 		// rather than trying to read the actual file.  We'll also
 		// skip the existence check.
 				
-		if (bamfiles.length == 1 && bamfiles[0].equals("stdin")) {
-			files.add(new File("stdin"));
+		if (bamfiles.length == 1 && SequenceFactory.isStandardInput(new File(bamfiles[0]))) {
+			files.add(new File(bamfiles[0]));
 		}
 		else {
 			for (int i=0;i<bamfiles.length;i++) {
@@ -111,16 +128,23 @@ public class OfflineRunner implements AnalysisListener {
 					File[] subdirFiles = file.listFiles();
 					for(int j=0; j<subdirFiles.length; j++) {
 						if(!isMappedFile(subdirFiles[j].getName())) {
-							log.warn("Skipping '"+subdirFiles[j].getAbsolutePath()+"' as not a .sam or .bam file");
+							log.warn("Skipping '"+subdirFiles[j].getAbsolutePath()+"' as not a .sam(.gz/.bz2), .bam or .cram file");
 							continue;
 						}
 						files.add(subdirFiles[j]);
 					}
 				}
+				// a named pipe or a device such as /dev/stdin is read as a stream, whatever its name
+				else if(!file.isFile()) {
+					files.add(file);
+				}
+				else if(PartialResults.isPartialResults(file)) {
+					partialFiles.add(file);
+				}
 				// we have a file. if this is a mapped file, load it.
 				else { 
-					if(!isMappedFile(file.getName())) {
-						log.warn("Skipping '"+file.getAbsolutePath()+"' as not a .sam or .bam file");
+					if(!isMappedFile(file.getName()) && !SavedResults.isSavedResults(file)) {
+						log.warn("Skipping '"+file.getAbsolutePath()+"' as not a .sam(.gz/.bz2), .bam, .cram, "+SavedResults.EXTENSION+" or "+PartialResults.EXTENSION+" file");
 						continue;
 					}
 					files.add(file);
@@ -131,7 +155,98 @@ public class OfflineRunner implements AnalysisListener {
 				
 		// See if we need to group together files from a casava group
 		
-		filesRemaining = new AtomicInteger(files.size());
+		BamQCConfig config = BamQCConfig.getInstance();
+		if (config.metrics_file != null || config.metrics_port > 0) {
+			try {
+				metrics = new MetricsSink(AnalysisQueue.getInstance(), config.metrics_file, config.metrics_port, config.metrics_format, config.metrics_interval);
+				metrics.start();
+			}
+			catch (IOException e) {
+				log.error("Cannot publish the metrics: " + e.getLocalizedMessage(), e);
+				metrics = null;
+			}
+		}
+		
+		if (config.result_cache != null) {
+			if (config.profile) {
+				log.warn("The result cache is not used as the module timings change with each run");
+			}
+			else {
+				try {
+					resultCache = new ResultCache(config.result_cache);
+				}
+				catch (IOException e) {
+					log.error(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+		
+		// The partial results are grouped by file
+		LinkedHashMap<String, PartialResults> mergedResults = new LinkedHashMap<String, PartialResults>();
+		HashMap<String, File> mergedLocations = new HashMap<String, File>();
+		for (int i=0;i<partialFiles.size();i++) {
+			try {
+				PartialResults partial = PartialResults.read(partialFiles.elementAt(i));
+				PartialResults merged = mergedResults.get(partial.getKey());
+				if (merged == null) {
+					mergedResults.put(partial.getKey(), partial);
+					mergedLocations.put(partial.getKey(), partialFiles.elementAt(i));
+				}
+				else {
+					merged.merge(partial);
+				}
+			}
+			catch (IOException e) {
+				log.error("Cannot merge "+partialFiles.elementAt(i)+" : "+e.getLocalizedMessage(), e);
+			}
+		}
+		
+		// The mapped files are analysed as one sample, which has one report
+		if (config.merge != null) {
+			for (int i=files.size()-1;i>=0;i--) {
+				File file = files.elementAt(i);
+				if (!file.isFile() || SavedResults.isSavedResults(file)) {
+					log.warn("Skipping '"+file.getPath()+"' which cannot be merged into "+config.merge+" as it is not a .sam(.gz/.bz2), .bam or .cram file");
+					files.removeElementAt(i);
+				}
+			}
+		}
+		
+		if (config.merge != null && !files.isEmpty()) {
+			filesRemaining = new AtomicInteger(1 + mergedResults.size());
+		}
+		else {
+			filesRemaining = new AtomicInteger(files.size() + mergedResults.size());
+		}
+		
+		for (String key : mergedResults.keySet()) {
+			try {
+				processPartialResults(mergedResults.get(key), mergedLocations.get(key));
+			}
+			catch (Exception e) {
+				log.error("Failed to write the report of "+mergedResults.get(key).getName(), e);
+				filesRemaining.decrementAndGet();
+			}
+		}
+		
+		if (config.merge != null && !files.isEmpty()) {
+			try {
+				processMergedFiles(files.toArray(new File[0]), config.merge);
+			}
+			catch (SequenceFormatException e) {
+				log.error("Format error in "+config.merge + " : " + e.getLocalizedMessage(), e);
+				filesRemaining.decrementAndGet();
+			}
+			catch (IOException e) {
+				log.error("Sample "+config.merge + " broken : "  + e.getLocalizedMessage(), e);
+				filesRemaining.decrementAndGet();
+			}
+			catch (Exception e) {
+				log.error("Failed to process "+config.merge, e);
+				filesRemaining.decrementAndGet();
+			}
+			files.clear();
+		}
 		
 		for (int i=0;i<files.size();i++) {
 
@@ -160,41 +275,153 @@ public class OfflineRunner implements AnalysisListener {
 			} 
 			catch (InterruptedException e) {}
 		}
+		if (metrics != null) {
+			metrics.close();
+		}
 		System.exit(0);
 		
 	}
 	
 	public void processFile (File file) throws SequenceFormatException, IOException {
-		if (!file.getName().equals("stdin") && !file.exists()) {
+		if (!SequenceFactory.isStandardInput(file) && !file.exists()) {
 			throw new IOException(file.getName()+" doesn't exist");
 		}
+		
+		// The report of saved results is written again, next to them unless an output directory was given
+		if (SavedResults.isSavedResults(file)) {
+			SavedResults saved = SavedResults.read(file);
+			if (showUpdates) System.out.println("Writing the report of "+saved.getName()+" again from "+file.getName());
+			analysisComplete(saved.sequenceFile(new File(file.getAbsoluteFile().getParentFile(), saved.getName())), saved.getModules());
+			return;
+		}
+		
+		// The results of a shard are never complete
+		BamQCConfig config = BamQCConfig.getInstance();
+		String resultKey = null;
+		if (resultCache != null && file.isFile() && config.partial == null) {
+			resultKey = ResultCache.key(file);
+			SavedResults saved = resultCache.load(resultKey);
+			if (saved != null) {
+				if (showUpdates) System.out.println("Using the cached results of "+file.getName());
+				analysisComplete(saved.sequenceFile(file), saved.getModules());
+				return;
+			}
+		}
+		
 		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file);			
+		if (resultKey != null) {
+			synchronized (resultKeys) {
+				resultKeys.put(sequenceFile, resultKey);
+			}
+		}
 						
 		AnalysisRunner runner = new AnalysisRunner(sequenceFile);
 		
+		if (sequenceFile.getShard() != null) {
+			runner.setPartialFile(PartialResults.partialFile(reportFile(file, config.output_dir), sequenceFile.getShard()));
+		}
+		// Only a file can be read again from where it was left
+		else if ((config.checkpoint_interval > 0 || config.resume) && file.isFile()) {
+			if (config.profile) {
+				log.warn("No checkpoint is used for "+file.getName()+" as the module timings cannot be resumed");
+			}
+			else {
+				runner.setCheckpointFile(Checkpoint.checkpointFile(reportFile(file, config.output_dir)));
+			}
+		}
+		
+		startAnalysis(runner);
+
+	}
+	
+	/**
+	 * Analyses several files, such as the lanes of a sample, as one sample. 
+	 * Neither the result cache nor checkpoints are used, as the merged 
+	 * records cannot be read again from where they were left.
+	 * @param files the files of the sample
+	 * @param name the name of the sample, which names its report
+	 */
+	public void processMergedFiles (File [] files, String name) throws SequenceFormatException, IOException {
+		if (showUpdates) System.out.println("Merging "+files.length+" files into "+name);
+		
+		SequenceFile sequenceFile = SequenceFactory.getSequenceFile(files, name);
+		
+		startAnalysis(new AnalysisRunner(sequenceFile));
+	}
+	
+	private void startAnalysis (AnalysisRunner runner) {
+		// The metrics are told first, as the last report written ends the run
+		if (metrics != null) {
+			runner.addAnalysisListener(metrics);
+		}
 		runner.addAnalysisListener(this);
 			
 		QCModule [] moduleList = ModuleFactory.getStandardModuleList();
 
 		runner.startAnalysis(moduleList);
-
+	}
+	
+	/**
+	 * Writes the report of a file from the merged partial results of its shards, next 
+	 * to the partial results unless an output directory was given.
+	 * @param merged the merged partial results
+	 * @param partialFile one of the partial results
+	 */
+	private void processPartialResults (PartialResults merged, File partialFile) {
+		if (showUpdates) System.out.println("Merging "+merged.getParts()+" partial results of "+merged.getName());
+		if (merged.getMissingReferences() > 0) {
+			log.warn("The partial results of "+merged.getName()+" do not cover "+merged.getMissingReferences()+" of its reference sequences, so the report is incomplete");
+		}
+		
+		SequenceFile sequenceFile = merged.sequenceFile(new File(partialFile.getAbsoluteFile().getParentFile(), merged.getName()));
+		QCModule [] modules = merged.getModules();
+		for (int m=0;m<modules.length;m++) {
+			modules[m].processFile(sequenceFile);
+		}
+		for (int m=0;m<modules.length;m++) {
+			modules[m].processAnnotationSet(merged.getAnnotationSet());
+		}
+		analysisComplete(sequenceFile, modules);
 	}
 	
 	
 	
 	@Override
 	public void analysisComplete(SequenceFile file, QCModule[] results) {
-		File reportFile;
-		
 		if (showUpdates) System.out.println("Analysis complete for "+file.name());
+		synchronized (lastReportedPercent) {
+			lastReportedPercent.remove(file);
+		}
+		
+		// The runner has saved the partial results of the shard, which have no report of their own
+		if (file.getShard() != null) {
+			if (showUpdates) System.out.println("Partial results of "+file.getShard()+" written to "+PartialResults.partialFile(reportFile(file.getFile(), BamQCConfig.getInstance().output_dir), file.getShard()).getName());
+			filesRemaining.decrementAndGet();
+			return;
+		}
 
 		
-		if (BamQCConfig.getInstance().output_dir != null) {
-			String fileName = file.getFile().getName().replaceAll("\\.gz$","").replaceAll("\\.bz2$","").replaceAll("\\.txt$","").replaceAll("\\.fastq$", "").replaceAll("\\.fastq$", "").replaceAll("\\.csfastq$", "").replaceAll("\\.sam$", "").replaceAll("\\.bam$", "")+"_bamqc.html";
-			reportFile = new File(BamQCConfig.getInstance().output_dir+"/"+fileName);						
+		String resultKey;
+		synchronized (resultKeys) {
+			resultKey = resultKeys.remove(file);
 		}
-		else {
-			reportFile = new File(file.getFile().getAbsolutePath().replaceAll("\\.gz$","").replaceAll("\\.bz2$","").replaceAll("\\.txt$","").replaceAll("\\.fastq$", "").replaceAll("\\.fq$", "").replaceAll("\\.csfastq$", "").replaceAll("\\.sam$", "").replaceAll("\\.bam$", "")+"_bamqc.html");			
+		if (resultKey != null) {
+			try {
+				resultCache.save(resultKey, file, results);
+			}
+			catch (IOException e) {
+				log.warn("Cannot save the results of "+file.name()+" in the cache: "+e.getLocalizedMessage());
+			}
+		}
+		
+		File reportFile = reportFile(file.getFile(), BamQCConfig.getInstance().output_dir);
+		
+		// The results are saved next to the report, so that it can be written again with other limits
+		try {
+			SavedResults.write(SavedResults.sidecarFile(reportFile), file, results);
+		}
+		catch (IOException e) {
+			log.warn("Cannot save the results of "+file.name()+" next to the report: "+e.getLocalizedMessage());
 		}
 		
 		try {
@@ -208,25 +435,88 @@ public class OfflineRunner implements AnalysisListener {
 
 	}
 
+	/**
+	 * The html report of a file, whose name is the name of the file without its extensions.
+	 * @param file the analysed file
+	 * @param outputDir the directory of the report, or null to write it next to the file
+	 * @return the html report file
+	 */
+	public static File reportFile(File file, File outputDir) {
+		if (outputDir != null) {
+			String fileName = file.getName().replaceAll("\\.gz$","").replaceAll("\\.bz2$","").replaceAll("\\.txt$","").replaceAll("\\.fastq$", "").replaceAll("\\.fastq$", "").replaceAll("\\.csfastq$", "").replaceAll("\\.sam$", "").replaceAll("\\.bam$", "").replaceAll("\\.cram$", "")+"_bamqc.html";
+			return new File(outputDir+"/"+fileName);
+		}
+		return new File(file.getAbsolutePath().replaceAll("\\.gz$","").replaceAll("\\.bz2$","").replaceAll("\\.txt$","").replaceAll("\\.fastq$", "").replaceAll("\\.fq$", "").replaceAll("\\.csfastq$", "").replaceAll("\\.sam$", "").replaceAll("\\.bam$", "").replaceAll("\\.cram$", "")+"_bamqc.html");
+	}
+
 	@Override
-	public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {
+	public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {
 		
-		if (percentComplete % 5 == 0) {
-			if (percentComplete == 105) {
-				if (showUpdates) System.out.println("It seems our guess for the total number of records wasn't very good.  Sorry about that.");
-			}
-			if (percentComplete > 100) {
-				if (showUpdates) System.out.println("Still going at "+percentComplete+"% complete for "+file.name());
-			}
-			else {
-				if (showUpdates) System.out.println("Approx "+percentComplete+"% complete for "+file.name());
-			}
+		if (!showUpdates) return;
+		
+		if (percentComplete < 0) {
+			streamUpdated(file, sequencesProcessed, recordsPerSecond, megabytesPerSecond);
+			return;
+		}
+		
+		// Only print every 5%
+		int step = percentComplete - percentComplete % 5;
+		synchronized (lastReportedPercent) {
+			Integer last = lastReportedPercent.get(file);
+			if (step == 0 || (last != null && step <= last)) return;
+			lastReportedPercent.put(file, step);
+		}
+		
+		StringBuffer message = new StringBuffer();
+		message.append("Approx "+step+"% complete for "+file.name());
+		message.append(" ("+(long)recordsPerSecond+" records/s");
+		if (megabytesPerSecond >= 0) {
+			message.append(String.format(", %.1f MB/s", megabytesPerSecond));
+		}
+		if (secondsRemaining >= 0) {
+			message.append(", about "+FormatNumber.formatDuration(secondsRemaining)+" left");
 		}
+		message.append(")");
+		System.out.println(message.toString());
+	}
+
+	/**
+	 * Prints the progress in records and bytes, for the streams whose size is not known.
+	 */
+	private void streamUpdated(SequenceFile file, long sequencesProcessed, double recordsPerSecond, double megabytesPerSecond) {
+		
+		// Only print every STREAM_UPDATE_RECORDS records
+		int step = (int)(sequencesProcessed / STREAM_UPDATE_RECORDS);
+		synchronized (lastReportedPercent) {
+			Integer last = lastReportedPercent.get(file);
+			if (step == 0 || (last != null && step <= last)) return;
+			lastReportedPercent.put(file, step);
+		}
+		
+		StringBuffer message = new StringBuffer();
+		message.append("Read "+sequencesProcessed+" records");
+		long bytesRead = file.getBytesRead();
+		if (bytesRead >= 0) {
+			message.append(String.format(" (%.1f MB)", bytesRead / 1048576d));
+		}
+		message.append(" of "+file.name());
+		message.append(" ("+(long)recordsPerSecond+" records/s");
+		if (megabytesPerSecond >= 0) {
+			message.append(String.format(", %.1f MB/s", megabytesPerSecond));
+		}
+		message.append(")");
+		System.out.println(message.toString());
 	}
 
 	@Override
 	public void analysisExceptionReceived(SequenceFile file, Exception e) {
 		log.error("Failed to process file "+file.name(), e);
+		synchronized (lastReportedPercent) {
+			lastReportedPercent.remove(file);
+		}
+		synchronized (resultKeys) {
+			resultKeys.remove(file);
+		}
 		filesRemaining.decrementAndGet();
 	}
 
@@ -0,0 +1,252 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.babraham.BamQC.BamQCApplication;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Modules.MergeableModule;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SavedSequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFileShard;
+
+/**
+ * The values collected from a shard of the reference sequences of a file: the annotation 
+ * set and the modules after all the records of the shard have been processed, but before 
+ * they have seen the annotation. The partial results of all the shards of a file are 
+ * merged into the results of the whole file, from which the report is written.
+ */
+public class PartialResults {
+
+	private static final String MAGIC = "BamQC partial results";
+	
+	/** The extension of the files of partial results */
+	public static final String EXTENSION = ".partial";
+	
+	private String key;
+	private String name;
+	private String [] allReferences;
+	private LinkedHashSet<String> references;
+	private long mappedRecordCount;
+	private AnnotationSet annotationSet;
+	private QCModule [] modules;
+	private int parts = 1;
+	
+	private PartialResults(String key, String name, SequenceFileShard shard, long mappedRecordCount, AnnotationSet annotationSet, QCModule [] modules) {
+		this.key = key;
+		this.name = name;
+		this.allReferences = shard.getAllReferences();
+		this.references = new LinkedHashSet<String>(Arrays.asList(shard.getReferences()));
+		this.mappedRecordCount = mappedRecordCount;
+		this.annotationSet = annotationSet;
+		this.modules = modules;
+	}
+	
+	/**
+	 * @return the fingerprint of the file and of the options of the analysis
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * @return the name of the analysed file
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	public AnnotationSet getAnnotationSet() {
+		return annotationSet;
+	}
+	
+	public QCModule [] getModules() {
+		return modules;
+	}
+	
+	/**
+	 * @return the number of partial results merged into these
+	 */
+	public int getParts() {
+		return parts;
+	}
+	
+	/**
+	 * @return the number of reference sequences of the file which are not covered by these results
+	 */
+	public int getMissingReferences() {
+		return allReferences.length - references.size();
+	}
+	
+	/**
+	 * Adds the partial results of another shard of the same file.
+	 * @param other the partial results of another shard
+	 * @throws IOException if the results are not from the same file or the shards overlap
+	 */
+	public void merge(PartialResults other) throws IOException {
+		if (!key.equals(other.key) || !Arrays.equals(allReferences, other.allReferences)) {
+			throw new IOException("The partial results come from different files or options");
+		}
+		for (String reference : other.references) {
+			if (references.contains(reference)) {
+				throw new IOException("The reference sequence " + reference + " of " + name + " is in two of the partial results");
+			}
+		}
+		if (modules.length != other.modules.length) {
+			throw new IOException("The partial results of " + name + " were written with other modules");
+		}
+		for (int m=0; m<modules.length; m++) {
+			if (modules[m].getClass() != other.modules[m].getClass()) {
+				throw new IOException("The partial results of " + name + " were written with other modules");
+			}
+			if (!(modules[m] instanceof MergeableModule)) {
+				throw new IOException("The results of " + modules[m].name() + " cannot be merged");
+			}
+		}
+		
+		annotationSet.merge(other.annotationSet);
+		for (int m=0; m<modules.length; m++) {
+			((MergeableModule)modules[m]).merge(other.modules[m]);
+		}
+		references.addAll(other.references);
+		mappedRecordCount += other.mappedRecordCount;
+		parts += other.parts;
+	}
+	
+	/**
+	 * The analysed file, with which the report is written.
+	 * @param file the location of the analysed file
+	 * @return a sequence file without any record
+	 */
+	public SequenceFile sequenceFile(File file) {
+		String samplingDescription = null;
+		if (getMissingReferences() > 0) {
+			samplingDescription = "Partial results of " + references.size() + " of the " + allReferences.length + " reference sequences";
+		}
+		return new SavedSequenceFile(file, name, samplingDescription, mappedRecordCount);
+	}
+	
+	/**
+	 * The partial results of a shard are written next to the report of the file, 
+	 * with the name of the shard.
+	 * @param reportFile the html report
+	 * @param shard the shard of the file
+	 * @return the partial results of the shard
+	 */
+	public static File partialFile(File reportFile, SequenceFileShard shard) {
+		return new File(reportFile.getPath().replaceAll("\\.html$", "")+"_"+shard.getLabel()+EXTENSION);
+	}
+	
+	/**
+	 * @param file a file given to BamQC
+	 * @return true if the file has the extension of the partial results
+	 */
+	public static boolean isPartialResults(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+	
+	/**
+	 * Saves the values collected from a shard. The file is replaced at once, so 
+	 * that a file which is being written is never merged.
+	 * @param out the file to write
+	 * @param key the fingerprint of the file and of the options of the analysis
+	 * @param file the analysed file, read as a shard
+	 * @param annotationSet the annotation set, with all the records of the shard
+	 * @param modules the modules, with all the records of the shard
+	 * @throws IOException
+	 */
+	public static void write(File out, String key, SequenceFile file, AnnotationSet annotationSet, QCModule [] modules) throws IOException {
+		File temp = File.createTempFile(out.getName(), ".tmp", out.getAbsoluteFile().getParentFile());
+		ObjectOutputStream oos = null;
+		try {
+			oos = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))));
+			oos.writeUTF(MAGIC);
+			oos.writeUTF(BamQCApplication.VERSION);
+			oos.writeUTF(key);
+			oos.writeObject(file.name());
+			oos.writeObject(file.getShard());
+			oos.writeLong(file.getMappedRecordCount());
+			// The annotation set and the modules are written together, as they can share objects
+			oos.writeObject(annotationSet);
+			oos.writeObject(modules);
+			oos.close();
+			oos = null;
+			
+			SavedResults.replace(out, temp);
+		}
+		finally {
+			if (oos != null) oos.close();
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Reads partial results written with write().
+	 * @param in the partial results
+	 * @return the partial results
+	 * @throws IOException if the file cannot be read or was written by another version of BamQC
+	 */
+	public static PartialResults read(File in) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(in))));
+		try {
+			if (!MAGIC.equals(ois.readUTF())) {
+				throw new IOException(in.getName() + " does not contain BamQC partial results");
+			}
+			String version = ois.readUTF();
+			if (!version.equals(BamQCApplication.VERSION)) {
+				throw new IOException(in.getName() + " was written by BamQC v" + version + " and cannot be read by v" + BamQCApplication.VERSION);
+			}
+			String key = ois.readUTF();
+			String name = (String)ois.readObject();
+			SequenceFileShard shard = (SequenceFileShard)ois.readObject();
+			long mappedRecordCount = ois.readLong();
+			AnnotationSet annotationSet = (AnnotationSet)ois.readObject();
+			QCModule [] modules = (QCModule[])ois.readObject();
+			return new PartialResults(key, name, shard, mappedRecordCount, annotationSet, modules);
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read the partial results " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		catch (ClassCastException e) {
+			throw new IOException("Cannot read the partial results " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		finally {
+			ois.close();
+		}
+	}
+	
+}
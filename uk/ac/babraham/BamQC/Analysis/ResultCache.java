@@ -0,0 +1,185 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.log4j.Logger;
+
+import uk.ac.babraham.BamQC.BamQCApplication;
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.Modules.ModuleConfig;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Keeps the saved results of the analyses in a directory, so that the report of a 
+ * file which has already been analysed is written again without reading the file. 
+ * The results are found with a fingerprint of the file (its name, size, modification 
+ * time and the hash of its first and last bytes, which hold the header and the EOF 
+ * block of a Bam file) and of everything else which changes the results: the 
+ * annotation, the limits, the target regions, the sampling and the BamQC version.
+ */
+public class ResultCache {
+
+	private static Logger log = Logger.getLogger(ResultCache.class);
+	
+	// The number of bytes hashed at each end of the file
+	private static final int HASHED_BYTES = 65536;
+	
+	private File directory;
+	
+	/**
+	 * @param directory the directory of the saved results, which is created if needed
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ResultCache(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the result cache " + directory.getPath());
+		}
+		this.directory = directory;
+	}
+	
+	/**
+	 * The fingerprint of an analysis of a file with the current configuration.
+	 * @param file a regular file
+	 * @return the key of the results of the analysis
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String key(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		BamQCConfig config = BamQCConfig.getInstance();
+		
+		update(digest, "BamQC " + BamQCApplication.VERSION);
+		update(digest, file.getName() + ":" + file.length() + ":" + file.lastModified());
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte [] buffer = new byte[(int)Math.min(HASHED_BYTES, raf.length())];
+			raf.readFully(buffer);
+			digest.update(buffer);
+			raf.seek(raf.length() - buffer.length);
+			raf.readFully(buffer);
+			digest.update(buffer);
+		}
+		finally {
+			raf.close();
+		}
+		
+		// The genome is used instead of the annotation file
+		if (config.genome != null) {
+			update(digest, "genome " + AnnotationCache.key(config.genome));
+		}
+		else if (config.gff_file != null) {
+			update(digest, "annotation " + AnnotationCache.key(config.gff_file));
+		}
+		if (config.bed_file != null) {
+			update(digest, "targets " + AnnotationCache.key(config.bed_file));
+		}
+		if (config.biotype_mapping_file != null) {
+			update(digest, "biotypes " + AnnotationCache.key(config.biotype_mapping_file));
+		}
+		// The MD tags computed from the reference change the variant statistics
+		if (config.reference != null) {
+			update(digest, "reference " + AnnotationCache.key(config.reference));
+		}
+		update(digest, "sample " + config.sample_reads + " converge " + config.convergence_tolerance);
+		
+		InputStream limits;
+		if (config.limits_file == null) {
+			limits = ModuleConfig.class.getResourceAsStream("/Configuration/limits.txt");
+		}
+		else {
+			limits = new FileInputStream(config.limits_file);
+		}
+		if (limits != null) {
+			try {
+				byte [] buffer = new byte[8192];
+				int len;
+				while ((len = limits.read(buffer)) > 0) {
+					digest.update(buffer, 0, len);
+				}
+			}
+			finally {
+				limits.close();
+			}
+		}
+		
+		byte [] hash = digest.digest();
+		StringBuilder key = new StringBuilder();
+		for (int i=0; i<hash.length; i++) {
+			key.append(String.format("%02x", hash[i]));
+		}
+		return key.toString();
+	}
+	
+	private static void update(MessageDigest digest, String value) throws IOException {
+		digest.update(value.getBytes("UTF-8"));
+		digest.update((byte)0);
+	}
+	
+	private File entry(String key) {
+		return new File(directory, key + SavedResults.EXTENSION);
+	}
+	
+	/**
+	 * @param key the key of the analysis
+	 * @return the saved results, or null if the analysis must be run
+	 */
+	public SavedResults load(String key) {
+		File entry = entry(key);
+		if (!entry.isFile()) return null;
+		try {
+			return SavedResults.read(entry);
+		}
+		catch (IOException e) {
+			log.warn("Ignoring the cached results " + entry.getName() + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Saves the results of an analysis.
+	 * @param key the key of the analysis, computed before the file was read
+	 * @param file the analysed file
+	 * @param modules the modules which have seen all the records and the annotation
+	 * @throws IOException
+	 */
+	public void save(String key, SequenceFile file, QCModule [] modules) throws IOException {
+		SavedResults.write(entry(key), file, modules);
+	}
+	
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.babraham.BamQC.BamQCApplication;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Sequence.SavedSequenceFile;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * The accumulated values of the modules of an analysis, saved once the file has been 
+ * read, from which the report can be written again without reading the file. The 
+ * modules are saved with the Java serialization, so the results can only be read by 
+ * the version of BamQC which saved them.
+ */
+public class SavedResults {
+
+	private static final String MAGIC = "BamQC saved results";
+	
+	/** The extension of the files of saved results */
+	public static final String EXTENSION = ".bamqc";
+	
+	private String name;
+	private String samplingDescription;
+	private QCModule [] modules;
+	
+	private SavedResults(String name, String samplingDescription, QCModule [] modules) {
+		this.name = name;
+		this.samplingDescription = samplingDescription;
+		this.modules = modules;
+	}
+	
+	/**
+	 * @return the name of the analysed file
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return how the records were sampled, or null if the whole file was read
+	 */
+	public String getSamplingDescription() {
+		return samplingDescription;
+	}
+	
+	/**
+	 * @return the modules, with the values they had when the file had been read
+	 */
+	public QCModule [] getModules() {
+		return modules;
+	}
+	
+	/**
+	 * The analysed file, with which the report is written.
+	 * @param file the location of the analysed file
+	 * @return a sequence file without any record
+	 */
+	public SequenceFile sequenceFile(File file) {
+		return new SavedSequenceFile(file, name, samplingDescription);
+	}
+	
+	/**
+	 * The saved results written next to a report, from which the report can be written 
+	 * again with other limits.
+	 * @param reportFile the html report
+	 * @return the saved results of the report
+	 */
+	public static File sidecarFile(File reportFile) {
+		return new File(reportFile.getPath().replaceAll("\\.html$", "")+EXTENSION);
+	}
+	
+	/**
+	 * @param file a file given to BamQC
+	 * @return true if the file has the extension of the saved results
+	 */
+	public static boolean isSavedResults(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+	
+	/**
+	 * Saves the results of an analysis. The file is replaced at once, so that a file 
+	 * which is being written is never read.
+	 * @param out the file to write
+	 * @param file the analysed file
+	 * @param modules the modules which have seen all the records and the annotation
+	 * @throws IOException
+	 */
+	public static void write(File out, SequenceFile file, QCModule [] modules) throws IOException {
+		File temp = File.createTempFile(out.getName(), ".tmp", out.getAbsoluteFile().getParentFile());
+		ObjectOutputStream oos = null;
+		try {
+			oos = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))));
+			oos.writeUTF(MAGIC);
+			oos.writeUTF(BamQCApplication.VERSION);
+			oos.writeObject(file.name());
+			oos.writeObject(file.samplingDescription());
+			oos.writeObject(modules);
+			oos.close();
+			oos = null;
+			
+			replace(out, temp);
+		}
+		finally {
+			if (oos != null) oos.close();
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Replaces a file with a complete file written next to it.
+	 * @param out the file to replace
+	 * @param temp the new content of the file
+	 * @throws IOException
+	 */
+	static void replace(File out, File temp) throws IOException {
+		if (!temp.renameTo(out)) {
+			// some systems do not replace an existing file
+			if (!out.delete() || !temp.renameTo(out)) {
+				throw new IOException("Cannot replace " + out.getPath());
+			}
+		}
+	}
+	
+	/**
+	 * Reads results saved with write().
+	 * @param in the saved results
+	 * @return the saved results
+	 * @throws IOException if the file cannot be read or was saved by another version of BamQC
+	 */
+	public static SavedResults read(File in) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(in))));
+		try {
+			if (!MAGIC.equals(ois.readUTF())) {
+				throw new IOException(in.getName() + " does not contain BamQC results");
+			}
+			String version = ois.readUTF();
+			if (!version.equals(BamQCApplication.VERSION)) {
+				throw new IOException(in.getName() + " was saved by BamQC v" + version + " and cannot be read by v" + BamQCApplication.VERSION);
+			}
+			String name = (String)ois.readObject();
+			String samplingDescription = (String)ois.readObject();
+			QCModule [] modules = (QCModule[])ois.readObject();
+			return new SavedResults(name, samplingDescription, modules);
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read the results of " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		catch (ClassCastException e) {
+			throw new IOException("Cannot read the results of " + in.getName() + ": " + e.getLocalizedMessage(), e);
+		}
+		finally {
+			ois.close();
+		}
+	}
+	
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Analysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.Modules.ModuleFactory;
+import uk.ac.babraham.BamQC.Modules.QCModule;
+import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.JSONResultsWriter;
+import uk.ac.babraham.BamQC.Sequence.SequenceFactory;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Keeps BamQC running and accepts the analyses over HTTP on a port of localhost, so 
+ * that a pipeline analysing many small files does not start a new virtual machine and 
+ * parse the same annotation for each of them. The jobs run on the AnalysisQueue and 
+ * their parsed annotations are kept in an AnnotationCache.
+ * 
+ * POST /jobs submits a job, with the parameters file, and optionally outdir, gff or 
+ * genome (which otherwise come from the BamQCConfig) and wait=true to answer once the 
+ * report is written. The parameters are read from the query and from a form body.
+ * GET /jobs/id returns the state of a job, GET /jobs all the jobs and GET /status the 
+ * queue and the annotation cache. Every answer is a JSON object.
+ */
+public class ServerRunner {
+
+	private static Logger log = Logger.getLogger(ServerRunner.class);
+	
+	// The finished jobs are forgotten, oldest first, beyond this number of jobs
+	private static final int MAX_JOBS = 1000;
+	
+	private int port;
+	private HttpServer server;
+	private AnnotationCache annotationCache;
+	private boolean showUpdates = !BamQCConfig.getInstance().quiet;
+	
+	private AtomicInteger lastId = new AtomicInteger(0);
+	private LinkedHashMap<Integer, Job> jobs = new LinkedHashMap<Integer, Job>();
+	
+	/**
+	 * @param port the port of localhost to listen to
+	 * @param cacheSize the number of parsed annotations which are kept
+	 * @throws IOException if the port cannot be used
+	 */
+	public ServerRunner(int port, int cacheSize) throws IOException {
+		this.port = port;
+		annotationCache = new AnnotationCache(cacheSize);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+		server.createContext("/jobs", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleJobs(exchange);
+				}
+				catch (Exception e) {
+					log.error("Failed to answer " + exchange.getRequestURI(), e);
+					send(exchange, 500, error(e.toString()));
+				}
+			}
+		});
+		server.createContext("/status", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				send(exchange, 200, status());
+			}
+		});
+		// a request waiting for its job must not hold up the other requests
+		server.setExecutor(Executors.newCachedThreadPool());
+	}
+	
+	/**
+	 * Starts accepting the jobs. The program then keeps running until it is killed.
+	 */
+	public void start() {
+		server.start();
+		if (showUpdates) System.out.println("Waiting for jobs on http://127.0.0.1:" + port + "/jobs");
+	}
+	
+	private void handleJobs(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+		String method = exchange.getRequestMethod();
+		
+		if (path.equals("/jobs")) {
+			if (method.equals("POST")) {
+				submit(exchange);
+			}
+			else if (method.equals("GET")) {
+				send(exchange, 200, allJobs());
+			}
+			else {
+				send(exchange, 405, error("Jobs are submitted with POST"));
+			}
+			return;
+		}
+		
+		Job job = null;
+		try {
+			int id = Integer.parseInt(path.substring("/jobs/".length()));
+			synchronized (jobs) {
+				job = jobs.get(id);
+			}
+		}
+		catch (NumberFormatException e) {}
+		if (job == null) {
+			send(exchange, 404, error("No job " + path.substring(path.lastIndexOf('/')+1)));
+			return;
+		}
+		send(exchange, 200, job.json());
+	}
+	
+	private void submit(HttpExchange exchange) throws IOException {
+		HashMap<String, String> parameters = parameters(exchange);
+		BamQCConfig config = BamQCConfig.getInstance();
+		
+		if (parameters.get("file") == null) {
+			send(exchange, 400, error("The file to analyse is missing"));
+			return;
+		}
+		File file = new File(parameters.get("file"));
+		File outputDir = parameters.containsKey("outdir") ? new File(parameters.get("outdir")) : config.output_dir;
+		File gff = config.gff_file;
+		File genome = config.genome;
+		if (parameters.containsKey("gff")) {
+			gff = new File(parameters.get("gff"));
+			genome = null;
+		}
+		if (parameters.containsKey("genome")) {
+			genome = new File(parameters.get("genome"));
+		}
+		
+		String problem = null;
+		if (!file.isFile() || !file.canRead()) {
+			problem = "Cannot read " + file.getPath();
+		}
+		else if (outputDir != null && !outputDir.isDirectory()) {
+			problem = "The output directory " + outputDir.getPath() + " does not exist";
+		}
+		else if (genome != null && !genome.isDirectory()) {
+			problem = "The genome " + genome.getPath() + " does not exist";
+		}
+		else if (genome == null && gff != null && !gff.canRead()) {
+			problem = "Cannot read the annotation " + gff.getPath();
+		}
+		if (problem != null) {
+			send(exchange, 400, error(problem));
+			return;
+		}
+		
+		SequenceFile sequenceFile;
+		try {
+			sequenceFile = SequenceFactory.getSequenceFile(file);
+		}
+		catch (Exception e) {
+			send(exchange, 400, error("Cannot open " + file.getPath() + ": " + e.getLocalizedMessage()));
+			return;
+		}
+		
+		Job job = new Job(lastId.incrementAndGet(), file, OfflineRunner.reportFile(file, outputDir));
+		addJob(job);
+		
+		AnalysisRunner runner = new AnalysisRunner(sequenceFile);
+		runner.setAnnotation(gff, genome, annotationCache);
+		runner.addAnalysisListener(job);
+		runner.startAnalysis(ModuleFactory.getStandardModuleList());
+		
+		if ("true".equals(parameters.get("wait"))) {
+			job.waitUntilFinished();
+		}
+		send(exchange, 200, job.json());
+	}
+	
+	private void addJob(Job job) {
+		synchronized (jobs) {
+			jobs.put(job.id, job);
+			Iterator<Job> oldest = jobs.values().iterator();
+			while (jobs.size() > MAX_JOBS && oldest.hasNext()) {
+				if (oldest.next().isFinished()) {
+					oldest.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the parameters of the query and of a form body.
+	 */
+	private static HashMap<String, String> parameters(HttpExchange exchange) throws IOException {
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		addParameters(parameters, exchange.getRequestURI().getRawQuery());
+		
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte [] buffer = new byte[4096];
+		int len;
+		while ((len = in.read(buffer)) > 0) {
+			body.write(buffer, 0, len);
+		}
+		in.close();
+		addParameters(parameters, body.toString("UTF-8"));
+		return parameters;
+	}
+	
+	private static void addParameters(HashMap<String, String> parameters, String encoded) throws IOException {
+		if (encoded == null) return;
+		String [] pairs = encoded.trim().split("&");
+		for (int i=0; i<pairs.length; i++) {
+			if (pairs[i].length() == 0) continue;
+			int equals = pairs[i].indexOf('=');
+			if (equals < 0) {
+				parameters.put(URLDecoder.decode(pairs[i], "UTF-8"), "true");
+			}
+			else {
+				parameters.put(URLDecoder.decode(pairs[i].substring(0, equals), "UTF-8"), URLDecoder.decode(pairs[i].substring(equals+1), "UTF-8"));
+			}
+		}
+	}
+	
+	private static void send(HttpExchange exchange, int code, String json) throws IOException {
+		byte [] body = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+	
+	private static String error(String message) throws IOException {
+		StringWriter out = new StringWriter();
+		JSONResultsWriter json = new JSONResultsWriter(out);
+		json.value("error", message);
+		json.close();
+		return out.toString();
+	}
+	
+	private String allJobs() throws IOException {
+		StringWriter out = new StringWriter();
+		JSONResultsWriter json = new JSONResultsWriter(out);
+		json.startGroup("jobs");
+		synchronized (jobs) {
+			for (Job job : jobs.values()) {
+				json.startGroup(Integer.toString(job.id));
+				job.write(json);
+				json.endGroup();
+			}
+		}
+		json.close();
+		return out.toString();
+	}
+	
+	private String status() throws IOException {
+		StringWriter out = new StringWriter();
+		JSONResultsWriter json = new JSONResultsWriter(out);
+		json.value("queued", AnalysisQueue.getInstance().getQueueLength());
+		json.value("running", AnalysisQueue.getInstance().getActiveRunners());
+		synchronized (jobs) {
+			json.value("jobs", jobs.size());
+		}
+		json.startGroup("annotation_cache");
+		json.value("size", annotationCache.size());
+		json.value("hits", annotationCache.getHits());
+		json.value("misses", annotationCache.getMisses());
+		json.endGroup();
+		json.close();
+		return out.toString();
+	}
+	
+	
+	/**
+	 * An analysis submitted to the server, which writes its report once it is complete.
+	 */
+	private class Job implements AnalysisListener {
+		
+		private static final String QUEUED = "queued";
+		private static final String RUNNING = "running";
+		private static final String COMPLETE = "complete";
+		private static final String FAILED = "failed";
+		
+		private int id;
+		private File file;
+		private File reportFile;
+		private String state = QUEUED;
+		private String error = null;
+		private boolean resultsSaved = false;
+		private long records = 0;
+		private int percentComplete = 0;
+		
+		public Job(int id, File file, File reportFile) {
+			this.id = id;
+			this.file = file;
+			this.reportFile = reportFile;
+		}
+		
+		public synchronized boolean isFinished() {
+			return state.equals(COMPLETE) || state.equals(FAILED);
+		}
+		
+		public synchronized void waitUntilFinished() {
+			while (!isFinished()) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+		
+		private synchronized void finish(String state, String error) {
+			this.state = state;
+			this.error = error;
+			notifyAll();
+		}
+		
+		public String json() throws IOException {
+			StringWriter out = new StringWriter();
+			JSONResultsWriter json = new JSONResultsWriter(out);
+			write(json);
+			json.close();
+			return out.toString();
+		}
+		
+		public synchronized void write(JSONResultsWriter json) throws IOException {
+			json.value("id", id);
+			json.value("file", file.getPath());
+			json.value("state", state);
+			json.value("records", records);
+			json.value("percent_complete", percentComplete);
+			if (state.equals(COMPLETE)) {
+				if (!BamQCConfig.getInstance().data_only) {
+					json.value("report", reportFile.getAbsolutePath());
+				}
+				json.value("zip", reportFile.getAbsolutePath().replaceAll("\\.html$", "")+".zip");
+				if (resultsSaved) {
+					json.value("results", SavedResults.sidecarFile(reportFile).getAbsolutePath());
+				}
+			}
+			if (error != null) {
+				json.value("error", error);
+			}
+		}
+
+		@Override
+		public synchronized void analysisStarted(SequenceFile file) {
+			state = RUNNING;
+		}
+
+		@Override
+		public synchronized void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {
+			records = sequencesProcessed;
+			this.percentComplete = percentComplete;
+		}
+
+		@Override
+		public void analysisComplete(SequenceFile file, QCModule[] results) {
+			try {
+				SavedResults.write(SavedResults.sidecarFile(reportFile), file, results);
+				synchronized (this) {
+					resultsSaved = true;
+				}
+			}
+			catch (IOException e) {
+				log.warn("Cannot save the results of job " + id + ": " + e.getLocalizedMessage());
+			}
+			try {
+				new HTMLReportArchive(file, results, reportFile);
+			}
+			catch (Exception e) {
+				analysisExceptionReceived(file, e);
+				return;
+			}
+			if (showUpdates) System.out.println("Job " + id + " complete for " + file.name());
+			finish(COMPLETE, null);
+		}
+
+		@Override
+		public void analysisExceptionReceived(SequenceFile file, Exception e) {
+			log.error("Job " + id + " failed for " + file.name(), e);
+			finish(FAILED, e.getLocalizedMessage() == null ? e.toString() : e.getLocalizedMessage());
+		}
+	}
+	
+}
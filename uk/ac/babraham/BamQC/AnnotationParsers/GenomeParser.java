@@ -469,11 +469,6 @@ public class GenomeParser extends AnnotationParser {
 	 */
 	private void skipToEntryEnd (BufferedReader br) throws IOException {
 		String line;
-		try {
-			Thread.sleep(5);
-		} catch (InterruptedException e) {
-		}
-
 		while ((line=br.readLine())!=null) {
 			if (line.startsWith("//"))
 				return;
@@ -45,6 +45,7 @@ import org.apache.log4j.Logger;
 
 import uk.ac.babraham.BamQC.Analysis.AnalysisRunner;
 import uk.ac.babraham.BamQC.Analysis.OfflineRunner;
+import uk.ac.babraham.BamQC.Analysis.ServerRunner;
 import uk.ac.babraham.BamQC.Dialogs.ProgressTextDialog;
 import uk.ac.babraham.BamQC.Dialogs.WelcomePanel;
 import uk.ac.babraham.BamQC.Menu.BamQCMenuBar;
@@ -312,7 +313,7 @@ public class BamQCApplication extends JFrame implements ProgressListener {
 			JOptionPane.showMessageDialog(this, "No SAM/BAM files are open yet", "Can't save report", JOptionPane.ERROR_MESSAGE);
 			return;
 		}
-		chooser.setSelectedFile(new File(((ResultsPanel)fileTabs.getSelectedComponent()).sequenceFile().getFile().getName().replaceAll(".gz$","").replaceAll(".bz2$","").replaceAll(".txt$","").replaceAll(".fastq$", "").replaceAll(".fq$", "").replaceAll(".sam$", "").replaceAll(".bam$", "")+"_bamqc.html"));
+		chooser.setSelectedFile(new File(((ResultsPanel)fileTabs.getSelectedComponent()).sequenceFile().getFile().getName().replaceAll(".gz$","").replaceAll(".bz2$","").replaceAll(".txt$","").replaceAll(".fastq$", "").replaceAll(".fq$", "").replaceAll(".sam$", "").replaceAll(".bam$", "").replaceAll(".cram$", "")+"_bamqc.html"));
 		chooser.setMultiSelectionEnabled(false);
 		chooser.setFileFilter(new FileFilter() {
 		
@@ -540,6 +541,19 @@ public class BamQCApplication extends JFrame implements ProgressListener {
 			System.exit(0);
 		}
 		
+		// Keep running and analyse the files submitted over HTTP
+		if (BamQCConfig.getInstance().server_port > 0) {
+			System.setProperty("java.awt.headless", "true");
+			try {
+				new ServerRunner(BamQCConfig.getInstance().server_port, BamQCConfig.getInstance().annotation_cache).start();
+			}
+			catch (IOException e) {
+				System.err.println("Cannot listen to port "+BamQCConfig.getInstance().server_port+": "+e.getLocalizedMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		
 		if (args.length > 0) {
 			// Set headless to true so we don't get problems
 			// with people working without an X display.
@@ -50,6 +50,16 @@ public class BamQCConfig {
 	public boolean show_available_genomes = false;
 	public boolean show_saved_genomes = false;	
 	public File gff_file = null;
+	public File bed_file = null;
+	public File reference = null;
+	public String samtools = "samtools";
+	public long sample_reads = 0;
+	public double convergence_tolerance = 0;
+	public boolean profile = false;
+	public File metrics_file = null;
+	public int metrics_port = 0;
+	public String metrics_format = "json";
+	public int metrics_interval = 10;
 	public File genome = null;  // this is a directory
 	public String species = null;
 	public String assembly = null;
@@ -57,6 +67,14 @@ public class BamQCConfig {
 	public boolean showUpdates = true;
 	public File output_dir = null;
 	public boolean do_unzip = false;
+	public boolean data_only = false;
+	public int server_port = 0;
+	public int annotation_cache = 4;
+	public File result_cache = null;
+	public double checkpoint_interval = 0;
+	public boolean resume = false;
+	public String partial = null;
+	public String merge = null;
 	public String lineSeparator = System.getProperty("line.separator");
 	public String sequence_format = null;
 	public File limits_file = null;
@@ -80,6 +98,17 @@ public class BamQCConfig {
 		}
 		
 		
+		// Reference Fasta file of Cram files, and the samtools which decodes them
+		if (System.getProperty("bamqc.reference") != null) {
+			reference = new File(System.getProperty("bamqc.reference"));
+			if (!(reference.exists() && reference.canRead())) {
+				throw new IllegalArgumentException("\nReference file "+reference+" does not exist or cannot be read");
+			}
+		}
+		if (System.getProperty("bamqc.samtools") != null) {
+			samtools = System.getProperty("bamqc.samtools");
+		}
+		
 		// Output dir
 		if (System.getProperty("bamqc.output_dir") != null) {
 			output_dir = new File(System.getProperty("bamqc.output_dir"));
@@ -95,6 +124,14 @@ public class BamQCConfig {
 				throw new IllegalArgumentException("\nGFF file "+gff_file+" does not exist or cannot be read");
 			}
 		}
+
+		// BED file of target regions
+		if (System.getProperty("bamqc.bed_file") != null) {
+			bed_file = new File(System.getProperty("bamqc.bed_file"));
+			if (!(bed_file.exists() && bed_file.canRead())) {
+				throw new IllegalArgumentException("\nBED file "+bed_file+" does not exist or cannot be read");
+			}
+		}
 		
 		if (System.getProperty("bamqc.genome") != null) {
 			genome = new File(System.getProperty("bamqc.genome"));
@@ -198,6 +235,50 @@ public class BamQCConfig {
 			}
 		}
 		
+		// Sampling
+		if (System.getProperty("bamqc.sample_reads") != null) {
+			sample_reads = Long.parseLong(System.getProperty("bamqc.sample_reads"));
+			if (sample_reads < 0) {
+				throw new IllegalArgumentException("Number of reads to sample must be >= 0");
+			}
+		}
+		
+		// Stop when the distributions are stable
+		if (System.getProperty("bamqc.convergence") != null) {
+			convergence_tolerance = Double.parseDouble(System.getProperty("bamqc.convergence"));
+			if (convergence_tolerance < 0 || convergence_tolerance >= 1) {
+				throw new IllegalArgumentException("The convergence tolerance must be between 0 and 1");
+			}
+		}
+		
+		// Time the modules
+		if (System.getProperty("bamqc.profile") != null && System.getProperty("bamqc.profile").equals("true")) {
+			profile = true;
+		}
+		
+		// Write the metrics of batch runs to a file or serve them over HTTP
+		if (System.getProperty("bamqc.metrics_file") != null) {
+			metrics_file = new File(System.getProperty("bamqc.metrics_file"));
+		}
+		if (System.getProperty("bamqc.metrics_port") != null) {
+			metrics_port = Integer.parseInt(System.getProperty("bamqc.metrics_port"));
+			if (metrics_port < 1 || metrics_port > 65535) {
+				throw new IllegalArgumentException("The metrics port must be between 1 and 65535");
+			}
+		}
+		if (System.getProperty("bamqc.metrics_format") != null) {
+			metrics_format = System.getProperty("bamqc.metrics_format").toLowerCase();
+			if (!metrics_format.equals("json") && !metrics_format.equals("prometheus")) {
+				throw new IllegalArgumentException("The metrics format must be json or prometheus");
+			}
+		}
+		if (System.getProperty("bamqc.metrics_interval") != null) {
+			metrics_interval = Integer.parseInt(System.getProperty("bamqc.metrics_interval"));
+			if (metrics_interval < 1) {
+				throw new IllegalArgumentException("The metrics interval must be >= 1 second");
+			}
+		}
+		
 		// Quiet
 		if (System.getProperty("bamqc.quiet") != null && System.getProperty("bamqc.quiet").equals("true")) {
 			quiet = true;
@@ -219,6 +300,68 @@ public class BamQCConfig {
 			do_unzip = true;
 		}
 		
+		// Only write the text and JSON results, without the html report and its graphs
+		if (System.getProperty("bamqc.data_only") != null && System.getProperty("bamqc.data_only").equals("true")) {
+			data_only = true;
+		}
+		
+		// Accept the analyses over HTTP instead of running the files given
+		if (System.getProperty("bamqc.server_port") != null) {
+			server_port = Integer.parseInt(System.getProperty("bamqc.server_port"));
+			if (server_port < 1 || server_port > 65535) {
+				throw new IllegalArgumentException("The server port must be between 1 and 65535");
+			}
+		}
+		// Reuse the results of the files which have already been analysed
+		if (System.getProperty("bamqc.result_cache") != null) {
+			result_cache = new File(System.getProperty("bamqc.result_cache"));
+		}
+		if (System.getProperty("bamqc.annotation_cache") != null) {
+			annotation_cache = Integer.parseInt(System.getProperty("bamqc.annotation_cache"));
+			if (annotation_cache < 0) {
+				throw new IllegalArgumentException("The size of the annotation cache cannot be negative");
+			}
+		}
+		
+		// Save the state of the analysis every few minutes, and go on from it after an interruption
+		if (System.getProperty("bamqc.checkpoint_interval") != null) {
+			checkpoint_interval = Double.parseDouble(System.getProperty("bamqc.checkpoint_interval"));
+			if (checkpoint_interval < 0) {
+				throw new IllegalArgumentException("The checkpoint interval cannot be negative");
+			}
+		}
+		if (System.getProperty("bamqc.resume") != null && System.getProperty("bamqc.resume").equals("true")) {
+			resume = true;
+		}
+		
+		// Only analyse a shard of the reference sequences, and write partial results which are merged later
+		if (System.getProperty("bamqc.partial") != null) {
+			partial = System.getProperty("bamqc.partial");
+			if (sample_reads > 0 || convergence_tolerance > 0) {
+				throw new IllegalArgumentException("Partial results cannot be computed with sampling or convergence, as they would not add up");
+			}
+			if (server_port > 0) {
+				throw new IllegalArgumentException("Partial results cannot be computed in server mode");
+			}
+		}
+		
+		// Analyse all the files as one sample, named after the given name
+		if (System.getProperty("bamqc.merge") != null && System.getProperty("bamqc.merge").length() > 0) {
+			merge = System.getProperty("bamqc.merge");
+			if (merge.contains("/") || merge.contains(File.separator)) {
+				throw new IllegalArgumentException("The name of the merged sample cannot contain a path separator");
+			}
+			if (sample_reads > 0) {
+				throw new IllegalArgumentException("The files of a merged sample cannot be sampled");
+			}
+			if (partial != null) {
+				throw new IllegalArgumentException("Partial results cannot be computed from a merged sample");
+			}
+			if (server_port > 0) {
+				throw new IllegalArgumentException("Merged samples cannot be analysed in server mode");
+			}
+		}
+		
 	}
 
 	public static BamQCConfig getInstance() {
@@ -26,13 +26,16 @@
 package uk.ac.babraham.BamQC.DataTypes.Genome;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 import uk.ac.babraham.BamQC.Modules.ModuleConfig;
+import uk.ac.babraham.BamQC.Utilities.FlightRecorderEvent;
 import net.sf.samtools.SAMRecord;
 
 /**
@@ -41,7 +44,9 @@ import net.sf.samtools.SAMRecord;
  * @author Piero Dalle Pezze
  *
  */
-public class AnnotationSet {
+public class AnnotationSet implements Serializable {
+
+	private static final long serialVersionUID = -1518329581451763580L;
 
 	/** The reference file for this annotation set */
 	private File file = null;
@@ -52,8 +57,13 @@ public class AnnotationSet {
 	
 	private HashSet<Feature> allFeatures = new HashSet<Feature>();
 	
+	private int featureCount = 0;
+	
 	private final int cacheCapacity = ModuleConfig.getParam("AnnotationSet_annotation_cache_capacity", "ignore").intValue();
 	private List<ShortRead> readCache = new ArrayList<ShortRead>(cacheCapacity);
+	
+	// The length and the number of coverage bins of each chromosome after the parsing
+	private HashMap<String, int[]> parsedChromosomes = null;
 
 	
 	public AnnotationSet() { }
@@ -78,6 +88,14 @@ public class AnnotationSet {
 			allFeatures.add(f);
 		}	
 		features.get(f.type()).addFeature(f);
+		featureCount++;
+	}
+	
+	/** 
+	 * @return the number of features added to this annotation set
+	 */
+	public int featureCount() {
+		return featureCount;
 	}
 	
 	
@@ -87,6 +105,43 @@ public class AnnotationSet {
 	
 	
 	
+	/**
+	 * Records the chromosomes as they are after the parsing, so that reset() can 
+	 * bring this annotation set back to this state.
+	 */
+	public void saveParsedState () {
+		parsedChromosomes = new HashMap<String, int[]>();
+		for (Chromosome c : factory.chromosomes.values()) {
+			parsedChromosomes.put(c.name(), new int[] {c.length(), c.getBinCountData().length});
+		}
+	}
+	
+	/**
+	 * Clears everything collected from the sequences since saveParsedState() was called, 
+	 * so that this annotation set can be used for another file without being parsed again.
+	 */
+	public void reset () {
+		if (parsedChromosomes == null) {
+			throw new IllegalStateException("The parsed state of the annotation set was not saved");
+		}
+		Iterator<Chromosome> chromosomes = factory.chromosomes.values().iterator();
+		while (chromosomes.hasNext()) {
+			Chromosome c = chromosomes.next();
+			int [] parsed = parsedChromosomes.get(c.name());
+			if (parsed == null) {
+				// only seen in the reads
+				chromosomes.remove();
+			}
+			else {
+				c.reset(parsed[0], parsed[1]);
+			}
+		}
+		for(FeatureClass value : features.values()) {
+			value.reset();
+		}
+		readCache.clear();
+	}
+	
 	public boolean hasFeatures () {
 		return !features.isEmpty();
 	}
@@ -110,15 +165,15 @@ public class AnnotationSet {
 	
 	public void processSequence (SAMRecord r) {
 		// implementation using ShortRead
-	    if(readCache.size() < cacheCapacity) {
-	    	readCache.add(new ShortRead(r.getReferenceName(), r.getAlignmentStart(), r.getAlignmentEnd()));
-	    } else {
+	    if(readCache.size() >= cacheCapacity) {
 	    	flushCache();
 	    }       
+	    readCache.add(new ShortRead(r.getReferenceName(), r.getAlignmentStart(), r.getAlignmentEnd()));
 	}
 	
 
 	public void flushCache() {
+		Object event = FlightRecorderEvent.CACHE_FLUSH.begin();
     	// sort the cache
     	Collections.sort(readCache);
     	// now parse the sorted cache
@@ -127,10 +182,30 @@ public class AnnotationSet {
     	}
     	// let's clear and reuse the array for now, instead of reallocating a new one every time.
     	// Tricky to say what's the best is.. an O(n)remove vs allocation+GC ... 
+    	FlightRecorderEvent.commit(event, file == null ? null : file.getName(), null, readCache.size(), 0);
     	readCache.clear();
 	}	
 
 	
+	/**
+	 * Adds the values collected from other records of the same file by another 
+	 * annotation set, parsed from the same annotation.
+	 * @param other the annotation set of other records
+	 */
+	public void merge (AnnotationSet other) {
+		flushCache();
+		other.flushCache();
+		for (Chromosome c : other.factory.chromosomes.values()) {
+			factory.getChromosome(c.name()).merge(c);
+		}
+		for (String type : other.features.keySet()) {
+			if (features.containsKey(type)) {
+				features.get(type).merge(other.features.get(type));
+			}
+		}
+	}
+
+	
 	private void processCachedSequence(ShortRead r) {	
 		if (!r.getReferenceName().equals("*")) {
 			Chromosome c = factory.getChromosome(r.getReferenceName());
@@ -68,6 +68,19 @@ public class Chromosome implements Comparable<Chromosome>, Serializable {
 		
 	}
 	
+	/**
+	 * Clears the values stored for a specific analysis and restores the parsed length. 
+	 * The coverage bins are reallocated rather than cleared, as the modules of the 
+	 * previous analysis can still hold them.
+	 * @param length the length of the chromosome in the annotation
+	 * @param bins the number of coverage bins of the chromosome in the annotation
+	 */
+	public void reset (int length, int bins) {
+		this.length = length;
+		coverageBins = new long[bins];
+		seqCount = 0;
+	}
+	
 	public long [] getBinCountData () {
 		return coverageBins;
 	}
@@ -98,6 +111,27 @@ public class Chromosome implements Comparable<Chromosome>, Serializable {
 		
 	}
 	
+	/**
+	 * Adds the values collected for the same chromosome from other records.
+	 * @param other the same chromosome, from another annotation set
+	 */
+	public void merge (Chromosome other) {
+		seqCount += other.seqCount;
+		
+		if (other.length > length) {
+			length = other.length;
+		}
+		
+		if (coverageBins.length<other.coverageBins.length) {
+			long[] oldCoverageBins = coverageBins;
+			coverageBins = new long[other.coverageBins.length];
+			System.arraycopy(oldCoverageBins, 0, coverageBins, 0, oldCoverageBins.length);
+		}
+		for (int i=0; i<other.coverageBins.length; i++) {
+			coverageBins[i] += other.coverageBins[i];
+		}
+	}
+	
 	@Override
 	public int compareTo(Chromosome o) {
 		
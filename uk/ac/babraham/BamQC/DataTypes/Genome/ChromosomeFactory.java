@@ -24,6 +24,7 @@
  */
 package uk.ac.babraham.BamQC.DataTypes.Genome;
 
+import java.io.Serializable;
 import java.util.HashMap;
 
 /**
@@ -32,7 +33,9 @@ import java.util.HashMap;
  * @author Piero Dalle Pezze
  *
  */
-public class ChromosomeFactory {
+public class ChromosomeFactory implements Serializable {
+
+	private static final long serialVersionUID = -7712964692104836128L;
 
 	HashMap<String,Chromosome> chromosomes = new HashMap<String, Chromosome>();
 	
@@ -25,6 +25,7 @@
 package uk.ac.babraham.BamQC.DataTypes.Genome;
 
 
+import java.io.Serializable;
 import java.util.HashMap;
 
 
@@ -34,7 +35,9 @@ import java.util.HashMap;
  * @author Simon Andrews
  * @author Piero Dalle Pezze
  */
-public class FeatureClass {
+public class FeatureClass implements Serializable {
+
+	private static final long serialVersionUID = -8825048479082005250L;
 
 	private AnnotationSet annotationSet;
 
@@ -60,6 +63,27 @@ public class FeatureClass {
 		}
 	}
 	
+	/**
+	 * Clears the values collected by the sub-features.
+	 */
+	public void reset () {
+		for(FeatureSubclass fsc : subClasses.values()) {
+			fsc.reset();
+		}
+	}
+	
+	/**
+	 * Adds the values collected by the sub-features of the same feature in 
+	 * another annotation set.
+	 */
+	public void merge (FeatureClass other) {
+		for(String name : other.subClasses.keySet()) {
+			if (subClasses.containsKey(name)) {
+				subClasses.get(name).merge(other.subClasses.get(name));
+			}
+		}
+	}
+	
 	public String [] getSubclassNames () {
 		return subClasses.keySet().toArray(new String[0]);
 	}
@@ -24,6 +24,8 @@
  */
 package uk.ac.babraham.BamQC.DataTypes.Genome;
 
+import java.io.File;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.ArrayList;
@@ -31,6 +33,8 @@ import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 
+import uk.ac.babraham.BamQC.Utilities.FlightRecorderEvent;
+
 
 
 
@@ -42,7 +46,9 @@ import org.apache.log4j.Logger;
  * @author Simon Andrews
  * @author Piero Dalle Pezze
  */
-public class FeatureSubclass {
+public class FeatureSubclass implements Serializable {
+
+	private static final long serialVersionUID = -9019786972877016534L;
 
 	private static Logger log = Logger.getLogger(FeatureSubclass.class);
 	
@@ -76,6 +82,28 @@ public class FeatureSubclass {
 		return count;
 	}
 	
+	/**
+	 * Clears the count and the cached positions. The indices are rebuilt with the 
+	 * next sequence as they depend on the chromosome lengths.
+	 */
+	public void reset () {
+		count = 0;
+		indices = null;
+		currReferenceName = "";
+		currRecordAlignmentStart = 0;
+		currRecordAlignmentEnd = 0;
+		currChromosome = null;
+		currChromosomeFeatures = null;
+		currChromosomeIndices = null;
+	}
+	
+	/**
+	 * Adds the count of the same sub-feature in another annotation set.
+	 */
+	public void merge (FeatureSubclass other) {
+		count += other.count;
+	}
+	
 	public void addFeature (Feature f) {
 		if (indices != null) throw new IllegalStateException("Can't add more features after sending data");
 		if (!features.containsKey(f.chr())) {
@@ -129,6 +157,8 @@ public class FeatureSubclass {
 	
 	private void processFeatures () {
 		
+		Object event = FlightRecorderEvent.INDEX_BUILD.begin();
+		int indexedFeatures = 0;
 		indices = new HashMap<Chromosome, int[]>();
 		
 		for(Entry<Chromosome, ArrayList<Feature>> entry : features.entrySet()) {
@@ -146,6 +176,7 @@ public class FeatureSubclass {
 			indices.put(chromosome,indicesForThisChromsome);
 			
 			int lastBin = 0;
+			indexedFeatures += chromosomeFeatures.size();
 			
 			for (int f=0;f<chromosomeFeatures.size();f++) {
 				int startBin = chromosomeFeatures.get(f).location().start()/SEQUENCE_CHUNK_LENGTH;
@@ -158,6 +189,8 @@ public class FeatureSubclass {
 				}
 			}				
 		}
+		File file = annotationSet.getFile();
+		FlightRecorderEvent.commit(event, file == null ? null : file.getName(), null, indexedFeatures, 0);
 	}
 	
 	
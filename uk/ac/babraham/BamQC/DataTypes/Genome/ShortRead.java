@@ -23,12 +23,16 @@
  */
 package uk.ac.babraham.BamQC.DataTypes.Genome;
 
+import java.io.Serializable;
 
 /**
  * A simple class for representing a compact read.
  * @author Piero Dalle Pezze
  */
-class ShortRead implements Comparable<ShortRead> {
+public class ShortRead implements Comparable<ShortRead>, Serializable {
+	
+	private static final long serialVersionUID = -3209981640418851326L;
+	
 	private String referenceName;
 	private int alignmentStart;
 	private int alignmentEnd;
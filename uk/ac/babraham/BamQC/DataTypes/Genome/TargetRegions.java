@@ -0,0 +1,254 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.DataTypes.Genome;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A sorted and merged set of target regions, typically read from the BED file
+ * describing the baits of an exome or panel capture.
+ * Targets are stored in flat arrays, grouped by chromosome and sorted by start.
+ * Overlapping and adjacent intervals are merged, so that within a chromosome both
+ * the starts and the ends are strictly increasing and an overlap lookup is a binary search.
+ * Coordinates are 1-based and inclusive, like the SAM alignment coordinates.
+ */
+public class TargetRegions implements Serializable {
+
+	private static final long serialVersionUID = -4635121489315526032L;
+
+	private static Logger log = Logger.getLogger(TargetRegions.class);
+
+	private String [] chromosomes;
+	private int [] starts;
+	private int [] ends;
+	private long totalLength = 0;
+
+	// the targets of a chromosome are in [firstTarget, lastTarget)
+	private HashMap<String, int[]> chromosomeRanges = new HashMap<String, int[]>();
+	private List<String> chromosomeNames = new ArrayList<String>();
+
+
+	/**
+	 * Builds the target set from a list of intervals, which do not need to be sorted.
+	 * @param chromosomes the chromosome of each interval
+	 * @param starts the 1-based start of each interval
+	 * @param ends the 1-based inclusive end of each interval
+	 */
+	public TargetRegions(List<String> chromosomes, List<Integer> starts, List<Integer> ends) {
+
+		// group the intervals by chromosome, keeping the chromosomes in order of appearance
+		HashMap<String, List<long[]>> grouped = new HashMap<String, List<long[]>>();
+		for (int i=0; i<chromosomes.size(); i++) {
+			String chr = chromosomes.get(i);
+			if (!grouped.containsKey(chr)) {
+				grouped.put(chr, new ArrayList<long[]>());
+				chromosomeNames.add(chr);
+			}
+			grouped.get(chr).add(new long[]{starts.get(i), ends.get(i)});
+		}
+
+		ArrayList<String> mergedChromosomes = new ArrayList<String>();
+		ArrayList<Integer> mergedStarts = new ArrayList<Integer>();
+		ArrayList<Integer> mergedEnds = new ArrayList<Integer>();
+
+		for (int c=0; c<chromosomeNames.size(); c++) {
+			String chr = chromosomeNames.get(c);
+			long [][] intervals = grouped.get(chr).toArray(new long[0][]);
+			Arrays.sort(intervals, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] o1, long[] o2) {
+					if (o1[0] != o2[0]) return o1[0] < o2[0] ? -1 : 1;
+					if (o1[1] != o2[1]) return o1[1] < o2[1] ? -1 : 1;
+					return 0;
+				}
+			});
+
+			int first = mergedStarts.size();
+			long currentStart = intervals[0][0];
+			long currentEnd = intervals[0][1];
+			for (int i=1; i<intervals.length; i++) {
+				if (intervals[i][0] <= currentEnd + 1) {
+					if (intervals[i][1] > currentEnd) currentEnd = intervals[i][1];
+				}
+				else {
+					mergedChromosomes.add(chr);
+					mergedStarts.add((int)currentStart);
+					mergedEnds.add((int)currentEnd);
+					currentStart = intervals[i][0];
+					currentEnd = intervals[i][1];
+				}
+			}
+			mergedChromosomes.add(chr);
+			mergedStarts.add((int)currentStart);
+			mergedEnds.add((int)currentEnd);
+			chromosomeRanges.put(chr, new int[]{first, mergedStarts.size()});
+		}
+
+		this.chromosomes = mergedChromosomes.toArray(new String[0]);
+		this.starts = new int[mergedStarts.size()];
+		this.ends = new int[mergedEnds.size()];
+		for (int i=0; i<this.starts.length; i++) {
+			this.starts[i] = mergedStarts.get(i);
+			this.ends[i] = mergedEnds.get(i);
+			totalLength += this.ends[i] - this.starts[i] + 1;
+		}
+
+		log.debug("Loaded " + chromosomes.size() + " intervals merged into " + this.starts.length + " targets covering " + totalLength + " bases");
+	}
+
+	/**
+	 * Reads a BED file. Only the first three columns are used. Header lines
+	 * (track, browser and comments) are skipped. BED start coordinates are 0-based
+	 * and are converted to 1-based coordinates.
+	 * @param file the BED file
+	 * @return the target regions
+	 * @throws IOException if the file cannot be read or a line is not valid BED
+	 */
+	public static TargetRegions readBedFile(File file) throws IOException {
+		ArrayList<String> chromosomes = new ArrayList<String>();
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		ArrayList<Integer> ends = new ArrayList<Integer>();
+
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineCount = 0;
+			while ((line = br.readLine()) != null) {
+				lineCount++;
+				if (line.trim().length() == 0) continue;
+				if (line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) continue;
+
+				String [] sections = line.split("\t");
+				if (sections.length < 3) {
+					throw new IOException("Line " + lineCount + " of the BED file " + file.getName() + " doesn't contain the 3 required columns");
+				}
+				int start, end;
+				try {
+					start = Integer.parseInt(sections[1].trim()) + 1;
+					end = Integer.parseInt(sections[2].trim());
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Line " + lineCount + " of the BED file " + file.getName() + " has an invalid start or end");
+				}
+				if (end < start) {
+					log.warn("Skipping empty BED interval at line " + lineCount);
+					continue;
+				}
+				chromosomes.add(sections[0].trim());
+				starts.add(start);
+				ends.add(end);
+			}
+		}
+		finally {
+			br.close();
+		}
+
+		if (starts.isEmpty()) {
+			throw new IOException("The BED file " + file.getName() + " doesn't contain any interval");
+		}
+		return new TargetRegions(chromosomes, starts, ends);
+	}
+
+	/**
+	 * Returns the index of the first target of the chromosome which ends at or after
+	 * the given position, or -1 if there is none.
+	 * @param chromosome the chromosome name
+	 * @param position the 1-based position
+	 * @return a target index
+	 */
+	public int findFirstTarget(String chromosome, int position) {
+		int [] range = chromosomeRanges.get(chromosome);
+		if (range == null) return -1;
+		// Ends are strictly increasing in the range.
+		int index = Arrays.binarySearch(ends, range[0], range[1], position);
+		if (index < 0) index = -index - 1;
+		if (index >= range[1]) return -1;
+		return index;
+	}
+
+	/**
+	 * Returns true if the interval [start, end] overlaps at least one target.
+	 */
+	public boolean overlaps(String chromosome, int start, int end) {
+		int index = findFirstTarget(chromosome, start);
+		return index >= 0 && starts[index] <= end;
+	}
+
+	/**
+	 * Returns the index after the last target of the chromosome of the given target.
+	 * @param target a target index
+	 * @return the end of the range of targets on the same chromosome
+	 */
+	public int chromosomeEnd(int target) {
+		return chromosomeRanges.get(chromosomes[target])[1];
+	}
+
+	/**
+	 * Returns the targets on a chromosome as a range [first, last) of target indices,
+	 * or null if the chromosome has no target.
+	 */
+	public int[] targetRange(String chromosome) {
+		return chromosomeRanges.get(chromosome);
+	}
+
+	public List<String> chromosomeNames() {
+		return chromosomeNames;
+	}
+
+	public int size() {
+		return starts.length;
+	}
+
+	public String chromosome(int target) {
+		return chromosomes[target];
+	}
+
+	public int start(int target) {
+		return starts[target];
+	}
+
+	public int end(int target) {
+		return ends[target];
+	}
+
+	public int length(int target) {
+		return ends[target] - starts[target] + 1;
+	}
+
+	public long totalLength() {
+		return totalLength;
+	}
+
+}
@@ -25,7 +25,9 @@ package uk.ac.babraham.BamQC.Modules;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -36,14 +38,22 @@ import javax.swing.JPanel;
 import javax.swing.table.TableModel;
 
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Utilities.FlightRecorderEvent;
 import uk.ac.babraham.BamQC.Utilities.ImageToBase64;
 
 /** 
- * 
+ * The modules are serializable, so that their accumulated values can be saved 
+ * and a report written again without reading the file.
  * @author Pierre Lindenbaum
  *
  */
-public abstract class AbstractQCModule implements QCModule {
+public abstract class AbstractQCModule implements QCModule, Serializable {
+
+	private static final long serialVersionUID = 2208343540532434541L;
+
+	/** The size of the graphs written by the modules in their report. */
+	public static final int DEFAULT_IMAGE_WIDTH = 800;
+	public static final int DEFAULT_IMAGE_HEIGHT = 600;
 
 	protected void simpleXhtmlReport(HTMLReportArchive report,BufferedImage img,String alt) throws XMLStreamException {
 		XMLStreamWriter xhtml = report.xhtmlStream();
@@ -61,14 +71,36 @@ public abstract class AbstractQCModule implements QCModule {
 		xhtml.writeEndElement();//p
 	}
 
-	protected void writeTable(HTMLReportArchive report, TableModel table) throws IOException,XMLStreamException {
-		writeXhtmlTable(report,table);
-		writeTextTable(report,table);	
+	/**
+	 * Writes an image which is already encoded in PNG, so that the bytes written 
+	 * in the zip can be reused.
+	 */
+	protected void simpleXhtmlReport(HTMLReportArchive report,byte[] png,int width,int height,String alt) throws XMLStreamException {
+		XMLStreamWriter xhtml = report.xhtmlStream();
+		xhtml.writeStartElement("p");
+		xhtml.writeEmptyElement("img");
+		xhtml.writeAttribute("class", "indented");
+		xhtml.writeAttribute("src", ImageToBase64.pngToBase64(png));
+		xhtml.writeAttribute("alt", alt);
+		xhtml.writeAttribute("width",String.valueOf(width));
+		xhtml.writeAttribute("height",String.valueOf(height));
+		xhtml.writeEndElement();//p
 	}
-	
-	protected void writeDefaultImage (HTMLReportArchive report, String fileName, String imageTitle, int width, int height) throws IOException, XMLStreamException {
-		ZipOutputStream zip = report.zipFile();
-		zip.putNextEntry(new ZipEntry(report.folderName()+"/Images/"+fileName));
+
+	/**
+	 * Returns true if makeReport() writes the results panel with writeDefaultImage() at the 
+	 * default size. The report then renders the image in advance, in parallel with the other 
+	 * modules.
+	 */
+	public boolean hasDefaultImage() {
+		return false;
+	}
+
+	/**
+	 * Renders the results panel and encodes it in PNG. This does not touch the report, so 
+	 * the images of different modules can be rendered by different threads.
+	 */
+	public byte[] renderDefaultImage(int width, int height) throws IOException {
 		BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		Graphics g = b.createGraphics();
 		
@@ -82,10 +114,35 @@ public abstract class AbstractQCModule implements QCModule {
 
 		g.dispose();
 		
-		ImageIO.write(b, "PNG", zip);
+		Object event = FlightRecorderEvent.PNG_ENCODE.begin();
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(b, "PNG", png);
+		FlightRecorderEvent.commit(event, null, name(), 1, png.size());
+		return png.toByteArray();
+	}
+
+	protected void writeTable(HTMLReportArchive report, TableModel table) throws IOException,XMLStreamException {
+		writeXhtmlTable(report,table);
+		writeTextTable(report,table);	
+	}
+	
+	protected void writeDefaultImage (HTMLReportArchive report, String fileName, String imageTitle, int width, int height) throws IOException, XMLStreamException {
+		if (report.isDataOnly()) return;
+		
+		byte [] png = report.renderedImage(this, width, height);
+		if (png == null) {
+			png = renderDefaultImage(width, height);
+		}
+		
+		ZipOutputStream zip = report.zipFile();
+		Object event = FlightRecorderEvent.ZIP_WRITE.begin();
+		zip.putNextEntry(new ZipEntry(report.folderName()+"/Images/"+fileName));
+		zip.write(png);
 		zip.closeEntry();
+		FlightRecorderEvent.commit(event, null, fileName, 1, png.length);
 		
-		simpleXhtmlReport(report, b, imageTitle);
+		// the same bytes are inlined in the html
+		simpleXhtmlReport(report, png, width, height, imageTitle);
 
 	}
 
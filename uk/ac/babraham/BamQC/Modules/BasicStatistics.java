@@ -41,6 +41,7 @@ import uk.ac.babraham.BamQC.BamQCConfig;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Utilities.MultiLineTableCellRenderer;
 
@@ -49,9 +50,14 @@ import uk.ac.babraham.BamQC.Utilities.MultiLineTableCellRenderer;
  * @author Piero Dalle Pezze
  *
  */
-public class BasicStatistics extends AbstractQCModule {
+public class BasicStatistics extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -2638660828305197205L;
 
 	private String filename = "";
+	// The sampling description is only final once the file has been read
+	private transient SequenceFile sequenceFile = null;
+	private String samplingDescription = null;
 	private boolean headerParsed = false;
 	private String command = "";
 	private boolean hasAnnotation = false;
@@ -99,6 +105,9 @@ public class BasicStatistics extends AbstractQCModule {
 	
 	@Override
 	public void processAnnotationSet(AnnotationSet annotation) {
+		if (sequenceFile != null) {
+			samplingDescription = sequenceFile.samplingDescription();
+		}
 		if (annotation.hasFeatures()) {
 			hasAnnotation = true;
 			if(annotation.getFile() != null) {
@@ -192,6 +201,24 @@ public class BasicStatistics extends AbstractQCModule {
 	@Override
 	public void processFile (SequenceFile file) {
 		this.filename = file.name();
+		this.sequenceFile = file;
+	}
+	
+	@Override
+	public void merge(QCModule other) {
+		BasicStatistics statistics = (BasicStatistics)other;
+		if (!headerParsed) {
+			headerParsed = statistics.headerParsed;
+			command = statistics.command;
+		}
+		actualCount += statistics.actualCount;
+		primaryCount += statistics.primaryCount;
+		pairedCount += statistics.pairedCount;
+		properPairCount += statistics.properPairCount;
+		unmappedCount += statistics.unmappedCount;
+		duplicateCount += statistics.duplicateCount;
+		qcFailCount += statistics.qcFailCount;
+		singletonCount += statistics.singletonCount;
 	}
 	
 	@Override
@@ -215,6 +242,49 @@ public class BasicStatistics extends AbstractQCModule {
 		// Therefore no text report code is required here.
 		super.writeTable(report, new ResultsTable());
 	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		extractVariantCallStatistics();
+		
+		results.value("file_name", filename);
+		if(samplingDescription != null) {
+			results.value("sampling", samplingDescription);
+		}
+		if(!command.equals("")) {
+			results.value("command", command);
+		}
+		results.value("has_annotation", hasAnnotation);
+		if(hasAnnotation) {
+			results.value("annotation_file", annotationFile);
+			results.value("feature_types", featureTypeCount);
+		}
+		results.value("chromosomes", chromosomeCount);
+		results.value("sufficient_genome_coverage", genomeCoverage);
+		
+		results.value("records", actualCount);
+		results.value("primary_alignments", primaryCount);
+		results.value("paired_reads", pairedCount);
+		results.value("proper_pairs", properPairCount);
+		results.value("unmapped_reads", unmappedCount);
+		results.value("duplicates", duplicateCount);
+		results.value("qc_failures", qcFailCount);
+		results.value("singletons", singletonCount);
+		
+		if(vcd != null) {
+			results.value("variant_call_detection_reads", variantCallDetectionTotalReads);
+			results.value("spliced_reads", totalSplicedReads);
+			results.value("skipped_reads", totalSkippedReads);
+			results.value("reads_without_md_string", totalReadsWithoutMDString);
+			results.value("reads_without_cigar_string", totalReadsWithoutCigarString);
+			results.value("inconsistent_cigar_md_reads", totalInconsistenReadsCigarMDString);
+			results.value("bases", totalBases);
+			results.value("soft_clips", totalSoftClips);
+			results.value("mutations", totalMutations);
+			results.value("insertions", totalInsertions);
+			results.value("deletions", totalDeletions);
+		}
+	}
 	
 	private String formatPercentage(long a, long b) {
         return String.format("%6.3f", 100 * a / (double) b);
@@ -239,6 +309,11 @@ public class BasicStatistics extends AbstractQCModule {
 			rowNames.add("File name");
 			rowValues.add(filename);
 			
+			if(samplingDescription != null) {
+				rowNames.add("Sampling");
+				rowValues.add(samplingDescription);
+			}
+			
 			if(!command.equals("")) {
 				rowNames.add("Command generating Sam/Bam file");
 				rowValues.add(command);
@@ -40,6 +40,7 @@ import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.BamQC.Graphs.CompactScatterGraph;
 import uk.ac.babraham.BamQC.Graphs.ScatterGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 /**
@@ -47,17 +48,27 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * @author Piero Dalle Pezze
  *
  */
-public class ChromosomeReadDensity extends AbstractQCModule {
+public class ChromosomeReadDensity extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 8848961716597870245L;
 
 	private String [] chromosomeNames;
 	private double [] readNumber;
 	private double [] chromosomeLength;
+	// the values before the log transformation, for the exported results
+	private int [] chromosomeLengths;
+	private int [] readCounts;
 	
 	@Override
 	public void processSequence(SAMRecord read) {}
 
 	@Override
 	public void processFile(SequenceFile file) {}
+
+	@Override
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the read counts of the merged annotation set
+	}
 	
 	@Override
 	public void processAnnotationSet(AnnotationSet annotation) {
@@ -95,11 +106,16 @@ public class ChromosomeReadDensity extends AbstractQCModule {
 		chromosomeLength = new double[chromosomes.length];
 		// recorded for the text report only
 		chromosomeNames = new String [chromosomes.length];
+		// recorded for the exported results only
+		chromosomeLengths = new int[chromosomes.length];
+		readCounts = new int[chromosomes.length];
 				
 		for (int c=0; c<chromosomes.length; c++) {
 //			readNumber[c] = chromosomes[c].seqCount();
 //			chromosomeLength[c] = chromosomes[c].length();
 			chromosomeNames[c] = chromosomes[c].name();
+			chromosomeLengths[c] = chromosomes[c].length();
+			readCounts[c] = chromosomes[c].seqCount();
 			readNumber[c] = Precision.round(Math.log(chromosomes[c].seqCount()), 2);
 			chromosomeLength[c] = Precision.round(Math.log(chromosomes[c].length()), 2);
 		}
@@ -201,6 +217,11 @@ public class ChromosomeReadDensity extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		
@@ -220,6 +241,13 @@ public class ChromosomeReadDensity extends AbstractQCModule {
 				
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		results.array("chromosome_names", chromosomeNames);
+		results.array("chromosome_lengths", chromosomeLengths);
+		results.array("read_counts", readCounts);
+	}
+
 	public String[] getChromosomeNames() {
 		return chromosomeNames;
 	}
@@ -0,0 +1,40 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Modules;
+
+/**
+ * A module whose result is a distribution which stabilises as more reads are seen.
+ * The analysis can stop early once the distributions of these modules do not change
+ * any more.
+ */
+public interface ConvergentModule {
+
+	/**
+	 * Returns how much the distribution changed since the previous call, as a
+	 * number between 0 (no change) and 1. The first call after a reset returns 1.
+	 * @return the change of the distribution
+	 */
+	public double distributionChange();
+
+}
@@ -0,0 +1,516 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Modules;
+
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.swing.JPanel;
+import javax.swing.table.AbstractTableModel;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.log4j.Logger;
+
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.Graphs.LineGraph;
+import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Computes the per-base depth of coverage distribution in a single pass over a
+ * coordinate sorted file.
+ * Each read adds +1/-1 to a circular difference buffer at the start/end of each of its
+ * aligned blocks. Positions preceding the start of the current read can no longer change,
+ * so they are swept out of the buffer into the depth histogram. Memory is therefore
+ * proportional to the longest reference span of a read rather than to the genome size.
+ * Skipped regions (N) and deletions (D) advance along the reference without adding coverage.
+ * If the file turns out not to be coordinate sorted, the module stops accumulating and is
+ * removed from the report.
+ */
+public class DepthDistribution extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -6441959271913556674L;
+
+	// logger
+	private static Logger log = Logger.getLogger(DepthDistribution.class);
+
+	private int maxDepth = ModuleConfig.getParam("DepthDistribution_max_depth", "ignore").intValue();
+	private int initialWindowSize = ModuleConfig.getParam("DepthDistribution_window_size", "ignore").intValue();
+
+	// depthCounts[d] is the number of reference positions with depth d. The last bin collects every depth >= maxDepth.
+	private long [] depthCounts = null;
+	// the exact sum of the depths, so that the mean is not affected by the last bin.
+	private long totalDepth = 0;
+	private long totalPositions = 0;
+
+	// The circular difference buffer. Its length is always a power of 2.
+	private int [] diff = null;
+	private int mask = 0;
+	// The first position (1-based) of the current chromosome which has not been swept yet.
+	private long windowStart = 1;
+	// The furthest position covered by the reads on the current chromosome.
+	private long windowEnd = 0;
+	// The running depth at windowStart-1
+	private int currentDepth = 0;
+
+	private int currentReferenceIndex = -1;
+	private HashSet<Integer> finishedReferences = new HashSet<Integer>();
+	// The lengths of the reference sequences of the header. They are copied from the 
+	// header, which cannot be saved with the module.
+	private int [] referenceLengths = null;
+
+	private boolean unsorted = false;
+	private long processedReads = 0;
+
+	public DepthDistribution() {
+		reset();
+	}
+
+	@Override
+	public void processSequence(SAMRecord read) {
+
+		if (unsorted) return;
+
+		// Follow samtools depth: only primary, mapped, non duplicate reads passing QC are counted.
+		if (read.getReadUnmappedFlag() || read.isSecondaryOrSupplementary() ||
+			read.getDuplicateReadFlag() || read.getReadFailsVendorQualityCheckFlag()) {
+			return;
+		}
+
+		if (read.getCigar() == null || read.getCigarLength() == 0) return;
+
+		if (referenceLengths == null) {
+			List<SAMSequenceRecord> sequences = read.getHeader().getSequenceDictionary().getSequences();
+			referenceLengths = new int[sequences.size()];
+			for (int i=0; i<sequences.size(); i++) {
+				referenceLengths[i] = sequences.get(i).getSequenceLength();
+			}
+		}
+
+		int referenceIndex = read.getReferenceIndex();
+		long start = read.getAlignmentStart();
+
+		if (referenceIndex != currentReferenceIndex) {
+			if (finishedReferences.contains(referenceIndex)) {
+				setUnsorted(read);
+				return;
+			}
+			finishReference();
+			currentReferenceIndex = referenceIndex;
+		}
+		else if (start < windowStart) {
+			setUnsorted(read);
+			return;
+		}
+
+		// Everything before the start of this read is final.
+		sweep(start);
+
+		List<CigarElement> elements = read.getCigar().getCigarElements();
+		long position = start;
+		for (int i=0; i<elements.size(); i++) {
+			CigarElement element = elements.get(i);
+			CigarOperator operator = element.getOperator();
+			if (operator == CigarOperator.M || operator == CigarOperator.EQ || operator == CigarOperator.X) {
+				addBlock(position, position + element.getLength());
+			}
+			if (operator.consumesReferenceBases()) {
+				position += element.getLength();
+			}
+		}
+		processedReads++;
+	}
+
+	/**
+	 * Records an aligned block covering the reference positions [blockStart, blockEnd).
+	 */
+	private void addBlock(long blockStart, long blockEnd) {
+		if (blockEnd - windowStart >= diff.length) {
+			growWindow(blockEnd - windowStart + 1);
+		}
+		diff[(int)(blockStart & mask)]++;
+		diff[(int)(blockEnd & mask)]--;
+		if (blockEnd - 1 > windowEnd) {
+			windowEnd = blockEnd - 1;
+		}
+	}
+
+	/**
+	 * Enlarges the circular buffer so that it can hold at least minSize positions.
+	 * This only happens for reads spanning very long skipped regions.
+	 */
+	private void growWindow(long minSize) {
+		int newSize = diff.length;
+		while (newSize < minSize) {
+			newSize = newSize << 1;
+		}
+		int [] newDiff = new int[newSize];
+		int newMask = newSize - 1;
+		for (long p = windowStart; p < windowStart + diff.length; p++) {
+			newDiff[(int)(p & newMask)] = diff[(int)(p & mask)];
+		}
+		log.debug("Depth window enlarged from " + diff.length + " to " + newSize + " positions");
+		diff = newDiff;
+		mask = newMask;
+	}
+
+	/**
+	 * Moves all the positions in [windowStart, end) into the depth histogram.
+	 */
+	private void sweep(long end) {
+		if (end <= windowStart) return;
+
+		// Only the positions up to windowEnd+1 can hold a pending difference.
+		// Beyond that point the depth is necessarily 0.
+		long lastPending = Math.max(windowStart, Math.min(end, windowEnd + 2));
+		for (long p = windowStart; p < lastPending; p++) {
+			int index = (int)(p & mask);
+			currentDepth += diff[index];
+			diff[index] = 0;
+			addToHistogram(currentDepth, 1);
+		}
+		if (end > lastPending) {
+			addToHistogram(0, end - lastPending);
+		}
+		windowStart = end;
+	}
+
+	private void addToHistogram(int depth, long positions) {
+		if (depth >= maxDepth) {
+			depthCounts[maxDepth] += positions;
+		} else {
+			depthCounts[depth] += positions;
+		}
+		totalDepth += depth * positions;
+		totalPositions += positions;
+	}
+
+	/**
+	 * Sweeps the remaining positions of the current chromosome up to its length.
+	 */
+	private void finishReference() {
+		if (currentReferenceIndex < 0) return;
+
+		long length = windowEnd;
+		if (referenceLengths != null && currentReferenceIndex < referenceLengths.length && referenceLengths[currentReferenceIndex] > length) {
+			length = referenceLengths[currentReferenceIndex];
+		}
+		sweep(length + 1);
+		finishedReferences.add(currentReferenceIndex);
+
+		currentReferenceIndex = -1;
+		windowStart = 1;
+		windowEnd = 0;
+		currentDepth = 0;
+	}
+
+	private void setUnsorted(SAMRecord read) {
+		log.warn("Read " + read.getReadName() + " at " + read.getReferenceName() + ":" + read.getAlignmentStart() +
+				 " is out of coordinate order. The depth distribution requires a coordinate sorted file and will not be computed.");
+		unsorted = true;
+		// release the buffer
+		diff = new int[0];
+	}
+
+	@Override
+	public void processFile(SequenceFile file) { }
+
+	@Override
+	public void processAnnotationSet(AnnotationSet annotation) {
+		if (unsorted) return;
+
+		finishReference();
+
+		// Chromosomes without any read contribute only positions with no coverage
+		if (referenceLengths != null && processedReads > 0) {
+			for (int i=0; i<referenceLengths.length; i++) {
+				if (!finishedReferences.contains(i)) {
+					addToHistogram(0, referenceLengths[i]);
+					finishedReferences.add(i);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void merge(QCModule other) {
+		DepthDistribution depth = (DepthDistribution)other;
+		// The shards hold whole chromosomes, so their last chromosomes are complete
+		finishReference();
+		depth.finishReference();
+		if (depth.unsorted && !unsorted) {
+			unsorted = true;
+			diff = new int[0];
+		}
+		if (referenceLengths == null) {
+			referenceLengths = depth.referenceLengths;
+		}
+		for (int i=0; i<depthCounts.length && i<depth.depthCounts.length; i++) {
+			depthCounts[i] += depth.depthCounts[i];
+		}
+		totalDepth += depth.totalDepth;
+		totalPositions += depth.totalPositions;
+		finishedReferences.addAll(depth.finishedReferences);
+		processedReads += depth.processedReads;
+	}
+
+	/**
+	 * Returns the percentage of positions having a depth at least equal to minDepth.
+	 * @param minDepth the minimum depth
+	 * @return the percentage of positions
+	 */
+	public double getPercentAtLeast(int minDepth) {
+		if (totalPositions == 0) return 0d;
+		if (minDepth > maxDepth) minDepth = maxDepth;
+		long count = 0;
+		for (int i=minDepth; i<depthCounts.length; i++) {
+			count += depthCounts[i];
+		}
+		return 100d * count / totalPositions;
+	}
+
+	public double getMeanDepth() {
+		if (totalPositions == 0) return 0d;
+		return totalDepth / (double)totalPositions;
+	}
+
+	public int getMedianDepth() {
+		long half = (totalPositions + 1) / 2;
+		long count = 0;
+		for (int i=0; i<depthCounts.length; i++) {
+			count += depthCounts[i];
+			if (count >= half) return i;
+		}
+		return 0;
+	}
+
+	private int getLastObservedDepth() {
+		for (int i=depthCounts.length-1; i>0; i--) {
+			if (depthCounts[i] > 0) return i;
+		}
+		return 0;
+	}
+
+	@Override
+	public JPanel getResultsPanel() {
+		int lastDepth = getLastObservedDepth();
+		double [][] cumulative = new double[1][lastDepth+1];
+		String [] labels = new String[lastDepth+1];
+		for (int i=0; i<=lastDepth; i++) {
+			cumulative[0][i] = getPercentAtLeast(i);
+			labels[i] = "" + i;
+		}
+		if (lastDepth == maxDepth) {
+			labels[lastDepth] = maxDepth + "+";
+		}
+
+		JPanel resultsPanel = new JPanel();
+		resultsPanel.setLayout(new BorderLayout());
+		resultsPanel.add(new LineGraph(cumulative, 0d, 100d, "Depth", "Percent of Bases", new String[]{"Bases with at least this depth"}, labels,
+				String.format("Depth Distribution ( mean: %.2fx )", getMeanDepth())), BorderLayout.CENTER);
+		return resultsPanel;
+	}
+
+	@Override
+	public String name() {
+		return "Depth Distribution";
+	}
+
+	@Override
+	public String description() {
+		return "Looks at the distribution of the per-base depth of coverage";
+	}
+
+	@Override
+	public void reset() {
+		depthCounts = new long[maxDepth+1];
+		totalDepth = 0;
+		totalPositions = 0;
+		int size = 1;
+		while (size < initialWindowSize) {
+			size = size << 1;
+		}
+		diff = new int[size];
+		mask = size - 1;
+		windowStart = 1;
+		windowEnd = 0;
+		currentDepth = 0;
+		currentReferenceIndex = -1;
+		finishedReferences = new HashSet<Integer>();
+		referenceLengths = null;
+		unsorted = false;
+		processedReads = 0;
+	}
+
+	@Override
+	public boolean raisesError() {
+		return false;
+	}
+
+	@Override
+	public boolean raisesWarning() {
+		return false;
+	}
+
+	@Override
+	public boolean needsToSeeSequences() {
+		return true;
+	}
+
+	@Override
+	public boolean needsToSeeAnnotation() {
+		return true;
+	}
+
+	@Override
+	public boolean ignoreInReport() {
+		if(ModuleConfig.getParam("DepthDistribution", "ignore") > 0 || unsorted || totalPositions == 0) {
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
+	@Override
+	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
+		super.writeTable(report, new ResultsTable());
+		super.writeDefaultImage(report, "depth_distribution.png", "Depth Distribution", 800, 600);
+
+		StringBuffer sb = report.dataDocument();
+		sb.append("Depth\tBases\tPercent_bases_at_least_this_depth\n");
+		int lastDepth = getLastObservedDepth();
+		for (int i=0; i<=lastDepth; i++) {
+			sb.append(i);
+			if (i == maxDepth) sb.append("+");
+			sb.append("\t");
+			sb.append(depthCounts[i]);
+			sb.append("\t");
+			sb.append(getPercentAtLeast(i));
+			sb.append("\n");
+		}
+	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		long [] counts = new long[getLastObservedDepth()+1];
+		System.arraycopy(depthCounts, 0, counts, 0, counts.length);
+		results.value("max_depth", maxDepth);
+		results.value("total_positions", totalPositions);
+		results.value("mean_depth", getMeanDepth());
+		results.value("median_depth", getMedianDepth());
+		results.value("unsorted", unsorted);
+		results.array("depth_counts", counts);
+	}
+
+	public long[] getDepthCounts() {
+		return depthCounts;
+	}
+
+	public long getTotalPositions() {
+		return totalPositions;
+	}
+
+	public boolean isUnsorted() {
+		return unsorted;
+	}
+
+
+	/**
+	 * The table containing the summary of the depth distribution.
+	 */
+	private class ResultsTable extends AbstractTableModel {
+		private static final long serialVersionUID = -4377150627938374452L;
+
+		private ArrayList<String> rowNames = new ArrayList<String>();
+		private ArrayList<String> rowValues = new ArrayList<String>();
+
+		public ResultsTable() {
+			super();
+			rowNames.add("Bases");
+			rowValues.add("" + totalPositions);
+			rowNames.add("Mean depth");
+			rowValues.add(String.format("%.2f", getMeanDepth()));
+			rowNames.add("Median depth");
+			rowValues.add("" + getMedianDepth());
+			rowNames.add("Percent bases >= 1x");
+			rowValues.add(String.format("%6.3f", getPercentAtLeast(1)));
+			rowNames.add("Percent bases >= 10x");
+			rowValues.add(String.format("%6.3f", getPercentAtLeast(10)));
+			rowNames.add("Percent bases >= 30x");
+			rowValues.add(String.format("%6.3f", getPercentAtLeast(30)));
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 2;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rowNames.size();
+		}
+
+		@Override
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			if(columnIndex == 0)
+				return rowNames.get(rowIndex);
+			else if(columnIndex == 1)
+				return rowValues.get(rowIndex);
+			else
+				return null;
+		}
+
+		@Override
+		public String getColumnName (int columnIndex) {
+			switch (columnIndex) {
+				case 0: return "Measure";
+				case 1: return "Value";
+			}
+			return null;
+		}
+
+		@Override
+		public Class<?> getColumnClass (int columnIndex) {
+			return String.class;
+		}
+
+		@Override
+	    public boolean isCellEditable(int row, int column) {
+	       return false;
+	    }
+	}
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Modules;
+
+import java.io.IOException;
+
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
+
+/**
+ * A module which gives its numeric results to a ResultsWriter, so that they can be
+ * saved in a structured format instead of being formatted as text.
+ */
+public interface ExportableModule {
+
+	/**
+	 * Writes the results of the module. The values are raw numbers, for instance
+	 * counts rather than percentages when both are known.
+	 * @param results the writer receiving the results
+	 */
+	public void exportResults(ResultsWriter results) throws IOException;
+
+}
@@ -35,6 +35,7 @@ import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.DataTypes.Genome.FeatureClass;
 import uk.ac.babraham.BamQC.Graphs.HorizontalBarGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 /**
@@ -42,7 +43,9 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * @author Piero Dalle Pezze
  *
  */
-public class FeatureCoverage extends AbstractQCModule {
+public class FeatureCoverage extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 5523028512367457680L;
 
 	private String [] featureNames = null;
 	
@@ -56,6 +59,11 @@ public class FeatureCoverage extends AbstractQCModule {
 	@Override
 	public void processFile(SequenceFile file) {}
 
+	@Override
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the feature counts of the merged annotation set
+	}
+
 	@Override
 	public void processAnnotationSet(AnnotationSet annotation) {
 
@@ -141,6 +149,11 @@ public class FeatureCoverage extends AbstractQCModule {
 		return false;	
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "feature_coverage.png", "Feature Type Read Counts", 800, 600);
@@ -158,6 +171,13 @@ public class FeatureCoverage extends AbstractQCModule {
 
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		if(featureNames == null) { return; }
+		results.array("feature_names", featureNames);
+		results.array("read_counts", readCounts);
+	}
+
 	public String[] getFeatureNames() {
 		return featureNames;
 	}
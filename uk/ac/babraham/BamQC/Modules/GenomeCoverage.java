@@ -27,6 +27,7 @@ package uk.ac.babraham.BamQC.Modules;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 
 import javax.swing.JPanel;
 import javax.xml.stream.XMLStreamException;
@@ -39,23 +40,33 @@ import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
 import uk.ac.babraham.BamQC.Graphs.LineWithHorizontalBarGraph;
 import uk.ac.babraham.BamQC.Graphs.SeparateLineGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Statistics.SimpleStats;
 import uk.ac.babraham.BamQC.Modules.ModuleConfig;
 
-public class GenomeCoverage extends AbstractQCModule {
+public class GenomeCoverage extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 4741537620195506933L;
 
 	// logger
 	private static Logger log = Logger.getLogger(GenomeCoverage.class);
 	
-	private int plotTypeChromosomesThreshold = ModuleConfig.getParam("GenomeCoverage_plot_type_chromosomes_threshold", "ignore").intValue();
+	private static final int PLOT_TYPE_CHROMOSOMES_THRESHOLD = ModuleConfig.getParam("GenomeCoverage_plot_type_chromosomes_threshold", "ignore").intValue();
 
-	private String [] chromosomeNames = null;
-	private double [][] binCounts = null;
-	private long [] coverage = null;
-	private double maxCoverage = 0.0;
+	// The chromosomes and their bins as they are in the annotation set. The plotted 
+	// values are calculated from them, so they follow the configuration of the report.
+	private String [] annotationChromosomeNames = null;
+	private long [][] annotationBinCounts = null;
+	
+	private transient String [] chromosomeNames = null;
+	private transient double [][] binCounts = null;
+	// the unscaled counts of each chromosome, for the exported results
+	private transient long [][] chromosomeBinCounts = null;
+	private transient long [] coverage = null;
+	private transient double maxCoverage = 0.0;
 	
-	private int maxBins = 1;
+	private transient int maxBins = 1;
 	
 
 
@@ -65,6 +76,11 @@ public class GenomeCoverage extends AbstractQCModule {
 	@Override
 	public void processFile(SequenceFile file) { }
 
+	@Override
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the coverage bins of the merged annotation set
+	}
+
 	@Override
 	public String name() {
 		return "Genome Coverage";
@@ -77,8 +93,11 @@ public class GenomeCoverage extends AbstractQCModule {
 
 	@Override
 	public void reset() {
+		annotationChromosomeNames = null;
+		annotationBinCounts = null;
 		chromosomeNames = null;
 		binCounts = null;
+		chromosomeBinCounts = null;
 		coverage = null;
 	}
 
@@ -106,17 +125,54 @@ public class GenomeCoverage extends AbstractQCModule {
 	public void processAnnotationSet(AnnotationSet annotation) {
 
 		Chromosome [] chromosomes = annotation.chromosomeFactory().getAllChromosomes();
+		annotationChromosomeNames = new String[chromosomes.length];
+		annotationBinCounts = new long[chromosomes.length][];
+		for (int c=0;c<chromosomes.length;c++) {
+			annotationChromosomeNames[c] = chromosomes[c].name();
+			annotationBinCounts[c] = chromosomes[c].getBinCountData();
+		}
+		calculateBins();
+	}
+	
+	/**
+	 * Calculates the plotted values if they were not saved with the module.
+	 */
+	private void checkBins() {
+		if (chromosomeNames == null && annotationChromosomeNames != null) {
+			calculateBins();
+		}
+	}
+	
+	/**
+	 * Calculates the plotted values from the bins of the chromosomes.
+	 */
+	private void calculateBins() {
 		
-		if(chromosomes.length <= plotTypeChromosomesThreshold) {
+		// The chromosomes are sorted by name, and their bins with them
+		final Chromosome [] chromosomes = new Chromosome[annotationChromosomeNames.length];
+		Integer [] order = new Integer[chromosomes.length];
+		for (int c=0;c<chromosomes.length;c++) {
+			chromosomes[c] = new Chromosome(annotationChromosomeNames[c]);
+			order[c] = c;
+		}
+		Comparator<Integer> byChromosome = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return chromosomes[a].compareTo(chromosomes[b]);
+			}
+		};
+		if(chromosomes.length <= PLOT_TYPE_CHROMOSOMES_THRESHOLD) {
 			// This will plot the chromosomes from 1 (top) to n (bottom)
-			Arrays.sort(chromosomes, Collections.reverseOrder());
+			Arrays.sort(order, Collections.reverseOrder(byChromosome));
 		} else {
 			// This will plot the chromosomes from 1 (left) to n (right)
-			Arrays.sort(chromosomes);
+			Arrays.sort(order, byChromosome);
 		}
 		
 		chromosomeNames = new String [chromosomes.length];
 		binCounts = new double[chromosomes.length][];
+		chromosomeBinCounts = new long[chromosomes.length][];
+		maxCoverage = 0.0;
 
 		// We'll plot everything on the same scale, which means we'll reduce everything to a 
 		// common scale.  Our limit is going to be that we'll put 200 points on the longest
@@ -124,16 +180,16 @@ public class GenomeCoverage extends AbstractQCModule {
 		
 		maxBins = 1;
 		for (int c=0;c<chromosomes.length;c++) {
-			if(chromosomes[c].getBinCountData().length <= 1) {
-			} else if (chromosomes[c].getBinCountData().length>maxBins) { 
-				maxBins = chromosomes[c].getBinCountData().length;
+			if(annotationBinCounts[order[c]].length <= 1) {
+			} else if (annotationBinCounts[order[c]].length>maxBins) { 
+				maxBins = annotationBinCounts[order[c]].length;
 			}
 		}
 		
 		// configuration of how many bins per chromosome we want to plot.
 		// This is the number of bins per chromosome for the official plot getResultsPanel()
 		int plotBinsPerChromosome = 0; 
-		if(chromosomeNames.length <= plotTypeChromosomesThreshold) {
+		if(chromosomeNames.length <= PLOT_TYPE_CHROMOSOMES_THRESHOLD) {
 			plotBinsPerChromosome = ModuleConfig.getParam("GenomeCoverage_plot_bins_per_chromosome", "ignore").intValue();
 		} else {
 			plotBinsPerChromosome = ModuleConfig.getParam("GenomeCoverage_plot_bins_all_chromosomes", "ignore").intValue();
@@ -154,7 +210,7 @@ public class GenomeCoverage extends AbstractQCModule {
 		}
 		
 		log.debug("chromosomeNames.length: " + chromosomeNames.length);
-		log.debug("plotTypeChromosomesThreshold: " + plotTypeChromosomesThreshold);
+		log.debug("plotTypeChromosomesThreshold: " + PLOT_TYPE_CHROMOSOMES_THRESHOLD);
 		log.debug("plotBinsPerChromosome: " + plotBinsPerChromosome);
 		log.debug("maxBins: " + maxBins);
 		log.debug("binRatio: " + binRatio);
@@ -162,9 +218,13 @@ public class GenomeCoverage extends AbstractQCModule {
 		
 				
 		for (int c=0;c<chromosomes.length;c++) {
-			chromosomeNames[c] = chromosomes[c].name();
+			chromosomeNames[c] = annotationChromosomeNames[order[c]];
+			// the names are shown without the chr prefix, both in the plot and the text report
+			if(chromosomeNames[c].toLowerCase().startsWith("chr")) 
+				chromosomeNames[c] = chromosomeNames[c].substring(3);
 //			log.debug("Chromosome is " + chromosomes[c].name());
-			coverage = chromosomes[c].getBinCountData();
+			coverage = annotationBinCounts[order[c]];
+			chromosomeBinCounts[c] = coverage;
 			binCounts[c] = new double[binsToUse];
 			
 			int [] replicateCounts = new int[binsToUse];
@@ -221,13 +281,9 @@ public class GenomeCoverage extends AbstractQCModule {
 
 	@Override
 	public JPanel getResultsPanel() {
+		checkBins();
 
-		for(int i=0; i<chromosomeNames.length; i++) {
-			if(chromosomeNames[i].toLowerCase().startsWith("chr")) 
-				chromosomeNames[i] = chromosomeNames[i].substring(3);
-		}
-		
-		if(chromosomeNames.length <= plotTypeChromosomesThreshold) {
+		if(chromosomeNames.length <= PLOT_TYPE_CHROMOSOMES_THRESHOLD) {
 			// plots the genome coverage for each chromosome separately
 			return getSeparateChromosomeResultsPanel();
 		}
@@ -238,6 +294,7 @@ public class GenomeCoverage extends AbstractQCModule {
 	
 	
 	public JPanel getSeparateChromosomeResultsPanel() {
+		checkBins();
 		
 		int maxBins = 0;
 		for (int i=0;i<binCounts.length;i++) {
@@ -257,6 +314,7 @@ public class GenomeCoverage extends AbstractQCModule {
 	
 	
 	public JPanel getAllChromosomeResultsPanel() {	
+		checkBins();
 		/* Set up for separate line chart representing chromosome coverages. */
 		int[] scaffoldLengths = new int[binCounts.length];
 		
@@ -302,14 +360,21 @@ public class GenomeCoverage extends AbstractQCModule {
 	
 	@Override
 	public boolean ignoreInReport() {
+		checkBins();
 		if(ModuleConfig.getParam("GenomeCoverage", "ignore") > 0 || chromosomeNames == null || chromosomeNames.length == 0 || maxBins == 1) {
 			return true; 
 		}
 		return false;
 	}
 	
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
+		checkBins();
 		super.writeDefaultImage(report, "genome_coverage.png", "Genome Coverage", 800, 600);
 
 		if(chromosomeNames == null || chromosomeNames.length == 0 || maxBins == 1) { return; }
@@ -332,11 +397,25 @@ public class GenomeCoverage extends AbstractQCModule {
 		
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		checkBins();
+		if(chromosomeNames == null) { return; }
+		results.value("bin_size", Chromosome.COVERAGE_BIN_SIZE);
+		results.startGroup("bin_counts");
+		for (int i=0;i<chromosomeNames.length;i++) {
+			results.array(chromosomeNames[i], chromosomeBinCounts[i]);
+		}
+		results.endGroup();
+	}
+
 	public String[] getChromosomeNames() {
+		checkBins();
 		return chromosomeNames;
 	}
 	
 	public long[] getCoverage() {
+		checkBins();
 		return coverage;
 	}
 	
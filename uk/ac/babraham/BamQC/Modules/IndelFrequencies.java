@@ -25,6 +25,7 @@ package uk.ac.babraham.BamQC.Modules;
 
 import java.awt.GridLayout;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import javax.swing.JPanel;
@@ -35,6 +36,7 @@ import org.apache.log4j.Logger;
 import net.sf.samtools.SAMRecord;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Graphs.LineGraph;
 
@@ -45,11 +47,14 @@ import uk.ac.babraham.BamQC.Graphs.LineGraph;
  * and plots the Indel Frequencies.
  * @author Piero Dalle Pezze
  */
-public class IndelFrequencies extends AbstractQCModule {
+public class IndelFrequencies extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -5760087105914270316L;
 
 	private static Logger log = Logger.getLogger(IndelFrequencies.class);	
 	
 	private String[] indelNames = {"Deletions", "Insertions"};
+	private String[] xCategories = null;
 	
 	double[] dFirstDeletionPos = null;		
 	double[] dFirstInsertionPos = null;
@@ -112,44 +117,21 @@ public class IndelFrequencies extends AbstractQCModule {
 	
 	
 	
-	// @Override methods
-	
-	@Override
-	public void processSequence(SAMRecord read) { }
-	
-	
-	@Override	
-	public void processFile(SequenceFile file) { }
-
-	@Override	
-	public void processAnnotationSet(AnnotationSet annotation) {
-
-	}		
-
-	@Override	
-	public JPanel getResultsPanel() {
-		
+	/**
+	 * Computes the indel frequencies per position, which are used by both the plot 
+	 * and the text report.
+	 */
+	private void computeFrequencies() {
 		// compute the totals
 		variantCallDetection.computeTotals();
 		
-		long totDel = variantCallDetection.getTotalDeletions(), 
-			 totIns = variantCallDetection.getTotalInsertions(),
-			 totBases = variantCallDetection.getTotal();
-		
-		log.debug("Total deletions: " + totDel + " ( " + totDel*100f/totBases + "% )");
-		log.debug("Total insertions: " + totIns + " ( " + totIns*100f/totBases + "% )");	
-		log.debug("Skipped reads: " + variantCallDetection.getSkippedReads() + " ( "+ (variantCallDetection.getSkippedReads()*100.0f)/variantCallDetection.getTotalReads() + "% )");
-		
-		
-		JPanel resultsPanel = new JPanel();
 		// We do not need a BaseGroup here
 		// These two arrays have same length.
 		// first/second identify the first or second segments respectively. 
 		long[] totalPos = variantCallDetection.getTotalPos();
-     	// initialise and configure the LineGraph
 		// compute the maximum value for the X axis
 		int maxX = computeXMaxValue();
-		String[] xCategories = new String[maxX];
+		xCategories = new String[maxX];
 		
 		// compute statistics from the FIRST segment data
 		long[] firstDeletionPos = variantCallDetection.getFirstDeletionPos();		
@@ -163,11 +145,9 @@ public class IndelFrequencies extends AbstractQCModule {
 			if(dFirstInsertionPos[i] > firstMaxY) { firstMaxY = dFirstInsertionPos[i]; }
 			xCategories[i] = String.valueOf(i+1);
 		}
-		double[][] firstIndelData = new double [][] {dFirstDeletionPos, dFirstInsertionPos};
 
 		// compute statistics from the SECOND segment data if there are paired reads.
 		if(variantCallDetection.existPairedReads()) {
-			resultsPanel.setLayout(new GridLayout(2,1));
 			long[] secondDeletionPos = variantCallDetection.getSecondDeletionPos();
 			long[] secondInsertionPos = variantCallDetection.getSecondInsertionPos();
 			dSecondDeletionPos = new double[maxX];
@@ -178,6 +158,50 @@ public class IndelFrequencies extends AbstractQCModule {
 				if(dSecondDeletionPos[i] > secondMaxY) { secondMaxY = dSecondDeletionPos[i]; }
 				if(dSecondInsertionPos[i] > secondMaxY) { secondMaxY = dSecondInsertionPos[i]; }			
 			}
+		}
+	}
+	
+	// @Override methods
+	
+	@Override
+	public void processSequence(SAMRecord read) { }
+	
+	
+	@Override	
+	public void processFile(SequenceFile file) { }
+
+	@Override	
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the merged VariantCallDetection
+	}
+
+	@Override	
+	public void processAnnotationSet(AnnotationSet annotation) {
+
+	}		
+
+	@Override	
+	public JPanel getResultsPanel() {
+		
+		// compute the totals
+		variantCallDetection.computeTotals();
+		
+		long totDel = variantCallDetection.getTotalDeletions(), 
+			 totIns = variantCallDetection.getTotalInsertions(),
+			 totBases = variantCallDetection.getTotal();
+		
+		log.debug("Total deletions: " + totDel + " ( " + totDel*100f/totBases + "% )");
+		log.debug("Total insertions: " + totIns + " ( " + totIns*100f/totBases + "% )");	
+		log.debug("Skipped reads: " + variantCallDetection.getSkippedReads() + " ( "+ (variantCallDetection.getSkippedReads()*100.0f)/variantCallDetection.getTotalReads() + "% )");
+		
+		
+		JPanel resultsPanel = new JPanel();
+     	// initialise and configure the LineGraph
+		computeFrequencies();
+		double[][] firstIndelData = new double [][] {dFirstDeletionPos, dFirstInsertionPos};
+
+		if(variantCallDetection.existPairedReads()) {
+			resultsPanel.setLayout(new GridLayout(2,1));
 			double[][] secondIndelData = new double [][] {dSecondDeletionPos, dSecondInsertionPos};
 			
 			String title = String.format("First Read Indel Frequencies ( total deletions: %.3f %%, total insertions: %.3f %% )", 
@@ -253,12 +277,17 @@ public class IndelFrequencies extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override	
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "indel_frequencies.png", "Indel Frequencies", 800, 600);
 		
 		// write raw data in a report
-		if(dFirstDeletionPos == null) { return; }
+		if(dFirstDeletionPos == null) { computeFrequencies(); }
 		
 		StringBuffer sb = report.dataDocument();
 		if(dSecondInsertionPos != null) {
@@ -287,5 +316,21 @@ public class IndelFrequencies extends AbstractQCModule {
 			}
 		}
 	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		variantCallDetection.computeTotals();
+		int maxX = Math.min(computeXMaxValue(), variantCallDetection.getTotalPos().length);
+		results.value("total_insertions", variantCallDetection.getTotalInsertions());
+		results.value("total_deletions", variantCallDetection.getTotalDeletions());
+		results.value("total_bases", variantCallDetection.getTotal());
+		results.array("bases_per_position", Arrays.copyOf(variantCallDetection.getTotalPos(), maxX));
+		results.array("first_read_deletions_per_position", Arrays.copyOf(variantCallDetection.getFirstDeletionPos(), maxX));
+		results.array("first_read_insertions_per_position", Arrays.copyOf(variantCallDetection.getFirstInsertionPos(), maxX));
+		if(variantCallDetection.existPairedReads()) {
+			results.array("second_read_deletions_per_position", Arrays.copyOf(variantCallDetection.getSecondDeletionPos(), maxX));
+			results.array("second_read_insertions_per_position", Arrays.copyOf(variantCallDetection.getSecondInsertionPos(), maxX));
+		}
+	}
 	
 }
@@ -38,15 +38,19 @@ import org.apache.log4j.Logger;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.BarGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Utilities.CalculateDistribution;
+import uk.ac.babraham.BamQC.Utilities.DistributionChange;
 
 /**
  * @author Bart Ailey
  * @author Piero Dalle Pezze
  *
  */
-public class InsertLengthDistribution extends AbstractQCModule {
+public class InsertLengthDistribution extends AbstractQCModule implements ConvergentModule, ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -8176595291198661383L;
 
 	public final static int MAX_INSERT_SIZE = ModuleConfig.getParam("InsertLengthDistribution_max_insert_size", "ignore").intValue();
 	public final static int BIN_SIZE = ModuleConfig.getParam("InsertLengthDistribution_bin_size", "ignore").intValue();
@@ -68,6 +72,9 @@ public class InsertLengthDistribution extends AbstractQCModule {
 	
 	private double percentageDeviation = 0.0;
 	private boolean percentageDeviationCalculated = false;
+	
+	// the distribution at the previous convergence check
+	private double[] previousDistribution = null;
 
 	public InsertLengthDistribution() {}
 
@@ -110,11 +117,10 @@ public class InsertLengthDistribution extends AbstractQCModule {
 	}
 	
 	
-	@Override
-	public JPanel getResultsPanel() {
-		log.debug("Number of inferred insert sizes above the maximum allowed = " + aboveMaxInsertLengthCount);
-		log.debug("Number of unpaired reads = " + unpairedReads);
-		
+	/**
+	 * Bins the insert lengths, for both the plot and the text report.
+	 */
+	private void calculateDistribution() {
 		if (!calculated) {
 			double[] rawCounts = new double[insertLengthCounts.size()];
 			for(int i=0; i<rawCounts.length; i++) {
@@ -127,6 +133,14 @@ public class InsertLengthDistribution extends AbstractQCModule {
 			distributionDouble = cd.getDistributionDouble();
 			calculated = true;
 		}
+	}
+	
+	@Override
+	public JPanel getResultsPanel() {
+		log.debug("Number of inferred insert sizes above the maximum allowed = " + aboveMaxInsertLengthCount);
+		log.debug("Number of unpaired reads = " + unpairedReads);
+		
+		calculateDistribution();
 				
 		String title = String.format("Paired Read Insert Length Distrib ( %d bp max size and %.3f %% unpaired reads )", MAX_INSERT_SIZE, (((double) unpairedReads / reads) * 100.0));
 		String xLabel = "Inferred Insert Length bp";
@@ -152,6 +166,39 @@ public class InsertLengthDistribution extends AbstractQCModule {
 		aboveMaxInsertLengthCount = 0L;
 		percentageDeviationCalculated = false;
 		percentageDeviation = 0.0;
+		previousDistribution = null;
+	}
+	
+	@Override
+	public double distributionChange() {
+		// The first bin contains the inserts above the maximum size.
+		double[] current = new double[insertLengthCounts.size()+1];
+		current[0] = aboveMaxInsertLengthCount;
+		for (int i = 0; i < insertLengthCounts.size(); i++) {
+			current[i+1] = insertLengthCounts.get(i);
+		}
+		double change = DistributionChange.totalVariation(previousDistribution, current);
+		previousDistribution = current;
+		return change;
+	}
+	
+	@Override
+	public void merge(QCModule other) {
+		InsertLengthDistribution insertLength = (InsertLengthDistribution)other;
+		for (int i = 0; i < insertLength.insertLengthCounts.size(); i++) {
+			if (i < insertLengthCounts.size()) {
+				insertLengthCounts.set(i, insertLengthCounts.get(i) + insertLength.insertLengthCounts.get(i));
+			}
+			else {
+				insertLengthCounts.add(insertLength.insertLengthCounts.get(i));
+			}
+		}
+		aboveMaxInsertLengthCount += insertLength.aboveMaxInsertLengthCount;
+		unpairedReads += insertLength.unpairedReads;
+		reads += insertLength.reads;
+		calculated = false;
+		percentageDeviationCalculated = false;
+		previousDistribution = null;
 	}
 
 	private double calculatePercentageDeviation() {
@@ -212,6 +259,11 @@ public class InsertLengthDistribution extends AbstractQCModule {
 		return label;
 	}
 	
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		String title = String.format("Paired Read Insert Length Distribution ( %d bp max size and %.3f %% unpaired reads )", MAX_INSERT_SIZE, (((double) unpairedReads / reads) * 100.0));
@@ -219,6 +271,7 @@ public class InsertLengthDistribution extends AbstractQCModule {
 		
 		if(insertLengthCounts == null || insertLengthCounts.size() == 0) { return; }
 		
+		calculateDistribution();
 		int binNumber = (insertLengthCounts.size() / BIN_SIZE) + 2;
 		String[] label = buildLabels(binNumber);
 		
@@ -230,6 +283,19 @@ public class InsertLengthDistribution extends AbstractQCModule {
 		
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		long [] counts = new long[insertLengthCounts.size()];
+		for (int i=0;i<counts.length;i++) {
+			counts[i] = insertLengthCounts.get(i);
+		}
+		results.value("reads", reads);
+		results.value("unpaired_reads", unpairedReads);
+		results.value("max_insert_length", MAX_INSERT_SIZE);
+		results.value("above_max_insert_length", aboveMaxInsertLengthCount);
+		results.array("insert_length_counts", counts);
+	}
+
 	public ArrayList<Long> getInsertLengthCounts() {
 		return insertLengthCounts;
 	}
@@ -37,14 +37,18 @@ import net.sf.samtools.SAMRecord;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.BarGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Utilities.DistributionChange;
 
 /**
  * @author Bart Ailey
  * @author Piero Dalle Pezze
  *
  */
-public class MappingQualityDistribution extends AbstractQCModule {
+public class MappingQualityDistribution extends AbstractQCModule implements ConvergentModule, ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 3633412802361628401L;
 
 	//private static Logger log = Logger.getLogger(MappingQualityDistribution.class);
 
@@ -57,6 +61,8 @@ public class MappingQualityDistribution extends AbstractQCModule {
 
 	private int[] distribution = new int[QUALITY_MAP_SIZE];
 	private String[] label = new String[QUALITY_MAP_SIZE];
+	// the distribution at the previous convergence check
+	private double[] previousDistribution = null;
 
 	public MappingQualityDistribution() {
 		for (int i = 0; i < QUALITY_MAP_SIZE; i++) {
@@ -135,6 +141,31 @@ public class MappingQualityDistribution extends AbstractQCModule {
 	public void reset() {
 		distribution = new int[QUALITY_MAP_SIZE];
 		maxCount = 0;
+		previousDistribution = null;
+	}
+	
+	@Override
+	public double distributionChange() {
+		double[] current = new double[QUALITY_MAP_SIZE];
+		for (int i = 0; i < QUALITY_MAP_SIZE; i++) {
+			current[i] = distribution[i];
+		}
+		double change = DistributionChange.totalVariation(previousDistribution, current);
+		previousDistribution = current;
+		return change;
+	}
+	
+	@Override
+	public void merge(QCModule other) {
+		MappingQualityDistribution mappingQuality = (MappingQualityDistribution)other;
+		for (int i = 0; i < QUALITY_MAP_SIZE; i++) {
+			distribution[i] += mappingQuality.distribution[i];
+			if (distribution[i] > maxCount) {
+				maxCount = distribution[i];
+			}
+		}
+		readNumber += mappingQuality.readNumber;
+		previousDistribution = null;
 	}
 	
 	public double getFraction() {
@@ -176,6 +207,11 @@ public class MappingQualityDistribution extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 
@@ -194,6 +230,12 @@ public class MappingQualityDistribution extends AbstractQCModule {
 			
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		results.value("reads", readNumber);
+		results.array("mapq_counts", distribution);
+	}
+
 	public int[] getDistribution() {
 		return distribution;
 	}
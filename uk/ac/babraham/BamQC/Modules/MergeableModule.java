@@ -0,0 +1,41 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Modules;
+
+/**
+ * A module whose values can be added to those of the same module run on other records 
+ * of the file. This is used to merge the partial results of a file analysed in shards. 
+ * The modules are merged after all the records have been processed and before 
+ * processAnnotationSet() is called.
+ */
+public interface MergeableModule {
+
+	/**
+	 * Adds the values which another instance of this module collected from 
+	 * other records of the same file.
+	 * @param other a module of the same class
+	 */
+	public void merge(QCModule other);
+
+}
@@ -66,6 +66,13 @@ public class ModuleConfig {
 		params.put("GenomeCoverage_plot_bins_all_chromosomes:ignore", 500d);		
 		params.put("GenomeCoverage_plot_bins_per_chromosome:ignore", 100d);
 		
+		params.put("DepthDistribution_max_depth:ignore", 1000d);
+		params.put("DepthDistribution_window_size:ignore", 65536d);
+		
+		params.put("TargetCoverage_max_depth:ignore", 1000d);
+		params.put("TargetCoverage_on_target_rate:error", 20d);
+		params.put("TargetCoverage_on_target_rate:warn", 50d);
+		
 		params.put("InsertLengthDistribution_max_insert_size:ignore", 10000.0d);
 		params.put("InsertLengthDistribution_bin_size:ignore", 1.0d);
 		params.put("InsertLengthDistribution_percentage_deviation:error", 50.0d);
@@ -79,6 +86,7 @@ public class ModuleConfig {
 			
 
 		params.put("ChromosomeReadDensity:ignore",0d);
+		params.put("DepthDistribution:ignore",0d);
 		params.put("FeatureCoverage:ignore",0d);
 		params.put("GenomeCoverage:ignore",0d);
 		params.put("IndelFrequencies:ignore",0d);
@@ -89,6 +97,7 @@ public class ModuleConfig {
 		params.put("SNPFrequencies:ignore",0d);
 		params.put("SNPFrequenciesByType:ignore",0d);
 		params.put("SoftClipDistribution:ignore",0d);
+		params.put("TargetCoverage:ignore",0d);
 		// The following option switches off InsertFrequencies, SNPFrequencies, SNPFrequenciesByType and some statistics in BasicStatistics
 		params.put("VariantCallDetection:ignore",0d);		
 		
@@ -56,6 +56,12 @@ public class ModuleFactory {
 		if(ModuleConfig.getParam("GenomeCoverage", "ignore") == 0) {
 			selectedModules.add(new GenomeCoverage());
 		}
+		if(ModuleConfig.getParam("DepthDistribution", "ignore") == 0) {
+			selectedModules.add(new DepthDistribution());
+		}
+		if(ModuleConfig.getParam("TargetCoverage", "ignore") == 0) {
+			selectedModules.add(new TargetCoverage());
+		}
 		if(ModuleConfig.getParam("ChromosomeReadDensity", "ignore") == 0) {
 			selectedModules.add(new ChromosomeReadDensity());
 		}
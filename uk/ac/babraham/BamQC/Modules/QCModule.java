@@ -46,7 +46,8 @@ public interface QCModule {
 	public void processSequence(SAMRecord read);
 	
 	/**
-	 * Process a sequence file
+	 * Process a sequence file. This is also called when an analysis goes on from 
+	 * a checkpoint, so the values collected from the records must be kept.
 	 * @param file to process
 	 */
 	public void processFile(SequenceFile file);
@@ -29,7 +29,9 @@ import uk.ac.babraham.BamQC.Utilities.CalculateDistribution;
  * @author Piero Dalle Pezze
  *
  */
-public class RpkmReference extends AbstractQCModule {
+public class RpkmReference extends AbstractQCModule implements MergeableModule {
+
+	private static final long serialVersionUID = -989707949239891437L;
 
 	public final static int BIN_SIZE = ModuleConfig.getParam("RpkmReference_bin_size", "ignore").intValue();
 	
@@ -162,6 +164,30 @@ public class RpkmReference extends AbstractQCModule {
 
 	@Override
 	public void processAnnotationSet(AnnotationSet annotation) { }
+	
+	@Override
+	public void merge(QCModule other) {
+		RpkmReference rpkm = (RpkmReference)other;
+		if (!isBinNucleotidesSet) {
+			binNumber = rpkm.binNumber;
+			coverage = rpkm.coverage;
+			sequenceStarts = rpkm.sequenceStarts;
+			isBinNucleotidesSet = rpkm.isBinNucleotidesSet;
+		}
+		else if (rpkm.isBinNucleotidesSet) {
+			for (int i = 0; i < coverage.length; i++) {
+				coverage[i] += rpkm.coverage[i];
+			}
+		}
+		maxCoverage = 0;
+		if (coverage != null) {
+			for (int i = 0; i < coverage.length; i++) {
+				if (coverage[i] > maxCoverage) maxCoverage = coverage[i];
+			}
+		}
+		readNumber += rpkm.readNumber;
+		errorReads += rpkm.errorReads;
+	}
 
 	@Override
 	public JPanel getResultsPanel() {
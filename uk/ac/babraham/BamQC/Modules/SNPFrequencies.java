@@ -25,6 +25,7 @@ package uk.ac.babraham.BamQC.Modules;
 
 import java.awt.GridLayout;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import javax.swing.JPanel;
@@ -36,6 +37,7 @@ import net.sf.samtools.SAMRecord;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.LineGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 
@@ -45,7 +47,9 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * and plots the SNP Frequencies.
  * @author Piero Dalle Pezze
  */
-public class SNPFrequencies extends AbstractQCModule {
+public class SNPFrequencies extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 1415491668982382496L;
 
 	private static Logger log = Logger.getLogger(SNPFrequencies.class);	
 	
@@ -62,6 +66,7 @@ public class SNPFrequencies extends AbstractQCModule {
 	
 	// data fields for plotting
 	private static String[] snpName = {"SNPs"};
+	private String[] xCategories = null;
 	
 	
 	// Constructors
@@ -108,6 +113,42 @@ public class SNPFrequencies extends AbstractQCModule {
 		return xMaxValue+1;	//this will be used for array sizes (so +1).	
 	}
 	
+	/**
+	 * Computes the SNP frequencies per position, which are used by both the plot 
+	 * and the text report.
+	 */
+	private void computeFrequencies() {
+		// compute the totals
+		variantCallDetection.computeTotals();
+		
+		// We do not need a BaseGroup here
+		// These two arrays have same length.
+		// first/second identify the first or second segments respectively. 
+		long[] totalPos = variantCallDetection.getTotalPos();
+		// compute the maximum value for the X axis
+		int maxX = computeXMaxValue();
+		xCategories = new String[maxX];
+		
+		// compute statistics from the FIRST segment data
+		long[] firstSNPPos = variantCallDetection.getFirstSNPPos();
+		dFirstSNPPos = new double[maxX];
+		for(int i=0; i<maxX && i<firstSNPPos.length; i++) {
+			dFirstSNPPos[i]= (firstSNPPos[i] * 100d) / totalPos[i];
+			if(dFirstSNPPos[i] > firstMaxY) { firstMaxY = dFirstSNPPos[i]; }
+			xCategories[i] = String.valueOf(i+1);
+		}
+		
+		// compute statistics from the SECOND segment data if there are paired reads.
+		if(variantCallDetection.existPairedReads()) {
+			long[] secondSNPPos = variantCallDetection.getSecondSNPPos();
+			dSecondSNPPos = new double[maxX];
+			for(int i=0; i<maxX && i<secondSNPPos.length; i++) {
+				dSecondSNPPos[i]= (secondSNPPos[i] * 100d) / totalPos[i];
+				if(dSecondSNPPos[i] > secondMaxY) { secondMaxY = dSecondSNPPos[i]; }
+			}
+		}
+	}
+	
 	
 	// @Override methods
 
@@ -117,6 +158,11 @@ public class SNPFrequencies extends AbstractQCModule {
 	@Override	
 	public void processFile(SequenceFile file) { }
 
+	@Override	
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the merged VariantCallDetection
+	}
+
 	@Override	
 	public void processAnnotationSet(AnnotationSet annotation) {
 
@@ -136,38 +182,12 @@ public class SNPFrequencies extends AbstractQCModule {
 		
 		
 		JPanel resultsPanel = new JPanel();
-		// We do not need a BaseGroup here
-		// These two arrays have same length.
-		// first/second identify the first or second segments respectively. 
-		long[] totalPos = variantCallDetection.getTotalPos();
      	// initialise and configure the LineGraph
-		// compute the maximum value for the X axis
-		int maxX = computeXMaxValue();
-		String[] xCategories = new String[maxX];
-		
-		
-		
-		// compute statistics from the FIRST segment data
-		// We do not need a BaseGroup here
-		long[] firstSNPPos = variantCallDetection.getFirstSNPPos();
-		dFirstSNPPos = new double[maxX];
-		for(int i=0; i<maxX && i<firstSNPPos.length; i++) {
-			dFirstSNPPos[i]= (firstSNPPos[i] * 100d) / totalPos[i];
-			if(dFirstSNPPos[i] > firstMaxY) { firstMaxY = dFirstSNPPos[i]; }
-			xCategories[i] = String.valueOf(i+1);
-		}
+		computeFrequencies();
 		double[][] firstSNPData = new double [][] {dFirstSNPPos};
 		
-		// compute statistics from the SECOND segment data if there are paired reads.
 		if(variantCallDetection.existPairedReads()) {
 			resultsPanel.setLayout(new GridLayout(2,1));
-			// We do not need a BaseGroup here
-			long[] secondSNPPos = variantCallDetection.getSecondSNPPos();
-			dSecondSNPPos = new double[maxX];
-			for(int i=0; i<maxX && i<secondSNPPos.length; i++) {
-				dSecondSNPPos[i]= (secondSNPPos[i] * 100d) / totalPos[i];
-				if(dSecondSNPPos[i] > secondMaxY) { secondMaxY = dSecondSNPPos[i]; }
-			}
 			double[][] secondSNPData = new double [][] {dSecondSNPPos};
 			
 			String title = String.format("First Read SNP frequencies ( total SNPs: %.3f %% )", totSNPs*100.0f/totBases);
@@ -240,12 +260,17 @@ public class SNPFrequencies extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override	
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "snp_frequencies.png", "SNP Frequencies", 800, 600);
 		
 		// write raw data in a report
-		if(dFirstSNPPos == null) { return; }
+		if(dFirstSNPPos == null) { computeFrequencies(); }
 		
 		StringBuffer sb = report.dataDocument();
 		if(dSecondSNPPos != null) {
@@ -268,5 +293,18 @@ public class SNPFrequencies extends AbstractQCModule {
 			}
 		}
 	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		variantCallDetection.computeTotals();
+		int maxX = Math.min(computeXMaxValue(), variantCallDetection.getTotalPos().length);
+		results.value("total_snps", variantCallDetection.getTotalMutations());
+		results.value("total_bases", variantCallDetection.getTotal());
+		results.array("bases_per_position", Arrays.copyOf(variantCallDetection.getTotalPos(), maxX));
+		results.array("first_read_snps_per_position", Arrays.copyOf(variantCallDetection.getFirstSNPPos(), maxX));
+		if(variantCallDetection.existPairedReads()) {
+			results.array("second_read_snps_per_position", Arrays.copyOf(variantCallDetection.getSecondSNPPos(), maxX));
+		}
+	}
 	
 }
@@ -44,6 +44,7 @@ import net.sf.samtools.SAMRecord;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.HorizontalBarGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 
@@ -53,7 +54,9 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * and plots the SNP Frequencies by type.
  * @author Piero Dalle Pezze
  */
-public class SNPFrequenciesByType extends AbstractQCModule {
+public class SNPFrequenciesByType extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 7696983822183604872L;
 
 	//private static Logger log = Logger.getLogger(SNPFrequenciesByType.class);
 	
@@ -85,6 +88,43 @@ public class SNPFrequenciesByType extends AbstractQCModule {
 	}
 	
 	
+	/**
+	 * Computes the SNP frequencies of each type, which are used by both the plot 
+	 * and the text report.
+	 */
+	private void computeFrequencies() {
+		// compute the totals
+		variantCallDetection.computeTotals();
+		
+		long totBases = variantCallDetection.getTotal();
+		
+		// compute statistics from the FIRST segment data
+		HashMap<String, Long> firstSNPs = variantCallDetection.getFirstSNPs();		
+		snpTypeNames = firstSNPs.keySet().toArray(new String[0]);
+		// sort the labels so that they are nicely organised.
+		Arrays.sort(snpTypeNames);
+		
+		dFirstSNPFrequenciesByType = new double[snpTypeNames.length];
+		for(int i=0; i<snpTypeNames.length; i++) {
+			dFirstSNPFrequenciesByType[i] = firstSNPs.get(snpTypeNames[i]) * 100d / totBases;
+			if(firstMaxX < dFirstSNPFrequenciesByType[i]) 
+				firstMaxX = dFirstSNPFrequenciesByType[i];
+		}
+		
+		// compute statistics from the SECOND segment data if there are paired reads.
+		if(variantCallDetection.existPairedReads()) {
+			HashMap<String, Long> secondSNPs = variantCallDetection.getSecondSNPs();		
+			dSecondSNPFrequenciesByType = new double[snpTypeNames.length];
+			for(int i=0; i<snpTypeNames.length; i++) {
+				dSecondSNPFrequenciesByType[i] = secondSNPs.get(snpTypeNames[i]) * 100d / totBases;
+				if(secondMaxX < dSecondSNPFrequenciesByType[i]) 
+					secondMaxX = dSecondSNPFrequenciesByType[i];
+			}
+		}
+		renameYAxis();
+	}
+	
+	
 	// @Override methods
 
 	@Override
@@ -93,6 +133,11 @@ public class SNPFrequenciesByType extends AbstractQCModule {
 	@Override	
 	public void processFile(SequenceFile file) { }
 
+	@Override	
+	public void merge(QCModule other) {
+		// Everything is computed in processAnnotationSet() from the merged VariantCallDetection
+	}
+
 	@Override	
 	public void processAnnotationSet(AnnotationSet annotation) {
 
@@ -110,46 +155,22 @@ public class SNPFrequenciesByType extends AbstractQCModule {
 		long totSNPs = variantCallDetection.getTotalMutations(), 
 				 totBases = variantCallDetection.getTotal();
 		
-		// compute statistics from the FIRST segment data
-		HashMap<String, Long> firstSNPs = variantCallDetection.getFirstSNPs();		
-		snpTypeNames = firstSNPs.keySet().toArray(new String[0]);
-		// sort the labels so that they are nicely organised.
-		Arrays.sort(snpTypeNames);
-		
-		dFirstSNPFrequenciesByType = new double[snpTypeNames.length];
-		for(int i=0; i<snpTypeNames.length; i++) {
-			dFirstSNPFrequenciesByType[i] = firstSNPs.get(snpTypeNames[i]) * 100d / totBases;
-			if(firstMaxX < dFirstSNPFrequenciesByType[i]) 
-				firstMaxX = dFirstSNPFrequenciesByType[i];
-		}
-		
+		computeFrequencies();
 		
-		// compute statistics from the SECOND segment data if there are paired reads.
 		if(variantCallDetection.existPairedReads()) {
 			resultsPanel.setLayout(new GridLayout(2,1));
 			
-			HashMap<String, Long> secondSNPs = variantCallDetection.getSecondSNPs();		
-			//String[] mutation = firstSNPs.keySet().toArray(new String[0]);
-			dSecondSNPFrequenciesByType = new double[snpTypeNames.length];
-			for(int i=0; i<snpTypeNames.length; i++) {
-				dSecondSNPFrequenciesByType[i] = secondSNPs.get(snpTypeNames[i]) * 100d / totBases;
-				if(secondMaxX < dSecondSNPFrequenciesByType[i]) 
-					secondMaxX = dSecondSNPFrequenciesByType[i];
-			}
-			
 			String title = String.format("First Read SNP frequencies by Type ( total SNPs: %.3f %% )", totSNPs*100.0f/totBases);
 			// add 10% to the top for improving the visualisation of the plot.
 			resultsPanel.add(new HorizontalBarGraph(snpTypeNames, dFirstSNPFrequenciesByType, "", title, 0d, firstMaxX+firstMaxX*0.1d));
 			
 			String title2 = "Second Read SNP frequencies by Type";
-			renameYAxis();
 			// add 10% to the top for improving the visualisation of the plot.
 			resultsPanel.add(new HorizontalBarGraph(snpTypeNames, dSecondSNPFrequenciesByType, "", title2, 0d, secondMaxX+secondMaxX*0.1d));
 			
 		} else {
 			resultsPanel.setLayout(new GridLayout(1,1));
 			String title = String.format("Read SNP frequencies by Type ( total SNPs: %.3f %% )", totSNPs*100.0f/totBases);
-			renameYAxis();
 			// add 10% to the top for improving the visualisation of the plot.
 			resultsPanel.add(new HorizontalBarGraph(snpTypeNames, dFirstSNPFrequenciesByType, "", title, 0d, firstMaxX+firstMaxX*0.1d));			
 		}
@@ -209,13 +230,18 @@ public class SNPFrequenciesByType extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override	
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "snp_frequencies_by_type.png", "SNP Frequencies by Type", 800, 600);
 		
 		
 		// write raw data in a report
-		if(dFirstSNPFrequenciesByType == null) { return; }
+		if(dFirstSNPFrequenciesByType == null) { computeFrequencies(); }
 		
 		StringBuffer sb = report.dataDocument();
 		if(dSecondSNPFrequenciesByType != null) {
@@ -239,6 +265,30 @@ public class SNPFrequenciesByType extends AbstractQCModule {
 		}
 		
 	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		variantCallDetection.computeTotals();
+		HashMap<String, Long> firstSNPs = variantCallDetection.getFirstSNPs();
+		String[] types = firstSNPs.keySet().toArray(new String[0]);
+		Arrays.sort(types);
+		results.value("total_snps", variantCallDetection.getTotalMutations());
+		results.value("total_bases", variantCallDetection.getTotal());
+		results.array("snp_types", types);
+		results.array("first_read_snps", snpCounts(firstSNPs, types));
+		if(variantCallDetection.existPairedReads()) {
+			results.array("second_read_snps", snpCounts(variantCallDetection.getSecondSNPs(), types));
+		}
+	}
+	
+	private static long[] snpCounts(HashMap<String, Long> snps, String[] types) {
+		long[] counts = new long[types.length];
+		for(int i=0; i<types.length; i++) {
+			Long count = snps.get(types[i]);
+			if(count != null) counts[i] = count;
+		}
+		return counts;
+	}
 	
 	/**
 	 * Rename the plot Y axis.
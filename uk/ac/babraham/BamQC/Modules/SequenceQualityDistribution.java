@@ -19,6 +19,7 @@ import org.apache.log4j.Logger;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.BarGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 /**
@@ -26,7 +27,9 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * @author Piero Dalle Pezze
  *
  */
-public class SequenceQualityDistribution extends AbstractQCModule {
+public class SequenceQualityDistribution extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -3568078156444566678L;
 
 	private static Logger log = Logger.getLogger(SequenceQualityDistribution.class);
 
@@ -70,13 +73,12 @@ public class SequenceQualityDistribution extends AbstractQCModule {
 		log.debug("average = " + average);
 	}
 	
-	@Override
-	public JPanel getResultsPanel() {
-		String[] label = new String[distribution.size()];
-		
-		for (int i = 0; i < label.length; i++) {
-			label[i] = Integer.toString(i);
-		}
+	/**
+	 * Computes the percentage of reads of each quality, for both the plot and 
+	 * the text report.
+	 * @return the highest percentage
+	 */
+	private double calculateDistribution() {
 		distributionDouble = new double[distribution.size()];
 		int maxCount = 0;
 		int i = 0;
@@ -89,7 +91,17 @@ public class SequenceQualityDistribution extends AbstractQCModule {
 		for (int count : distribution) {
 			distributionDouble[i++] = ( (double) count / total) * 100.0;
 		}
-		double maxVaule = ( (double) maxCount / total) * 100.0;
+		return ( (double) maxCount / total) * 100.0;
+	}
+	
+	@Override
+	public JPanel getResultsPanel() {
+		String[] label = new String[distribution.size()];
+		
+		for (int i = 0; i < label.length; i++) {
+			label[i] = Integer.toString(i);
+		}
+		double maxVaule = calculateDistribution();
 		
 		String title = "Sequence Quality Distribution";
 		String xLabel = "Sequence Quality (Phred)";
@@ -117,6 +129,19 @@ public class SequenceQualityDistribution extends AbstractQCModule {
 	public void reset() {
 		distribution = new ArrayList<Integer>();
 	}
+	
+	@Override
+	public void merge(QCModule other) {
+		List<Integer> otherDistribution = ((SequenceQualityDistribution)other).distribution;
+		for (int i = 0; i < otherDistribution.size(); i++) {
+			if (i < distribution.size()) {
+				distribution.set(i, distribution.get(i) + otherDistribution.get(i));
+			}
+			else {
+				distribution.add(otherDistribution.get(i));
+			}
+		}
+	}
 
 	@Override
 	public boolean raisesError() {
@@ -145,11 +170,17 @@ public class SequenceQualityDistribution extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "sequence_quality_distribution.png", "Sequence Quality Distribution", 800, 600);
 
 		if(distribution == null) { return; }
+		if(distributionDouble == null) { calculateDistribution(); }
 	
 		StringBuffer sb = report.dataDocument();
 		sb.append("Sequence_quality_(phred)\tSequence_quality_distribution\n");
@@ -158,6 +189,16 @@ public class SequenceQualityDistribution extends AbstractQCModule {
 		}
 		
 	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		if(distribution == null) { return; }
+		int [] counts = new int[distribution.size()];
+		for (int i=0;i<counts.length;i++) {
+			counts[i] = distribution.get(i);
+		}
+		results.array("quality_counts", counts);
+	}
 	
 	public List<Integer> getDistribution() {
 		return distribution;
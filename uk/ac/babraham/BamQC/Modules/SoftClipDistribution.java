@@ -40,6 +40,7 @@ import net.sf.samtools.SAMRecord;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.Graphs.LineGraph;
 import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 
 /**
@@ -47,7 +48,9 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
  * @author Piero Dalle Pezze
  *
  */
-public class SoftClipDistribution extends AbstractQCModule {
+public class SoftClipDistribution extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = -2508166894795982059L;
 
 	// logger
 	private static Logger log = Logger.getLogger(SoftClipDistribution.class);
@@ -67,7 +70,7 @@ public class SoftClipDistribution extends AbstractQCModule {
 		// Get the CIGAR list
 		Cigar cigar = read.getCigar();
 		if (cigar == null || read.getCigarLength() == 0) {
-			log.debug("Read " + read.getReadString() + " does not have Cigar string.");
+			if (log.isDebugEnabled()) log.debug("Read " + read.getReadString() + " does not have Cigar string.");
 			return;
 		}
 		
@@ -118,6 +121,16 @@ public class SoftClipDistribution extends AbstractQCModule {
 		rightClipCounts = temp;
 	}
 	
+	@Override
+	public void merge(QCModule other) {
+		SoftClipDistribution softClips = (SoftClipDistribution)other;
+		if (softClips.leftClipCounts.length > leftClipCounts.length) expandCounts(softClips.leftClipCounts.length);
+		for (int i=0;i<softClips.leftClipCounts.length;i++) {
+			leftClipCounts[i] += softClips.leftClipCounts[i];
+			rightClipCounts[i] += softClips.rightClipCounts[i];
+		}
+	}
+	
 	@Override
 	public void processFile(SequenceFile file) {}
 
@@ -197,6 +210,11 @@ public class SoftClipDistribution extends AbstractQCModule {
 		return false;
 	}
 
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
 	@Override
 	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
 		super.writeDefaultImage(report, "soft_clip_distribution_graph.png","Soft Clipping Distribution Graph", 800, 600);
@@ -214,6 +232,12 @@ public class SoftClipDistribution extends AbstractQCModule {
 		}
 	}
 
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		results.array("five_prime_clip_counts", leftClipCounts);
+		results.array("three_prime_clip_counts", rightClipCounts);
+	}
+
 	public long[] getLeftClipCounts() {
 		return leftClipCounts;
 	}
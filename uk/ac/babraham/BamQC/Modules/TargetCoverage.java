@@ -0,0 +1,399 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Modules;
+
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JPanel;
+import javax.swing.table.AbstractTableModel;
+import javax.xml.stream.XMLStreamException;
+
+import net.sf.samtools.AlignmentBlock;
+import net.sf.samtools.SAMRecord;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Graphs.LineGraph;
+import uk.ac.babraham.BamQC.Report.HTMLReportArchive;
+import uk.ac.babraham.BamQC.Report.ResultsWriter;
+import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+
+/**
+ * Reports the on-target rate and the coverage of each target region when the
+ * analysis is restricted to the regions of a BED file.
+ * The on-target rate is the fraction of the mapped records of the file which overlap
+ * a target. The coverage of a target is the number of aligned bases falling inside it,
+ * divided by its length. Secondary, duplicate and QC failed reads do not count towards
+ * the coverage.
+ */
+public class TargetCoverage extends AbstractQCModule implements ExportableModule, MergeableModule {
+
+	private static final long serialVersionUID = 585975854534634310L;
+
+	private static final double ERROR_RATE = ModuleConfig.getParam("TargetCoverage_on_target_rate", "error");
+	private static final double WARNING_RATE = ModuleConfig.getParam("TargetCoverage_on_target_rate", "warn");
+
+	private int maxDepth = ModuleConfig.getParam("TargetCoverage_max_depth", "ignore").intValue();
+
+	private transient SequenceFile file = null;
+	private TargetRegions targets = null;
+
+	private long [] targetBases = null;
+	private int [] targetReads = null;
+	private long onTargetRecords = 0;
+	private long mappedRecords = 0;
+
+	public TargetCoverage() { }
+
+	@Override
+	public void processFile(SequenceFile file) {
+		this.file = file;
+		// The counts are kept when the analysis goes on from a checkpoint
+		if (targetBases == null) {
+			setTargetRegions(file.targetRegions());
+		}
+	}
+
+	/**
+	 * Sets the target regions. This is normally done by processFile().
+	 * @param targets the target regions, or null
+	 */
+	public void setTargetRegions(TargetRegions targets) {
+		this.targets = targets;
+		if (targets != null) {
+			targetBases = new long[targets.size()];
+			targetReads = new int[targets.size()];
+		}
+	}
+
+	@Override
+	public void processSequence(SAMRecord read) {
+
+		if (targets == null || read.getReadUnmappedFlag()) return;
+
+		String chromosome = read.getReferenceName();
+		if (!targets.overlaps(chromosome, read.getAlignmentStart(), read.getAlignmentEnd())) return;
+
+		onTargetRecords++;
+
+		if (read.isSecondaryOrSupplementary() || read.getDuplicateReadFlag() || read.getReadFailsVendorQualityCheckFlag()) {
+			return;
+		}
+
+		// The blocks and the targets are both sorted, so a target hit by
+		// several blocks is always the last one counted.
+		int lastCounted = -1;
+		List<AlignmentBlock> blocks = read.getAlignmentBlocks();
+		for (int i=0; i<blocks.size(); i++) {
+			int blockStart = blocks.get(i).getReferenceStart();
+			int blockEnd = blockStart + blocks.get(i).getLength() - 1;
+			int target = targets.findFirstTarget(chromosome, blockStart);
+			if (target < 0) continue;
+			int lastTarget = targets.chromosomeEnd(target);
+			while (target < lastTarget && targets.start(target) <= blockEnd) {
+				int overlapStart = Math.max(blockStart, targets.start(target));
+				int overlapEnd = Math.min(blockEnd, targets.end(target));
+				targetBases[target] += overlapEnd - overlapStart + 1;
+				if (target != lastCounted) {
+					targetReads[target]++;
+					lastCounted = target;
+				}
+				target++;
+			}
+		}
+	}
+
+	@Override
+	public void merge(QCModule other) {
+		TargetCoverage coverage = (TargetCoverage)other;
+		if (targetBases == null) {
+			targets = coverage.targets;
+			targetBases = coverage.targetBases;
+			targetReads = coverage.targetReads;
+		}
+		else if (coverage.targetBases != null) {
+			// Both read the same target regions
+			for (int i=0; i<targetBases.length; i++) {
+				targetBases[i] += coverage.targetBases[i];
+				targetReads[i] += coverage.targetReads[i];
+			}
+		}
+		onTargetRecords += coverage.onTargetRecords;
+	}
+
+	@Override
+	public void processAnnotationSet(AnnotationSet annotation) {
+		if (file != null) {
+			mappedRecords = file.getMappedRecordCount();
+		}
+	}
+
+	/**
+	 * Sets the number of mapped records of the file. This is normally
+	 * read from the file by processAnnotationSet().
+	 */
+	public void setMappedRecords(long mappedRecords) {
+		this.mappedRecords = mappedRecords;
+	}
+
+	public double getOnTargetRate() {
+		if (mappedRecords <= 0) return 0d;
+		return 100d * onTargetRecords / mappedRecords;
+	}
+
+	public double getMeanCoverage(int target) {
+		return targetBases[target] / (double)targets.length(target);
+	}
+
+	public double getMeanTargetCoverage() {
+		long bases = 0;
+		for (int i=0; i<targetBases.length; i++) {
+			bases += targetBases[i];
+		}
+		return bases / (double)targets.totalLength();
+	}
+
+	/**
+	 * Returns the percentage of targets with a mean coverage at least equal to minCoverage.
+	 */
+	public double getPercentTargetsAtLeast(double minCoverage) {
+		int count = 0;
+		for (int i=0; i<targetBases.length; i++) {
+			if (getMeanCoverage(i) >= minCoverage) count++;
+		}
+		return 100d * count / targetBases.length;
+	}
+
+	public long getOnTargetRecords() {
+		return onTargetRecords;
+	}
+
+	public long[] getTargetBases() {
+		return targetBases;
+	}
+
+	public int[] getTargetReads() {
+		return targetReads;
+	}
+
+	private int getLastObservedCoverage() {
+		int last = 0;
+		for (int i=0; i<targetBases.length; i++) {
+			int coverage = (int)getMeanCoverage(i);
+			if (coverage > last) last = coverage;
+		}
+		return Math.min(last, maxDepth);
+	}
+
+	@Override
+	public JPanel getResultsPanel() {
+		int lastCoverage = getLastObservedCoverage();
+		double [][] cumulative = new double[1][lastCoverage+1];
+		String [] labels = new String[lastCoverage+1];
+		for (int i=0; i<=lastCoverage; i++) {
+			cumulative[0][i] = getPercentTargetsAtLeast(i);
+			labels[i] = "" + i;
+		}
+		if (lastCoverage == maxDepth) {
+			labels[lastCoverage] = maxDepth + "+";
+		}
+
+		JPanel resultsPanel = new JPanel();
+		resultsPanel.setLayout(new BorderLayout());
+		resultsPanel.add(new LineGraph(cumulative, 0d, 100d, "Mean Coverage", "Percent of Targets", new String[]{"Targets with at least this mean coverage"}, labels,
+				String.format("Target Coverage ( on target: %.2f%% )", getOnTargetRate())), BorderLayout.CENTER);
+		return resultsPanel;
+	}
+
+	@Override
+	public String name() {
+		return "Target Coverage";
+	}
+
+	@Override
+	public String description() {
+		return "Looks at the on-target rate and the coverage of the target regions";
+	}
+
+	@Override
+	public void reset() {
+		file = null;
+		targets = null;
+		targetBases = null;
+		targetReads = null;
+		onTargetRecords = 0;
+		mappedRecords = 0;
+	}
+
+	@Override
+	public boolean raisesError() {
+		return targets != null && getOnTargetRate() < ERROR_RATE;
+	}
+
+	@Override
+	public boolean raisesWarning() {
+		return targets != null && getOnTargetRate() < WARNING_RATE;
+	}
+
+	@Override
+	public boolean needsToSeeSequences() {
+		return true;
+	}
+
+	@Override
+	public boolean needsToSeeAnnotation() {
+		return true;
+	}
+
+	@Override
+	public boolean ignoreInReport() {
+		if(ModuleConfig.getParam("TargetCoverage", "ignore") > 0 || targets == null || mappedRecords <= 0) {
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasDefaultImage() {
+		return true;
+	}
+
+	@Override
+	public void makeReport(HTMLReportArchive report) throws XMLStreamException, IOException {
+		super.writeTable(report, new ResultsTable());
+		super.writeDefaultImage(report, "target_coverage.png", "Target Coverage", 800, 600);
+
+		StringBuffer sb = report.dataDocument();
+		sb.append("#Chromosome\tStart\tEnd\tReads\tMean_coverage\n");
+		for (int i=0; i<targetBases.length; i++) {
+			sb.append(targets.chromosome(i));
+			sb.append("\t");
+			sb.append(targets.start(i));
+			sb.append("\t");
+			sb.append(targets.end(i));
+			sb.append("\t");
+			sb.append(targetReads[i]);
+			sb.append("\t");
+			sb.append(String.format("%.2f", getMeanCoverage(i)));
+			sb.append("\n");
+		}
+	}
+
+	@Override
+	public void exportResults(ResultsWriter results) throws IOException {
+		String [] chromosomes = new String[targetBases.length];
+		int [] starts = new int[targetBases.length];
+		int [] ends = new int[targetBases.length];
+		for (int i=0; i<targetBases.length; i++) {
+			chromosomes[i] = targets.chromosome(i);
+			starts[i] = targets.start(i);
+			ends[i] = targets.end(i);
+		}
+		results.value("mapped_records", mappedRecords);
+		results.value("on_target_records", onTargetRecords);
+		results.value("on_target_rate", getOnTargetRate());
+		results.startGroup("targets");
+		results.array("chromosome", chromosomes);
+		results.array("start", starts);
+		results.array("end", ends);
+		results.array("reads", targetReads);
+		results.array("bases", targetBases);
+		results.endGroup();
+	}
+
+
+	/**
+	 * The table containing the summary of the target coverage.
+	 */
+	private class ResultsTable extends AbstractTableModel {
+		private static final long serialVersionUID = 2817485384325947206L;
+
+		private ArrayList<String> rowNames = new ArrayList<String>();
+		private ArrayList<String> rowValues = new ArrayList<String>();
+
+		public ResultsTable() {
+			super();
+			rowNames.add("Targets");
+			rowValues.add("" + targets.size());
+			rowNames.add("Target bases");
+			rowValues.add("" + targets.totalLength());
+			rowNames.add("Mapped records");
+			rowValues.add("" + mappedRecords);
+			rowNames.add("On target records");
+			rowValues.add("" + onTargetRecords);
+			rowNames.add("Percent on target");
+			rowValues.add(String.format("%6.3f", getOnTargetRate()));
+			rowNames.add("Mean target coverage");
+			rowValues.add(String.format("%.2f", getMeanTargetCoverage()));
+			rowNames.add("Percent targets >= 1x");
+			rowValues.add(String.format("%6.3f", getPercentTargetsAtLeast(1)));
+			rowNames.add("Percent targets >= 10x");
+			rowValues.add(String.format("%6.3f", getPercentTargetsAtLeast(10)));
+			rowNames.add("Percent targets >= 30x");
+			rowValues.add(String.format("%6.3f", getPercentTargetsAtLeast(30)));
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 2;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rowNames.size();
+		}
+
+		@Override
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			if(columnIndex == 0)
+				return rowNames.get(rowIndex);
+			else if(columnIndex == 1)
+				return rowValues.get(rowIndex);
+			else
+				return null;
+		}
+
+		@Override
+		public String getColumnName (int columnIndex) {
+			switch (columnIndex) {
+				case 0: return "Measure";
+				case 1: return "Value";
+			}
+			return null;
+		}
+
+		@Override
+		public Class<?> getColumnClass (int columnIndex) {
+			return String.class;
+		}
+
+		@Override
+	    public boolean isCellEditable(int row, int column) {
+	       return false;
+	    }
+	}
+
+}
@@ -24,6 +24,7 @@
 package uk.ac.babraham.BamQC.Modules;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.List;
 
@@ -39,6 +40,7 @@ import uk.ac.babraham.BamQC.Sequence.SequenceFile;
 import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMD;
 import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMDElement;
 import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMDGenerator;
+import uk.ac.babraham.BamQC.Utilities.DistributionChange;
 import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMDOperator;
 
 
@@ -47,7 +49,9 @@ import uk.ac.babraham.BamQC.Utilities.CigarMD.CigarMDOperator;
  * This module is used for computing the statistics for all the variant calls.
  * @author Piero Dalle Pezze
  */
-public class VariantCallDetection extends AbstractQCModule {
+public class VariantCallDetection extends AbstractQCModule implements ConvergentModule, MergeableModule {
+
+	private static final long serialVersionUID = -1721259950030422213L;
 
 	// logger
 	private static Logger log = Logger.getLogger(VariantCallDetection.class);
@@ -65,6 +69,9 @@ public class VariantCallDetection extends AbstractQCModule {
 
 	private boolean totalsComputed = false;
 	
+	// the SNP and indel rates at the previous convergence check
+	private double [] previousRates = null;
+	
 	private long totalMutations = 0;	
 	private long totalInsertions = 0;
 	private long totalDeletions = 0;	
@@ -114,10 +121,10 @@ public class VariantCallDetection extends AbstractQCModule {
     private int cigarMDElementsSize = 0;
     
 	// Used for computing the statistics 
-	private CigarMDGenerator cigarMDGenerator = new CigarMDGenerator();
+	private transient CigarMDGenerator cigarMDGenerator = new CigarMDGenerator();
 
-	private CigarMD cigarMD = new CigarMD();
-	private CigarMDElement currentCigarMDElement = null;
+	private transient CigarMD cigarMD = new CigarMD();
+	private transient CigarMDElement currentCigarMDElement = null;
 	
 	
 	private boolean existPairedReads = false;
@@ -212,6 +219,75 @@ public class VariantCallDetection extends AbstractQCModule {
 
 	}
 	
+	/**
+	 * The SNP and indel rates are compared with those of the previous call. 
+	 * The totals are computed without setting them, as more reads will follow. 
+	 */
+	@Override
+	public double distributionChange() {
+		long mutations = 0, indels = 0;
+		for(int i=0; i< firstSNPPos.length; i++) {
+			mutations = mutations + firstSNPPos[i] + secondSNPPos[i];
+			indels = indels + firstInsertionPos[i] + secondInsertionPos[i] + firstDeletionPos[i] + secondDeletionPos[i];
+		}
+		double bases = Math.max(1, totalMatches + mutations + indels);
+		double [] rates = new double[]{mutations / bases, indels / bases};
+		double change = 1d;
+		if (previousRates != null) {
+			change = Math.max(DistributionChange.relativeChange(previousRates[0], rates[0]), 
+							  DistributionChange.relativeChange(previousRates[1], rates[1]));
+		}
+		previousRates = rates;
+		return change;
+	}
+	
+	@Override
+	public void merge(QCModule other) {
+		VariantCallDetection vcd = (VariantCallDetection)other;
+		addCounts(firstSNPs, vcd.firstSNPs);
+		addCounts(secondSNPs, vcd.secondSNPs);
+		totalMatches += vcd.totalMatches;
+		totalSkippedRegions += vcd.totalSkippedRegions;
+		totalSoftClips += vcd.totalSoftClips;
+		totalHardClips += vcd.totalHardClips;
+		totalPaddings += vcd.totalPaddings;
+		readUnknownBases += vcd.readUnknownBases;
+		referenceUnknownBases += vcd.referenceUnknownBases;
+		skippedReads += vcd.skippedReads;
+		readWithoutMDString += vcd.readWithoutMDString;
+		readWithoutCigarString += vcd.readWithoutCigarString;
+		inconsistentCigarMDStrings += vcd.inconsistentCigarMDStrings;
+		totalReads += vcd.totalReads;
+		splicedReads += vcd.splicedReads;
+		
+		extendDensityArrays(vcd.totalPos.length);
+		for(int i=0; i<vcd.totalPos.length; i++) {
+			firstSNPPos[i] += vcd.firstSNPPos[i];
+			firstInsertionPos[i] += vcd.firstInsertionPos[i];
+			firstDeletionPos[i] += vcd.firstDeletionPos[i];
+			secondSNPPos[i] += vcd.secondSNPPos[i];
+			secondInsertionPos[i] += vcd.secondInsertionPos[i];
+			secondDeletionPos[i] += vcd.secondDeletionPos[i];
+			matchPos[i] += vcd.matchPos[i];
+		}
+		for(Integer length : vcd.contributingReadsPerPos.keySet()) {
+			Long count = contributingReadsPerPos.get(length);
+			contributingReadsPerPos.put(length, (count == null ? 0L : count) + vcd.contributingReadsPerPos.get(length));
+		}
+		existPairedReads = existPairedReads || vcd.existPairedReads;
+		
+		// the totals are computed again from the merged arrays
+		totalsComputed = false;
+		previousRates = null;
+	}
+	
+	private static void addCounts(HashMap<String, Long> counts, HashMap<String, Long> otherCounts) {
+		for(String key : otherCounts.keySet()) {
+			Long count = counts.get(key);
+			counts.put(key, (count == null ? 0L : count) + otherCounts.get(key));
+		}
+	}
+	
 	
 	// @Override methods
 	@Override
@@ -308,7 +384,9 @@ public class VariantCallDetection extends AbstractQCModule {
 	}
 	
 	@Override	
-	public void processFile(SequenceFile file) {}
+	public void processFile(SequenceFile file) {
+		cigarMDGenerator = new CigarMDGenerator(file.logLimiter());
+	}
 	
 	@Override	
 	public void processAnnotationSet(AnnotationSet annotation) { }	
@@ -374,6 +452,7 @@ public class VariantCallDetection extends AbstractQCModule {
 		
 		totalDeletions = 0;
 		totalMatches = 0;
+		previousRates = null;
 		totalSkippedRegions = 0;
 		totalSoftClips = 0;
 		totalHardClips = 0;
@@ -401,6 +480,13 @@ public class VariantCallDetection extends AbstractQCModule {
 	    readLength = 0;
 		cigarMD = new CigarMD();
 	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// the work objects of a read are not saved
+		cigarMDGenerator = new CigarMDGenerator();
+		cigarMD = new CigarMD();
+	}
 
 	@Override	
 	public boolean raisesError() {
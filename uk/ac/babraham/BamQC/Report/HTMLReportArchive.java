@@ -23,45 +23,50 @@
  */
 package uk.ac.babraham.BamQC.Report;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
-import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Templates;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
 
 import uk.ac.babraham.BamQC.BamQCApplication;
 import uk.ac.babraham.BamQC.BamQCConfig;
 import uk.ac.babraham.BamQC.BamQCException;
+import uk.ac.babraham.BamQC.Analysis.ModuleProfiler;
+import uk.ac.babraham.BamQC.Modules.AbstractQCModule;
+import uk.ac.babraham.BamQC.Modules.ExportableModule;
 import uk.ac.babraham.BamQC.Modules.QCModule;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
-import uk.ac.babraham.BamQC.Utilities.ImageToBase64;
+import uk.ac.babraham.BamQC.Utilities.FlightRecorderEvent;
 
 
 /**
@@ -74,13 +79,25 @@ public class HTMLReportArchive {
 	private static Logger log = Logger.getLogger(HTMLReportArchive.class);
 	
 	private XMLStreamWriter xhtml=null;
+	// The text report of the current module, which is then added to dataFile
 	private StringBuffer data = new StringBuffer();
+	private File dataFile;
+	private Writer dataWriter;
+	// The typed results of the modules, written as JSON
+	private File resultsFile;
+	private Writer resultsWriter;
+	private JSONResultsWriter results;
 	private QCModule [] modules;
 	private ZipOutputStream zip;
 	private SequenceFile sequenceFile;
 	private byte [] buffer = new byte[1024];
+	// The module images rendered in advance, as PNG
+	private Map<QCModule, Future<byte[]>> renderedImages = new HashMap<QCModule, Future<byte[]>>();
+	private ExecutorService renderPool = null;
 	private File htmlFile;
 	private File zipFile;
+	// Only the summary and the text and JSON results are written
+	private boolean dataOnly = BamQCConfig.getInstance().data_only;
 
 	public HTMLReportArchive (SequenceFile sequenceFile, QCModule [] modules, File htmlFile) throws BamQCException, IOException, XMLStreamException {
 		if(modules == null) {
@@ -90,16 +107,62 @@ public class HTMLReportArchive {
 		this.modules = modules;
 		this.htmlFile = htmlFile;
 		this.zipFile = new File(htmlFile.getAbsoluteFile().toString().replaceAll("\\.html$", "")+".zip");
-		StringWriter htmlStr = new StringWriter();
+		
+		// The HTML is written straight to the html file and the text report to a temporary 
+		// file, as the zip receives the images while they are written. Both are then copied 
+		// into the zip. Without the html report, the modules still write their tables 
+		// but the html is discarded.
+		Writer htmlWriter = dataOnly ? new NullWriter() : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(htmlFile), "UTF-8"));
 		XMLOutputFactory xmlfactory = XMLOutputFactory.newInstance();
-		this.xhtml= xmlfactory.createXMLStreamWriter(htmlStr);
+		this.xhtml= xmlfactory.createXMLStreamWriter(htmlWriter);
+		dataFile = File.createTempFile("bamqc_data", ".txt");
+		dataFile.deleteOnExit();
+		dataWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dataFile), "UTF-8"));
+		resultsFile = File.createTempFile("bamqc_data", ".json");
+		resultsFile.deleteOnExit();
+		resultsWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8"));
 		
+		try {
+			zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+			writeArchive();
+			xhtml.close();
+			htmlWriter.close();
+			dataWriter.close();
+			resultsWriter.close();
+			if (!dataOnly) writeZipEntry("bamqc_report.html", htmlFile);
+			writeZipEntry("bamqc_data.txt", dataFile);
+			writeZipEntry("bamqc_data.json", resultsFile);
+			if (!dataOnly) writeFo();
+			
+			Object event = FlightRecorderEvent.ZIP_WRITE.begin();
+			zip.close();
+			FlightRecorderEvent.commit(event, sequenceFile.name(), zipFile.getName(), 0, zipFile.length());
+		}
+		finally {
+			htmlWriter.close();
+			dataWriter.close();
+			resultsWriter.close();
+			dataFile.delete();
+			resultsFile.delete();
+			if (zip != null) zip.close();
+			if (renderPool != null) renderPool.shutdownNow();
+		}
 		
-		zip = new ZipOutputStream(new FileOutputStream(zipFile));
+		if (BamQCConfig.getInstance().do_unzip) {
+			unzipZipFile(zipFile);
+		}
+	}
+	
+	private void writeArchive () throws IOException, XMLStreamException {
 		zip.putNextEntry(new ZipEntry(folderName()+"/"));
-		zip.putNextEntry(new ZipEntry(folderName()+"/Icons/"));
-		zip.putNextEntry(new ZipEntry(folderName()+"/Images/"));
+		if (!dataOnly) {
+			zip.putNextEntry(new ZipEntry(folderName()+"/Icons/"));
+			zip.putNextEntry(new ZipEntry(folderName()+"/Images/"));
+		}
 		startDocument();
+		flushDataDocument();
+		if (!dataOnly) renderImages();
+		ModuleProfiler profiler = ModuleProfiler.getProfiler(sequenceFile);
 		for (int m=0;m<modules.length;m++) {
 			
 			if (modules[m].ignoreInReport()) continue;
@@ -135,73 +198,172 @@ public class HTMLReportArchive {
 			data.append(">>");
 			data.append(modules[m].name());
 			data.append("\t");
-			if (modules[m].raisesError()) {
-				data.append("fail");
-			}
-			else if (modules[m].raisesWarning()) {
-				data.append("warn");
+			data.append(status(modules[m]));
+			data.append("\n");
+			xhtml.writeEndElement();
+			// a module is never used by two threads at once
+			waitForImage(modules[m]);
+			Object event = FlightRecorderEvent.REPORT_RENDER.begin();
+			if (profiler != null) {
+				profiler.makeReport(m, this);
 			}
 			else {
-				data.append("pass");
+				modules[m].makeReport(this);
 			}
-			data.append("\n");
-			xhtml.writeEndElement();
-			modules[m].makeReport(this);
+			FlightRecorderEvent.commit(event, sequenceFile.name(), modules[m].name(), 0, 0);
 			data.append(">>END_MODULE\n");
+			flushDataDocument();
+			exportResults(modules[m]);
 			
 			xhtml.writeEndElement();
 		}
+		if (profiler != null) {
+			profiler.writeReport(this);
+			flushDataDocument();
+		}
 		closeDocument();
-		
-		zip.putNextEntry(new ZipEntry(folderName()+"/bamqc_report.html"));
 		xhtml.flush();
-		xhtml.close();
-		zip.write(htmlStr.toString().getBytes());
-		zip.closeEntry();
-		zip.putNextEntry(new ZipEntry(folderName()+"/bamqc_data.txt"));
-		zip.write(data.toString().getBytes());
-		zip.closeEntry();
-		
-		//XSL-FO
+		results.close();
+	}
+	
+	private static String status (QCModule module) {
+		if (module.raisesError()) {
+			return "fail";
+		}
+		else if (module.raisesWarning()) {
+			return "warn";
+		}
+		return "pass";
+	}
+	
+	/**
+	 * Adds the status and, if the module can export them, the results of a module 
+	 * to the JSON results.
+	 */
+	private void exportResults (QCModule module) throws IOException {
+		results.startGroup(module.name());
+		results.value("status", status(module));
+		if (module instanceof ExportableModule) {
+			((ExportableModule)module).exportResults(results);
+		}
+		results.endGroup();
+	}
+	
+	/**
+	 * Starts rendering the images of the modules on a pool of threads, so that they are 
+	 * ready when the modules write their report. This is done after the summary, which 
+	 * computes the results the modules share.
+	 */
+	private void renderImages () {
+		ArrayList<AbstractQCModule> imageModules = new ArrayList<AbstractQCModule>();
+		for (int m=0;m<modules.length;m++) {
+			if (modules[m] instanceof AbstractQCModule && ((AbstractQCModule)modules[m]).hasDefaultImage() && !modules[m].ignoreInReport()) {
+				imageModules.add((AbstractQCModule)modules[m]);
+			}
+		}
+		if (imageModules.isEmpty()) return;
+		
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), imageModules.size());
+		renderPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BamQC report images");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (final AbstractQCModule module : imageModules) {
+			renderedImages.put(module, renderPool.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					return module.renderDefaultImage(AbstractQCModule.DEFAULT_IMAGE_WIDTH, AbstractQCModule.DEFAULT_IMAGE_HEIGHT);
+				}
+			}));
+		}
+		renderPool.shutdown();
+	}
+	
+	private void waitForImage (QCModule module) {
+		Future<byte[]> image = renderedImages.get(module);
+		if (image == null) return;
 		try {
-			DocumentBuilderFactory domFactory=DocumentBuilderFactory.newInstance();
-			domFactory.setNamespaceAware(false);
-			DocumentBuilder builder=domFactory.newDocumentBuilder();
-			Document src=builder.parse(new InputSource( new StringReader(htmlStr.toString())));
-			InputStream rsrc=getClass().getResourceAsStream("/Templates/bamqc2fo.xsl");
-			if(rsrc!=null)
+			image.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			log.error("Failed to render the image of "+module.name(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the image of a module rendered in advance, or null if the module 
+	 * has to render it itself.
+	 * @param module the module
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @return the image in PNG, or null
+	 */
+	public byte[] renderedImage (QCModule module, int width, int height) {
+		Future<byte[]> image = renderedImages.remove(module);
+		if (image == null || width != AbstractQCModule.DEFAULT_IMAGE_WIDTH || height != AbstractQCModule.DEFAULT_IMAGE_HEIGHT) {
+			return null;
+		}
+		try {
+			return image.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Moves the text report written so far to the data file, so that only the 
+	 * report of one module is held in memory.
+	 */
+	private void flushDataDocument () throws IOException {
+		dataWriter.write(data.toString());
+		data.setLength(0);
+	}
+	
+	/**
+	 * Adds the XSL-FO version of the report, transformed from the html file.
+	 */
+	private void writeFo () {
+		try {
+			Templates templates=ReportTemplates.foTemplates();
+			if(templates!=null)
 				{
-				domFactory.setNamespaceAware(true);
-				builder=domFactory.newDocumentBuilder();
-				Document html2fo=builder.parse(rsrc);
-				rsrc.close();
-				
-				TransformerFactory tf=TransformerFactory.newInstance();
-				Templates templates=tf.newTemplates(new DOMSource(html2fo));
 				zip.putNextEntry(new ZipEntry(folderName()+"/bamqc.fo"));
-				templates.newTransformer().transform(new DOMSource(src), new StreamResult(zip));
+				templates.newTransformer().transform(new StreamSource(htmlFile), new StreamResult(zip));
 				zip.closeEntry();
 				}
 			}
 		catch (Exception e) {
 			log.error(e, e);
 		}
-		
-		
-		zip.close();
-		
-		// Save the HTML file at the same level as the zip file
-		
-		PrintWriter pr = new PrintWriter(new FileWriter(htmlFile));
-		
-		pr.print(htmlStr.toString());
-		
-		pr.close();
-
-		
-		if (BamQCConfig.getInstance().do_unzip) {
-			unzipZipFile(zipFile);
+	}
+	
+	private void writeZipEntry (String name, File content) throws IOException {
+		Object event = FlightRecorderEvent.ZIP_WRITE.begin();
+		zip.putNextEntry(new ZipEntry(folderName()+"/"+name));
+		InputStream in = new FileInputStream(content);
+		try {
+			int len;
+			while ((len = in.read(buffer)) > 0) { 
+				zip.write(buffer, 0, len); 
+			}
+		}
+		finally {
+			in.close();
 		}
+		zip.closeEntry();
+		FlightRecorderEvent.commit(event, sequenceFile.name(), name, 1, content.length());
 	}
 	
 	private void unzipZipFile (File file) throws IOException {
@@ -242,6 +404,14 @@ public class HTMLReportArchive {
 		}
 	}
 
+	/**
+	 * Returns true if only the text and JSON results are written, in which case 
+	 * the modules should not draw their graphs.
+	 */
+	public boolean isDataOnly () {
+		return dataOnly;
+	}
+	
 	public XMLStreamWriter xhtmlStream ()
 		{
 		return this.xhtml;
@@ -267,21 +437,23 @@ public class HTMLReportArchive {
 		data.append(BamQCApplication.VERSION);
 		data.append("\n");
 		
+		results = new JSONResultsWriter(resultsWriter);
+		results.value("bamqc_version", BamQCApplication.VERSION);
+		results.value("file_name", sequenceFile.name());
+		results.startGroup("modules");
+		
 		// Add in the icon files for pass/fail/warn
-		for(String icnName:new String[]{
+		String [] iconNames = dataOnly ? new String[0] : new String[]{
 				"bamqc_icon.png",
 				"warning.png",
 				"error.png",
-				"tick.png"})
+				"tick.png"};
+		for(String icnName:iconNames)
 			{
-			InputStream in =getClass().getResourceAsStream("/Templates/Icons/"+icnName);
-			if(in==null) continue;
+			byte [] icon = ReportTemplates.resource("Icons/"+icnName);
+			if(icon==null) continue;
 			zip.putNextEntry(new ZipEntry(folderName()+"/Icons/"+icnName));
-			int len;
-			while ((len = in.read(buffer)) > 0) { 
-				zip.write(buffer, 0, len); 
-			} 
-			in.close();
+			zip.write(icon);
 			zip.closeEntry();
 			}
 				
@@ -297,16 +469,12 @@ public class HTMLReportArchive {
 		xhtml.writeCharacters(" BamQC Report");
 		xhtml.writeEndElement();//title
 		
-		InputStream rsrc=getClass().getResourceAsStream("/Templates/header_template.html");
-		if(rsrc!=null)
+		String style=ReportTemplates.headerStyle();
+		if(style!=null)
 			{
 			xhtml.writeStartElement("style");
 			xhtml.writeAttribute("type", "text/css");
-
-			byte array[]=new byte[128];
-			int nRead;
-			while((nRead=rsrc.read(array))!=-1) { xhtml.writeCharacters(new String(array,0,nRead));}
-			rsrc.close();
+			xhtml.writeCharacters(style);
 			xhtml.writeEndElement();//style
 			}		
 
@@ -334,6 +502,10 @@ public class HTMLReportArchive {
 		xhtml.writeCharacters(df.format(new Date()));
 		xhtml.writeEmptyElement("br");
 		xhtml.writeCharacters(sequenceFile.name());
+		if (sequenceFile.samplingDescription() != null) {
+			xhtml.writeEmptyElement("br");
+			xhtml.writeCharacters("Sampled: "+sequenceFile.samplingDescription());
+		}
 		xhtml.writeEndElement();//div
 		xhtml.writeEndElement();//div
 		
@@ -399,9 +571,9 @@ public class HTMLReportArchive {
 	}
 	
 	private String base64ForIcon (String path) {
+		if (dataOnly) return "";
 		try {
-			BufferedImage b = ImageIO.read(ClassLoader.getSystemResource("Templates/"+path));
-			return (ImageToBase64.imageToBase64(b));
+			return ReportTemplates.iconDataUri(path);
 		}
 		catch (IOException ioe) {
 			log.error(ioe, ioe);
@@ -425,6 +597,20 @@ public class HTMLReportArchive {
 		xhtml.writeEndElement();//html
 	}
 	
+	/**
+	 * Discards the html when only the results are written.
+	 */
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) { }
+		
+		@Override
+		public void flush() { }
+		
+		@Override
+		public void close() { }
+	}
+	
 	
 	
 	
@@ -0,0 +1,214 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Writes the results as a JSON document. The document is a JSON object, each 
+ * group is a nested object and each array a JSON array. Numbers which JSON 
+ * cannot represent (NaN and infinities) are written as null.
+ */
+public class JSONResultsWriter implements ResultsWriter {
+
+	private Writer out;
+
+	// for each open object, whether it already has a member
+	private ArrayList<Boolean> hasMembers = new ArrayList<Boolean>();
+
+	/**
+	 * Starts the document.
+	 * @param out the writer receiving the document, which is not closed
+	 */
+	public JSONResultsWriter(Writer out) throws IOException {
+		this.out = out;
+		out.write("{");
+		hasMembers.add(Boolean.FALSE);
+	}
+
+	/**
+	 * Ends the document. The groups which are still open are closed.
+	 */
+	public void close() throws IOException {
+		while (!hasMembers.isEmpty()) {
+			endGroup();
+		}
+		out.write("\n");
+		out.flush();
+	}
+
+	private void name(String name) throws IOException {
+		int last = hasMembers.size()-1;
+		if (last < 0) throw new IllegalStateException("The document is closed");
+		if (hasMembers.get(last)) out.write(",");
+		hasMembers.set(last, Boolean.TRUE);
+		out.write("\n");
+		for (int i=0; i<hasMembers.size(); i++) out.write("  ");
+		string(name);
+		out.write(": ");
+	}
+
+	private void string(String value) throws IOException {
+		if (value == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': out.write("\\\""); break;
+			case '\\': out.write("\\\\"); break;
+			case '\n': out.write("\\n"); break;
+			case '\r': out.write("\\r"); break;
+			case '\t': out.write("\\t"); break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int)c));
+				}
+				else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+
+	private void number(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.write("null");
+		}
+		else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.write(Long.toString((long)value));
+		}
+		else {
+			out.write(Double.toString(value));
+		}
+	}
+
+	@Override
+	public void value(String name, long value) throws IOException {
+		name(name);
+		out.write(Long.toString(value));
+	}
+
+	@Override
+	public void value(String name, double value) throws IOException {
+		name(name);
+		number(value);
+	}
+
+	@Override
+	public void value(String name, boolean value) throws IOException {
+		name(name);
+		out.write(value ? "true" : "false");
+	}
+
+	@Override
+	public void value(String name, String value) throws IOException {
+		name(name);
+		string(value);
+	}
+
+	@Override
+	public void array(String name, int [] values) throws IOException {
+		name(name);
+		if (values == null) {
+			out.write("null");
+			return;
+		}
+		out.write("[");
+		for (int i=0; i<values.length; i++) {
+			if (i > 0) out.write(",");
+			out.write(Integer.toString(values[i]));
+		}
+		out.write("]");
+	}
+
+	@Override
+	public void array(String name, long [] values) throws IOException {
+		name(name);
+		if (values == null) {
+			out.write("null");
+			return;
+		}
+		out.write("[");
+		for (int i=0; i<values.length; i++) {
+			if (i > 0) out.write(",");
+			out.write(Long.toString(values[i]));
+		}
+		out.write("]");
+	}
+
+	@Override
+	public void array(String name, double [] values) throws IOException {
+		name(name);
+		if (values == null) {
+			out.write("null");
+			return;
+		}
+		out.write("[");
+		for (int i=0; i<values.length; i++) {
+			if (i > 0) out.write(",");
+			number(values[i]);
+		}
+		out.write("]");
+	}
+
+	@Override
+	public void array(String name, String [] values) throws IOException {
+		name(name);
+		if (values == null) {
+			out.write("null");
+			return;
+		}
+		out.write("[");
+		for (int i=0; i<values.length; i++) {
+			if (i > 0) out.write(",");
+			string(values[i]);
+		}
+		out.write("]");
+	}
+
+	@Override
+	public void startGroup(String name) throws IOException {
+		name(name);
+		out.write("{");
+		hasMembers.add(Boolean.FALSE);
+	}
+
+	@Override
+	public void endGroup() throws IOException {
+		if (hasMembers.isEmpty()) throw new IllegalStateException("No group to end");
+		boolean members = hasMembers.remove(hasMembers.size()-1);
+		if (members) {
+			out.write("\n");
+			for (int i=0; i<hasMembers.size(); i++) out.write("  ");
+		}
+		out.write("}");
+	}
+
+}
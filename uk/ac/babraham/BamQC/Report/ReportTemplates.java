@@ -0,0 +1,133 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Report;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+
+import org.w3c.dom.Document;
+
+import uk.ac.babraham.BamQC.Utilities.ImageToBase64;
+
+/**
+ * The static assets of the reports: the icons, the style sheet of the html and 
+ * the XSL-FO transform. They are read and prepared once per process instead of 
+ * once per report, which matters when thousands of small files are analysed.
+ */
+public class ReportTemplates {
+
+	private static final byte [] MISSING = new byte[0];
+
+	private static ConcurrentHashMap<String, byte[]> resources = new ConcurrentHashMap<String, byte[]>();
+	private static ConcurrentHashMap<String, String> dataUris = new ConcurrentHashMap<String, String>();
+	private static Templates foTemplates = null;
+	private static boolean foTemplatesLoaded = false;
+
+	/**
+	 * Returns the content of a resource of the Templates folder.
+	 * @param path the path in the Templates folder, e.g. "Icons/tick.png"
+	 * @return the content, or null if the resource does not exist
+	 */
+	public static byte [] resource(String path) throws IOException {
+		byte [] content = resources.get(path);
+		if (content == null) {
+			content = MISSING;
+			InputStream in = ReportTemplates.class.getResourceAsStream("/Templates/"+path);
+			if (in != null) {
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte [] buffer = new byte[4096];
+					int len;
+					while ((len = in.read(buffer)) > 0) { 
+						out.write(buffer, 0, len); 
+					}
+					content = out.toByteArray();
+				}
+				finally {
+					in.close();
+				}
+			}
+			resources.put(path, content);
+		}
+		return content == MISSING ? null : content;
+	}
+
+	/**
+	 * Returns the data URI of a PNG icon of the Templates folder.
+	 * @param path the path in the Templates folder, e.g. "Icons/tick.png"
+	 */
+	public static String iconDataUri(String path) throws IOException {
+		String uri = dataUris.get(path);
+		if (uri == null) {
+			byte [] png = resource(path);
+			if (png == null) throw new IOException("Missing icon "+path);
+			uri = ImageToBase64.pngToBase64(png);
+			dataUris.put(path, uri);
+		}
+		return uri;
+	}
+
+	/**
+	 * Returns the style sheet added to the head of the html, or null if it is missing.
+	 */
+	public static String headerStyle() throws IOException {
+		byte [] style = resource("header_template.html");
+		return style == null ? null : new String(style);
+	}
+
+	/**
+	 * Returns the compiled transform from the html report to XSL-FO, or null 
+	 * if it is missing. Templates are thread safe, each report creates its own 
+	 * Transformer from them.
+	 */
+	public static synchronized Templates foTemplates() throws Exception {
+		if (!foTemplatesLoaded) {
+			InputStream rsrc=ReportTemplates.class.getResourceAsStream("/Templates/bamqc2fo.xsl");
+			if(rsrc!=null) {
+				try {
+					DocumentBuilderFactory domFactory=DocumentBuilderFactory.newInstance();
+					domFactory.setNamespaceAware(true);
+					DocumentBuilder builder=domFactory.newDocumentBuilder();
+					Document html2fo=builder.parse(rsrc);
+					TransformerFactory tf=TransformerFactory.newInstance();
+					foTemplates=tf.newTemplates(new DOMSource(html2fo));
+				}
+				finally {
+					rsrc.close();
+				}
+			}
+			foTemplatesLoaded = true;
+		}
+		return foTemplates;
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Report;
+
+import java.io.IOException;
+
+/**
+ * Receives the typed results of the modules. The results are named values and 
+ * arrays, which can be put in named groups. A group of arrays of the same length 
+ * is a table, stored by column.
+ */
+public interface ResultsWriter {
+
+	public void value(String name, long value) throws IOException;
+
+	public void value(String name, double value) throws IOException;
+
+	public void value(String name, boolean value) throws IOException;
+
+	public void value(String name, String value) throws IOException;
+
+	public void array(String name, int [] values) throws IOException;
+
+	public void array(String name, long [] values) throws IOException;
+
+	public void array(String name, double [] values) throws IOException;
+
+	public void array(String name, String [] values) throws IOException;
+
+	/**
+	 * Starts a group of values, which lasts until the matching endGroup().
+	 */
+	public void startGroup(String name) throws IOException;
+
+	public void endGroup() throws IOException;
+
+}
@@ -42,6 +42,7 @@ import uk.ac.babraham.BamQC.Analysis.AnalysisListener;
 import uk.ac.babraham.BamQC.DataTypes.ProgressListener;
 import uk.ac.babraham.BamQC.Modules.QCModule;
 import uk.ac.babraham.BamQC.Sequence.SequenceFile;
+import uk.ac.babraham.BamQC.Utilities.FormatNumber;
 
 /** 
  * 
@@ -161,12 +162,16 @@ public class ResultsPanel extends JPanel implements ListSelectionListener, Analy
 	}
 
 	@Override
-	public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {
-		if (percentComplete > 99) {
-			progressLabel.setText("Read "+sequencesProcessed+" sequences");			
+	public void analysisUpdated(SequenceFile file, long sequencesProcessed, int percentComplete, double recordsPerSecond, double megabytesPerSecond, long secondsRemaining) {
+		if (percentComplete < 0) {
+			progressLabel.setText("Read "+sequencesProcessed+" sequences ("+(long)recordsPerSecond+" sequences/s)");
+		}
+		else if (secondsRemaining < 0) {
+			progressLabel.setText("Read "+sequencesProcessed+" sequences ("+percentComplete+"%, "+(long)recordsPerSecond+" sequences/s)");
 		}
 		else {
-			progressLabel.setText("Read "+sequencesProcessed+" sequences ("+percentComplete+"%)");
+			progressLabel.setText("Read "+sequencesProcessed+" sequences ("+percentComplete+"%, "+(long)recordsPerSecond+" sequences/s, "+
+					FormatNumber.formatDuration(secondsRemaining)+" left)");
 		}
 	}
 
@@ -23,22 +23,41 @@
  */
 package uk.ac.babraham.BamQC.Sequence;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 
+import uk.ac.babraham.BamQC.BamQCConfig;
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Utilities.CountingInputStream;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileSpan;
 import net.sf.samtools.SAMFormatException;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMSequenceDictionary;
 import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.seekablestream.SeekableFileStream;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.itadaki.bzip2.BZip2InputStream;
 
 /**
  * 
@@ -53,13 +72,61 @@ public class BAMFile implements SequenceFile {
 	private boolean onlyMapped;
 	private SAMFileHeader header;
 	private long fileSize = 0;
-	private long recordSize = 0;
 	private AnnotationSet annotationSet = new AnnotationSet();
 	
+	// The target regions, if the analysis is restricted to them.
+	private TargetRegions targets = null;
+	private long mappedRecordCount = 0;
+	
+	// The maximum number of records to read (0 means no limit), and the number of records returned so far.
+	private long sampleRecords = 0;
+	private long returnedRecords = 0;
+	// How the records were sampled, or null if the whole file was read.
+	private String samplingDescription = null;
+	
+	// Whether getPosition() can be used to resume the reading later, and the number 
+	// of mapped records and the span in the file of the last record returned
+	private boolean resumable = false;
+	private long returnedMappedRecordCount = 0;
+	private SAMFileSpan returnedFilePointer = null;
+	
+	// The reference sequences read when the file is analysed in shards, or null
+	private SequenceFileShard shard = null;
+	private HashSet<String> shardReferences = null;
+	
+	// The reference from which the MD tags missing from the records are computed, or null
+	private ReferenceFasta reference = null;
+	
+	private LogLimiter logLimiter = new LogLimiter();
+	
+	// The size of the regions which are picked at random when sampling an indexed BAM file. 
+	// This is the size of a bin of the linear index, so each query starts from a single file offset.
+	private static final int SAMPLING_REGION_SIZE = 16384;
+	
+	// If the BAM file is indexed, only some regions are read using index queries. These are
+	// either the target regions, or the regions picked at random when sampling. They are
+	// in the order of the sequence dictionary.
+	private ArrayList<String> queryChromosomes = null;
+	private ArrayList<Integer> queryStarts = null;
+	private ArrayList<Integer> queryEnds = null;
+	private int currentQuery = -1;
+	
 	// We keep the file stream around just so we can see how far through
 	// the file we've got.  We don't read from this directly, but it's the
 	// only way to access the file pointer.
-	private FileInputStream fis;
+	// A Bam file is read block by block from a seekable stream, so its position 
+	// is the compressed offset of the BGZF block following the current one. 
+	// A Sam file is read through a buffer, so its position includes some read-ahead.
+	private SeekableFileStream bamStream = null;
+	private FileInputStream fis = null;
+	// A stream (stdin or a pipe) is read once from its start, and its size is not known.
+	private InputStream stream = null;
+	private CountingInputStream streamCounter = null;
+	
+	private static final byte [] BAM_MAGIC = "BAM\1".getBytes();
+	private static final byte [] CRAM_MAGIC = "CRAM".getBytes();
+	// Enough to read the first BGZF block, or the first line of a Sam file, before going back to the start.
+	private static final int MAGIC_READ_LIMIT = 131072;
 
 	private SAMFileReader br;
 	private String name;
@@ -67,23 +134,361 @@ public class BAMFile implements SequenceFile {
 	Iterator<SAMRecord> it;
 	
 	protected BAMFile (File file, boolean onlyMapped) throws SequenceFormatException, IOException {
+		this(file, onlyMapped, null);
+	}
+	
+	protected BAMFile (File file, boolean onlyMapped, TargetRegions targets) throws SequenceFormatException, IOException {
+		this(file, onlyMapped, targets, 0);
+	}
+	
+	/**
+	 * @param file the Sam/Bam file
+	 * @param onlyMapped true if the unmapped records should be skipped
+	 * @param targets the target regions to restrict the analysis to, or null
+	 * @param sampleRecords the approximate number of records to sample, or 0 to read the whole file
+	 */
+	protected BAMFile (File file, boolean onlyMapped, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		this(file, onlyMapped, targets, sampleRecords, false);
+	}
+	
+	/**
+	 * @param file the Sam/Bam file
+	 * @param onlyMapped true if the unmapped records should be skipped
+	 * @param targets the target regions to restrict the analysis to, or null
+	 * @param sampleRecords the approximate number of records to sample, or 0 to read the whole file
+	 * @param resumable true if the position of the records is needed to resume the reading later
+	 */
+	protected BAMFile (File file, boolean onlyMapped, TargetRegions targets, long sampleRecords, boolean resumable) throws SequenceFormatException, IOException {
 		this.file = file;
 		fileSize = file.length();
 		name = file.getName();
 		this.onlyMapped = onlyMapped;
+		this.targets = targets;
+		this.sampleRecords = sampleRecords;
+		this.resumable = resumable;
 
 		SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
 
-		fis = new FileInputStream(file);
+		if ((targets != null || sampleRecords > 0) && openIndexedFile()) {
+			readNext();
+			return;
+		}
 		
-		br = new SAMFileReader(fis);
+		if (this.sampleRecords > 0) {
+			samplingDescription = "First "+this.sampleRecords+" records of the "+(targets == null ? "file" : "target regions");
+		}
+
+		openFile();
+		readNext();
+	}
+	
+	/**
+	 * Reads a shard of the reference sequences of a file. An indexed Bam file is read through 
+	 * a query of each reference sequence, otherwise the whole file is read and the records of 
+	 * the other shards are skipped.
+	 * @param file the Sam/Bam file
+	 * @param targets the target regions to restrict the analysis to, or null
+	 * @param shard the shard, as i/n or as a comma separated list of reference sequences
+	 */
+	protected BAMFile (File file, TargetRegions targets, String shard) throws SequenceFormatException, IOException {
+		this.file = file;
+		fileSize = file.length();
+		name = file.getName();
+		this.targets = targets;
+
+		SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
 		
-		header = br.getFileHeader();
+		boolean indexed = false;
+		if (isBAMFile(file)) {
+			br = new SAMFileReader(file);
+			indexed = br.hasIndex();
+			if (!indexed) {
+				br.close();
+			}
+		}
+		if (indexed) {
+			header = br.getFileHeader();
+			it = null;
+		}
+		else {
+			openFile();
+		}
+		this.shard = SequenceFileShard.parse(shard, header.getSequenceDictionary());
+		shardReferences = this.shard.referenceSet();
+		log.info(name+": reading "+this.shard);
 		
-		it = br.iterator();
+		if (indexed) {
+			queryChromosomes = new ArrayList<String>(Arrays.asList(this.shard.getReferences()));
+		}
+		else {
+			log.info("No index found for "+name+". The whole file is read to find the records of the shard.");
+		}
 		readNext();
 	}
 	
+	/**
+	 * Opens the file to read it from its start.
+	 */
+	private void openFile() throws IOException {
+		if (isBAMFile(file)) {
+			bamStream = new SeekableFileStream(file);
+			br = new SAMFileReader(bamStream, (File)null, false);
+			// The virtual offset of each record is only kept when it may be needed
+			br.enableFileSource(resumable);
+			header = br.getFileHeader();
+			it = br.iterator();
+		}
+		else {
+			// A Sam file, which may be compressed
+			fis = new FileInputStream(file);
+			BufferedInputStream bis = new BufferedInputStream(fis, MAGIC_READ_LIMIT);
+			if (isGzipStream(bis)) {
+				log.debug(name+" is read as a gzipped Sam file");
+				openSAMText(new GZIPInputStream(bis, MAGIC_READ_LIMIT));
+			}
+			else if (isBzip2Stream(bis)) {
+				log.debug(name+" is read as a bzip2 compressed Sam file");
+				openSAMText(new BZip2InputStream(bis, false));
+			}
+			else {
+				openSAMText(bis);
+			}
+		}
+	}
+	
+	/**
+	 * Starts parsing the records of a Sam text stream on worker threads.
+	 */
+	private void openSAMText(InputStream in) throws IOException {
+		SAMTextParser parser = new SAMTextParser(in, name, BamQCConfig.getInstance().threads);
+		header = parser.getFileHeader();
+		it = parser;
+	}
+	
+	/**
+	 * Reads a Sam or Bam stream, such as stdin or a named pipe, from its start. The format 
+	 * is found from the first bytes of the stream. The stream cannot be indexed, so the 
+	 * target regions and the sampling only filter the records as they are read.
+	 * @param in the stream
+	 * @param file the file the stream comes from, which gives the name of the report
+	 * @param onlyMapped true if the unmapped records should be skipped
+	 * @param targets the target regions to restrict the analysis to, or null
+	 * @param sampleRecords the number of records to read, or 0 to read the whole stream
+	 */
+	protected BAMFile (InputStream in, File file, boolean onlyMapped, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		this.file = file;
+		fileSize = -1;
+		name = file.getName();
+		this.onlyMapped = onlyMapped;
+		this.targets = targets;
+		this.sampleRecords = sampleRecords;
+
+		SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+
+		if (sampleRecords > 0) {
+			samplingDescription = "First "+sampleRecords+" records of the "+(targets == null ? "file" : "target regions");
+		}
+		
+		streamCounter = new CountingInputStream(in);
+		BufferedInputStream bis = new BufferedInputStream(streamCounter, MAGIC_READ_LIMIT);
+		boolean bam = isBAMStream(bis);
+		if (bam) {
+			log.debug(name+" is read as a Bam stream");
+			stream = bis;
+		}
+		else if (isGzipStream(bis)) {
+			log.debug(name+" is read as a gzipped Sam stream");
+			stream = new BufferedInputStream(new GZIPInputStream(bis), MAGIC_READ_LIMIT);
+			checkSAMStream(stream);
+		}
+		else if (isBzip2Stream(bis)) {
+			log.debug(name+" is read as a bzip2 compressed Sam stream");
+			stream = new BufferedInputStream(new BZip2InputStream(bis, false), MAGIC_READ_LIMIT);
+			checkSAMStream(stream);
+		}
+		else {
+			log.debug(name+" is read as a Sam stream");
+			stream = bis;
+			checkSAMStream(stream);
+		}
+		
+		if (bam) {
+			br = new SAMFileReader(stream);
+			header = br.getFileHeader();
+			it = br.iterator();
+		}
+		else {
+			openSAMText(stream);
+		}
+		readNext();
+	}
+	
+	/**
+	 * Checks whether a file is a Bam file, that is a BGZF file starting with the Bam magic number.
+	 * A Sam file compressed with bgzip is not a Bam file.
+	 */
+	private static boolean isBAMFile(File file) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return isBAMStream(bis);
+		}
+		finally {
+			bis.close();
+		}
+	}
+	
+	/**
+	 * Checks whether a stream starts with a BGZF block containing the Bam magic number.
+	 * The stream is then reset to its start.
+	 */
+	private static boolean isBAMStream(BufferedInputStream bis) throws IOException {
+		if (!BlockCompressedInputStream.isValidFile(bis)) {
+			return false;
+		}
+		bis.mark(MAGIC_READ_LIMIT);
+		try {
+			byte [] magic = new byte[BAM_MAGIC.length];
+			new DataInputStream(new BlockCompressedInputStream(bis)).readFully(magic);
+			return Arrays.equals(magic, BAM_MAGIC);
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		finally {
+			bis.reset();
+		}
+	}
+	
+	private static boolean isGzipStream(BufferedInputStream bis) throws IOException {
+		bis.mark(2);
+		int b1 = bis.read();
+		int b2 = bis.read();
+		bis.reset();
+		return b1 == 0x1f && b2 == 0x8b;
+	}
+	
+	private static boolean isBzip2Stream(BufferedInputStream bis) throws IOException {
+		bis.mark(3);
+		int b1 = bis.read();
+		int b2 = bis.read();
+		int b3 = bis.read();
+		bis.reset();
+		return b1 == 'B' && b2 == 'Z' && b3 == 'h';
+	}
+	
+	/**
+	 * Checks that a stream starts like a Sam file, that is with a header line 
+	 * or a tab separated record. The stream is then reset to its start.
+	 */
+	private static void checkSAMStream(InputStream in) throws IOException, SequenceFormatException {
+		in.mark(MAGIC_READ_LIMIT);
+		byte [] start = new byte[1024];
+		int length = 0;
+		int n;
+		while (length < start.length && (n = in.read(start, length, start.length-length)) > 0) {
+			length += n;
+		}
+		in.reset();
+		
+		if (length == 0) {
+			throw new SequenceFormatException("The input is empty");
+		}
+		if (length >= CRAM_MAGIC.length && Arrays.equals(Arrays.copyOf(start, CRAM_MAGIC.length), CRAM_MAGIC)) {
+			throw new SequenceFormatException("Cram input can only be read from a file, which is decoded with samtools");
+		}
+		boolean tab = false;
+		for (int i=0; i<length && start[i] != '\n'; i++) {
+			if (start[i] == '\t') {
+				tab = true;
+			}
+			else if ((start[i] < 0x20 && start[i] != '\r') || start[i] > 0x7e) {
+				throw new SequenceFormatException("The input is neither a Sam nor a Bam file");
+			}
+		}
+		if (start[0] != '@' && !tab) {
+			throw new SequenceFormatException("The input is neither a Sam nor a Bam file");
+		}
+	}
+	
+	/**
+	 * Opens the file together with its index, if there is one, and prepares 
+	 * the queries of the target regions or of the sampled regions.
+	 * @return true if the file is an indexed BAM file
+	 */
+	private boolean openIndexedFile() {
+		br = new SAMFileReader(file);
+		if (!br.isBinary() || !br.hasIndex()) {
+			log.info("No index found for "+name+". The file will be read from the start.");
+			br.close();
+			return false;
+		}
+		header = br.getFileHeader();
+		
+		List<SAMSequenceRecord> sequences = header.getSequenceDictionary().getSequences();
+		for (int i=0; i<sequences.size(); i++) {
+			mappedRecordCount += br.getIndex().getMetaData(i).getAlignedRecordCount();
+		}
+		
+		queryChromosomes = new ArrayList<String>();
+		queryStarts = new ArrayList<Integer>();
+		queryEnds = new ArrayList<Integer>();
+		
+		if (targets != null) {
+			// The target regions are queried first, and the record budget if any is applied on top of them.
+			if (sampleRecords > 0) {
+				samplingDescription = "First "+sampleRecords+" records of the target regions";
+			}
+			
+			// Query the targets following the order of the sequence dictionary, so that 
+			// the records are returned in coordinate order.
+			for (int i=0; i<sequences.size(); i++) {
+				String sequenceName = sequences.get(i).getSequenceName();
+				int [] range = targets.targetRange(sequenceName);
+				if (range == null) continue;
+				for (int t=range[0]; t<range[1]; t++) {
+					queryChromosomes.add(sequenceName);
+					queryStarts.add(targets.start(t));
+					queryEnds.add(targets.end(t));
+				}
+			}
+			if (queryStarts.size() < targets.size()) {
+				log.warn((targets.size()-queryStarts.size())+" target regions are on sequences which are not in the header of "+name);
+			}
+		}
+		else if (mappedRecordCount > sampleRecords) {
+			// Each region of the genome is read with the probability needed to get the requested 
+			// number of mapped records on average. A record is only taken from the region where
+			// it starts, so that each record has the same probability of being sampled.
+			double fraction = sampleRecords / (double)mappedRecordCount;
+			// A fixed seed makes the sample reproducible
+			Random random = new Random(0);
+			for (int i=0; i<sequences.size(); i++) {
+				int length = sequences.get(i).getSequenceLength();
+				for (int start=1; start<=length; start+=SAMPLING_REGION_SIZE) {
+					if (random.nextDouble() < fraction) {
+						queryChromosomes.add(sequences.get(i).getSequenceName());
+						queryStarts.add(start);
+						queryEnds.add(Math.min(length, start+SAMPLING_REGION_SIZE-1));
+					}
+				}
+			}
+			samplingDescription = String.format("About %d records from %d random regions of %d bp (%.2f%% of the mapped records)", 
+					sampleRecords, queryStarts.size(), SAMPLING_REGION_SIZE, fraction*100);
+			// The number of records is only approximate, so don't cut the last regions.
+			sampleRecords = 0;
+		}
+		else {
+			// The file is smaller than the sample, so it is read as a whole.
+			br.close();
+			sampleRecords = 0;
+			mappedRecordCount = 0;
+			queryChromosomes = null;
+			return false;
+		}
+		it = null;
+		return true;
+	}
+	
 	@Override
 	public String name () {
 		return name;
@@ -116,14 +521,42 @@ public class BAMFile implements SequenceFile {
 	public int getPercentComplete() {
 		if (!hasNext()) return 100;
 		
+		int percent;
+		if (fileSize < 0) {
+			// The size of a stream is only known at its end
+			if (sampleRecords == 0) return -1;
+			percent = (int) (((double)returnedRecords / sampleRecords)*100);
+		}
+		else if (queryChromosomes != null) {
+			percent = (int) (((double)currentQuery / queryChromosomes.size())*100);
+		}
+		else {
+			percent = (int) (((double)getBytesRead() / fileSize)*100);
+			if (sampleRecords > 0) {
+				percent = Math.max(percent, (int) (((double)returnedRecords / sampleRecords)*100));
+			}
+		}
+		// We only reach 100% when the last record has been read
+		return Math.min(percent, 99);
+	}
+	
+	@Override
+	public long getBytesRead() {
+		if (streamCounter != null) return streamCounter.getCount();
+		if (!hasNext()) return fileSize;
 		try {
-			int percent = (int) (((double)fis.getChannel().position()/ fileSize)*100);
-			return percent;
-		} 
+			if (bamStream != null) {
+				return bamStream.position();
+			}
+			if (fis != null) {
+				return fis.getChannel().position();
+			}
+		}
 		catch (IOException e) {
 			log.error(e, e);
 		}
-		return 0;
+		// The file is read through index queries.
+		return -1;
 	}
 
 	@Override
@@ -136,28 +569,109 @@ public class BAMFile implements SequenceFile {
 		return nextSequence != null;
 	}
 
+	/**
+	 * Computes the MD tags missing from the records from a reference, instead 
+	 * of running samtools calmd over the file before analysing it.
+	 */
+	public void setReference(ReferenceFasta reference) {
+		this.reference = reference;
+	}
+	
 	@Override
 	public SAMRecord next () throws SequenceFormatException {
 		SAMRecord returnSeq = nextSequence;
-		readNext();
+		if (reference != null) {
+			reference.addMDTag(returnSeq, logLimiter);
+		}
+		returnedRecords++;
+		if (resumable) {
+			returnedMappedRecordCount = mappedRecordCount;
+			if (bamStream != null) {
+				returnedFilePointer = returnSeq.getFileSource().getFilePointer();
+			}
+		}
+		if (sampleRecords > 0 && returnedRecords >= sampleRecords) {
+			close();
+		}
+		else {
+			readNext();
+		}
 		return returnSeq;
 	}
 	
+	@Override
+	public void stopReading(String reason) {
+		if (!hasNext()) return;
+		close();
+		if (samplingDescription == null) {
+			samplingDescription = reason;
+		}
+		else {
+			samplingDescription = samplingDescription+". "+reason;
+		}
+	}
+	
+	private void close() {
+		nextSequence = null;
+		// The Sam parser has threads, which are stopped as well
+		if (it != null && it instanceof CloseableIterator) {
+			((CloseableIterator<?>)it).close();
+		}
+		it = null;
+		if (br != null) {
+			br.close();
+		}
+		try {
+			if (fis != null) {
+				fis.close();
+			}
+			if (bamStream != null) {
+				bamStream.close();
+			}
+			if (stream != null) {
+				stream.close();
+			}
+		}
+		catch (IOException ioe) {
+			log.error(ioe, ioe);
+		}
+	}
+	
+	/**
+	 * Closes the current query and starts the next one. 
+	 * @return false if all the targets have been read
+	 */
+	private boolean nextQuery() {
+		if (it != null) {
+			((CloseableIterator<?>)it).close();
+			it = null;
+		}
+		currentQuery++;
+		if (currentQuery >= queryChromosomes.size()) {
+			return false;
+		}
+		if (shard != null) {
+			// The whole reference sequence, or the records which are not placed on any
+			String chromosome = queryChromosomes.get(currentQuery);
+			it = chromosome.equals(SequenceFileShard.UNPLACED) ? br.queryUnmapped() : br.query(chromosome, 0, 0, false);
+			return true;
+		}
+		it = br.queryOverlapping(queryChromosomes.get(currentQuery), queryStarts.get(currentQuery), queryEnds.get(currentQuery));
+		return true;
+	}
+	
 	private void readNext() throws SequenceFormatException {
 		
 		SAMRecord record;
 		
 		while (true) {
 			
-			if (!it.hasNext()) {
-				nextSequence = null;
-				try {
-					br.close();
-					fis.close();
-				}
-				catch (IOException ioe) {
-					log.error(ioe, ioe);
-				}
+			if (queryChromosomes != null && (it == null || !it.hasNext())) {
+				if (nextQuery()) continue;
+			}
+			
+			if (it == null || !it.hasNext()) {
+				close();
 				return;
 			}
 		
@@ -172,21 +686,84 @@ public class BAMFile implements SequenceFile {
 			if (onlyMapped && record.getReadUnmappedFlag()) {
 				continue;
 			}
+			
+			// Without an index, the records of the other shards are skipped
+			if (shardReferences != null && queryChromosomes == null && !shardReferences.contains(record.getReferenceName())) {
+				continue;
+			}
+			
+			// The records of a shard are counted and filtered as when the whole file is read
+			if (queryChromosomes != null && shard == null) {
+				if (targets == null) {
+					// Sampled regions: only keep the records starting in the region.
+					if (record.getAlignmentStart() < queryStarts.get(currentQuery)) {
+						continue;
+					}
+				}
+				// A read overlapping several targets is returned by each of their queries.
+				// Keep it only for the first one. As the targets are merged and sorted, 
+				// this is the case if it starts after the end of the previous target.
+				else if (currentQuery > 0) {
+					if (queryChromosomes.get(currentQuery-1).equals(record.getReferenceName()) && 
+						record.getAlignmentStart() <= queryEnds.get(currentQuery-1)) {
+						continue;
+					}
+				}
+			}
+			else if (!record.getReadUnmappedFlag()) {
+				mappedRecordCount++;
+				if (targets != null && !targets.overlaps(record.getReferenceName(), record.getAlignmentStart(), record.getAlignmentEnd())) {
+					continue;
+				}
+			}
+			else if (targets != null) {
+				// unmapped reads are never on target
+				continue;
+			}
 			break;
 			
 		}
 		
-		if (recordSize == 0) {
-			recordSize = (record.getReadLength()*2)+150;
-			if (br.isBinary()) {
-				recordSize /= 4;
-			}
-		}
-
 		nextSequence = record;
 
 	}
 
+	@Override
+	public SequenceFilePosition getPosition() {
+		// The index queries and the streams cannot be resumed
+		if (!resumable || nextSequence == null || queryChromosomes != null || fileSize < 0 || returnedRecords == 0) {
+			return null;
+		}
+		// The reading goes on after the last record returned, so that the records 
+		// skipped since then are skipped and counted again
+		if (bamStream == null) {
+			return new SequenceFilePosition(returnedRecords, returnedMappedRecordCount, null);
+		}
+		return new SequenceFilePosition(returnedRecords, returnedMappedRecordCount, returnedFilePointer.getContentsFollowing());
+	}
+	
+	@Override
+	public void resume(SequenceFilePosition position) throws SequenceFormatException {
+		if (queryChromosomes != null || fileSize < 0 || (position.getNextRecord() != null) != (bamStream != null)) {
+			throw new SequenceFormatException("The reading of "+name+" cannot be resumed from "+position);
+		}
+		if (position.getNextRecord() == null) {
+			// A Sam file has no offsets, so the records already analysed are read again and dropped
+			while (returnedRecords < position.getReturnedRecords() && hasNext()) {
+				next();
+			}
+			return;
+		}
+		if (!hasNext()) {
+			throw new SequenceFormatException(name+" has no record to resume from");
+		}
+		((CloseableIterator<?>)it).close();
+		it = br.iterator(position.getNextRecord());
+		returnedRecords = position.getReturnedRecords();
+		mappedRecordCount = position.getMappedRecordCount();
+		readNext();
+	}
+
 	@Override
 	public File getFile() {
 		return file;
@@ -197,4 +774,40 @@ public class BAMFile implements SequenceFile {
 		return annotationSet;
 	}
 	
+	SAMFileHeader getHeader() {
+		return header;
+	}
+	
+	/**
+	 * Shares the limiter of the sample this file is a part of.
+	 */
+	void setLogLimiter(LogLimiter logLimiter) {
+		this.logLimiter = logLimiter;
+	}
+	
+	@Override
+	public TargetRegions targetRegions() {
+		return targets;
+	}
+
+	@Override
+	public long getMappedRecordCount() {
+		return mappedRecordCount;
+	}
+
+	@Override
+	public String samplingDescription() {
+		return samplingDescription;
+	}
+	
+	@Override
+	public SequenceFileShard getShard() {
+		return shard;
+	}
+	
+	@Override
+	public LogLimiter logLimiter() {
+		return logLimiter;
+	}
+	
 }
@@ -0,0 +1,303 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog: 
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import net.sf.samtools.SAMRecord;
+
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+
+/**
+ * A Cram file, which is decoded by samtools against its reference sequences 
+ * and read as the Bam stream written by samtools. The reference is the local 
+ * Fasta file given with bamqc.reference, whose .fai index is used by samtools 
+ * to fetch the slices it needs; it is opened as a ReferenceFasta before samtools 
+ * is started, so that a missing or unindexed reference fails straight away. 
+ * Without it samtools looks the reference up from the header of the Cram file. The MD and NM tags are computed by samtools 
+ * from the reference while decoding, so the mismatches reach the variant call 
+ * detection even though the Cram file does not store these tags.
+ * 
+ * As with other streams, the size of the decoded data is not known, so the 
+ * progress is reported in records.
+ */
+public class CRAMFile extends BAMFile {
+
+	private static Logger log = Logger.getLogger(CRAMFile.class);
+	
+	private static final byte [] CRAM_MAGIC = "CRAM".getBytes();
+	
+	private Process process;
+	private ErrorReader errors;
+	private String command;
+	private long sampleRecords;
+	// Whether the reading was stopped before the end of the decoded stream
+	private boolean stopped = false;
+	
+	private CRAMFile (Process process, ErrorReader errors, String command, File file, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		super(process.getInputStream(), file, false, targets, sampleRecords);
+		this.process = process;
+		this.errors = errors;
+		this.command = command;
+		this.sampleRecords = sampleRecords;
+	}
+	
+	/**
+	 * Starts decoding a Cram file with samtools.
+	 * @param file the Cram file
+	 * @param reference the reference to decode the Cram file against, or null 
+	 * to let samtools find it from the header of the Cram file
+	 * @param targets the target regions to restrict the analysis to, or null
+	 * @param sampleRecords the number of records to read, or 0 to read the whole file
+	 */
+	public static CRAMFile open (File file, ReferenceFasta reference, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		BamQCConfig config = BamQCConfig.getInstance();
+		
+		List<String> arguments = new ArrayList<String>();
+		arguments.add(config.samtools);
+		arguments.add("view");
+		// An uncompressed Bam stream is quicker to write and to parse than Sam text
+		arguments.add("-u");
+		// The default of samtools, but the MD tags are needed by the variant call detection
+		arguments.add("--input-fmt-option");
+		arguments.add("decode_md=1");
+		if (reference != null) {
+			arguments.add("-T");
+			arguments.add(reference.getFile().getAbsolutePath());
+		}
+		arguments.add(file.getAbsolutePath());
+		String command = join(arguments);
+		log.debug("Decoding "+file.getName()+" with: "+command);
+		
+		Process process;
+		try {
+			process = new ProcessBuilder(arguments).start();
+		}
+		catch (IOException e) {
+			throw new IOException("Cannot run "+config.samtools+" to decode the Cram file "+file.getName()+" (set its path with --samtools): "+e.getMessage());
+		}
+		process.getOutputStream().close();
+		ErrorReader errors = new ErrorReader(process.getErrorStream(), file.getName());
+		errors.start();
+		
+		CRAMFile cramFile;
+		try {
+			cramFile = new CRAMFile(process, errors, command, file, targets, sampleRecords);
+		}
+		catch (SequenceFormatException e) {
+			// Most likely nothing was decoded, so the error of samtools says more
+			throw new SequenceFormatException(decodingError(process, errors, command, e.getMessage()));
+		}
+		catch (RuntimeException e) {
+			throw failure(process, errors, command, e);
+		}
+		if (!cramFile.hasNext()) {
+			cramFile.finish();
+		}
+		return cramFile;
+	}
+	
+	/**
+	 * Checks whether a file starts with the Cram magic number.
+	 */
+	public static boolean isCRAMFile(File file) throws IOException {
+		if (file.getName().toLowerCase().endsWith(".cram")) {
+			return true;
+		}
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			byte [] magic = new byte[CRAM_MAGIC.length];
+			int length = 0;
+			int n;
+			while (length < magic.length && (n = fis.read(magic, length, magic.length-length)) > 0) {
+				length += n;
+			}
+			return length == magic.length && Arrays.equals(magic, CRAM_MAGIC);
+		}
+		finally {
+			fis.close();
+		}
+	}
+
+	@Override
+	public SAMRecord next () throws SequenceFormatException {
+		SAMRecord record;
+		try {
+			record = super.next();
+		}
+		catch (RuntimeException e) {
+			Process failed = process;
+			process = null;
+			throw failure(failed, errors, command, e);
+		}
+		if (!hasNext()) {
+			finish();
+		}
+		return record;
+	}
+	
+	@Override
+	public void stopReading(String reason) {
+		stopped = true;
+		super.stopReading(reason);
+		if (process != null) {
+			process.destroy();
+			process = null;
+		}
+	}
+	
+	/**
+	 * Waits for samtools to exit once the decoded stream has been read, so that 
+	 * a Cram file which could not be decoded to its end is not reported as complete.
+	 * If the reading was stopped early, samtools is stopped as well.
+	 */
+	private void finish() throws SequenceFormatException {
+		if (process == null) return;
+		Process finished = process;
+		process = null;
+		if (stopped || sampleRecords > 0) {
+			finished.destroy();
+			return;
+		}
+		String error = decodingError(finished, errors, command, null);
+		if (error != null) {
+			throw new SequenceFormatException(error);
+		}
+	}
+	
+	/**
+	 * Waits for samtools to exit.
+	 * @return the error reported by samtools, or the fallback message if samtools succeeded
+	 */
+	private static String decodingError(Process process, ErrorReader errors, String command, String fallback) {
+		try {
+			int status = process.waitFor();
+			errors.join();
+			if (status == 0) {
+				return fallback;
+			}
+			String message = "Decoding with '"+command+"' failed with status "+status;
+			if (errors.lastLine() != null) {
+				message = message+": "+errors.lastLine();
+			}
+			return message;
+		}
+		catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			return "Interrupted while decoding with '"+command+"'";
+		}
+	}
+	
+	/**
+	 * Explains why the decoded stream could not be read, which is usually because 
+	 * samtools stopped in the middle of it, for instance when the reference is missing.
+	 */
+	private static SequenceFormatException failure(Process process, ErrorReader errors, String command, RuntimeException e) {
+		log.debug(e, e);
+		if (process != null) {
+			try {
+				// The messages end when samtools exits
+				errors.join(1000);
+				process.exitValue();
+				return new SequenceFormatException(decodingError(process, errors, command, e.getMessage()));
+			}
+			catch (IllegalThreadStateException stillRunning) {
+				process.destroy();
+			}
+			catch (InterruptedException ie) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+		return new SequenceFormatException(e.getMessage());
+	}
+	
+	private static String join(List<String> arguments) {
+		StringBuffer sb = new StringBuffer();
+		for (String argument : arguments) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(argument);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Reads the messages of samtools, so that it does not block on a full pipe, 
+	 * and keeps the last one to explain a failure.
+	 */
+	private static class ErrorReader extends Thread {
+		
+		private InputStream in;
+		private String name;
+		private volatile String lastLine = null;
+		
+		public ErrorReader (InputStream in, String name) {
+			super("Cram decoder messages for "+name);
+			this.in = in;
+			this.name = name;
+			setDaemon(true);
+		}
+		
+		public String lastLine() {
+			return lastLine;
+		}
+		
+		@Override
+		public void run() {
+			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.trim().length() == 0) continue;
+					log.debug(name+": "+line);
+					lastLine = line.trim();
+				}
+			}
+			catch (IOException e) {
+				log.debug(e, e);
+			}
+			finally {
+				try {
+					br.close();
+				}
+				catch (IOException e) {
+					log.debug(e, e);
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog: 
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordCoordinateComparator;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+
+/**
+ * Several files of the same sample, such as the files of its lanes, which are 
+ * analysed as one. Each file is read by its own thread. If all the files are 
+ * sorted by coordinate, their records are merged in coordinate order, as 
+ * samtools merge would, so that the modules reading sorted records still see 
+ * them sorted. Otherwise the records of the files are returned in batches as 
+ * they are read.
+ * 
+ * The files must have the same reference sequences. They are read from their
+ * start to their end, so the reading cannot be resumed.
+ */
+public class MultiSequenceFile implements SequenceFile {
+
+	private static Logger log = Logger.getLogger(MultiSequenceFile.class);
+	
+	// The number of records handed from a reading thread at a time, and the batches waiting for each file
+	private static final int BATCH_SIZE = 1024;
+	private static final int QUEUED_BATCHES = 4;
+	
+	private File file;
+	private String name;
+	private BAMFile [] members;
+	private long [] memberSizes;
+	private TargetRegions targets;
+	private SAMFileHeader header;
+	private AnnotationSet annotationSet = new AnnotationSet();
+	private boolean coordinateOrder;
+	
+	private MemberReader [] readers;
+	// The batches of all the files, when they are not merged by coordinate
+	private BlockingQueue<Batch> sharedQueue = null;
+	private int readersLeft;
+	
+	// The batch being returned for each file when they are merged by coordinate, or the last batch taken
+	private Batch [] currentBatches;
+	private int [] currentRecords;
+	private Batch currentBatch = null;
+	private int currentRecord = 0;
+	private SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+	
+	private SAMRecord nextSequence = null;
+	private boolean stopped = false;
+	private String samplingDescription = null;
+	private LogLimiter logLimiter = new LogLimiter();
+	
+	/**
+	 * @param file the file named after the sample, which gives the name of the report
+	 * @param members the files of the sample, which have not been read yet
+	 */
+	protected MultiSequenceFile (File file, BAMFile [] members) throws SequenceFormatException {
+		this.file = file;
+		this.name = file.getName();
+		this.members = members;
+		targets = members[0].targetRegions();
+		header = members[0].getHeader();
+		
+		memberSizes = new long[members.length];
+		coordinateOrder = true;
+		for (int i=0; i<members.length; i++) {
+			memberSizes[i] = members[i].getFile().length();
+			members[i].setLogLimiter(logLimiter);
+			if (!sameReferences(header.getSequenceDictionary(), members[i].getHeader().getSequenceDictionary())) {
+				closeMembers();
+				throw new SequenceFormatException("The files of "+name+" do not have the same reference sequences: "+members[0].name()+" and "+members[i].name()+" differ");
+			}
+			if (members[i].getHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+				coordinateOrder = false;
+			}
+		}
+		log.info(name+": "+(coordinateOrder ? "merging the records of "+members.length+" files sorted by coordinate" : "reading the records of "+members.length+" files, which are not all sorted by coordinate, in no particular order"));
+		
+		readers = new MemberReader[members.length];
+		readersLeft = members.length;
+		if (coordinateOrder) {
+			currentBatches = new Batch[members.length];
+			currentRecords = new int[members.length];
+		}
+		else {
+			sharedQueue = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES * members.length);
+		}
+		for (int i=0; i<members.length; i++) {
+			readers[i] = new MemberReader(members[i], coordinateOrder ? new ArrayBlockingQueue<Batch>(QUEUED_BATCHES) : sharedQueue);
+			readers[i].start();
+		}
+		readNext();
+	}
+	
+	private static boolean sameReferences(SAMSequenceDictionary d1, SAMSequenceDictionary d2) {
+		List<SAMSequenceRecord> s1 = d1.getSequences();
+		List<SAMSequenceRecord> s2 = d2.getSequences();
+		if (s1.size() != s2.size()) return false;
+		for (int i=0; i<s1.size(); i++) {
+			if (!s1.get(i).getSequenceName().equals(s2.get(i).getSequenceName()) || s1.get(i).getSequenceLength() != s2.get(i).getSequenceLength()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Takes the next batch read by a thread.
+	 * @return the batch, which is empty at the end of the file
+	 */
+	private static Batch take(BlockingQueue<Batch> queue) throws SequenceFormatException {
+		Batch batch;
+		try {
+			batch = queue.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SequenceFormatException("Interrupted while reading the files");
+		}
+		if (batch.error != null) {
+			throw batch.error;
+		}
+		return batch;
+	}
+	
+	private void readNext() throws SequenceFormatException {
+		nextSequence = null;
+		if (stopped) return;
+		try {
+			if (coordinateOrder) {
+				nextSequence = nextInCoordinateOrder();
+			}
+			else {
+				while (currentBatch == null || currentRecord >= currentBatch.records.size()) {
+					if (readersLeft == 0) return;
+					currentBatch = take(sharedQueue);
+					currentRecord = 0;
+					if (currentBatch.records.isEmpty()) {
+						readersLeft--;
+					}
+				}
+				nextSequence = currentBatch.records.get(currentRecord++);
+			}
+		}
+		catch (SequenceFormatException e) {
+			stopMembers();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the first record of the heads of the files, the first file 
+	 * coming first when several records are at the same position.
+	 */
+	private SAMRecord nextInCoordinateOrder() throws SequenceFormatException {
+		int first = -1;
+		SAMRecord firstRecord = null;
+		for (int i=0; i<members.length; i++) {
+			if (currentBatches[i] != null && currentBatches[i].records.isEmpty()) {
+				// This file has been read to its end
+				continue;
+			}
+			if (currentBatches[i] == null || currentRecords[i] >= currentBatches[i].records.size()) {
+				currentBatches[i] = take(readers[i].queue);
+				currentRecords[i] = 0;
+				if (currentBatches[i].records.isEmpty()) continue;
+			}
+			SAMRecord record = currentBatches[i].records.get(currentRecords[i]);
+			if (firstRecord == null || comparator.fileOrderCompare(record, firstRecord) < 0) {
+				first = i;
+				firstRecord = record;
+			}
+		}
+		if (first >= 0) {
+			currentRecords[first]++;
+		}
+		return firstRecord;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return nextSequence != null;
+	}
+
+	@Override
+	public SAMRecord next() throws SequenceFormatException {
+		SAMRecord returnSeq = nextSequence;
+		readNext();
+		return returnSeq;
+	}
+
+	@Override
+	public boolean isColorspace() {
+		return false;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public int getPercentComplete() {
+		if (!hasNext()) return 100;
+		long totalSize = 0;
+		double read = 0;
+		for (int i=0; i<members.length; i++) {
+			int percent = readers[i].percentComplete;
+			// The progress of a stream is not known
+			if (percent < 0) return -1;
+			totalSize += memberSizes[i];
+			read += memberSizes[i] * (percent / 100d);
+		}
+		if (totalSize == 0) return -1;
+		return Math.min((int)(read / totalSize * 100), 99);
+	}
+
+	@Override
+	public long getBytesRead() {
+		long bytesRead = 0;
+		for (int i=0; i<members.length; i++) {
+			long memberBytes = readers[i].bytesRead;
+			if (memberBytes < 0) return -1;
+			bytesRead += memberBytes;
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * The file named after the sample, in the directory of its first file.
+	 */
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public boolean canListChromosomes() {
+		return !header.getSequenceDictionary().isEmpty();
+	}
+
+	@Override
+	public Chromosome[] listChromosomes() {
+		List<SAMSequenceRecord> records = header.getSequenceDictionary().getSequences();
+		Chromosome[] chrs = new Chromosome[records.size()];
+		for (int i=0; i<records.size(); i++) {
+			SAMSequenceRecord record = records.get(i);
+			Chromosome chr = annotationSet.chromosomeFactory().getChromosome(record.getSequenceName());
+			chr.setLength(record.getSequenceLength());
+			chrs[i] = chr;
+		}
+		return chrs;
+	}
+
+	@Override
+	public AnnotationSet annotationSet() {
+		return annotationSet;
+	}
+
+	@Override
+	public TargetRegions targetRegions() {
+		return targets;
+	}
+
+	@Override
+	public long getMappedRecordCount() {
+		long count = 0;
+		for (int i=0; i<members.length; i++) {
+			count += readers[i].mappedRecordCount;
+		}
+		return count;
+	}
+
+	@Override
+	public String samplingDescription() {
+		return samplingDescription;
+	}
+
+	@Override
+	public void stopReading(String reason) {
+		if (!hasNext()) return;
+		stopMembers();
+		samplingDescription = reason;
+	}
+	
+	/**
+	 * Stops the threads reading the files, which close them.
+	 */
+	private void stopMembers() {
+		stopped = true;
+		nextSequence = null;
+		for (int i=0; i<readers.length; i++) {
+			readers[i].interrupt();
+		}
+	}
+	
+	private void closeMembers() {
+		for (int i=0; i<members.length; i++) {
+			members[i].stopReading("Closed");
+		}
+	}
+
+	@Override
+	public SequenceFilePosition getPosition() {
+		return null;
+	}
+
+	@Override
+	public void resume(SequenceFilePosition position) throws SequenceFormatException {
+		throw new SequenceFormatException("The reading of "+name+", which is made of several files, cannot be resumed");
+	}
+
+	@Override
+	public SequenceFileShard getShard() {
+		return null;
+	}
+	
+	@Override
+	public LogLimiter logLimiter() {
+		return logLimiter;
+	}
+	
+	/**
+	 * Records read from one of the files, or the error which stopped its reading.
+	 * An empty batch marks the end of the file.
+	 */
+	private static class Batch {
+		private List<SAMRecord> records;
+		private SequenceFormatException error = null;
+		
+		private Batch (List<SAMRecord> records) {
+			this.records = records;
+		}
+	}
+	
+	/**
+	 * Reads one of the files in batches. The file is only used by this thread, 
+	 * as it is not thread-safe, so its progress is published with each batch 
+	 * for the thread of the analysis.
+	 */
+	private static class MemberReader extends Thread {
+		
+		private BAMFile member;
+		private BlockingQueue<Batch> queue;
+		private volatile long bytesRead;
+		private volatile int percentComplete;
+		private volatile long mappedRecordCount;
+		
+		private MemberReader (BAMFile member, BlockingQueue<Batch> queue) {
+			super("Reader of "+member.name());
+			this.member = member;
+			this.queue = queue;
+			setDaemon(true);
+			publishProgress();
+		}
+		
+		private void publishProgress() {
+			bytesRead = member.getBytesRead();
+			percentComplete = member.getPercentComplete();
+			mappedRecordCount = member.getMappedRecordCount();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				try {
+					List<SAMRecord> records = new ArrayList<SAMRecord>(BATCH_SIZE);
+					while (member.hasNext()) {
+						records.add(member.next());
+						if (records.size() == BATCH_SIZE) {
+							publishProgress();
+							queue.put(new Batch(records));
+							records = new ArrayList<SAMRecord>(BATCH_SIZE);
+						}
+						if (isInterrupted()) {
+							throw new InterruptedException();
+						}
+					}
+					publishProgress();
+					if (!records.isEmpty()) {
+						queue.put(new Batch(records));
+					}
+					queue.put(new Batch(new ArrayList<SAMRecord>()));
+				}
+				catch (SequenceFormatException e) {
+					Batch batch = new Batch(null);
+					batch.error = new SequenceFormatException(member.name()+": "+e.getMessage());
+					queue.put(batch);
+				}
+				catch (RuntimeException e) {
+					log.error("Failed to read "+member.name(), e);
+					Batch batch = new Batch(null);
+					batch.error = new SequenceFormatException(member.name()+": "+e);
+					queue.put(batch);
+				}
+			}
+			catch (InterruptedException e) {
+				// The reading was stopped
+			}
+			finally {
+				member.stopReading("Stopped");
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog: 
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+import net.sf.samtools.SAMRecord;
+
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+import uk.ac.babraham.BamQC.Utilities.CigarMD.MDTagCalculator;
+
+/**
+ * A reference Fasta file indexed with samtools faidx, from which the MD tags 
+ * of the reads which have none are computed, like samtools calmd does but 
+ * without writing the file again.
+ * 
+ * The lines of a reference sequence are read from the file mapped in memory 
+ * and packed with 2 bits per base, the runs of other bases (mostly N) being 
+ * kept apart. The packed sequences are cached, the least recently used ones 
+ * being dropped once they take more than a quarter of the memory, so a file
+ * sorted by coordinate packs each reference sequence once.
+ */
+public class ReferenceFasta {
+
+	private static Logger log = Logger.getLogger(ReferenceFasta.class);
+	
+	private static final String UNKNOWN_REFERENCE = "Reads on a reference sequence missing from the reference file";
+	private static final String OUTSIDE_REFERENCE = "Reads aligned beyond the end of their reference sequence";
+	
+	private static final char [] BASES = {'A', 'C', 'G', 'T'};
+	
+	private File file;
+	// The entries of the .fai index by reference sequence name
+	private HashMap<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+	
+	// The packed sequences, the least recently used first
+	private LinkedHashMap<String, PackedSequence> cache = new LinkedHashMap<String, PackedSequence>(16, 0.75f, true);
+	private long cachedBytes = 0;
+	private long maxCachedBytes = Runtime.getRuntime().maxMemory() / 4;
+	
+	/**
+	 * Reads the index of a Fasta file, which is the file name followed by .fai.
+	 */
+	public ReferenceFasta (File file) throws IOException {
+		this.file = file;
+		if (!file.isFile()) {
+			throw new IOException("The reference file "+file.getPath()+" does not exist");
+		}
+		File indexFile = new File(file.getPath()+".fai");
+		if (!indexFile.exists()) {
+			throw new IOException("The reference file "+file.getName()+" is not indexed. Index it with: samtools faidx "+file.getPath());
+		}
+		BufferedReader br = new BufferedReader(new FileReader(indexFile));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.trim().length() == 0) continue;
+				String [] fields = line.split("\t");
+				if (fields.length < 5) {
+					throw new IOException("Invalid line in "+indexFile.getName()+": "+line);
+				}
+				try {
+					IndexEntry entry = new IndexEntry(Integer.parseInt(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+					index.put(fields[0], entry);
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Invalid line in "+indexFile.getName()+": "+line);
+				}
+			}
+		}
+		finally {
+			br.close();
+		}
+		log.debug("Read the index of "+index.size()+" reference sequences of "+file.getName());
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public boolean hasSequence(String name) {
+		return index.containsKey(name);
+	}
+	
+	/**
+	 * Adds the MD tag to a mapped read which has none, if its reference sequence 
+	 * is in the reference file. The MD tag of the other reads is left as it is.
+	 * @param logLimiter the limiter of the messages logged for the reads of the file
+	 */
+	public void addMDTag(SAMRecord read, LogLimiter logLimiter) throws SequenceFormatException {
+		if (read.getReadUnmappedFlag() || read.getAttribute("MD") != null || read.getReadLength() == 0 || read.getCigarLength() == 0) {
+			return;
+		}
+		String name = read.getReferenceName();
+		if (!index.containsKey(name)) {
+			if (logLimiter.shouldLog(UNKNOWN_REFERENCE)) log.info("Reference sequence "+name+" of read "+read.getReadName()+" is not in "+file.getName());
+			return;
+		}
+		PackedSequence reference = getSequence(name);
+		if (read.getAlignmentEnd() > reference.length()) {
+			if (logLimiter.shouldLog(OUTSIDE_REFERENCE)) log.info("Read "+read.getReadName()+" ends beyond the end of "+name+" in "+file.getName());
+			return;
+		}
+		String md = MDTagCalculator.computeMD(read, reference);
+		if (md != null) {
+			read.setAttribute("MD", md);
+		}
+	}
+	
+	/**
+	 * Returns a reference sequence, which is packed the first time it is used.
+	 * @param name the name of the reference sequence, which must be in the index
+	 */
+	public synchronized PackedSequence getSequence(String name) throws SequenceFormatException {
+		PackedSequence sequence = cache.get(name);
+		if (sequence != null) {
+			return sequence;
+		}
+		try {
+			sequence = pack(name, index.get(name));
+		}
+		catch (IOException e) {
+			throw new SequenceFormatException("Cannot read "+name+" from the reference file "+file.getName()+": "+e.getMessage());
+		}
+		cache.put(name, sequence);
+		cachedBytes += sequence.bytes();
+		// The sequence just packed is kept whatever its size
+		Iterator<PackedSequence> it = cache.values().iterator();
+		while (cachedBytes > maxCachedBytes && cache.size() > 1) {
+			cachedBytes -= it.next().bytes();
+			it.remove();
+		}
+		return sequence;
+	}
+	
+	/**
+	 * Maps the lines of a reference sequence in memory and packs its bases.
+	 */
+	private PackedSequence pack(String name, IndexEntry entry) throws IOException, SequenceFormatException {
+		long start = System.currentTimeMillis();
+		// The lines of the sequence, without the line break of the last one
+		long size = (long)(entry.length / entry.lineBases) * entry.lineWidth + entry.length % entry.lineBases;
+		if (size > Integer.MAX_VALUE) {
+			throw new SequenceFormatException("The reference sequence "+name+" is too long to be mapped in memory");
+		}
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			// The last line of the file may have no line break
+			size = Math.max(0, Math.min(size, channel.size() - entry.offset));
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, size);
+			
+			long [] words = new long[(entry.length + 31) / 32];
+			int [] otherStarts = new int[16];
+			int [] otherEnds = new int[16];
+			int otherRuns = 0;
+			int position = 0;
+			while (buffer.hasRemaining() && position < entry.length) {
+				byte b = buffer.get();
+				int code;
+				switch (b) {
+				case 'A': case 'a': code = 0; break;
+				case 'C': case 'c': code = 1; break;
+				case 'G': case 'g': code = 2; break;
+				case 'T': case 't': code = 3; break;
+				case '\n': case '\r': continue;
+				default: code = -1;
+				}
+				if (code < 0) {
+					// Other bases are kept as runs, which are stored as A in the packed bases
+					if (otherRuns > 0 && otherEnds[otherRuns-1] == position) {
+						otherEnds[otherRuns-1]++;
+					}
+					else {
+						if (otherRuns == otherStarts.length) {
+							otherStarts = Arrays.copyOf(otherStarts, otherRuns*2);
+							otherEnds = Arrays.copyOf(otherEnds, otherRuns*2);
+						}
+						otherStarts[otherRuns] = position;
+						otherEnds[otherRuns] = position+1;
+						otherRuns++;
+					}
+				}
+				else {
+					words[position >>> 5] |= (long)code << ((position & 31) << 1);
+				}
+				position++;
+			}
+			if (position < entry.length) {
+				throw new SequenceFormatException("The reference sequence "+name+" is shorter than in the index of "+file.getName());
+			}
+			if (log.isDebugEnabled()) log.debug("Packed "+name+" ("+entry.length+" bases, "+otherRuns+" runs of N) in "+(System.currentTimeMillis()-start)+" ms");
+			return new PackedSequence(entry.length, words, Arrays.copyOf(otherStarts, otherRuns), Arrays.copyOf(otherEnds, otherRuns));
+		}
+		finally {
+			fis.close();
+		}
+	}
+	
+	/**
+	 * The position of a reference sequence in the Fasta file, as given by samtools faidx.
+	 */
+	private static class IndexEntry {
+		private int length;
+		private long offset;
+		private int lineBases;
+		private int lineWidth;
+		
+		private IndexEntry (int length, long offset, int lineBases, int lineWidth) throws IOException {
+			if (length < 0 || offset < 0 || lineBases <= 0 || lineWidth < lineBases) {
+				throw new IOException("Invalid index entry");
+			}
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
+	
+	/**
+	 * A reference sequence packed with 2 bits per base. The bases other than 
+	 * A, C, G and T are read as N.
+	 */
+	public static class PackedSequence {
+		
+		private int length;
+		private long [] words;
+		// The sorted runs of N, whose ends are exclusive
+		private int [] otherStarts;
+		private int [] otherEnds;
+		
+		private PackedSequence (int length, long [] words, int [] otherStarts, int [] otherEnds) {
+			this.length = length;
+			this.words = words;
+			this.otherStarts = otherStarts;
+			this.otherEnds = otherEnds;
+		}
+		
+		public int length() {
+			return length;
+		}
+		
+		/**
+		 * @param position the position of the base, starting from 0
+		 * @return the base in upper case
+		 */
+		public char baseAt(int position) {
+			if (otherStarts.length > 0) {
+				int run = Arrays.binarySearch(otherStarts, position);
+				if (run < 0) run = -run - 2;
+				if (run >= 0 && position < otherEnds[run]) {
+					return 'N';
+				}
+			}
+			return BASES[(int)(words[position >>> 5] >>> ((position & 31) << 1)) & 3];
+		}
+		
+		private long bytes() {
+			return words.length * 8L + otherStarts.length * 8L;
+		}
+	}
+	
+}
@@ -0,0 +1,609 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog: 
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import net.sf.samtools.DefaultSAMRecordFactory;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFormatException;
+import net.sf.samtools.SAMLineParser;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.SAMTextHeaderCodec;
+import net.sf.samtools.SAMUtils;
+import net.sf.samtools.util.CloseableIterator;
+import net.sf.samtools.util.RuntimeIOException;
+import net.sf.samtools.util.StringLineReader;
+
+/**
+ * Reads the records of a Sam text stream in parallel. A reader thread reads 
+ * the stream (decompressing it if needed) in batches of whole lines, which are 
+ * parsed by worker threads and returned in the order of the stream.
+ * 
+ * The lines are parsed where they were read: the fields are found by their 
+ * offsets in the batch, the numbers are read from the bytes, and strings are 
+ * only made for the names, the Cigar and the tags. The names of the reference 
+ * sequences are reused from one record to the next. The lines which this 
+ * parser does not handle (B and H tags, integer tags beyond 32 bits) are 
+ * parsed by the SAMLineParser of the sam library, which also reads the header. 
+ * As with SAMFileReader with a silent validation, the records are not validated.
+ */
+public class SAMTextParser implements CloseableIterator<SAMRecord> {
+
+	private static Logger log = Logger.getLogger(SAMTextParser.class);
+	
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	
+	// The size of the batches of lines. A line longer than this makes a larger batch.
+	private static final int BATCH_SIZE = 262144;
+	// The most worker threads for a stream. Several files can be read at the same time.
+	private static final int MAX_WORKERS = 4;
+	// The number of fields before the tags
+	private static final int MANDATORY_FIELDS = 11;
+	
+	private String name;
+	private InputStream in;
+	private SAMFileHeader header;
+	
+	// Where the stream has been read up to, which is only used by the reader thread after the header
+	private byte [] buffer;
+	private int bufferStart = 0;
+	private int bufferEnd = 0;
+	private boolean endOfStream = false;
+	
+	private ExecutorService workers;
+	private Thread reader;
+	// The parsed batches, in the order of the stream. The batch of the end of the stream has no records.
+	private BlockingQueue<Future<ParsedBatch>> batches;
+	private volatile boolean closed = false;
+	
+	private ThreadLocal<LineParser> lineParsers = new ThreadLocal<LineParser>() {
+		@Override
+		protected LineParser initialValue() {
+			return new LineParser(header);
+		}
+	};
+	
+	// The batch being returned
+	private ParsedBatch currentBatch = null;
+	private int currentRecord = 0;
+	private long linesRead = 0;
+	private boolean finished = false;
+	private SAMFormatException pendingError = null;
+	// The error of the current batch, which is thrown once the records before it have been returned
+	private SAMFormatException batchError = null;
+	
+	/**
+	 * Reads the header of a Sam text stream and starts parsing its records.
+	 * @param in the stream, which is already decompressed
+	 * @param name the name of the file, for the error messages
+	 * @param threads the number of files read at the same time, which limits the worker threads
+	 */
+	public SAMTextParser (InputStream in, String name, int threads) throws IOException {
+		this.in = in;
+		this.name = name;
+		buffer = new byte[BATCH_SIZE];
+		
+		readHeader();
+		
+		int workerCount = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() / Math.max(1, threads) - 1));
+		log.debug("Parsing "+name+" with "+workerCount+" worker threads");
+		workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Sam parser for "+SAMTextParser.this.name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		batches = new ArrayBlockingQueue<Future<ParsedBatch>>(workerCount*2);
+		
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readBatches();
+			}
+		}, "Sam reader for "+name);
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	public SAMFileHeader getFileHeader() {
+		return header;
+	}
+	
+	/**
+	 * Reads the header lines, which start with @, and leaves the first record in the buffer.
+	 */
+	private void readHeader() throws IOException {
+		StringBuilder headerText = new StringBuilder();
+		while (true) {
+			if (bufferStart == bufferEnd) {
+				if (!fill()) break;
+			}
+			if (buffer[bufferStart] != '@') break;
+			int lineEnd = indexOf(buffer, bufferStart, bufferEnd, (byte)'\n');
+			if (lineEnd < 0) {
+				if (endOfStream) {
+					lineEnd = bufferEnd;
+				}
+				else {
+					fill();
+					continue;
+				}
+			}
+			headerText.append(new String(buffer, bufferStart, lineEnd-bufferStart, ISO_8859_1)).append('\n');
+			linesRead++;
+			bufferStart = Math.min(lineEnd+1, bufferEnd);
+		}
+		SAMTextHeaderCodec codec = new SAMTextHeaderCodec();
+		codec.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+		header = codec.decode(new StringLineReader(headerText.toString()), name);
+	}
+	
+	/**
+	 * Reads more of the stream after what is left in the buffer, which is moved to 
+	 * its start, or to the start of a larger buffer if it is full.
+	 * @return false if nothing could be read
+	 */
+	private boolean fill() throws IOException {
+		if (endOfStream) return false;
+		int remaining = bufferEnd - bufferStart;
+		byte [] next = remaining == buffer.length ? new byte[buffer.length*2] : buffer;
+		System.arraycopy(buffer, bufferStart, next, 0, remaining);
+		buffer = next;
+		bufferStart = 0;
+		bufferEnd = remaining;
+		int n = in.read(buffer, bufferEnd, buffer.length-bufferEnd);
+		if (n < 0) {
+			endOfStream = true;
+			return false;
+		}
+		bufferEnd += n;
+		return true;
+	}
+	
+	/**
+	 * Cuts the stream into batches of whole lines and hands them to the workers.
+	 */
+	private void readBatches() {
+		try {
+			while (!closed) {
+				// Fill a whole batch, then keep the last partial line for the next one
+				while (!endOfStream && bufferEnd < buffer.length) {
+					int n = in.read(buffer, bufferEnd, buffer.length-bufferEnd);
+					if (n < 0) {
+						endOfStream = true;
+					}
+					else {
+						bufferEnd += n;
+					}
+				}
+				int batchEnd = endOfStream ? bufferEnd : lastIndexOf(buffer, bufferStart, bufferEnd, (byte)'\n') + 1;
+				if (batchEnd <= bufferStart) {
+					if (endOfStream) break;
+					// A line longer than the buffer
+					fill();
+					continue;
+				}
+				final byte [] batch = buffer;
+				final int start = bufferStart;
+				final int end = batchEnd;
+				
+				buffer = new byte[Math.max(BATCH_SIZE, bufferEnd-batchEnd)];
+				System.arraycopy(batch, batchEnd, buffer, 0, bufferEnd-batchEnd);
+				bufferStart = 0;
+				bufferEnd = bufferEnd-batchEnd;
+				
+				batches.put(workers.submit(new Callable<ParsedBatch>() {
+					@Override
+					public ParsedBatch call() {
+						return lineParsers.get().parse(batch, start, end);
+					}
+				}));
+				if (endOfStream && bufferEnd == 0) break;
+			}
+			batches.put(done(new Callable<ParsedBatch>() {
+				@Override
+				public ParsedBatch call() {
+					return new ParsedBatch();
+				}
+			}));
+		}
+		catch (InterruptedException e) {
+			// The parser was closed
+		}
+		catch (final IOException e) {
+			if (closed) return;
+			try {
+				batches.put(done(new Callable<ParsedBatch>() {
+					@Override
+					public ParsedBatch call() throws IOException {
+						throw e;
+					}
+				}));
+			}
+			catch (InterruptedException ie) {
+				// The parser was closed
+			}
+		}
+	}
+	
+	private static Future<ParsedBatch> done(Callable<ParsedBatch> callable) {
+		FutureTask<ParsedBatch> task = new FutureTask<ParsedBatch>(callable);
+		task.run();
+		return task;
+	}
+	
+	/**
+	 * Waits for the next batch to be parsed.
+	 */
+	private void nextBatch() {
+		currentBatch = null;
+		currentRecord = 0;
+		if (finished) return;
+		try {
+			ParsedBatch batch = batches.take().get();
+			if (batch.records == null) {
+				finished = true;
+				return;
+			}
+			if (batch.error != null) {
+				finished = true;
+				batchError = new SAMFormatException("Error parsing line "+(linesRead+batch.errorLine)+" of "+name+": "+batch.error.getMessage());
+			}
+			linesRead += batch.lines;
+			currentBatch = batch;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException("Interrupted while reading "+name);
+		}
+		catch (ExecutionException e) {
+			finished = true;
+			if (e.getCause() instanceof IOException) {
+				throw new RuntimeIOException(e.getCause());
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeIOException(e.getCause());
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		while (pendingError == null && (currentBatch == null || currentRecord >= currentBatch.records.size())) {
+			if (batchError != null) {
+				pendingError = batchError;
+				batchError = null;
+				break;
+			}
+			if (finished) break;
+			nextBatch();
+		}
+		return pendingError != null || (currentBatch != null && currentRecord < currentBatch.records.size());
+	}
+
+	@Override
+	public SAMRecord next() {
+		if (!hasNext()) {
+			throw new IllegalStateException("No more records in "+name);
+		}
+		if (pendingError != null) {
+			SAMFormatException error = pendingError;
+			pendingError = null;
+			throw error;
+		}
+		return currentBatch.records.get(currentRecord++);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("The records of "+name+" cannot be removed");
+	}
+
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		finished = true;
+		currentBatch = null;
+		reader.interrupt();
+		workers.shutdownNow();
+	}
+	
+	private static int indexOf(byte [] bytes, int start, int end, byte b) {
+		for (int i=start; i<end; i++) {
+			if (bytes[i] == b) return i;
+		}
+		return -1;
+	}
+	
+	private static int lastIndexOf(byte [] bytes, int start, int end, byte b) {
+		for (int i=end-1; i>=start; i--) {
+			if (bytes[i] == b) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * The records parsed from a batch of lines, or the error of its first invalid line.
+	 */
+	private static class ParsedBatch {
+		private ArrayList<SAMRecord> records = null;
+		private int lines = 0;
+		private SAMFormatException error = null;
+		private int errorLine = 0;
+	}
+	
+	/**
+	 * Parses the lines of a batch. Each worker thread has its own, as the 
+	 * offsets of the fields and the SAMLineParser are reused from line to line.
+	 */
+	private static class LineParser {
+		
+		private SAMFileHeader header;
+		private SAMLineParser fallback;
+		
+		private int [] fieldStarts = new int[32];
+		private int [] fieldEnds = new int[32];
+		private int fieldCount;
+		
+		// The names of the last reference sequences, which are reused for the next records
+		private byte [][] referenceBytes = new byte[2][];
+		private String [] referenceNames = new String[2];
+		private int nextReference = 0;
+		
+		private LineParser (SAMFileHeader header) {
+			this.header = header;
+			fallback = new SAMLineParser(new DefaultSAMRecordFactory(), SAMFileReader.ValidationStringency.SILENT, header, null, null);
+		}
+		
+		private ParsedBatch parse(byte [] bytes, int start, int end) {
+			ParsedBatch batch = new ParsedBatch();
+			batch.records = new ArrayList<SAMRecord>(Math.max(16, (end-start)/256));
+			int lineStart = start;
+			while (lineStart < end) {
+				int lineEnd = indexOf(bytes, lineStart, end, (byte)'\n');
+				if (lineEnd < 0) lineEnd = end;
+				int nextLine = lineEnd+1;
+				if (lineEnd > lineStart && bytes[lineEnd-1] == '\r') lineEnd--;
+				batch.lines++;
+				if (lineEnd > lineStart) {
+					try {
+						SAMRecord record = parseLine(bytes, lineStart, lineEnd);
+						if (record == null) {
+							record = fallback.parseLine(new String(bytes, lineStart, lineEnd-lineStart, ISO_8859_1));
+						}
+						batch.records.add(record);
+					}
+					catch (SAMFormatException e) {
+						batch.error = e;
+						batch.errorLine = batch.lines;
+						return batch;
+					}
+				}
+				lineStart = nextLine;
+			}
+			return batch;
+		}
+		
+		/**
+		 * @return the record, or null if the line has to be parsed by the SAMLineParser
+		 */
+		private SAMRecord parseLine(byte [] bytes, int start, int end) {
+			fieldCount = 0;
+			int fieldStart = start;
+			for (int i=start; i<=end; i++) {
+				if (i == end || bytes[i] == '\t') {
+					if (fieldCount == fieldStarts.length) {
+						fieldStarts = Arrays.copyOf(fieldStarts, fieldCount*2);
+						fieldEnds = Arrays.copyOf(fieldEnds, fieldCount*2);
+					}
+					fieldStarts[fieldCount] = fieldStart;
+					fieldEnds[fieldCount] = i;
+					fieldCount++;
+					fieldStart = i+1;
+				}
+			}
+			if (fieldCount < MANDATORY_FIELDS) {
+				throw new SAMFormatException("Not enough fields");
+			}
+			
+			SAMRecord record = new SAMRecord(header);
+			record.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+			record.setReadName(string(bytes, 0));
+			record.setFlags(number(bytes, 1, "FLAG"));
+			if (!isStar(bytes, 2)) {
+				record.setReferenceName(referenceName(bytes, 2));
+			}
+			record.setAlignmentStart(number(bytes, 3, "POS"));
+			record.setMappingQuality(number(bytes, 4, "MAPQ"));
+			record.setCigarString(string(bytes, 5));
+			if (!isStar(bytes, 6)) {
+				if (fieldEnds[6] - fieldStarts[6] == 1 && bytes[fieldStarts[6]] == '=') {
+					record.setMateReferenceName(record.getReferenceName());
+				}
+				else {
+					record.setMateReferenceName(referenceName(bytes, 6));
+				}
+			}
+			record.setMateAlignmentStart(number(bytes, 7, "MPOS"));
+			record.setInferredInsertSize(number(bytes, 8, "ISIZE"));
+			
+			if (isStar(bytes, 9)) {
+				record.setReadBases(SAMRecord.NULL_SEQUENCE);
+			}
+			else {
+				byte [] bases = Arrays.copyOfRange(bytes, fieldStarts[9], fieldEnds[9]);
+				// As SAMRecord.setReadString does
+				for (int i=0; i<bases.length; i++) {
+					if (bases[i] >= 'a' && bases[i] <= 'z') bases[i] -= 'a' - 'A';
+					if (bases[i] == '.') bases[i] = 'N';
+				}
+				record.setReadBases(bases);
+			}
+			if (isStar(bytes, 10)) {
+				record.setBaseQualities(SAMRecord.NULL_QUALS);
+			}
+			else {
+				byte [] qualities = Arrays.copyOfRange(bytes, fieldStarts[10], fieldEnds[10]);
+				SAMUtils.fastqToPhred(qualities);
+				record.setBaseQualities(qualities);
+			}
+			
+			for (int i=MANDATORY_FIELDS; i<fieldCount; i++) {
+				int tagStart = fieldStarts[i];
+				int tagEnd = fieldEnds[i];
+				if (tagEnd - tagStart < 5 || bytes[tagStart+2] != ':' || bytes[tagStart+4] != ':') {
+					return null;
+				}
+				String tag = new String(bytes, tagStart, 2, ISO_8859_1);
+				int valueStart = tagStart+5;
+				switch (bytes[tagStart+3]) {
+				case 'Z':
+					record.setAttribute(tag, new String(bytes, valueStart, tagEnd-valueStart, ISO_8859_1));
+					break;
+				case 'A':
+					if (tagEnd - valueStart != 1) return null;
+					record.setAttribute(tag, Character.valueOf((char)bytes[valueStart]));
+					break;
+				case 'i':
+					long value;
+					try {
+						value = parseLong(bytes, valueStart, tagEnd);
+					}
+					catch (NumberFormatException e) {
+						return null;
+					}
+					if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) return null;
+					record.setAttribute(tag, Integer.valueOf((int)value));
+					break;
+				case 'f':
+					try {
+						record.setAttribute(tag, Float.valueOf(new String(bytes, valueStart, tagEnd-valueStart, ISO_8859_1)));
+					}
+					catch (NumberFormatException e) {
+						return null;
+					}
+					break;
+				default:
+					return null;
+				}
+			}
+			return record;
+		}
+		
+		private String string(byte [] bytes, int field) {
+			return new String(bytes, fieldStarts[field], fieldEnds[field]-fieldStarts[field], ISO_8859_1);
+		}
+		
+		private boolean isStar(byte [] bytes, int field) {
+			return fieldEnds[field] - fieldStarts[field] == 1 && bytes[fieldStarts[field]] == '*';
+		}
+		
+		/**
+		 * Returns the name of a reference sequence, reusing the string of one of the 
+		 * last names if it is the same.
+		 */
+		private String referenceName(byte [] bytes, int field) {
+			int start = fieldStarts[field];
+			int length = fieldEnds[field] - start;
+			for (int i=0; i<referenceBytes.length; i++) {
+				byte [] known = referenceBytes[i];
+				if (known != null && known.length == length && regionEquals(known, bytes, start)) {
+					return referenceNames[i];
+				}
+			}
+			referenceBytes[nextReference] = Arrays.copyOfRange(bytes, start, start+length);
+			referenceNames[nextReference] = SAMSequenceRecord.truncateSequenceName(new String(bytes, start, length, ISO_8859_1));
+			String name = referenceNames[nextReference];
+			nextReference = (nextReference+1) % referenceBytes.length;
+			return name;
+		}
+		
+		private static boolean regionEquals(byte [] known, byte [] bytes, int start) {
+			for (int i=0; i<known.length; i++) {
+				if (known[i] != bytes[start+i]) return false;
+			}
+			return true;
+		}
+		
+		private int number(byte [] bytes, int field, String column) {
+			long value;
+			try {
+				value = parseLong(bytes, fieldStarts[field], fieldEnds[field]);
+			}
+			catch (NumberFormatException e) {
+				value = Long.MAX_VALUE;
+			}
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw new SAMFormatException("Non-numeric value in "+column+" column");
+			}
+			return (int)value;
+		}
+		
+		private static long parseLong(byte [] bytes, int start, int end) {
+			boolean negative = false;
+			int i = start;
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+				negative = bytes[i] == '-';
+				i++;
+			}
+			// At most 18 digits, so that the value cannot overflow
+			if (i == end || end - i > 18) {
+				throw new NumberFormatException();
+			}
+			long value = 0;
+			for (; i<end; i++) {
+				int digit = bytes[i] - '0';
+				if (digit < 0 || digit > 9) {
+					throw new NumberFormatException();
+				}
+				value = value*10 + digit;
+			}
+			return negative ? -value : value;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.File;
+
+import net.sf.samtools.SAMRecord;
+import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
+import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+
+/**
+ * A file which has already been analysed, and whose report is written again 
+ * from the saved results of its modules. It has no records left to read.
+ */
+public class SavedSequenceFile implements SequenceFile {
+
+	private File file;
+	private String name;
+	private String samplingDescription;
+	private long mappedRecordCount;
+	private LogLimiter logLimiter = new LogLimiter();
+	
+	/**
+	 * @param file the analysed file
+	 * @param name the name of the file in the report
+	 * @param samplingDescription how the records were sampled, or null if the whole file was read
+	 */
+	public SavedSequenceFile(File file, String name, String samplingDescription) {
+		this(file, name, samplingDescription, -1);
+	}
+	
+	/**
+	 * @param file the analysed file
+	 * @param name the name of the file in the report
+	 * @param samplingDescription how the records were sampled, or null if the whole file was read
+	 * @param mappedRecordCount the number of mapped records in the file, or -1 if it is not known
+	 */
+	public SavedSequenceFile(File file, String name, String samplingDescription, long mappedRecordCount) {
+		this.file = file;
+		this.name = name;
+		this.samplingDescription = samplingDescription;
+		this.mappedRecordCount = mappedRecordCount;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return false;
+	}
+
+	@Override
+	public SAMRecord next() throws SequenceFormatException {
+		throw new SequenceFormatException("The records of " + name + " were not saved");
+	}
+
+	@Override
+	public boolean isColorspace() {
+		return false;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public int getPercentComplete() {
+		return 100;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return -1;
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public boolean canListChromosomes() {
+		return false;
+	}
+
+	@Override
+	public Chromosome[] listChromosomes() {
+		return new Chromosome[0];
+	}
+
+	@Override
+	public AnnotationSet annotationSet() {
+		return new AnnotationSet();
+	}
+
+	@Override
+	public TargetRegions targetRegions() {
+		return null;
+	}
+
+	@Override
+	public long getMappedRecordCount() {
+		return mappedRecordCount;
+	}
+
+	@Override
+	public String samplingDescription() {
+		return samplingDescription;
+	}
+
+	@Override
+	public void stopReading(String reason) { }
+
+	@Override
+	public SequenceFilePosition getPosition() {
+		return null;
+	}
+
+	@Override
+	public void resume(SequenceFilePosition position) throws SequenceFormatException {
+		throw new SequenceFormatException("The records of " + name + " were not saved");
+	}
+
+	@Override
+	public SequenceFileShard getShard() {
+		return null;
+	}
+
+	@Override
+	public LogLimiter logLimiter() {
+		return logLimiter;
+	}
+
+}
@@ -24,8 +24,12 @@
 package uk.ac.babraham.BamQC.Sequence;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 
+import uk.ac.babraham.BamQC.BamQCConfig;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+
 /**
  * 
  * @author Simon Andrews
@@ -33,12 +37,121 @@ import java.io.IOException;
  */
 public class SequenceFactory {
 	
+	// The target regions are shared by all the files of a run, so the BED file is only read once.
+	private static TargetRegions targetRegions = null;
+	// The reference is shared as well, so each reference sequence is only packed once.
+	private static ReferenceFasta reference = null;
+	
 	public static SequenceFile getSequenceFile(File file) throws SequenceFormatException, IOException {
 				
-		return new BAMFile(file,false);
+		return getSequenceFile(file, getTargetRegions());
 
 		
 	}
 	
+	public static SequenceFile getSequenceFile(File file, TargetRegions targets) throws SequenceFormatException, IOException {
+		
+		return getSequenceFile(file, targets, BamQCConfig.getInstance().sample_reads);
+		
+	}
+	
+	public static SequenceFile getSequenceFile(File file, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		
+		ReferenceFasta reference = getReference();
+		BAMFile bamFile = openFile(file, reference, targets, sampleRecords);
+		bamFile.setReference(reference);
+		return bamFile;
+		
+	}
+	
+	/**
+	 * Opens several files of the same sample, which are analysed as one.
+	 * @param name the name of the sample, which names its report
+	 */
+	public static SequenceFile getSequenceFile(File [] files, String name) throws SequenceFormatException, IOException {
+		
+		ReferenceFasta reference = getReference();
+		TargetRegions targets = getTargetRegions();
+		BAMFile [] members = new BAMFile[files.length];
+		try {
+			for (int i=0; i<files.length; i++) {
+				if (isStandardInput(files[i])) {
+					throw new SequenceFormatException("The files of a merged sample cannot be read from the standard input");
+				}
+				members[i] = openFile(files[i], reference, targets, 0);
+				members[i].setReference(reference);
+			}
+		}
+		catch (SequenceFormatException e) {
+			stopReading(members);
+			throw e;
+		}
+		catch (IOException e) {
+			stopReading(members);
+			throw e;
+		}
+		return new MultiSequenceFile(new File(files[0].getAbsoluteFile().getParentFile(), name), members);
+		
+	}
+	
+	private static void stopReading(BAMFile [] files) {
+		for (int i=0; i<files.length; i++) {
+			if (files[i] != null) {
+				files[i].stopReading("Closed");
+			}
+		}
+	}
+	
+	private static BAMFile openFile(File file, ReferenceFasta reference, TargetRegions targets, long sampleRecords) throws SequenceFormatException, IOException {
+		
+		// Only a shard of the reference sequences, whose partial results are merged later
+		if (BamQCConfig.getInstance().partial != null) {
+			if (isStandardInput(file) || !file.isFile()) {
+				throw new SequenceFormatException("Partial results can only be computed from a file, not from a stream");
+			}
+			if (CRAMFile.isCRAMFile(file)) {
+				throw new SequenceFormatException("Partial results cannot be computed from a Cram file, which is decoded as a stream");
+			}
+			return new BAMFile(file,targets,BamQCConfig.getInstance().partial);
+		}
+		
+		// Data piped to us, which can only be read once and has no known size
+		if (isStandardInput(file)) {
+			return new BAMFile(System.in,new File("stdin"),false,targets,sampleRecords);
+		}
+		if (file.exists() && !file.isFile() && !file.isDirectory()) {
+			return new BAMFile(new FileInputStream(file),file,false,targets,sampleRecords);
+		}
+		// Cram files are decoded by samtools against their reference
+		if (CRAMFile.isCRAMFile(file)) {
+			return CRAMFile.open(file,reference,targets,sampleRecords);
+		}
+		// The position of the records is only needed to write checkpoints
+		return new BAMFile(file,false,targets,sampleRecords,BamQCConfig.getInstance().checkpoint_interval > 0);
+		
+	}
+	
+	/**
+	 * Returns true if the file stands for the standard input, which is 
+	 * given as stdin or -.
+	 */
+	public static boolean isStandardInput(File file) {
+		return file.getPath().equals("stdin") || file.getPath().equals("-");
+	}
+	
+	private static synchronized TargetRegions getTargetRegions() throws IOException {
+		if (targetRegions == null && BamQCConfig.getInstance().bed_file != null) {
+			targetRegions = TargetRegions.readBedFile(BamQCConfig.getInstance().bed_file);
+		}
+		return targetRegions;
+	}
+	
+	private static synchronized ReferenceFasta getReference() throws IOException {
+		if (reference == null && BamQCConfig.getInstance().reference != null) {
+			reference = new ReferenceFasta(BamQCConfig.getInstance().reference);
+		}
+		return reference;
+	}
+	
 	
 }
@@ -27,6 +27,8 @@ import java.io.File;
 
 import uk.ac.babraham.BamQC.DataTypes.Genome.AnnotationSet;
 import uk.ac.babraham.BamQC.DataTypes.Genome.Chromosome;
+import uk.ac.babraham.BamQC.DataTypes.Genome.TargetRegions;
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
 import net.sf.samtools.SAMRecord;
 
 /**
@@ -40,10 +42,61 @@ public interface SequenceFile {
 	public SAMRecord next() throws SequenceFormatException;
 	public boolean isColorspace();
 	public String name();
+	/**
+	 * The percentage of the file which has been read so far, or -1 if this 
+	 * is not known, as for a stream.
+	 */
 	public int getPercentComplete();
+	/**
+	 * The number of bytes of the file which have been read so far, or -1 
+	 * if this is not known.
+	 */
+	public long getBytesRead();
 	public File getFile();
 	public boolean canListChromosomes();
 	public Chromosome [] listChromosomes();
 	public AnnotationSet annotationSet();
+	/**
+	 * The target regions the records are restricted to, or null if
+	 * the whole file is read.
+	 */
+	public TargetRegions targetRegions();
+	/**
+	 * The number of mapped records in the file, including those which were
+	 * not returned because they were outside the target regions, or -1 if
+	 * this is not known.
+	 */
+	public long getMappedRecordCount();
+	/**
+	 * A description of how the records were sampled, or null if the 
+	 * whole file was read.
+	 */
+	public String samplingDescription();
+	/**
+	 * Stops reading the file before its end. The reason is added to 
+	 * the sampling description.
+	 */
+	public void stopReading(String reason);
+	/**
+	 * The position of the next record, from which resume() goes on reading 
+	 * the file in a later run, or null if the reading cannot be resumed, as 
+	 * for a stream or a file read through index queries.
+	 */
+	public SequenceFilePosition getPosition();
+	/**
+	 * Goes on reading the file from a position returned by getPosition() 
+	 * in an earlier run. This is called before any record is read.
+	 */
+	public void resume(SequenceFilePosition position) throws SequenceFormatException;
+	/**
+	 * The reference sequences which are read when the file is analysed in 
+	 * shards, or null if the whole file is read.
+	 */
+	public SequenceFileShard getShard();
+	/**
+	 * The limiter of the messages logged for each read while this file is
+	 * read and analysed.
+	 */
+	public LogLimiter logLimiter();
 	
 }
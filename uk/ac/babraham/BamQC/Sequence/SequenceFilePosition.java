@@ -0,0 +1,77 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.Serializable;
+
+import net.sf.samtools.SAMFileSpan;
+
+/**
+ * How far a file has been read, so that the reading can be resumed in a later run. 
+ * A Bam file is resumed by seeking to the BGZF virtual offset of the next record, 
+ * while a Sam file is read again from its start, skipping the records already returned.
+ */
+public class SequenceFilePosition implements Serializable {
+
+	private static final long serialVersionUID = 2871542061896207725L;
+
+	private long returnedRecords;
+	private long mappedRecordCount;
+	private SAMFileSpan nextRecord;
+	
+	/**
+	 * @param returnedRecords the number of records returned so far
+	 * @param mappedRecordCount the number of mapped records read so far
+	 * @param nextRecord the span from the virtual offset following the last record returned to the end of a Bam file, or null for a Sam file
+	 */
+	public SequenceFilePosition(long returnedRecords, long mappedRecordCount, SAMFileSpan nextRecord) {
+		this.returnedRecords = returnedRecords;
+		this.mappedRecordCount = mappedRecordCount;
+		this.nextRecord = nextRecord;
+	}
+	
+	public long getReturnedRecords() {
+		return returnedRecords;
+	}
+	
+	public long getMappedRecordCount() {
+		return mappedRecordCount;
+	}
+	
+	/**
+	 * @return the span of the file from the next record, or null if the records must be skipped
+	 */
+	public SAMFileSpan getNextRecord() {
+		return nextRecord;
+	}
+	
+	@Override
+	public String toString() {
+		if (nextRecord == null) {
+			return "record " + returnedRecords;
+		}
+		return "record " + returnedRecords + " at " + nextRecord;
+	}
+	
+}
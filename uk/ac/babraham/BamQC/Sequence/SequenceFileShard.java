@@ -0,0 +1,184 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Sequence;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * The reference sequences read by one of the runs which analyse a file in parallel. 
+ * Each run writes partial results, which are merged into the report of the whole file. 
+ * A shard is made of whole reference sequences, as the depth of coverage can only be 
+ * computed with all the reads of a sequence. The unmapped records without a position 
+ * form the pseudo sequence "*".
+ */
+public class SequenceFileShard implements Serializable {
+
+	private static final long serialVersionUID = -3264119880375541772L;
+
+	/** The name of the records which are not placed on any reference sequence */
+	public static final String UNPLACED = "*";
+	
+	private static final Pattern SHARD_NUMBER = Pattern.compile("(\\d+)/(\\d+)");
+	// The longest label which is used in a file name as it is
+	private static final int MAX_LABEL_LENGTH = 64;
+	
+	private String [] references;
+	private String [] allReferences;
+	private String label;
+	
+	private SequenceFileShard(String [] references, String [] allReferences, String label) {
+		this.references = references;
+		this.allReferences = allReferences;
+		this.label = label;
+	}
+	
+	/**
+	 * Works out the reference sequences of a shard. It is either given as i/n, in which case the 
+	 * reference sequences are shared among n shards of about the same total length and the unplaced 
+	 * records go to the last one, or as a comma separated list of reference sequences.
+	 * @param shard the shard, as i/n or as a list of reference sequences
+	 * @param dictionary the sequence dictionary of the file
+	 * @return the reference sequences of the shard
+	 * @throws SequenceFormatException if the shard is not valid for this file
+	 */
+	public static SequenceFileShard parse(String shard, SAMSequenceDictionary dictionary) throws SequenceFormatException {
+		List<SAMSequenceRecord> sequences = dictionary.getSequences();
+		String [] allReferences = new String[sequences.size()+1];
+		for (int i=0; i<sequences.size(); i++) {
+			allReferences[i] = sequences.get(i).getSequenceName();
+		}
+		allReferences[sequences.size()] = UNPLACED;
+		
+		boolean [] selected = new boolean[allReferences.length];
+		String label;
+		
+		Matcher matcher = SHARD_NUMBER.matcher(shard.trim());
+		if (matcher.matches()) {
+			int number = Integer.parseInt(matcher.group(1));
+			int shards = Integer.parseInt(matcher.group(2));
+			if (number < 1 || number > shards) {
+				throw new SequenceFormatException("The shard "+shard+" must be between 1/"+shards+" and "+shards+"/"+shards);
+			}
+			// The longest sequences first, each to the shard with the smallest total length so far
+			Integer [] order = new Integer[sequences.size()];
+			for (int i=0; i<order.length; i++) {
+				order[i] = i;
+			}
+			final List<SAMSequenceRecord> records = sequences;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int lengthA = records.get(a).getSequenceLength();
+					int lengthB = records.get(b).getSequenceLength();
+					if (lengthA != lengthB) return lengthA > lengthB ? -1 : 1;
+					return a.compareTo(b);
+				}
+			});
+			long [] totals = new long[shards];
+			for (int i=0; i<order.length; i++) {
+				int smallest = 0;
+				for (int s=1; s<shards; s++) {
+					if (totals[s] < totals[smallest]) smallest = s;
+				}
+				totals[smallest] += sequences.get(order[i]).getSequenceLength();
+				selected[order[i]] = smallest == number-1;
+			}
+			selected[sequences.size()] = number == shards;
+			label = number+"of"+shards;
+		}
+		else {
+			List<String> names = Arrays.asList(allReferences);
+			String [] requested = shard.split(",");
+			for (int i=0; i<requested.length; i++) {
+				int index = names.indexOf(requested[i].trim());
+				if (index < 0) {
+					throw new SequenceFormatException(requested[i].trim()+" is not a reference sequence of the file");
+				}
+				selected[index] = true;
+			}
+			label = null;
+		}
+		
+		List<String> references = new ArrayList<String>();
+		for (int i=0; i<allReferences.length; i++) {
+			if (selected[i]) references.add(allReferences[i]);
+		}
+		if (label == null) {
+			StringBuffer names = new StringBuffer();
+			for (int i=0; i<references.size(); i++) {
+				if (i > 0) names.append('_');
+				names.append(references.get(i).equals(UNPLACED) ? "unplaced" : references.get(i));
+			}
+			label = names.toString().replaceAll("[^A-Za-z0-9._-]", "_");
+			if (label.length() > MAX_LABEL_LENGTH) {
+				label = "shard"+Integer.toHexString(label.hashCode());
+			}
+		}
+		return new SequenceFileShard(references.toArray(new String[0]), allReferences, label);
+	}
+	
+	/**
+	 * @return the reference sequences of this shard, in the order of the file
+	 */
+	public String [] getReferences() {
+		return references;
+	}
+	
+	/**
+	 * @return all the reference sequences of the file, followed by "*"
+	 */
+	public String [] getAllReferences() {
+		return allReferences;
+	}
+	
+	/**
+	 * @return a short name of this shard, which can be used in a file name
+	 */
+	public String getLabel() {
+		return label;
+	}
+	
+	/**
+	 * @return the reference sequences of this shard, for a quick lookup
+	 */
+	public HashSet<String> referenceSet() {
+		return new HashSet<String>(Arrays.asList(references));
+	}
+	
+	@Override
+	public String toString() {
+		return references.length+" of the "+allReferences.length+" reference sequences";
+	}
+	
+}
@@ -29,6 +29,8 @@ import java.util.Locale;
 
 import org.apache.log4j.Logger;
 
+import uk.ac.babraham.BamQC.Utilities.LogLimiter;
+
 import net.sf.samtools.Cigar;
 import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
@@ -49,6 +51,12 @@ public class CigarMDGenerator {
 	
 	private static Logger log = Logger.getLogger(CigarMDGenerator.class);	
 	
+	// The events which can happen for every read. Only the first occurrences are logged.
+	private static final String MISSING_MD = "Reads without MD string";
+	private static final String MISSING_CIGAR = "Reads without Cigar string";
+	private static final String UNSUPPORTED_CIGAR = "Reads with unsupported Cigar operators";
+	private static final String INCONSISTENT_READ = "Reads with inconsistent Cigar, MD and read strings";
+	
 	// Data fields used for computing the CigarMD string.
 
 	// The Cigar's elements
@@ -85,6 +93,9 @@ public class CigarMDGenerator {
 	// 0: no error, 1: unmapped read, 2: read without MD string, 3: read without Cigar, 4: Cigar/MD/read inconsistencies
 	private int errorType = 0;
 	
+	// Limits the messages logged for the reads of the analysed file
+	private LogLimiter logLimiter = new LogLimiter();
+	
 
 	// Public interface
 	// Constructors
@@ -92,6 +103,14 @@ public class CigarMDGenerator {
 	 * Default constructor. It generates an empty CigarMD string.
 	 */
 	public CigarMDGenerator() {	}
+	
+	/**
+	 * Constructor. It generates an empty CigarMD string.
+	 * @param logLimiter the limiter of the messages logged for the reads of the analysed file
+	 */
+	public CigarMDGenerator(LogLimiter logLimiter) {
+		this.logLimiter = logLimiter;
+	}
 
 	/**
 	 * Constructor. It generates a CigarMD string from the SAMRecord read.
@@ -187,7 +206,7 @@ public class CigarMDGenerator {
 		// if Flag 0x4 is set, then the read is unmapped. Therefore, skip it for the reasons above.
 		// Check the state of a flag bit 'READ_UNMAPPED_FLAG'. 
 		if(read.getReadUnmappedFlag()) {
-			log.info("Read " + readString + " is unmapped and therefore skipped.");
+			if (log.isDebugEnabled()) log.debug("Read " + readString + " is unmapped and therefore skipped.");
 			errorType = 1;
 			return false;	
 		}
@@ -195,7 +214,7 @@ public class CigarMDGenerator {
 		// Get the MD tag string. It is more likely errors are in the MD rather than the Cigar. Let's put this first.
 		mdString = read.getStringAttribute("MD");
 		if (mdString == null || mdString.length() == 0) {
-			log.info("Read " + readString + " does not have MD string.");
+			if (logLimiter.shouldLog(MISSING_MD)) log.info("Read " + readString + " does not have MD string.");
 			errorType = 2;
 			mdString = null;
 			// We continue processing as indels detection does not require the MD string.
@@ -210,7 +229,7 @@ public class CigarMDGenerator {
 		// Get the CIGAR list
 		cigar = read.getCigar();
 		if (cigar == null || read.getCigarLength() == 0) {
-			log.info("Read " + readString + " does not have Cigar string.");
+			if (logLimiter.shouldLog(MISSING_CIGAR)) log.info("Read " + readString + " does not have Cigar string.");
 			errorType = 3;
 			return false;
 		}
@@ -268,34 +287,34 @@ public class CigarMDGenerator {
 				processMDtagCigarOperatorP();
 				
 			} else if (currentCigarElementOperator == CigarOperator.EQ) {
-				log.warn("Extended CIGAR element = is currently unsupported.");
+				if (logLimiter.shouldLog(UNSUPPORTED_CIGAR)) log.warn("Extended CIGAR element = is currently unsupported.");
 				return false;
 				
 			} else if (currentCigarElementOperator == CigarOperator.X) {
-				log.warn("Extended CIGAR element X is currently unsupported.");
+				if (logLimiter.shouldLog(UNSUPPORTED_CIGAR)) log.warn("Extended CIGAR element X is currently unsupported.");
 				return false;				
 				
 			} else {
-				log.error("Unknown Cigar operator " +currentCigarElementOperator.toString()+ " in read " + readString + "\n");
+				if (logLimiter.shouldLog(UNSUPPORTED_CIGAR)) log.error("Unknown Cigar operator " +currentCigarElementOperator.toString()+ " in read " + readString + "\n");
 				return false;
 			}
 		}
 		
 		// Let's do some tests to see whether something is wrong..
 		if(currentBaseCallPosition < readString.length()) {
-			log.warn("Cigar string " + read.getCigarString() + " length " + currentBaseCallPosition + " < read length " + readString.length() 
+			if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Cigar string " + read.getCigarString() + " length " + currentBaseCallPosition + " < read length " + readString.length() 
 					+ ". mdString : " + mdString + ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 			return false;
 		}
 
 		if(currentBaseCallPosition > readString.length()) {
-			log.warn("Cigar string " + read.getCigarString() + " length " + currentBaseCallPosition + " > read length " + readString.length() 
+			if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Cigar string " + read.getCigarString() + " length " + currentBaseCallPosition + " > read length " + readString.length() 
 					+ ". mdString : " + mdString + ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 			return false;
 		}
 		
 		if(mdString != null && temporaryMDElementLength > 0) {
-			log.warn("MD string " + mdString + " > Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+			if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " > Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 					 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 			return false;
 		}
@@ -312,7 +331,7 @@ public class CigarMDGenerator {
 				// it is a first segment.
 				if(read.getSecondOfPairFlag()) {
 					// .. but it is also a second segment
-					log.debug("Read " + readString + " is part of a linear template, but it is neither the first nor the last read.");
+					if (log.isDebugEnabled()) log.debug("Read " + readString + " is part of a linear template, but it is neither the first nor the last read.");
 				} else if(read.getReadNegativeStrandFlag()) {
 					// it is reversed and complemented
 					log.debug("Current SAM read is FIRST(0x40) and parsed BACKWARD(0x10).");
@@ -324,7 +343,7 @@ public class CigarMDGenerator {
 				if(!read.getSecondOfPairFlag()) {
 					// .. but it is NOT a second segment either
 					isFirst = true; // let's leave it as first.
-					log.debug("The index for the read " + readString + " in the template is unknown. Non-linear template or index lost in data processing.");
+					if (log.isDebugEnabled()) log.debug("The index for the read " + readString + " in the template is unknown. Non-linear template or index lost in data processing.");
 				} else {
 					// it is a second segment.
 					isFirst = false;
@@ -346,7 +365,7 @@ public class CigarMDGenerator {
 				reverseComplementCigarMD();				
 			}
 		}	
-		log.debug("CigarMD string: " + cigarMD.toString());
+		if (log.isDebugEnabled()) log.debug("CigarMD string: " + cigarMD.toString());
 		return true;
 	}
 
@@ -523,11 +542,11 @@ public class CigarMDGenerator {
 				
 				if(mdString.length() <= currentMDElementPosition) {
 					if(currentBaseCallPosition + temporaryMDElementLength > readString.length()) {
-						log.warn("Cigar string " + read.getCigarString() + " length " + (currentBaseCallPosition + temporaryMDElementLength) + " > read length " + readString.length() 
+						if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Cigar string " + read.getCigarString() + " length " + (currentBaseCallPosition + temporaryMDElementLength) + " > read length " + readString.length() 
 								+ ". mdString : " + mdString + ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 						return false;
 					}
-					log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+					if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 							 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 					return false;
 				}
@@ -580,7 +599,7 @@ public class CigarMDGenerator {
 					
 					
 					if(currentBaseCallPosition >= readString.length()) {
-						log.warn("MD string " + mdString + " length "+currentBaseCallPosition+" > read " + readString + " length "+readString.length()+". CurrentCigarElement : " 
+						if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " length "+currentBaseCallPosition+" > read " + readString + " length "+readString.length()+". CurrentCigarElement : " 
 								 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 						return false;
 					}
@@ -594,14 +613,14 @@ public class CigarMDGenerator {
 					if(currentMDChar == 'A' || currentMDChar == 'C' || currentMDChar == 'G' || currentMDChar == 'T' || currentMDChar == 'N') {
 						if(currentMDChar == currentBaseCall) {
 							//error case : FALSE POSITIVE
-							log.warn("Expected mutation " + currentMDChar + " at position " + (currentMDElementPosition-1) + " in MD string " + mdString + " but found same base " 
+							if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Expected mutation " + currentMDChar + " at position " + (currentMDElementPosition-1) + " in MD string " + mdString + " but found same base " 
 							+ currentBaseCall + " in read position " + currentBaseCallPosition + ". Cigar : " + read.getCigarString()
 									+ ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 							return false;
 						}
 						bases.append(currentMDChar).append(currentBaseCall);			
 					} else {
-						log.warn("Expected mutation but found " + currentMDChar + " at position " + (currentMDElementPosition-1) + " in MD string " + mdString + ". Cigar : " + read.getCigarString()
+						if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Expected mutation but found " + currentMDChar + " at position " + (currentMDElementPosition-1) + " in MD string " + mdString + ". Cigar : " + read.getCigarString()
 										+ ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 						//bases.append('?').append('?');
 						return false;
@@ -615,14 +634,14 @@ public class CigarMDGenerator {
 						currentMDChar = mdString.charAt(currentMDElementPosition);
 						if(currentMDChar == 'A' || currentMDChar == 'C' || currentMDChar == 'G' || currentMDChar == 'T' || currentMDChar == 'N') {
 							if(currentBaseCallPosition+temporaryMDElementLength >= readString.length()) {
-								log.warn("MD string " + mdString + " length "+currentBaseCallPosition+temporaryMDElementLength+" > read " + readString + " length "+readString.length()+". CurrentCigarElement : " 
+								if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " length "+currentBaseCallPosition+temporaryMDElementLength+" > read " + readString + " length "+readString.length()+". CurrentCigarElement : " 
 										 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 								return false;
 							}
 							currentBaseCall = readString.charAt(currentBaseCallPosition+temporaryMDElementLength);
 							if(currentMDChar == currentBaseCall) {
 								//error case : FALSE POSITIVE
-								log.warn("Expected mutation " + currentMDChar + " at position " + currentMDElementPosition + " in MD string " + mdString + " but found base " 
+								if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Expected mutation " + currentMDChar + " at position " + currentMDElementPosition + " in MD string " + mdString + " but found base " 
 								+ currentBaseCall + " in read position " + (currentBaseCallPosition+temporaryMDElementLength) + ". Cigar : " + read.getCigarString()
 										+ ", CurrentCigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 								return false;
@@ -642,7 +661,7 @@ public class CigarMDGenerator {
 					// update the position of the currentBaseCall and the parser.
 					if(bases.length() == 0) {
 						//error case
-						log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+						if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 								 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 						return false;
 					}
@@ -687,7 +706,7 @@ public class CigarMDGenerator {
 		for(int i=0; i<insertedBases.length(); i++) {
 			char c = insertedBases.charAt(i);
 			if(c != 'A' && c != 'C' && c != 'G' && c != 'T' && c != 'N') {
-				log.warn("Read " + readString + " contains unknown inserted bases ("+insertedBases+"). Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+				if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("Read " + readString + " contains unknown inserted bases ("+insertedBases+"). Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 						 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 				return false;
 			}
@@ -709,7 +728,7 @@ public class CigarMDGenerator {
 			if(temporaryMDElementLength != 0) {
 				// There is an inconsistency between Cigar and MD strings. 
 				// If the currentCigarElement is D, temporaryMDElementLength should be 0.
-				log.warn("MD string " + mdString + " contains more matches/mismatches than Cigar string " + read.getCigarString() 
+				if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " contains more matches/mismatches than Cigar string " + read.getCigarString() 
 						+ ". CigarElement : " + currentCigarElement.getLength() + currentCigarElement.getOperator().toString()
 						+ ", MD string position : " + currentMDElementPosition + ". Base call position : " + currentBaseCallPosition); 
 				return false;
@@ -724,7 +743,7 @@ public class CigarMDGenerator {
 			// if the CIGAR string is read too..
 			while (currentMDChar == '0') {
 				if(mdString.length() <= currentMDElementPosition) {
-					log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+					if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 							 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 					return false;
 				}
@@ -734,13 +753,13 @@ public class CigarMDGenerator {
 	
 			if (currentMDChar != '^') {
 				// this means an inconsistency between the CIGAR and MD string
-				log.warn("^ not found in the MD string " + mdString + " when processing the CigarElement : " 
+				if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("^ not found in the MD string " + mdString + " when processing the CigarElement : " 
 				        + currentCigarElement.getLength() + currentCigarElement.getOperator().toString() 
 				        + " in the Cigar String " + read.getCigarString());
 				return false;
 			}
 			if(mdString.length() < currentMDElementPosition + currentCigarElementLength) {
-				log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+				if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " < Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 						 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 				return false;
 			}
@@ -753,7 +772,7 @@ public class CigarMDGenerator {
 			for(int i=0; i<deletedBases.length(); i++) {
 				char c = deletedBases.charAt(i);
 				if(c != 'A' && c != 'C' && c != 'G' && c != 'T' && c != 'N') {
-					log.warn("MD string " + mdString + " contains unknown deleted bases ("+deletedBases+"). Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
+					if (logLimiter.shouldLog(INCONSISTENT_READ)) log.warn("MD string " + mdString + " contains unknown deleted bases ("+deletedBases+"). Cigar string " + read.getCigarString() + ". CurrentCigarElement : " 
 							 + currentCigarElement.getLength() + currentCigarElement.getOperator().toString());
 					return false;
 				}
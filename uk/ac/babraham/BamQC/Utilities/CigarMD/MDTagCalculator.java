@@ -0,0 +1,106 @@
+/**
+ * Copyright Copyright 2015 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog: 
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Utilities.CigarMD;
+
+import java.util.List;
+
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.SAMRecord;
+
+import uk.ac.babraham.BamQC.Sequence.ReferenceFasta.PackedSequence;
+
+/**
+ * Computes the MD tag of a read from its reference sequence, as samtools calmd 
+ * does. The bases of the read are compared with the reference along the Cigar:
+ * a base matches if it is the same as the reference base (or is =) and is not N,
+ * a mismatch gives the reference base, and a deletion gives ^ followed by the 
+ * deleted reference bases. For instance the read ACGTTACA with Cigar 4M2D4M on 
+ * the reference ACGAGGTACA has the MD tag 3A0^GG4.
+ */
+public class MDTagCalculator {
+
+	/**
+	 * @param read a mapped read with bases and a Cigar string
+	 * @param reference the reference sequence of the read, which covers its alignment
+	 * @return the MD tag, or null if the Cigar string does not match the read length
+	 */
+	public static String computeMD(SAMRecord read, PackedSequence reference) {
+		byte [] bases = read.getReadBases();
+		if (read.getCigar().getReadLength() != bases.length) {
+			return null;
+		}
+		
+		StringBuilder md = new StringBuilder();
+		int matches = 0;
+		int readPosition = 0;
+		int referencePosition = read.getAlignmentStart() - 1;
+		
+		List<CigarElement> cigarList = read.getCigar().getCigarElements();
+		int cigarListSize = cigarList.size();
+		for (int i=0; i<cigarListSize; i++) {
+			CigarElement element = cigarList.get(i);
+			int length = element.getLength();
+			switch (element.getOperator()) {
+			case M:
+			case EQ:
+			case X:
+				for (int j=0; j<length; j++) {
+					char referenceBase = reference.baseAt(referencePosition + j);
+					char base = Character.toUpperCase((char)bases[readPosition + j]);
+					if (base == '=' || (base == referenceBase && referenceBase != 'N')) {
+						matches++;
+					}
+					else {
+						md.append(matches).append(referenceBase);
+						matches = 0;
+					}
+				}
+				readPosition += length;
+				referencePosition += length;
+				break;
+			case D:
+				md.append(matches).append('^');
+				for (int j=0; j<length; j++) {
+					md.append(reference.baseAt(referencePosition + j));
+				}
+				matches = 0;
+				referencePosition += length;
+				break;
+			case N:
+				referencePosition += length;
+				break;
+			case I:
+			case S:
+				readPosition += length;
+				break;
+			default:
+				// Hard clips and paddings are neither in the read nor in the reference
+				break;
+			}
+		}
+		md.append(matches);
+		return md.toString();
+	}
+	
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Utilities;
+
+/**
+ * Measures how much a distribution changed between two snapshots. This is 
+ * used to decide whether a distribution has converged.
+ */
+public class DistributionChange {
+
+	/**
+	 * Computes the total variation distance between two histograms, after normalising
+	 * each of them to 1. The histograms can have different lengths, missing bins being 0.
+	 * @param previous the previous counts
+	 * @param current the current counts
+	 * @return the distance between 0 and 1. This is 1 if there is no previous histogram or if only
+	 * one of them is empty, and 0 if both are empty.
+	 */
+	public static double totalVariation(double[] previous, double[] current) {
+		if (previous == null || current == null) return 1d;
+		double previousTotal = 0d, currentTotal = 0d;
+		for (int i=0; i<previous.length; i++) previousTotal += previous[i];
+		for (int i=0; i<current.length; i++) currentTotal += current[i];
+		if (previousTotal == 0d && currentTotal == 0d) return 0d;
+		if (previousTotal == 0d || currentTotal == 0d) return 1d;
+
+		double distance = 0d;
+		int length = Math.max(previous.length, current.length);
+		for (int i=0; i<length; i++) {
+			double p = i < previous.length ? previous[i] / previousTotal : 0d;
+			double q = i < current.length ? current[i] / currentTotal : 0d;
+			distance += Math.abs(p - q);
+		}
+		return distance / 2d;
+	}
+
+	/**
+	 * Computes the relative change between two rates.
+	 * @return |current - previous| / max(previous, current), 0 if both are 0
+	 */
+	public static double relativeChange(double previous, double current) {
+		double max = Math.max(Math.abs(previous), Math.abs(current));
+		if (max == 0d) return 0d;
+		return Math.min(1d, Math.abs(current - previous) / max);
+	}
+
+}
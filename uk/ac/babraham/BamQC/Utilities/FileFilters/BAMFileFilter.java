@@ -36,7 +36,7 @@ public class BAMFileFilter extends FileFilter {
 
 	@Override
 	public boolean accept(File f) {
-		if (f.isDirectory() || f.getName().toLowerCase().endsWith(".bam") || f.getName().toLowerCase().endsWith(".sam")) {
+		if (f.isDirectory() || f.getName().toLowerCase().endsWith(".bam") || f.getName().toLowerCase().endsWith(".sam") || f.getName().toLowerCase().endsWith(".sam.gz") || f.getName().toLowerCase().endsWith(".sam.bz2") || f.getName().toLowerCase().endsWith(".cram")) {
 			return true;
 		}
 		return false;
@@ -44,7 +44,7 @@ public class BAMFileFilter extends FileFilter {
 
 	@Override
 	public String getDescription() {
-		return "BAM/SAM Files";
+		return "BAM/SAM/CRAM Files";
 	}
 
 }
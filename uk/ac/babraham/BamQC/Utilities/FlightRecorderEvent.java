@@ -0,0 +1,172 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Utilities;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Java Flight Recorder events marking the phases of an analysis, so that the recordings 
+ * made with -XX:StartFlightRecording show where the time goes. Every event carries the 
+ * name of the file, a detail (e.g. the module name), a number of records and a number of bytes.
+ * 
+ * BamQC still runs on JVMs without JFR, so the jdk.jfr API is only used by reflection and the 
+ * event types are defined at runtime with jdk.jfr.EventFactory. Without JFR, or when an event 
+ * is disabled in the recording settings, begin() returns null and commit() does nothing.
+ * 
+ * <pre>
+ * Object event = FlightRecorderEvent.ANNOTATION_PARSE.begin();
+ * ...
+ * FlightRecorderEvent.commit(event, file.getName(), null, features, file.length());
+ * </pre>
+ */
+public class FlightRecorderEvent {
+
+	private static Logger log = Logger.getLogger(FlightRecorderEvent.class);
+
+	private static final String PREFIX = "uk.ac.babraham.BamQC.";
+
+	// The jdk.jfr methods, or null if JFR is not available
+	private static Method newEvent = null;
+	private static Method isEnabled = null;
+	private static Method begin = null;
+	private static Method end = null;
+	private static Method shouldCommit = null;
+	private static Method set = null;
+	private static Method commit = null;
+
+	public static final FlightRecorderEvent ANNOTATION_PARSE = new FlightRecorderEvent("AnnotationParse", "Annotation Parse", "Parsing of the GTF/GFF file or of the genome annotation");
+	public static final FlightRecorderEvent INDEX_BUILD = new FlightRecorderEvent("IndexBuild", "Index Build", "Building the position index of the annotation features");
+	public static final FlightRecorderEvent READ_BATCH = new FlightRecorderEvent("ReadBatch", "Record Read Batch", "Reading a batch of records from the file");
+	public static final FlightRecorderEvent MODULE_BATCH = new FlightRecorderEvent("ModuleBatch", "Module Processing Batch", "Processing a batch of records by the annotation and the modules");
+	public static final FlightRecorderEvent CHECKPOINT = new FlightRecorderEvent("Checkpoint", "Checkpoint Write", "Saving the state of the analysis to resume it later");
+	public static final FlightRecorderEvent CACHE_FLUSH = new FlightRecorderEvent("AnnotationCacheFlush", "Annotation Cache Flush", "Sorting and annotating the cached reads");
+	public static final FlightRecorderEvent REPORT_RENDER = new FlightRecorderEvent("ReportRender", "Module Report Rendering", "Writing the report of a module");
+	public static final FlightRecorderEvent PNG_ENCODE = new FlightRecorderEvent("PngEncode", "PNG Encode", "Encoding a report image");
+	public static final FlightRecorderEvent ZIP_WRITE = new FlightRecorderEvent("ZipWrite", "Zip Write", "Writing an entry of the report archive");
+
+	// The jdk.jfr.EventFactory of this event type, or null
+	private Object factory = null;
+
+	private FlightRecorderEvent(String name, String label, String description) {
+		try {
+			factory = createFactory(name, label, description);
+		}
+		catch (Throwable t) {
+			// JFR is not available, which is expected before Java 9
+			if (log.isDebugEnabled()) log.debug("Flight recorder event " + name + " not available: " + t);
+			factory = null;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object createFactory(String name, String label, String description) throws Exception {
+		Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+		Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+		Class nameAnnotation = Class.forName("jdk.jfr.Name");
+		Class labelAnnotation = Class.forName("jdk.jfr.Label");
+		Class descriptionAnnotation = Class.forName("jdk.jfr.Description");
+		Class categoryAnnotation = Class.forName("jdk.jfr.Category");
+		Class dataAmountAnnotation = Class.forName("jdk.jfr.DataAmount");
+
+		Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+		Constructor<?> newValue = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+		List<Object> annotations = new ArrayList<Object>();
+		annotations.add(newAnnotation.newInstance(nameAnnotation, PREFIX + name));
+		annotations.add(newAnnotation.newInstance(labelAnnotation, label));
+		annotations.add(newAnnotation.newInstance(descriptionAnnotation, description));
+		annotations.add(newAnnotation.newInstance(categoryAnnotation, new String[]{"BamQC"}));
+
+		List<Object> fields = new ArrayList<Object>();
+		fields.add(newValue.newInstance(String.class, "file", Arrays.asList(newAnnotation.newInstance(labelAnnotation, "File"))));
+		fields.add(newValue.newInstance(String.class, "detail", Arrays.asList(newAnnotation.newInstance(labelAnnotation, "Detail"))));
+		fields.add(newValue.newInstance(long.class, "records", Arrays.asList(newAnnotation.newInstance(labelAnnotation, "Records"))));
+		fields.add(newValue.newInstance(long.class, "bytes", Arrays.asList(newAnnotation.newInstance(labelAnnotation, "Bytes"),
+				newAnnotation.newInstance(dataAmountAnnotation, "BYTES"))));
+
+		Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+
+		if (newEvent == null) {
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			isEnabled = event.getMethod("isEnabled");
+			begin = event.getMethod("begin");
+			end = event.getMethod("end");
+			shouldCommit = event.getMethod("shouldCommit");
+			set = event.getMethod("set", int.class, Object.class);
+			commit = event.getMethod("commit");
+			newEvent = eventFactory.getMethod("newEvent");
+		}
+		return factory;
+	}
+
+	/**
+	 * Starts an event of this type.
+	 * @return the event, or null if JFR is not available or the event is not recorded
+	 */
+	public Object begin() {
+		if (factory == null) return null;
+		try {
+			Object event = newEvent.invoke(factory);
+			if (!((Boolean)isEnabled.invoke(event)).booleanValue()) return null;
+			begin.invoke(event);
+			return event;
+		}
+		catch (Exception e) {
+			log.debug("Cannot start flight recorder event", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Ends and records an event returned by begin().
+	 * @param event the event, which can be null
+	 * @param file the name of the file being analysed, or null
+	 * @param detail a detail such as the module name, or null
+	 * @param records the number of records
+	 * @param bytes the number of bytes
+	 */
+	public static void commit(Object event, String file, String detail, long records, long bytes) {
+		if (event == null) return;
+		try {
+			end.invoke(event);
+			if (!((Boolean)shouldCommit.invoke(event)).booleanValue()) return;
+			set.invoke(event, 0, file);
+			set.invoke(event, 1, detail);
+			set.invoke(event, 2, records);
+			set.invoke(event, 3, bytes);
+			commit.invoke(event);
+		}
+		catch (Exception e) {
+			log.debug("Cannot commit flight recorder event", e);
+		}
+	}
+
+}
@@ -135,6 +135,21 @@ public class FormatNumber {
 		return String.valueOf(1.0d*number);
 	}
 	
+	/**
+	 * Formats a duration for the progress messages, e.g. 1 h 05 min, 3 min 20 s, 12 s.
+	 * @param seconds the duration in seconds
+	 * @return the formatted duration
+	 */
+	public static String formatDuration(long seconds) {
+		if (seconds >= 3600) {
+			return String.format("%d h %02d min", seconds / 3600, (seconds % 3600) / 60);
+		}
+		if (seconds >= 60) {
+			return String.format("%d min %02d s", seconds / 60, seconds % 60);
+		}
+		return seconds + " s";
+	}
+	
 	public static void main (String [] args) {
 		double d = 2;
 		System.out.println("First Significant Decimal Position for " + d + ": " + getFirstSignificantNonNullDecimalPosition(d));
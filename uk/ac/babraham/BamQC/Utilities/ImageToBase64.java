@@ -20,7 +20,11 @@ public class ImageToBase64 {
 		OutputStream b64 = new Base64.OutputStream(os);
 		
 		try {	
+			Object event = FlightRecorderEvent.PNG_ENCODE.begin();
 			ImageIO.write(b, "PNG", b64);
+			// writes the last, incomplete, block
+			b64.close();
+			FlightRecorderEvent.commit(event, null, "base64", 1, os.size());
 		
 			return("data:image/png;base64,"+os.toString("UTF-8"));
 		}
@@ -31,5 +35,11 @@ public class ImageToBase64 {
 		
 	}
 	
+	/**
+	 * Returns the data URI of an image which is already encoded in PNG.
+	 */
+	public static String pngToBase64 (byte [] png) {
+		return "data:image/png;base64,"+Base64.encodeBytes(png);
+	}
 	
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright Copyright 2010-14 Simon Andrews
+ *
+ *    This file is part of BamQC.
+ *
+ *    BamQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    BamQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with BamQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+/*
+ * Changelog:
+ * - Class creation.
+ */
+package uk.ac.babraham.BamQC.Utilities;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the messages logged for the events which can happen once per read.
+ * Only the first occurrences of each event are logged, the others are counted
+ * and reported once at the end of the analysis. Each analysis has its own 
+ * limiter, so that the analyses running at the same time do not use up each 
+ * other's messages. The caller tests shouldLog() before building the message,
+ * so that a suppressed message costs nothing:
+ *
+ * <pre>
+ * if (logLimiter.shouldLog(MISSING_MD)) log.info("Read " + name + " does not have MD string.");
+ * </pre>
+ */
+public class LogLimiter {
+
+	/** The number of occurrences of each event which are logged. */
+	public static final int LOGGED_OCCURRENCES = 5;
+
+	private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Counts an occurrence of the event and returns whether it should be logged.
+	 * @param event a constant description of the event, used in the summary
+	 * @return true for the first LOGGED_OCCURRENCES occurrences of the event
+	 */
+	public boolean shouldLog(String event) {
+		AtomicLong count = counts.get(event);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = counts.putIfAbsent(event, newCount);
+			if (count == null) count = newCount;
+		}
+		return count.incrementAndGet() <= LOGGED_OCCURRENCES;
+	}
+
+	/**
+	 * Returns the number of occurrences of the event since the last summary.
+	 */
+	public long count(String event) {
+		AtomicLong count = counts.get(event);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Logs the number of occurrences of the events which were not all logged,
+	 * and restarts the counts.
+	 * @param log the logger receiving the summary
+	 * @param name the name of the analysed file
+	 */
+	public void logSummary(Logger log, String name) {
+		Iterator<Map.Entry<String, AtomicLong>> it = counts.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, AtomicLong> entry = it.next();
+			long count = entry.getValue().get();
+			if (count > LOGGED_OCCURRENCES) {
+				log.warn(name + ": " + entry.getKey() + ": " + count + " occurrences, only the first " + LOGGED_OCCURRENCES + " were logged.");
+			}
+			it.remove();
+		}
+	}
+
+}